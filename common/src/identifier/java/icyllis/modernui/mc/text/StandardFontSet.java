@@ -187,8 +187,9 @@ public class StandardFontSet extends FontSet {
                         (int) mStandardPaint.getFontSize(),
                         codePoint
                 );
-                var textureView = GlyphManager.getInstance().getCurrentTexture(bitmapFont);
                 if (glyph != null) {
+                    // bitmap fonts share the paged bitmap atlas
+                    var textureView = GlyphManager.getInstance().getCurrentTexture(bitmapFont, glyph.page);
                     float up = TextLayout.STANDARD_BASELINE_OFFSET +
                             (float) glyph.y / TextLayoutEngine.BITMAP_SCALE;
                     float left = (float) glyph.x / TextLayoutEngine.BITMAP_SCALE;
@@ -122,6 +122,19 @@ public final class TextRenderType {
             .withDepthBias(-1.0F, -10.0F)
             .build();
 
+    // distance field textures, see GlyphManager#DISTANCE_FIELD_SPREAD
+    public static final RenderPipeline PIPELINE_DF_FILL = withFragmentShader(
+            withLocation(RenderPipeline.builder(PIPELINE_SDF_SNIPPET), "pipeline/modern_text_df_fill"),
+            "core/rendertype_modern_text_df_fill")
+            .withDepthBias(-1.0F, -10.0F)
+            .build();
+
+    public static final RenderPipeline PIPELINE_DF_STROKE = withFragmentShader(
+            withLocation(RenderPipeline.builder(PIPELINE_SDF_SNIPPET), "pipeline/modern_text_df_stroke"),
+            "core/rendertype_modern_text_df_stroke")
+            .withDepthBias(-1.0F, -10.0F)
+            .build();
+
     /*public static final ShaderProgram SHADER_NORMAL = new ShaderProgram(
             ModernUIMod.location("core/rendertype_modern_text_normal"),
             DefaultVertexFormat.POSITION_COLOR_TEX_LIGHTMAP,
@@ -389,8 +402,12 @@ public final class TextRenderType {
                 GL33C.glBindSampler(0, 0);
             }
         });*/
+        // distance field textures encode distances rather than coverage, and have no mipmaps
+        RenderPipeline pipeline = GlyphManager.getInstance().isDistanceFieldTexture(texture)
+                ? PIPELINE_DF_FILL
+                : sCurrentPipelineSDFFill;
         Object renderType = MuiModApi.get().createRenderType("modern_text_sdf_fill", 256,
-                false, true, sCurrentPipelineSDFFill,
+                false, true, pipeline,
                 getOrRegisterTextureId(texture),
                 SDF_SAMPLER,
                 true);
@@ -425,8 +442,12 @@ public final class TextRenderType {
                 GL33C.glBindSampler(0, 0);
             }
         });*/
+        // distance field textures encode distances rather than coverage, and have no mipmaps
+        RenderPipeline pipeline = GlyphManager.getInstance().isDistanceFieldTexture(texture)
+                ? PIPELINE_DF_STROKE
+                : sCurrentPipelineSDFStroke;
         Object renderType = MuiModApi.get().createRenderType("modern_text_sdf_stroke", 256,
-                false, true, sCurrentPipelineSDFStroke,
+                false, true, pipeline,
                 getOrRegisterTextureId(texture),
                 SDF_SAMPLER,
                 true);
@@ -504,15 +504,21 @@ public final class Config {
         public final ConfigItem<Double> mOutlineOffset;
         public final ConfigItem<Double> mBitmapOffset;
         public final ConfigItem<Integer> mCacheLifespan;
+        public final ConfigItem<Integer> mCacheBudget;
         public final ConfigItem<TextDirection> mTextDirection;
         public final ConfigItem<Boolean> mUseTextShadersInWorld;
         public final ConfigItem<DefaultFontBehavior> mDefaultFontBehavior;
         public final ConfigItem<List<? extends String>> mDefaultFontRuleSet;
         public final ConfigItem<Boolean> mUseComponentCache;
         public final ConfigItem<Boolean> mAllowAsyncLayout;
+        public final ConfigItem<Integer> mAsyncLayoutThreshold;
         public final ConfigItem<LineBreakStyle> mLineBreakStyle;
         public final ConfigItem<LineBreakWordStyle> mLineBreakWordStyle;
         public final ConfigItem<Boolean> mSmartSDFShaders;
+        public final ConfigItem<Boolean> mDistanceFieldText;
+        public final ConfigItem<Boolean> mCacheWorldTextMeshes;
+        public final ConfigItem<Double> mWorldTextProxyThreshold;
+        public final ConfigItem<Double> mWorldTextCullThreshold;
         public final ConfigItem<Boolean> mComputeDeviceFontSize;
         public final ConfigItem<Boolean> mAllowSDFTextIn2D;
         public final ConfigItem<Boolean> mTweakExperienceText;
@@ -520,6 +526,8 @@ public final class Config {
         public final ConfigItem<Boolean> mLinearMetrics;
         public final ConfigItem<Integer> mMinPixelDensityForSDF;
         public final ConfigItem<Boolean> mLinearSamplingA8Atlas;
+        public final ConfigItem<Integer> mGlyphDiskCacheSize;
+        public final ConfigItem<Integer> mGlyphPrewarmLimit;
 
         public volatile boolean mLoaded;
         public volatile boolean mPropagate;
@@ -533,15 +541,21 @@ public final class Config {
             mOutlineOffset = get(map, "mOutlineOffset");
             mBitmapOffset = get(map, "mBitmapOffset");
             mCacheLifespan = get(map, "mCacheLifespan");
+            mCacheBudget = get(map, "mCacheBudget");
             mTextDirection = get(map, "mTextDirection");
             mUseTextShadersInWorld = get(map, "mUseTextShadersInWorld");
             mDefaultFontBehavior = get(map, "mDefaultFontBehavior");
             mDefaultFontRuleSet = get(map, "mDefaultFontRuleSet");
             mUseComponentCache = get(map, "mUseComponentCache");
             mAllowAsyncLayout = get(map, "mAllowAsyncLayout");
+            mAsyncLayoutThreshold = get(map, "mAsyncLayoutThreshold");
             mLineBreakStyle = get(map, "mLineBreakStyle");
             mLineBreakWordStyle = get(map, "mLineBreakWordStyle");
             mSmartSDFShaders = get(map, "mSmartSDFShaders");
+            mDistanceFieldText = get(map, "mDistanceFieldText");
+            mCacheWorldTextMeshes = get(map, "mCacheWorldTextMeshes");
+            mWorldTextProxyThreshold = get(map, "mWorldTextProxyThreshold");
+            mWorldTextCullThreshold = get(map, "mWorldTextCullThreshold");
             mComputeDeviceFontSize = get(map, "mComputeDeviceFontSize");
             mAllowSDFTextIn2D = get(map, "mAllowSDFTextIn2D");
             mTweakExperienceText = get(map, "mTweakExperienceText");
@@ -549,6 +563,8 @@ public final class Config {
             mLinearMetrics = get(map, "mLinearMetrics");
             mMinPixelDensityForSDF = get(map, "mMinPixelDensityForSDF");
             mLinearSamplingA8Atlas = get(map, "mLinearSamplingA8Atlas");
+            mGlyphDiskCacheSize = get(map, "mGlyphDiskCacheSize");
+            mGlyphPrewarmLimit = get(map, "mGlyphPrewarmLimit");
         }
 
         public void reload() {
@@ -586,6 +602,7 @@ public final class Config {
                 reload = true;
             }*/
             TextLayoutEngine.sCacheLifespan = mCacheLifespan.get();
+            TextLayoutEngine.sCacheBudget = mCacheBudget.get();
             /*TextLayoutEngine.sRehashThreshold = mRehashThreshold.get();*/
             if (TextLayoutEngine.sTextDirection != mTextDirection.get().key) {
                 TextLayoutEngine.sTextDirection = mTextDirection.get().key;
@@ -603,6 +620,7 @@ public final class Config {
             TextLayoutEngine.sRawUseTextShadersInWorld = mUseTextShadersInWorld.get();
             TextLayoutEngine.sUseComponentCache = mUseComponentCache.get();
             TextLayoutEngine.sAllowAsyncLayout = mAllowAsyncLayout.get();
+            TextLayoutEngine.sAsyncLayoutThreshold = mAsyncLayoutThreshold.get();
             if (TextLayoutProcessor.sLbStyle != mLineBreakStyle.get().key) {
                 TextLayoutProcessor.sLbStyle = mLineBreakStyle.get().key;
                 reload = true;
@@ -614,6 +632,10 @@ public final class Config {
 
             final boolean smartShaders = mSmartSDFShaders.get();
             reload |= TextRenderType.toggleSDFShaders(smartShaders);
+            GlyphManager.sDistanceFieldText = mDistanceFieldText.get();
+            TextLayout.sCacheWorldTextMeshes = mCacheWorldTextMeshes.get();
+            ModernTextRenderer.sWorldTextProxyThreshold = mWorldTextProxyThreshold.get().floatValue();
+            ModernTextRenderer.sWorldTextCullThreshold = mWorldTextCullThreshold.get().floatValue();
 
             ModernTextRenderer.sComputeDeviceFontSize = mComputeDeviceFontSize.get();
             ModernTextRenderer.sAllowSDFTextIn2D = mAllowSDFTextIn2D.get();
@@ -635,6 +657,11 @@ public final class Config {
                 GLFontAtlas.sLinearSamplingA8Atlas = mLinearSamplingA8Atlas.get();
                 reloadStrike = true;
             }
+            if (GlyphManager.sDiskCacheSize != mGlyphDiskCacheSize.get()) {
+                GlyphManager.sDiskCacheSize = mGlyphDiskCacheSize.get();
+                reloadStrike = true;
+            }
+            GlyphManager.sPrewarmGlyphLimit = mGlyphPrewarmLimit.get();
             /*if (GLFontAtlas.sLinearSampling != mLinearSampling.get()) {
                 GLFontAtlas.sLinearSampling = mLinearSampling.get();
                 reload = true;
@@ -0,0 +1,220 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc;
+
+import icyllis.modernui.annotation.RenderThread;
+import icyllis.modernui.mc.text.GlyphManager;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.server.packs.resources.ResourceManager;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static icyllis.modernui.mc.ModernUIMod.LOGGER;
+
+/**
+ * Prebuilt emoji sheets, generated from the emoji PNGs of Modern UI at build time by
+ * the packEmojiSheets task of the common project.
+ * <p>
+ * A sheet is a file of independently deflated RGBA images of 72x72, laid one after
+ * another, and the index records the file name, sheet and range of each emoji.
+ * Sheets are read into memory once on resource reload, then the image of an emoji
+ * is inflated straight into the upload buffer of the emoji atlas, without decoding
+ * PNGs. Emojis that are provided by another pack than the sheets, such as a resource
+ * pack replacing some emoji images, are excluded and loaded from their PNGs.
+ * <p>
+ * The index format (big-endian):
+ * <pre>
+ * int      magic
+ * int      version
+ * ushort   image size
+ * ushort   sheet count
+ * int      emoji count
+ * entry[]  {UTF file name, ushort sheet, int offset, int length}
+ * </pre>
+ *
+ * @see FontResourceManager#loadEmojis
+ */
+public final class EmojiSheets {
+
+    public static final int MAGIC = 0x4D554553; // 'MUES'
+    public static final int VERSION = 1;
+
+    /**
+     * Max emojis per sheet, about 5MB when uncompressed.
+     */
+    public static final int EMOJIS_PER_SHEET = 256;
+
+    public static final String DIRECTORY = "emoji/sheets/";
+    public static final String INDEX_FILE = "index.bin";
+    public static final String SHEET_FILE = "sheet_%d.bin";
+
+    // compressed sheets
+    private final byte[][] mSheets;
+    // the pack that provides the sheets
+    private final String mSourcePackId;
+    // file name to entry index
+    private final Object2IntOpenHashMap<String> mEntries;
+    // {sheet, offset, length} for each entry
+    private final int[] mLocations;
+
+    private Inflater mInflater;
+
+    private EmojiSheets(byte[][] sheets, String sourcePackId, List<String> fileNames, int[] locations) {
+        mSheets = sheets;
+        mSourcePackId = sourcePackId;
+        mEntries = new Object2IntOpenHashMap<>(fileNames.size());
+        mEntries.defaultReturnValue(-1);
+        for (int i = 0; i < fileNames.size(); i++) {
+            mEntries.putIfAbsent(fileNames.get(i), i);
+        }
+        mLocations = locations;
+    }
+
+    /**
+     * Load the prebuilt sheets from resources.
+     *
+     * @return the sheets, or null if there is no index or it is invalid
+     */
+    // ASYNC
+    @Nullable
+    public static EmojiSheets load(@Nonnull ResourceManager resources) {
+        var index = resources.getResource(ModernUIMod.location(DIRECTORY + INDEX_FILE));
+        if (index.isEmpty()) {
+            return null;
+        }
+        try (var stream = new DataInputStream(new BufferedInputStream(index.get().open()))) {
+            if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+                LOGGER.warn(GlyphManager.MARKER, "Emoji sheet index is not supported");
+                return null;
+            }
+            int imageSize = stream.readUnsignedShort();
+            if (imageSize != GlyphManager.EMOJI_SIZE) {
+                LOGGER.warn(GlyphManager.MARKER, "Emoji sheets are not {}x{}: {}",
+                        GlyphManager.EMOJI_SIZE, GlyphManager.EMOJI_SIZE, imageSize);
+                return null;
+            }
+            int sheetCount = stream.readUnsignedShort();
+            int count = stream.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid emoji count " + count);
+            }
+            var fileNames = new ArrayList<String>(count);
+            var locations = new int[count * 3];
+            for (int i = 0; i < count; i++) {
+                fileNames.add(stream.readUTF());
+                locations[i * 3] = stream.readUnsignedShort();
+                locations[i * 3 + 1] = stream.readInt();
+                locations[i * 3 + 2] = stream.readInt();
+            }
+            var sheets = new byte[sheetCount][];
+            for (int i = 0; i < sheetCount; i++) {
+                try (var sheet = resources.open(ModernUIMod.location(
+                        DIRECTORY + String.format(Locale.ROOT, SHEET_FILE, i)))) {
+                    sheets[i] = sheet.readAllBytes();
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int sheet = locations[i * 3];
+                int offset = locations[i * 3 + 1];
+                int length = locations[i * 3 + 2];
+                if (sheet >= sheetCount || offset < 0 || length <= 0 ||
+                        offset > sheets[sheet].length - length) {
+                    throw new IOException("Invalid emoji location " + fileNames.get(i));
+                }
+            }
+            LOGGER.info(GlyphManager.MARKER, "Loaded {} emoji sheets, {} emojis",
+                    sheetCount, count);
+            return new EmojiSheets(sheets, index.get().sourcePackId(), fileNames, locations);
+        } catch (IOException e) {
+            LOGGER.warn(GlyphManager.MARKER, "Failed to load emoji sheets", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the ID of the pack that provides the sheets
+     */
+    @Nonnull
+    public String getSourcePackId() {
+        return mSourcePackId;
+    }
+
+    /**
+     * Exclude an emoji whose image is provided by another pack, {@link #getImage} will
+     * return false for it. This must be called before the sheets are published.
+     *
+     * @param fileName the emoji file name, e.g. 1f600.png
+     */
+    // ASYNC
+    public void exclude(@Nonnull String fileName) {
+        mEntries.removeInt(fileName);
+    }
+
+    /**
+     * Inflate the RGBA image of an emoji into the given buffer, which must have
+     * at least 72x72x4 bytes remaining from position 0. The buffer will be cleared.
+     *
+     * @param fileName the emoji file name
+     * @param dst      the destination buffer
+     * @return true on success, false if not found or the data is corrupted
+     */
+    @RenderThread
+    public boolean getImage(@Nonnull String fileName, @Nonnull ByteBuffer dst) {
+        int i = mEntries.getInt(fileName);
+        if (i < 0) {
+            return false;
+        }
+        final int size = GlyphManager.EMOJI_SIZE * GlyphManager.EMOJI_SIZE * 4;
+        if (mInflater == null) {
+            mInflater = new Inflater();
+        }
+        final Inflater inflater = mInflater;
+        inflater.reset();
+        inflater.setInput(mSheets[mLocations[i * 3]], mLocations[i * 3 + 1], mLocations[i * 3 + 2]);
+        dst.clear().limit(size);
+        try {
+            while (dst.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(dst) == 0 &&
+                        (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            return !dst.hasRemaining();
+        } catch (DataFormatException e) {
+            LOGGER.warn(GlyphManager.MARKER, "Corrupted emoji in sheets: {}", fileName, e);
+            return false;
+        } finally {
+            dst.clear();
+        }
+    }
+
+    // SYNC
+    public void close() {
+        if (mInflater != null) {
+            mInflater.end();
+            mInflater = null;
+        }
+    }
+}
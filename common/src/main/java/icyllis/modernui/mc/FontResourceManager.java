@@ -67,6 +67,7 @@ public class FontResourceManager implements PreparableReloadListener {
     public static final int BITMAP_SCALE = 8;
 
     protected EmojiFont mEmojiFont;
+    protected EmojiSheets mEmojiSheets;
 
     /**
      * Shortcodes to Emoji char sequences.
@@ -147,6 +148,7 @@ public class FontResourceManager implements PreparableReloadListener {
 
     public static class LoadResults {
         public volatile EmojiFont mEmojiFont;
+        public volatile EmojiSheets mEmojiSheets;
         public volatile Map<String, String> mEmojiShortcodes = Collections.emptyMap();
         public volatile Map<Character, List<String>> mPrefixedEmojiShortcodes = Collections.emptyMap();
     }
@@ -155,6 +157,10 @@ public class FontResourceManager implements PreparableReloadListener {
     protected void applyResources(@Nonnull LoadResults results) {
         // reload emojis
         mEmojiFont = results.mEmojiFont;
+        if (mEmojiSheets != null && mEmojiSheets != results.mEmojiSheets) {
+            mEmojiSheets.close();
+        }
+        mEmojiSheets = results.mEmojiSheets;
         mEmojiShortcodes.clear();
         mEmojiShortcodes.putAll(results.mEmojiShortcodes);
         mPrefixedEmojiShortcodes.clear();
@@ -177,14 +183,26 @@ public class FontResourceManager implements PreparableReloadListener {
                                      @Nonnull LoadResults results) {
         final var map = new Object2IntOpenHashMap<CharSequence>();
         final var files = new ArrayList<String>();
-        CYCLE:
-        for (var image : resources.listResources("emoji",
-                res -> res.getPath().endsWith(".png")).keySet()) {
+        // prefer prebuilt sheets, there's no need to decode each image
+        final var sheets = EmojiSheets.load(resources);
+        final var fileNames = new ArrayList<String>();
+        for (var entry : resources.listResources("emoji",
+                res -> res.getPath().endsWith(".png")).entrySet()) {
+            var image = entry.getKey();
             var path = image.getPath().split("/");
             if (path.length == 0) {
                 continue;
             }
             var fileName = path[path.length - 1];
+            fileNames.add(fileName);
+            if (sheets != null && image.getNamespace().equals(ModernUI.ID) &&
+                    !entry.getValue().sourcePackId().equals(sheets.getSourcePackId())) {
+                // a higher priority pack replaces or adds this image, load it from the file
+                sheets.exclude(fileName);
+            }
+        }
+        CYCLE:
+        for (var fileName : fileNames) {
             var codes = fileName.substring(0, fileName.length() - 4).split("_");
             int length = codes.length;
             if (length == 0) {
@@ -222,6 +240,7 @@ public class FontResourceManager implements PreparableReloadListener {
         LOGGER.info(GlyphManager.MARKER, "Scanned emoji map size: {}",
                 map.size());
         if (!files.isEmpty()) {
+            results.mEmojiSheets = sheets;
             var coverage = new IntOpenHashSet(1478);
             EmojiData._populateEmojiFontCoverage_(coverage);
             results.mEmojiFont = new EmojiFont("Google Noto Color Emoji",
@@ -287,6 +306,14 @@ public class FontResourceManager implements PreparableReloadListener {
         return mEmojiFont;
     }
 
+    /**
+     * @return the prebuilt emoji sheets, or null to decode emoji images one by one
+     */
+    @Nullable
+    public EmojiSheets getEmojiSheets() {
+        return mEmojiSheets;
+    }
+
     /**
      * Lookup Emoji char sequence from shortcode with colons.
      *
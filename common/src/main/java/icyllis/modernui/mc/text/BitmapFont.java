@@ -21,18 +21,8 @@ package icyllis.modernui.mc.text;
 import com.google.gson.JsonParseException;
 import com.mojang.blaze3d.font.GlyphInfo;
 import com.mojang.blaze3d.textures.FilterMode;
-import com.mojang.blaze3d.textures.GpuTextureView;
 import icyllis.arc3d.core.PixelUtils;
-import icyllis.arc3d.core.RawPtr;
-import icyllis.arc3d.engine.Engine;
-import icyllis.arc3d.engine.ISurface;
-import icyllis.arc3d.engine.ImageDesc;
-import icyllis.arc3d.engine.ImmediateContext;
-import icyllis.arc3d.opengl.GLCaps;
-import icyllis.arc3d.opengl.GLDevice;
-import icyllis.arc3d.opengl.GLTexture;
 import icyllis.arc3d.sketch.Typeface;
-import icyllis.modernui.core.Core;
 import icyllis.modernui.graphics.Bitmap;
 import icyllis.modernui.graphics.BitmapFactory;
 import icyllis.modernui.graphics.MathUtil;
@@ -40,11 +30,10 @@ import icyllis.modernui.graphics.Rect;
 import icyllis.modernui.graphics.text.Font;
 import icyllis.modernui.graphics.text.FontMetricsInt;
 import icyllis.modernui.graphics.text.FontPaint;
-import icyllis.modernui.mc.MuiModApi;
-import icyllis.modernui.mc.b3d.GlTexture_Wrapped;
 import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
 import net.minecraft.client.gui.font.providers.BitmapProvider;
 import net.minecraft.server.packs.resources.ResourceManager;
 import org.jetbrains.annotations.Unmodifiable;
@@ -75,14 +64,12 @@ import static icyllis.modernui.mc.ModernUIMod.LOGGER;
 public class BitmapFont implements Font, AutoCloseable {
 
     /**
-     * Minecraft allows 256x256 bitmap font texture at most. However, we only want to
-     * stitch small glyphs into the texture atlas, as we only have one 4096x4096 atlas.
-     * Otherwise, we will create a dedicated texture for the bitmap font.
+     * Minecraft allows 256x256 bitmap font texture at most. Glyphs of all bitmap fonts,
+     * including large ones, are packed into the shared bitmap atlas of {@link GlyphManager},
+     * so there is no texture switch between bitmap fonts on the same atlas page.
      * <p>
-     * This value must be less than {@link GlyphManager#IMAGE_SIZE}.
-     */
-    public static final int MAX_ATLAS_DIMENSION = 128;
-    /**
+     * This value must not be greater than {@link GlyphManager#IMAGE_SIZE}.
+     *
      * @see net.minecraft.client.gui.font.FontTexture#SIZE
      */
     @SuppressWarnings("JavadocReference")
@@ -95,12 +82,7 @@ public class BitmapFont implements Font, AutoCloseable {
     private Bitmap mBitmap;
     private final Int2ObjectOpenHashMap<Glyph> mGlyphs = new Int2ObjectOpenHashMap<>();
 
-    // used if mSpriteWidth or mSpriteHeight > MAX_ATLAS_DIMENSION
-    @RawPtr
-    private GLTexture mTexture; // lazy init, managed by wrapper
-    private GlTexture_Wrapped mTextureWrapper = null;
-    private GpuTextureView mTextureWrapperView = null;
-    private Int2ObjectOpenHashMap<GLBakedGlyph> mBakedGlyphs;
+    private int mNumDrawableGlyphs;
 
     private final int mAscent;  // positive
     private final int mDescent; // positive
@@ -126,11 +108,6 @@ public class BitmapFont implements Font, AutoCloseable {
         boolean isEmpty = height <= 0 || mSpriteWidth <= 0 || mSpriteHeight <= 0 ||
                 mSpriteWidth > FONT_TEXTURE_SIZE || mSpriteHeight > FONT_TEXTURE_SIZE ||
                 bitmap.getWidth() > Short.MAX_VALUE || bitmap.getHeight() > Short.MAX_VALUE;
-        boolean useDedicatedTexture = !isEmpty &&
-                (mSpriteWidth > MAX_ATLAS_DIMENSION || mSpriteHeight > MAX_ATLAS_DIMENSION);
-        if (useDedicatedTexture) {
-            mBakedGlyphs = new Int2ObjectOpenHashMap<>();
-        }
 
         int numEmptyGlyphs = 0;
         for (int r = 0; r < rows; r++) {
@@ -154,24 +131,15 @@ public class BitmapFont implements Font, AutoCloseable {
                     LOGGER.warn(GlyphManager.MARKER, "Codepoint '{}' declared multiple times in {}",
                             Integer.toHexString(ch), mName);
                 }
-                if (useDedicatedTexture) {
-                    GLBakedGlyph bakedGlyph = new GLBakedGlyph();
-                    setGlyphMetrics(bakedGlyph);
-                    // always create 256x256 texture
-                    bakedGlyph.u1 = (float) (c * mSpriteWidth) / getTextureWidth();
-                    bakedGlyph.v1 = (float) (r * mSpriteHeight) / getTextureHeight();
-                    bakedGlyph.u2 = (float) (c * mSpriteWidth + mSpriteWidth) / getTextureWidth();
-                    bakedGlyph.v2 = (float) (r * mSpriteHeight + mSpriteHeight) / getTextureHeight();
-                    mBakedGlyphs.put(ch, bakedGlyph);
-                }
             }
         }
+        mNumDrawableGlyphs = cols * rows - numEmptyGlyphs;
 
-        if (isEmpty || numEmptyGlyphs == (cols * rows)) {
-            // nothing to render, free the bitmap and empty the atlas holder
+        if (isEmpty || mNumDrawableGlyphs <= 0) {
+            // nothing to render, free the bitmap
             mBitmap.close();
             mBitmap = null;
-            mBakedGlyphs = null;
+            mNumDrawableGlyphs = 0;
         }
     }
 
@@ -218,61 +186,11 @@ public class BitmapFont implements Font, AutoCloseable {
         return i + 1;
     }
 
-    // create texture from bitmap on render thread
-    private void createTexture() {
-        assert mBitmap != null;
-        ImmediateContext context = Core.requireImmediateContext();
-        ImageDesc desc = context.getCaps().getDefaultColorImageDesc(
-                Engine.ImageType.k2D,
-                mBitmap.getColorType(),
-                getTextureWidth(),
-                getTextureHeight(),
-                1,
-                ISurface.FLAG_SAMPLED_IMAGE
-        );
-        Objects.requireNonNull(desc);
-        mTexture = (GLTexture) context
-                .getResourceProvider()
-                .findOrCreateImage(
-                        desc,
-                        true,
-                        mName.toString()
-                );
-        if (mTexture == null) {
-            LOGGER.error(GlyphManager.MARKER, "Failed to create font texture for {}", mName);
-            return;
-        }
-        boolean res = ((GLDevice) context.getDevice()).writePixels(
-                mTexture, 0, 0, mBitmap.getWidth(), mBitmap.getHeight(),
-                mBitmap.getColorType(), mBitmap.getColorType(),
-                mBitmap.getRowBytes(), mBitmap.getAddress()
-        );
-        assert res;
-
-        /*int boundTexture = GL33C.glGetInteger(GL33C.GL_TEXTURE_BINDING_2D);
-        GL33C.glBindTexture(GL33C.GL_TEXTURE_2D, mTexture.getHandle());
-
-        GL33C.glTexParameteri(GL33C.GL_TEXTURE_2D, GL33C.GL_TEXTURE_MAG_FILTER, GL33C.GL_NEAREST);
-        GL33C.glTexParameteri(GL33C.GL_TEXTURE_2D, GL33C.GL_TEXTURE_MIN_FILTER, GL33C.GL_NEAREST);
-
-        GL33C.glBindTexture(GL33C.GL_TEXTURE_2D, boundTexture);*/
-
-        mTextureWrapper = new GlTexture_Wrapped(mTexture); // transfer ownership
-        mTextureWrapperView = MuiModApi.get().getRealGpuDevice().createTextureView(mTextureWrapper);
-    }
-
-    public void dumpAtlas(int index, String path) {
+    public void dumpInfo(int index) {
         LOGGER.info(GlyphManager.MARKER, "BitmapFont {}: {}, ascent: {}, descent: {}, numGlyphs: {}, " +
-                        "nothingToDraw: {}, fitsInAtlas: {}, dedicatedTexture: {}",
+                        "numDrawableGlyphs: {}, spriteSize: {}x{}, nothingToDraw: {}",
                 index, mName, getAscent(), getDescent(), mGlyphs.size(),
-                nothingToDraw(), fitsInAtlas(), mTexture);
-        if (path != null && mTexture != null && Core.isOnRenderThread()) {
-            GLFontAtlas.dumpAtlas(
-                    (GLCaps) Core.requireImmediateContext().getCaps(),
-                    mTexture,
-                    Bitmap.Format.RGBA_8888,
-                    path);
-        }
+                mNumDrawableGlyphs, mSpriteWidth, mSpriteHeight, nothingToDraw());
     }
 
     @Override
@@ -310,23 +228,23 @@ public class BitmapFont implements Font, AutoCloseable {
     }
 
     /**
-     * True to use a texture atlas that is managed by {@link GlyphManager},
-     * false to use a dedicated texture that is managed by this instance.
+     * Collect code points of glyphs that have pixels, used to pack the bitmap atlas
+     * on resource reload.
      */
-    public boolean fitsInAtlas() {
-        return mBakedGlyphs == null;
-    }
-
-    private int getTextureWidth() {
-        assert mBitmap != null;
-        // create 256x256 texture at least
-        return Math.max(mBitmap.getWidth(), FONT_TEXTURE_SIZE);
+    public void getDrawableGlyphs(@Nonnull IntCollection out) {
+        if (mBitmap == null) {
+            return;
+        }
+        for (var it = mGlyphs.int2ObjectEntrySet().fastIterator(); it.hasNext(); ) {
+            var e = it.next();
+            if (!e.getValue().isEmpty) {
+                out.add(e.getIntKey());
+            }
+        }
     }
 
-    private int getTextureHeight() {
-        assert mBitmap != null;
-        // create 256x256 texture at least
-        return Math.max(mBitmap.getHeight(), FONT_TEXTURE_SIZE);
+    public int getNumDrawableGlyphs() {
+        return mNumDrawableGlyphs;
     }
 
     @SuppressWarnings("ConstantValue")
@@ -363,28 +281,6 @@ public class BitmapFont implements Font, AutoCloseable {
         return true;
     }
 
-    /**
-     * Called by {@link GlyphManager} to fetch the dedicated texture info.
-     */
-    // Render thread only
-    @Nullable
-    public GLBakedGlyph getBakedGlyph(int ch) {
-        assert mBitmap != null && mBakedGlyphs != null;
-        GLBakedGlyph glyph = mBakedGlyphs.get(ch);
-        if (glyph != null && mTexture == null) {
-            createTexture();
-        }
-        return glyph;
-    }
-
-    /**
-     * Called by {@link GlyphManager} to fetch the dedicated texture info.
-     */
-    // Render thread only
-    public GpuTextureView getCurrentTexture() {
-        return mTexture != null ? mTextureWrapperView : null;
-    }
-
     // positive
     public int getAscent() {
         return mAscent;
@@ -517,13 +413,6 @@ public class BitmapFont implements Font, AutoCloseable {
             mBitmap.close();
             mBitmap = null;
         }
-        if (mTexture != null) {
-            mTextureWrapperView.close();
-            mTextureWrapper.close();
-            mTexture = null;
-            mTextureWrapper = null;
-            mTextureWrapperView = null;
-        }
     }
 
     public static class Glyph implements GlyphInfo {
@@ -0,0 +1,280 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2024 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe layout cache shared by threads other than the render thread,
+ * such as mods measuring text on worker threads. It uses the same key types as
+ * {@link TextLayoutCache}, lookup keys must be confined to the calling thread
+ * and stable keys must be used for insertion.
+ * <p>
+ * Reads are lock-free. The total weight is bounded by {@link #setMaximum(long)},
+ * overflow is resolved by a CLOCK hand (second chance) that persists across calls,
+ * so each eviction costs amortized O(1).
+ *
+ * @see TextLayoutEngine
+ */
+public class ConcurrentLayoutCache {
+
+    /**
+     * Max number of entries examined by the clock hand per {@link #tick(int)}.
+     */
+    private static final int SWEEP_STEPS = 256;
+    /**
+     * Layouts that have not been accessed for this many seconds release their
+     * decoded arrays, only the packed buffer remains.
+     */
+    private static final int TRIM_DELAY = 2;
+
+    private final ConcurrentHashMap<Object, Entry> mMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong mWeightedSize = new AtomicLong();
+    private volatile long mMaximum;
+
+    /**
+     * Incremented on clear, layouts computed with an old generation are discarded.
+     */
+    private volatile int mGeneration;
+    /**
+     * Elapsed time in seconds, for lifespan expiration.
+     */
+    private volatile int mTime;
+
+    private final LongAdder mHitCount = new LongAdder();
+    private final LongAdder mMissCount = new LongAdder();
+
+    // guarded by this
+    private Iterator<Entry> mClockHand;
+
+    public ConcurrentLayoutCache(long maximum) {
+        mMaximum = maximum;
+    }
+
+    public void setMaximum(long maximum) {
+        if (mMaximum != maximum) {
+            mMaximum = maximum;
+            if (mWeightedSize.get() > maximum) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(Object, TextLayout, int)}
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached layout and records the access.
+     *
+     * @param key a lookup key or a stable key
+     * @return the cached layout or null
+     */
+    @Nullable
+    public TextLayout get(@Nonnull Object key) {
+        Entry entry = mMap.get(key);
+        if (entry == null) {
+            mMissCount.increment();
+            return null;
+        }
+        mHitCount.increment();
+        // benign races, these are only hints for eviction
+        entry.mReferenced = true;
+        entry.mLastAccess = mTime;
+        return entry.mLayout;
+    }
+
+    /**
+     * Inserts or replaces a layout, unless the cache was cleared since the given
+     * generation was obtained.
+     *
+     * @param key        a stable key
+     * @param layout     the layout to cache
+     * @param generation the generation when layout computation started
+     */
+    public void put(@Nonnull Object key, @Nonnull TextLayout layout, int generation) {
+        assert layout != TextLayout.EMPTY;
+        if (generation != mGeneration) {
+            return;
+        }
+        // pack before publishing
+        layout.pack();
+        int weight = TextLayoutCache.weigh(key, layout);
+        if (weight > mMaximum) {
+            return;
+        }
+        Entry entry = new Entry(key, layout, weight, mTime);
+        Entry old = mMap.put(key, entry);
+        long size = mWeightedSize.addAndGet(weight);
+        if (old != null) {
+            size = release(old);
+        }
+        if (generation != mGeneration) {
+            // cleared concurrently after the check above, the clear may have missed this entry
+            remove(entry);
+            return;
+        }
+        if (size > mMaximum) {
+            evict();
+        }
+    }
+
+    /**
+     * Advances the clock by one second and expires a bounded number of entries
+     * that were not accessed in the given lifespan, idle entries are trimmed to
+     * their packed form. Examined entries are weighed again, as layouts inflate
+     * when drawn and deflate when trimmed. This is called on the render thread.
+     *
+     * @param lifespan time in seconds
+     */
+    public synchronized void tick(int lifespan) {
+        int time = ++mTime;
+        for (int i = 0; i < SWEEP_STEPS && !mMap.isEmpty(); i++) {
+            Entry entry = advance();
+            if (entry == null) {
+                continue;
+            }
+            int idle = time - entry.mLastAccess;
+            if (idle > lifespan) {
+                remove(entry);
+            } else {
+                if (idle >= TRIM_DELAY) {
+                    entry.mLayout.trim();
+                }
+                reweigh(entry);
+            }
+        }
+        if (mWeightedSize.get() > mMaximum) {
+            evict();
+        }
+    }
+
+    public void clear() {
+        mGeneration++;
+        for (Entry entry : mMap.values()) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return mMap.size();
+    }
+
+    /**
+     * @return the total weight of entries in bytes
+     */
+    public long weightedSize() {
+        return mWeightedSize.get();
+    }
+
+    public long getHitCount() {
+        return mHitCount.sum();
+    }
+
+    public long getMissCount() {
+        return mMissCount.sum();
+    }
+
+    private synchronized void evict() {
+        // each entry gets a second chance, so two full cycles at most
+        int steps = mMap.size() * 2 + 1;
+        while (mWeightedSize.get() > mMaximum && steps-- > 0) {
+            Entry entry = advance();
+            if (entry == null) {
+                continue;
+            }
+            if (entry.mReferenced) {
+                entry.mReferenced = false;
+            } else {
+                remove(entry);
+            }
+        }
+    }
+
+    // guarded by this
+    @Nullable
+    private Entry advance() {
+        Iterator<Entry> hand = mClockHand;
+        if (hand == null || !hand.hasNext()) {
+            // weakly consistent, restart from the beginning
+            mClockHand = hand = mMap.values().iterator();
+            if (!hand.hasNext()) {
+                return null;
+            }
+        }
+        return hand.next();
+    }
+
+    private void remove(@Nonnull Entry entry) {
+        if (mMap.remove(entry.mKey, entry)) {
+            release(entry);
+        }
+    }
+
+    // called once the entry is no longer mapped, returns the new total weight
+    private long release(@Nonnull Entry entry) {
+        synchronized (entry) {
+            entry.mRemoved = true;
+            return mWeightedSize.addAndGet(-entry.mWeight);
+        }
+    }
+
+    private void reweigh(@Nonnull Entry entry) {
+        int weight = TextLayoutCache.weigh(entry.mKey, entry.mLayout);
+        synchronized (entry) {
+            // a removed entry has already given its weight back
+            if (!entry.mRemoved && weight != entry.mWeight) {
+                mWeightedSize.addAndGet(weight - entry.mWeight);
+                entry.mWeight = weight;
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final Object mKey;
+        final TextLayout mLayout;
+
+        // guarded by this
+        int mWeight;
+        boolean mRemoved;
+
+        boolean mReferenced;
+        int mLastAccess;
+
+        Entry(Object key, TextLayout layout, int weight, int time) {
+            mKey = key;
+            mLayout = layout;
+            mWeight = weight;
+            mLastAccess = time;
+        }
+    }
+}
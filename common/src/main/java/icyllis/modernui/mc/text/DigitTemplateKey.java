@@ -0,0 +1,181 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Style;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Key of {@link DigitTemplateLayout}. The hashCode() and equals() methods consider all
+ * ASCII digits to be equal, as long as they are at the same index within the string and
+ * not following a section sign. Therefore, strings which only differ in their digits
+ * will be all hashed together into the same entry.
+ *
+ * @see VanillaLayoutKey
+ * @see TextLayoutEngine#COMPUTE_DIGIT_TEMPLATE
+ */
+public class DigitTemplateKey {
+
+    /**
+     * A reference of the String which this Key is indexing.
+     * This string contains {@link ChatFormatting} codes.
+     */
+    private String mText;
+
+    /**
+     * A reference to the font set which this Key is decorated.
+     *
+     * @see Style#getFont()
+     */
+    private Object mFont;
+
+    /**
+     * A packed field that contains RGB color and appearance-affecting bit flags
+     * which this Key is decorated.
+     *
+     * @see CharacterStyle#flatten(Style)
+     */
+    private int mCode;
+
+    /**
+     * Cached hash code, recalculate when zero.
+     */
+    private int mHash;
+
+    public DigitTemplateKey() {
+    }
+
+    /**
+     * Copy constructor
+     */
+    private DigitTemplateKey(@Nonnull DigitTemplateKey key) {
+        mText = key.mText;
+        mFont = key.mFont;
+        mCode = key.mCode;
+        mHash = key.mHash;
+    }
+
+    /**
+     * Update this key.
+     *
+     * @param text the string
+     */
+    public DigitTemplateKey update(@Nonnull String text, @Nonnull Style style) {
+        mText = text;
+        mFont = TextLayoutProcessor.resolveFontId(style.getFont());
+        mCode = CharacterStyle.flatten(style);
+        mHash = 0;
+        return this;
+    }
+
+    /**
+     * Computes a hash code on str in the same manner as the String class,
+     * except all ASCII digits hash as '0'
+     *
+     * @return the augmented hash code on str
+     */
+    @Override
+    public int hashCode() {
+        int h = mHash;
+
+        if (h == 0) {
+            final String s = mText;
+
+            // true if a section mark character was last seen. In this case, if the next character
+            // is a digit, it must not be considered equal to any other digit. This forces any string
+            // that differs in formatting codes only to have a separate entry in the cache.
+            boolean prefix = false;
+            for (int i = 0, e = s.length(); i < e; i++) {
+                char c = s.charAt(i);
+                if (!prefix && c <= '9' && c >= '0') {
+                    c = '0';
+                }
+                h = 31 * h + c;
+                prefix = !prefix && c == ChatFormatting.PREFIX_CODE;
+            }
+
+            h = 31 * h + mFont.hashCode();
+            h = 31 * h + mCode;
+            mHash = h;
+        }
+
+        return h;
+    }
+
+    /**
+     * All ASCII digits are considered equal by this method, as long as they are at the same
+     * index within the string and not following a section sign.
+     *
+     * @return true if the strings are the identical, or only differ in their ASCII digits
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o.getClass() != DigitTemplateKey.class) {
+            return false;
+        }
+        DigitTemplateKey key = (DigitTemplateKey) o;
+
+        if (mCode != key.mCode) {
+            return false;
+        }
+        if (!mFont.equals(key.mFont)) {
+            return false;
+        }
+
+        final String s1 = mText;
+        final String s2 = key.mText;
+
+        final int length = s1.length();
+
+        if (length != s2.length()) {
+            return false;
+        }
+
+        boolean prefix = false;
+        for (int i = 0; i < length; i++) {
+            char c1 = s1.charAt(i);
+            char c2 = s2.charAt(i);
+            if (c1 != c2 && (prefix || c1 > '9' || c1 < '0' || c2 > '9' || c2 < '0')) {
+                return false;
+            }
+            prefix = !prefix && c1 == ChatFormatting.PREFIX_CODE;
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "DigitTemplateKey{" +
+                "mText=" + mText +
+                ", mFont=" + mFont +
+                ", mCode=" + mCode +
+                ", mHash=" + mHash +
+                '}';
+    }
+
+    /**
+     * Returns a copy of this key.
+     */
+    public DigitTemplateKey copy() {
+        return new DigitTemplateKey(this);
+    }
+}
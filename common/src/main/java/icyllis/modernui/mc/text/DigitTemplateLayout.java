@@ -0,0 +1,305 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.modernui.graphics.MathUtil;
+import icyllis.modernui.graphics.text.Font;
+import icyllis.modernui.util.SparseArray;
+import net.minecraft.ChatFormatting;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * A layout shaped with all ASCII digits replaced by '0', shared by all strings that
+ * only differ in their digits (coordinates on the F3 screen, timers, scoreboards).
+ * Digits are tabular, each digit occupies the advance of '0', so positions of other
+ * glyphs do not depend on the actual digits. The actual digit glyphs are substituted
+ * when a string is bound to this template, baked glyphs of the template and the ten
+ * digits are cached, so binding performs no shaping and no glyph lookup.
+ * <p>
+ * This layout itself renders all digits as '0', use {@link #bind(String)}.
+ *
+ * @see TextLayoutEngine#COMPUTE_DIGIT_TEMPLATE
+ * @see DigitTemplateKey
+ */
+public final class DigitTemplateLayout extends TextLayout {
+
+    /**
+     * Ordinal of the digit in the stripped string, or -1 if the glyph is not a digit.
+     * Same indexing with {@link #getGlyphs()}.
+     */
+    private final int[] mDigitOrdinals;
+    private final int mDigitCount;
+
+    /**
+     * The font and glyph IDs of digits '0' to '9'.
+     */
+    private final Font mDigitFont;
+    private final int[] mDigitGlyphs;
+    /**
+     * Position x1 y1 x2 y2... of digits '0' to '9' relative to '0', centered in the
+     * advance of '0'. Scaled to Minecraft GUI coordinates.
+     */
+    private final float[] mDigitOffsets;
+
+    private transient SparseArray<GLBakedGlyph[]> mBakedDigits;
+
+    /**
+     * Max number of recently bound layouts kept per template.
+     */
+    private static final int MAX_RECENT_BOUNDS = 4;
+
+    // recently bound layouts, and the digits of the string being bound, render thread only
+    private transient Bound[] mRecentBounds;
+    private transient int mNextBound;
+    private transient char[] mDigitBuffer;
+
+    DigitTemplateLayout(@Nonnull char[] textBuf, @Nonnull int[] glyphs,
+                        @Nonnull float[] positions, @Nullable byte[] fontIndices,
+                        @Nonnull Font[] fonts, @Nullable float[] advances,
+                        @Nonnull int[] glyphFlags, @Nullable int[] lineBoundaries,
+                        float totalAdvance, @Nullable TextEffectSpans effectSpans, boolean hasColorEmoji,
+                        int createdResLevel, int computedFlags,
+                        @Nonnull int[] digitOrdinals, int digitCount,
+                        @Nonnull Font digitFont, @Nonnull int[] digitGlyphs,
+                        @Nonnull float[] digitOffsets) {
+        super(textBuf, glyphs, positions, fontIndices, fonts, advances, glyphFlags,
+                lineBoundaries, totalAdvance, effectSpans, hasColorEmoji,
+                createdResLevel, computedFlags);
+        mDigitOrdinals = digitOrdinals;
+        mDigitCount = digitCount;
+        mDigitFont = digitFont;
+        mDigitGlyphs = digitGlyphs;
+        mDigitOffsets = digitOffsets;
+        assert digitOrdinals.length == glyphs.length;
+        assert digitGlyphs.length == 10 && digitOffsets.length == 20;
+    }
+
+    /**
+     * Returns a layout of the given string, which must be equal to the string that
+     * created this template according to {@link DigitTemplateKey}. The returned
+     * layout shares all arrays except glyphs, positions and chars with this template.
+     * <p>
+     * The last few bound layouts are reused if the digits are equal, so a string that is
+     * drawn every frame but changes less often does not allocate. Bound layouts are
+     * immutable, as they may be held by prepared text until the end of the frame.
+     * This is called on the render thread.
+     *
+     * @param text the source text, may contain formatting codes
+     * @return a layout with the actual digits
+     */
+    @Nonnull
+    public TextLayout bind(@Nonnull String text) {
+        // the same rule as StringDecomposer, skip formatting codes
+        char[] digits = mDigitBuffer;
+        if (digits == null) {
+            mDigitBuffer = digits = new char[mDigitCount];
+        }
+        int count = 0;
+        for (int i = 0, e = text.length(); i < e; i++) {
+            char c = text.charAt(i);
+            if (c == ChatFormatting.PREFIX_CODE) {
+                i++;
+            } else if (c <= '9' && c >= '0') {
+                if (count == digits.length) {
+                    break;
+                }
+                digits[count++] = c;
+            }
+        }
+        if (count != digits.length) {
+            // not the same template, should not happen
+            return this;
+        }
+        Bound[] recentBounds = mRecentBounds;
+        if (recentBounds == null) {
+            mRecentBounds = recentBounds = new Bound[MAX_RECENT_BOUNDS];
+        }
+        for (Bound bound : recentBounds) {
+            if (bound != null && Arrays.equals(bound.mDigits, digits)) {
+                return bound;
+            }
+        }
+        // the buffer is reused, the bound layout keeps its own copy
+        digits = digits.clone();
+
+        final char[] textBuf = getTextBuf().clone();
+        for (int i = 0, j = 0; i < textBuf.length; i++) {
+            // all digits in the template are '0'
+            if (textBuf[i] == '0') {
+                textBuf[i] = digits[j++];
+            }
+        }
+        final int[] glyphs = getGlyphs().clone();
+        final float[] positions = getPositions().clone();
+        final int[] glyphFlags = getGlyphFlags();
+        for (int i = 0; i < glyphs.length; i++) {
+            int ordinal = mDigitOrdinals[i];
+            if (ordinal >= 0 && (glyphFlags[i] & CharacterStyle.OBFUSCATED_MASK) == 0) {
+                int d = digits[ordinal] - '0';
+                glyphs[i] = mDigitGlyphs[d];
+                positions[i << 1] += mDigitOffsets[d << 1];
+                positions[i << 1 | 1] += mDigitOffsets[d << 1 | 1];
+            }
+        }
+        final Bound bound = new Bound(this, textBuf, glyphs, positions, digits);
+        recentBounds[mNextBound] = bound;
+        mNextBound = (mNextBound + 1) % MAX_RECENT_BOUNDS;
+        return bound;
+    }
+
+    @Override
+    void releaseBakedGlyphs() {
+        super.releaseBakedGlyphs();
+        mBakedDigits = null;
+    }
+
+    /**
+     * Baked glyphs of digits '0' to '9' at the given font size.
+     */
+    @Nonnull
+    GLBakedGlyph[] getDigitGlyphs(int fontSize) {
+        if (mBakedDigits == null) {
+            mBakedDigits = new SparseArray<>();
+        }
+        GLBakedGlyph[] glyphs = mBakedDigits.get(fontSize);
+        if (glyphs == null) {
+            GlyphManager glyphManager = GlyphManager.getInstance();
+            glyphs = new GLBakedGlyph[10];
+            for (int d = 0; d < 10; d++) {
+                glyphs[d] = glyphManager.lookupGlyph(mDigitFont, fontSize, mDigitGlyphs[d]);
+            }
+            mBakedDigits.put(fontSize, glyphs);
+        }
+        return glyphs;
+    }
+
+    @Override
+    public int getMemorySize() {
+        int m = super.getMemorySize();
+        m += 16 + MathUtil.align8(mDigitOrdinals.length << 2);
+        m += 16 + MathUtil.align8(10 << 2);
+        m += 16 + MathUtil.align8(20 << 2);
+        if (mBakedDigits != null) {
+            m += (16 + MathUtil.align8(10 << 2)) * mBakedDigits.size();
+        }
+        final Bound[] recentBounds = mRecentBounds;
+        if (recentBounds != null) {
+            m += 16 + MathUtil.align8(MAX_RECENT_BOUNDS << 2);
+            for (Bound bound : recentBounds) {
+                if (bound != null) {
+                    // shares the other arrays with this template
+                    m += bound.getBoundMemorySize();
+                }
+            }
+        }
+        return m + 32;
+    }
+
+    /**
+     * A template bound to actual digits, baked glyphs are derived from the template.
+     */
+    private static final class Bound extends TextLayout {
+
+        private final DigitTemplateLayout mTemplate;
+        private final char[] mDigits;
+
+        // the last substitution
+        private GLBakedGlyph[] mSource;
+        private GLBakedGlyph[] mResult;
+
+        Bound(@Nonnull DigitTemplateLayout template, @Nonnull char[] textBuf,
+              @Nonnull int[] glyphs, @Nonnull float[] positions, @Nonnull char[] digits) {
+            super(textBuf, glyphs, positions, template.getFontIndices(),
+                    template.getFontVector(), template.getAdvances(),
+                    template.getGlyphFlags(), template.getLineBoundaries(),
+                    template.getTotalAdvance(), template.getEffectSpans(), template.hasColorEmoji(),
+                    template.mCreatedResLevel, template.mComputedFlags);
+            mTemplate = template;
+            mDigits = digits;
+        }
+
+        /**
+         * @return memory size of arrays that are not shared with the template
+         */
+        int getBoundMemorySize() {
+            final int glyphCount = getGlyphCount();
+            int m = 16 + MathUtil.align8(getTextBuf().length << 1);
+            m += 16 + MathUtil.align8(glyphCount << 2);
+            m += 16 + MathUtil.align8(glyphCount << 3);
+            m += 16 + MathUtil.align8(mDigits.length << 1);
+            if (mResult != null) {
+                m += 16 + MathUtil.align8(mResult.length << 2);
+            }
+            return m + 64;
+        }
+
+        @Nonnull
+        @Override
+        GLBakedGlyph[] getGlyphs(int resLevel) {
+            return substitute(mTemplate.getGlyphs(resLevel),
+                    TextLayoutProcessor.computeFontSize(resLevel));
+        }
+
+        @Nonnull
+        @Override
+        GLBakedGlyph[] getGlyphsForSDF(int resLevel) {
+            return substitute(mTemplate.getGlyphsForSDF(resLevel),
+                    TextLayoutProcessor.computeFontSize(resLevel));
+        }
+
+        @Nullable
+        @Override
+        GLBakedGlyph[] getGlyphsForDistanceField() {
+            // digit glyphs are normal glyphs
+            return null;
+        }
+
+        @Nonnull
+        @Override
+        GLBakedGlyph[] getGlyphsUniformScale(float density) {
+            return substitute(mTemplate.getGlyphsUniformScale(density),
+                    TextLayoutProcessor.computeFontSize(density));
+        }
+
+        @Nonnull
+        private GLBakedGlyph[] substitute(@Nonnull GLBakedGlyph[] source, int fontSize) {
+            if (source == mSource) {
+                // shadow and foreground
+                return mResult;
+            }
+            final DigitTemplateLayout template = mTemplate;
+            final GLBakedGlyph[] digitGlyphs = template.getDigitGlyphs(fontSize);
+            final int[] ordinals = template.mDigitOrdinals;
+            final int[] glyphFlags = getGlyphFlags();
+            final GLBakedGlyph[] result = source.clone();
+            for (int i = 0; i < result.length; i++) {
+                int ordinal = ordinals[i];
+                if (ordinal >= 0 && (glyphFlags[i] & CharacterStyle.OBFUSCATED_MASK) == 0) {
+                    result[i] = digitGlyphs[mDigits[ordinal] - '0'];
+                }
+            }
+            mSource = source;
+            mResult = result;
+            return result;
+        }
+    }
+}
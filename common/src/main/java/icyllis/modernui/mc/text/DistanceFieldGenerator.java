@@ -0,0 +1,153 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Generates signed distance fields from anti-aliased glyph coverage, using 8-point
+ * signed sequential Euclidean distance transform (8SSEDT). Pixels next to the edge
+ * use their coverage to estimate the sub-pixel distance.
+ * <p>
+ * Distances are encoded into A8, 127.5 is on the edge, greater values are inside,
+ * and <var>spread</var> pixels map to half the range. The distance field text shaders
+ * (rendertype_modern_text_df_*) decode this back to pixels, so that they share the
+ * bias and outline width of the SDF text shaders for coverage glyphs.
+ * <p>
+ * Each instance owns its working buffers, so it should be confined to a thread.
+ *
+ * @see GlyphManager
+ */
+final class DistanceFieldGenerator {
+
+    // larger than any squared distance in a glyph image
+    private static final int FAR = 1 << 13;
+
+    // nearest offsets (dx, dy) to the pixels inside and outside the glyph
+    private int[] mInside = new int[0];
+    private int[] mOutside = new int[0];
+
+    /**
+     * Generate the distance field of a coverage image. The image should have a transparent
+     * border of at least <var>spread</var> pixels, off-image pixels are treated as far.
+     *
+     * @param coverage the A8 coverage, row-major without padding, 128 or greater is inside
+     * @param width    the image width
+     * @param height   the image height
+     * @param spread   the max distance in pixels that can be represented
+     * @return the A8 distance field of the same size
+     */
+    @Nonnull
+    byte[] generate(@Nonnull byte[] coverage, int width, int height, int spread) {
+        final int size = width * height;
+        if (mInside.length < size << 1) {
+            mInside = new int[size << 1];
+            mOutside = new int[size << 1];
+        }
+        final int[] inside = mInside;
+        final int[] outside = mOutside;
+        for (int i = 0; i < size; i++) {
+            boolean in = (coverage[i] & 0xFF) >= 128;
+            // distance to the nearest inside pixel is zero for inside pixels
+            inside[i << 1] = in ? 0 : FAR;
+            inside[i << 1 | 1] = in ? 0 : FAR;
+            outside[i << 1] = in ? FAR : 0;
+            outside[i << 1 | 1] = in ? FAR : 0;
+        }
+        transform(inside, width, height);
+        transform(outside, width, height);
+
+        final byte[] result = new byte[size];
+        final float scale = 127.5f / spread;
+        for (int i = 0; i < size; i++) {
+            final float dist;
+            int a = coverage[i] & 0xFF;
+            if (a >= 128) {
+                dist = distance(outside, i) - 0.5f;
+            } else {
+                dist = 0.5f - distance(inside, i);
+            }
+            final float d;
+            if (a != 0 && a != 255 && Math.abs(dist) <= 0.5f) {
+                // on the edge, coverage is roughly linear to the distance
+                d = a / 255f - 0.5f;
+            } else {
+                d = dist;
+            }
+            int v = (int) (127.5f + d * scale + 0.5f);
+            result[i] = (byte) Math.max(0, Math.min(255, v));
+        }
+        return result;
+    }
+
+    private static float distance(@Nonnull int[] grid, int i) {
+        int dx = grid[i << 1];
+        int dy = grid[i << 1 | 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Two passes of 8SSEDT, propagate nearest offsets from neighbors.
+     */
+    private static void transform(@Nonnull int[] grid, int width, int height) {
+        // pass 0, top to bottom
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                compare(grid, width, height, x, y, -1, 0);
+                compare(grid, width, height, x, y, 0, -1);
+                compare(grid, width, height, x, y, -1, -1);
+                compare(grid, width, height, x, y, 1, -1);
+            }
+            for (int x = width - 1; x >= 0; x--) {
+                compare(grid, width, height, x, y, 1, 0);
+            }
+        }
+        // pass 1, bottom to top
+        for (int y = height - 1; y >= 0; y--) {
+            for (int x = width - 1; x >= 0; x--) {
+                compare(grid, width, height, x, y, 1, 0);
+                compare(grid, width, height, x, y, 0, 1);
+                compare(grid, width, height, x, y, -1, 1);
+                compare(grid, width, height, x, y, 1, 1);
+            }
+            for (int x = 0; x < width; x++) {
+                compare(grid, width, height, x, y, -1, 0);
+            }
+        }
+    }
+
+    private static void compare(@Nonnull int[] grid, int width, int height,
+                                int x, int y, int offsetX, int offsetY) {
+        final int nx = x + offsetX;
+        final int ny = y + offsetY;
+        if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+            return;
+        }
+        final int n = (ny * width + nx) << 1;
+        final int dx = grid[n] + offsetX;
+        final int dy = grid[n | 1] + offsetY;
+        final int i = (y * width + x) << 1;
+        final int cx = grid[i];
+        final int cy = grid[i | 1];
+        if (dx * dx + dy * dy < cx * cx + cy * cy) {
+            grid[i] = dx;
+            grid[i | 1] = dy;
+        }
+    }
+}
@@ -71,6 +71,16 @@ public class GLBakedGlyph {
      */
     public float v2;
 
+    /**
+     * The index of the atlas page (texture) that texture coordinates refer to.
+     */
+    public int page;
+
+    /**
+     * The frame this glyph was last used in, for LRU eviction in {@link GLFontAtlas}.
+     */
+    int lastUse;
+
     public GLBakedGlyph() {
         x = Integer.MIN_VALUE;
     }
@@ -85,6 +95,7 @@ public class GLBakedGlyph {
                 ",v1=" + v1 +
                 ",u2=" + u2 +
                 ",v2=" + v2 +
+                ",page=" + page +
                 '}';
     }
 }
@@ -21,7 +21,6 @@ package icyllis.modernui.mc.text;
 import com.mojang.blaze3d.textures.FilterMode;
 import com.mojang.blaze3d.textures.GpuTextureView;
 import icyllis.arc3d.core.ColorInfo;
-import icyllis.arc3d.core.MathUtil;
 import icyllis.arc3d.core.RawPtr;
 import icyllis.arc3d.core.Rect2i;
 import icyllis.arc3d.core.RectanglePacker;
@@ -40,15 +39,19 @@ import icyllis.modernui.mc.MuiModApi;
 import icyllis.modernui.mc.UtilCompat;
 import icyllis.modernui.mc.b3d.GlTexture_Wrapped;
 import icyllis.modernui.text.TextUtils;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.lwjgl.opengl.GL45C;
+import org.lwjgl.system.MemoryUtil;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
@@ -61,12 +64,23 @@ import static org.lwjgl.opengl.GL33C.*;
  * size). Glyphs are dynamically generated with mipmaps, each glyph is represented as
  * a {@link GLBakedGlyph}.
  * <p>
- * The initial texture size is 1024*1024, and each resize double the height and width
- * alternately. For example, 1024*1024 -> 1024*2048 -> 2048*2048.
- * Each 512*512 area becomes a chunk, and has its {@link RectanglePacker}.
- * The OpenGL texture ID will change due to expanding the texture size.
+ * The atlas consists of fixed-size pages, each page is a separate texture of
+ * 2048*2048 (A8) or 1024*1024 (ARGB), {@link GLBakedGlyph#page} is the index of the page
+ * that the UVs refer to. When all pages are full, a new page is allocated, nothing is
+ * copied and existing UVs and texture IDs remain valid. Pages that become empty after
+ * compaction are released, and their slots are reused later.
+ * Each 512*512 area of a page becomes a chunk, and has its {@link RectanglePacker}.
+ * <p>
+ * When the atlas is under pressure, the coldest chunks are compacted: glyphs used
+ * recently are copied to other chunks on the GPU and their UVs are updated in place,
+ * only glyphs that have been idle for a while are evicted.
  * <p>
  * For {@link Engine#MASK_FORMAT_ARGB}, we have non-premultiplied alpha.
+ * <p>
+ * Stitched glyph images are appended to a staging buffer, and uploaded to the texture
+ * in {@link #flush()}, glyphs stitched into the same chunk are merged into one region
+ * upload if possible. Mipmaps are regenerated before the texture is sampled, and only
+ * for chunks that have been uploaded to since then, see {@link #updateMipmaps()}.
  *
  * @see GlyphManager
  * @see GLBakedGlyph
@@ -79,6 +93,24 @@ public class GLFontAtlas implements AutoCloseable {
     // max texture size is 1024 at least
     // we compact texture at 1/4 max area
     public static final int CHUNK_SIZE = 512;
+    /**
+     * Max total area of all pages, in texels per dimension, i.e. 64MB at most.
+     */
+    public static final int MAX_AREA_SIZE_A8 = 8192;
+    public static final int MAX_AREA_SIZE_ARGB = 4096;
+    /**
+     * Size of the staging buffer in bytes, it is rewound after each flush.
+     */
+    public static final int STAGING_BUFFER_SIZE = 1 << 20;
+    /**
+     * A merged region can be at most this times larger than the total area of its glyphs.
+     */
+    public static final int MAX_REGION_FILL_RATIO = 4;
+    /**
+     * Glyphs that have not been used for this number of frames can be evicted,
+     * others are relocated when their chunk is compacted.
+     */
+    public static final int MAX_IDLE_FRAMES = 1200;
     /*
      * Max mipmap level.
      */
@@ -88,30 +120,63 @@ public class GLFontAtlas implements AutoCloseable {
     private final Long2ObjectOpenHashMap<GLBakedGlyph> mGlyphs = new Long2ObjectOpenHashMap<>();
     private final Long2IntOpenHashMap mGlyphChunkIndex = new Long2IntOpenHashMap();
 
-    // texture can change by resizing
-    @RawPtr
-    GLTexture mTexture = null; // managed by wrapper
-    GlTexture_Wrapped mTextureWrapper = null;
-    GpuTextureView mTextureWrapperView = null;
-
-    boolean mResizeRequested = false;
-
+    // a null entry is a released page, its slot and chunks can be reused
+    private final List<Page> mPages = new ArrayList<>();
     private final List<Chunk> mChunks = new ArrayList<>();
 
-    // current texture size
-    private int mWidth = 0;
-    private int mHeight = 0;
+    // page texture size
+    private final int mPageSize;
+    private final int mMaxPages;
 
     private final Rect2i mRect = new Rect2i();
+    private final Rect2i mTmpRect = new Rect2i();
+
+    // staging buffer and the region buffer for merged uploads, allocated on first use
+    private long mStagingBuffer;
+    private int mStagingOffset;
+    private long mRegionBuffer;
+    // x, y, width, height (including border), chunk index, staging offset
+    private final IntArrayList mPendingUploads = new IntArrayList();
+    private final LongArrayList mPendingKeys = new LongArrayList();
+    private final LongOpenHashSet mRegionKeys = new LongOpenHashSet();
+
+    // any chunk has dirty mipmaps
+    private boolean mMipmapsDirty;
+    // read and draw framebuffers for blitting mip levels
+    private int mMipmapReadFramebuffer;
+    private int mMipmapDrawFramebuffer;
+
+    private static final class Page {
+        @RawPtr
+        final GLTexture texture; // managed by wrapper
+        final GlTexture_Wrapped textureWrapper;
+        final GpuTextureView textureView;
+
+        private Page(GLTexture texture) {
+            this.texture = texture;
+            textureWrapper = new GlTexture_Wrapped(texture); // transfer ownership
+            textureView = MuiModApi.get().getRealGpuDevice().createTextureView(textureWrapper);
+        }
+
+        void close() {
+            textureView.close();
+            textureWrapper.close();
+        }
+    }
 
     private static final class Chunk {
+        final int page;
+        // relative to the page
         final int x;
         final int y;
         final RectanglePacker packer;
         final LongArrayList glyphKeys = new LongArrayList();
-        long lastUse;
+        boolean mipmapsDirty;
+        // being compacted, do not allocate
+        boolean compacting;
 
-        private Chunk(int x, int y, RectanglePacker packer) {
+        private Chunk(int page, int x, int y, RectanglePacker packer) {
+            this.page = page;
             this.x = x;
             this.y = y;
             this.packer = packer;
@@ -121,7 +186,6 @@ public class GLFontAtlas implements AutoCloseable {
     private final ImmediateContext mContext;
     private final int mMaskFormat;
     private final int mBorderWidth;
-    private final int mMaxTextureSize;
 
     // we prefer sComputeDeviceFontSize and sAllowSDFTextIn2D (i.e. direct mask)
     // then linear sampling on the font atlas is not necessary,
@@ -133,33 +197,49 @@ public class GLFontAtlas implements AutoCloseable {
      */
     private final boolean mLinearSampling;
 
-    // overflow and wrap
-    private int mLastCompactChunkIndex;
-    private long mChunkUseCounter;
+    private int mFrame;
+    // evicted by stitch(), invalidation callbacks are pending
+    private boolean mGlyphsEvicted;
 
     private boolean mWarnedHardCapEviction;
 
+    private long mAllocatedPages;
+    private long mReleasedPages;
     private long mGlyphCacheHits;
     private long mGlyphCacheMisses;
     private long mEvictedChunks;
     private long mEvictedGlyphs;
+    private long mRelocatedGlyphs;
     private long mStitchFailures;
 
+    private long mUploads;
+    private long mUploadedBytes;
+    private int mFrameUploads;
+    private int mLastFrameUploads;
+    private int mMaxFrameUploads;
+    private long mMipmapUpdates;
+    private long mChunkMipmapUpdates;
+
     @RenderThread
     public GLFontAtlas(ImmediateContext context, int maskFormat, int borderWidth,
                        boolean linearSampling) {
         mContext = context;
         mMaskFormat = maskFormat;
         mBorderWidth = borderWidth;
-        // 64MB at most
-        mMaxTextureSize = Math.min(
+        // 4 or 16 chunks per page
+        mPageSize = Math.min(
                 mContext.getMaxTextureSize(),
                 maskFormat == Engine.MASK_FORMAT_A8
-                        ? 8192
-                        : 4096
+                        ? CHUNK_SIZE * 4
+                        : CHUNK_SIZE * 2
         );
+        // 64MB at most
+        int pagesPerDim = (maskFormat == Engine.MASK_FORMAT_A8
+                ? MAX_AREA_SIZE_A8
+                : MAX_AREA_SIZE_ARGB) / mPageSize;
+        mMaxPages = pagesPerDim * pagesPerDim;
         mLinearSampling = linearSampling;
-        assert mMaxTextureSize >= 1024;
+        assert mPageSize >= 1024;
         assert mBorderWidth >= 0 && mBorderWidth <= 2;
         mGlyphChunkIndex.defaultReturnValue(-1);
     }
@@ -175,10 +255,15 @@ public class GLFontAtlas implements AutoCloseable {
     @Nullable
     public GLBakedGlyph getGlyph(long key) {
         var existing = mGlyphs.get(key);
-        if (existing != null || mGlyphs.containsKey(key)) {
+        if (existing != null) {
             mGlyphCacheHits++;
+            existing.lastUse = mFrame;
             return existing;
         }
+        if (mGlyphs.containsKey(key)) {
+            mGlyphCacheHits++;
+            return null;
+        }
         mGlyphCacheMisses++;
         // static factory
         var created = new GLBakedGlyph();
@@ -186,22 +271,25 @@ public class GLFontAtlas implements AutoCloseable {
         return created;
     }
 
+    /**
+     * @return true if the glyph is still the entry of the key, without updating stats
+     */
+    public boolean hasGlyph(long key, @NonNull GLBakedGlyph glyph) {
+        return mGlyphs.get(key) == glyph;
+    }
+
     public void setNoPixels(long key) {
         mGlyphs.put(key, null);
         mGlyphChunkIndex.put(key, -1);
     }
 
-    private boolean isAtHardCap() {
-        return mWidth == mMaxTextureSize && mHeight == mMaxTextureSize;
-    }
-
     @Nullable
     private Chunk allocate(long key, @NonNull Rect2i rect) {
         for (int i = 0, n = mChunks.size(); i < n; i++) {
             var chunk = mChunks.get(i);
-            if (chunk.packer.addRect(rect)) {
+            if (!chunk.compacting && mPages.get(chunk.page) != null &&
+                    chunk.packer.addRect(rect)) {
                 rect.offset(chunk.x, chunk.y);
-                chunk.lastUse = ++mChunkUseCounter;
                 mGlyphChunkIndex.put(key, i);
                 chunk.glyphKeys.add(key);
                 return chunk;
@@ -210,37 +298,221 @@ public class GLFontAtlas implements AutoCloseable {
         return null;
     }
 
-    private int invalidateGlyphsInChunk(int chunkIndex, @NonNull Chunk chunk) {
-        int invalidated = 0;
+    /**
+     * Allocate a new page, or reuse the slot of a released page.
+     *
+     * @return false if the number of pages has reached the max
+     */
+    private boolean addPage() {
+        int index = mPages.indexOf(null);
+        if (index < 0) {
+            if (mPages.size() >= mMaxPages) {
+                return false;
+            }
+            index = mPages.size();
+            mPages.add(null);
+            for (int x = 0; x < mPageSize; x += CHUNK_SIZE) {
+                for (int y = 0; y < mPageSize; y += CHUNK_SIZE) {
+                    mChunks.add(new Chunk(index, x, y, RectanglePacker.make(CHUNK_SIZE, CHUNK_SIZE)));
+                }
+            }
+        }
+        var page = new Page(createTexture());
+        mPages.set(index, page);
+        mAllocatedPages++;
+
+        int boundTexture = glGetInteger(GL_TEXTURE_BINDING_2D);
+        glBindTexture(GL_TEXTURE_2D, page.texture.getHandle());
+
+        // Texture filtering is defined by GpuSamplers (RenderSetup), not on the texture itself.
+
+        if (mMaskFormat == Engine.MASK_FORMAT_A8) {
+            //XXX: un-premultiplied, so 111r rather than rrrr
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_R, GL_ONE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_G, GL_ONE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_B, GL_ONE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_A, GL_RED);
+        }
+
+        glBindTexture(GL_TEXTURE_2D, boundTexture);
+        return true;
+    }
+
+    /**
+     * Release pages that have no glyphs, except the first one.
+     * Staged uploads must be flushed.
+     */
+    private void releaseEmptyPages() {
+        assert mPendingKeys.isEmpty();
+        for (int index = 1; index < mPages.size(); index++) {
+            var page = mPages.get(index);
+            if (page == null) {
+                continue;
+            }
+            boolean empty = true;
+            for (Chunk chunk : mChunks) {
+                if (chunk.page == index && chunk.packer.getCoverage() != 0) {
+                    empty = false;
+                    break;
+                }
+            }
+            if (empty) {
+                for (Chunk chunk : mChunks) {
+                    if (chunk.page == index) {
+                        chunk.glyphKeys.clear();
+                        chunk.mipmapsDirty = false;
+                    }
+                }
+                page.close();
+                mPages.set(index, null);
+                mReleasedPages++;
+            }
+        }
+    }
+
+    /**
+     * Compute the bounds of the glyph image in its page, including border.
+     */
+    private void getGlyphRect(@NonNull GLBakedGlyph glyph, @NonNull Rect2i rect) {
+        // UVs are exact, page size is power of two
+        rect.set(Math.round(glyph.u1 * mPageSize) - mBorderWidth,
+                Math.round(glyph.v1 * mPageSize) - mBorderWidth,
+                Math.round(glyph.u2 * mPageSize) + mBorderWidth,
+                Math.round(glyph.v2 * mPageSize) + mBorderWidth);
+    }
+
+    /**
+     * Set the UVs and page of the glyph from the bounds in its page, including border.
+     */
+    private void setGlyphRect(@NonNull GLBakedGlyph glyph, @NonNull Rect2i rect, int page) {
+        // exclude border
+        glyph.u1 = (float) (rect.mLeft + mBorderWidth) / mPageSize;
+        glyph.v1 = (float) (rect.mTop + mBorderWidth) / mPageSize;
+        glyph.u2 = (float) (rect.mRight - mBorderWidth) / mPageSize;
+        glyph.v2 = (float) (rect.mBottom - mBorderWidth) / mPageSize;
+        glyph.page = page;
+    }
+
+    /**
+     * @return the most recent frame in which any glyph in the chunk was used
+     */
+    private int getLastUse(int chunkIndex, @NonNull Chunk chunk) {
+        int lastUse = Integer.MIN_VALUE;
         for (int i = 0, n = chunk.glyphKeys.size(); i < n; i++) {
             long key = chunk.glyphKeys.getLong(i);
             if (mGlyphChunkIndex.get(key) != chunkIndex) {
                 continue;
             }
             var glyph = mGlyphs.get(key);
-            if (glyph == null) {
-                mGlyphChunkIndex.put(key, -1);
+            if (glyph != null) {
+                lastUse = Math.max(lastUse, glyph.lastUse);
+            }
+        }
+        return lastUse;
+    }
+
+    /**
+     * @return true if any glyph in the chunk has been idle for {@link #MAX_IDLE_FRAMES}
+     */
+    private boolean hasColdGlyphs(int chunkIndex, @NonNull Chunk chunk) {
+        final int coldBefore = mFrame - MAX_IDLE_FRAMES;
+        for (int i = 0, n = chunk.glyphKeys.size(); i < n; i++) {
+            long key = chunk.glyphKeys.getLong(i);
+            if (mGlyphChunkIndex.get(key) != chunkIndex) {
+                continue;
+            }
+            var glyph = mGlyphs.get(key);
+            if (glyph != null && glyph.lastUse <= coldBefore) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clear the chunk. Glyphs used within {@link #MAX_IDLE_FRAMES} are relocated to other
+     * chunks (most recently used first) if there's room, others are invalidated.
+     * The chunk must be marked as compacting, and staged uploads must be flushed.
+     *
+     * @return the number of evicted glyphs
+     */
+    private int compactChunk(int chunkIndex, @NonNull Chunk chunk) {
+        assert chunk.compacting && mPendingKeys.isEmpty();
+        final LongArrayList keys = new LongArrayList(chunk.glyphKeys.size());
+        for (int i = 0, n = chunk.glyphKeys.size(); i < n; i++) {
+            long key = chunk.glyphKeys.getLong(i);
+            if (mGlyphChunkIndex.get(key) != chunkIndex) {
                 continue;
             }
             mGlyphChunkIndex.put(key, -1);
-            glyph.x = Integer.MIN_VALUE;
-            invalidated++;
+            if (mGlyphs.get(key) != null) {
+                keys.add(key);
+            }
         }
         chunk.glyphKeys.clear();
-        return invalidated;
+        keys.sort((long lhs, long rhs) -> Integer.compare(
+                mGlyphs.get(rhs).lastUse, mGlyphs.get(lhs).lastUse));
+
+        final int coldBefore = mFrame - MAX_IDLE_FRAMES;
+        // mRect may be in use by stitch()
+        final var src = new Rect2i();
+        final var dst = new Rect2i();
+        int evicted = 0;
+        boolean relocating = true;
+        for (int i = 0, n = keys.size(); i < n; i++) {
+            long key = keys.getLong(i);
+            var glyph = mGlyphs.get(key);
+            if (relocating && glyph.lastUse > coldBefore) {
+                getGlyphRect(glyph, src);
+                dst.set(0, 0, src.width(), src.height());
+                Chunk allocated = allocate(key, dst);
+                if (allocated != null) {
+                    boolean res = ((GLDevice) mContext.getDevice()).copyImage(
+                            mPages.get(chunk.page).texture,
+                            src.x(), src.y(),
+                            mPages.get(allocated.page).texture,
+                            dst.x(), dst.y(),
+                            src.width(), src.height()
+                    );
+                    if (!res) {
+                        LOGGER.warn(GlyphManager.MARKER, "Failed to relocate glyph");
+                    }
+                    setGlyphRect(glyph, dst, allocated.page);
+                    if (mLinearSampling) {
+                        allocated.mipmapsDirty = true;
+                        mMipmapsDirty = true;
+                    }
+                    mRelocatedGlyphs++;
+                    continue;
+                }
+                // the rest are less recently used, don't try again
+                relocating = false;
+            }
+            glyph.x = Integer.MIN_VALUE;
+            evicted++;
+        }
+        chunk.packer.clear();
+        // cached meshes refer to glyph rects
+        TextMesh.invalidateAll();
+        mEvictedChunks++;
+        mEvictedGlyphs += evicted;
+        return evicted;
     }
 
-    private boolean evictOneChunk() {
+    /**
+     * Compact the chunk that has been unused for the longest time.
+     */
+    private boolean compactColdestChunk() {
         int candidateIndex = -1;
         Chunk candidate = null;
-        long bestUse = Long.MAX_VALUE;
+        int bestUse = Integer.MAX_VALUE;
         for (int i = 0, n = mChunks.size(); i < n; i++) {
             var chunk = mChunks.get(i);
             if (chunk.packer.getCoverage() == 0) {
                 continue;
             }
-            long use = chunk.lastUse;
-            if (use < bestUse) {
+            int use = getLastUse(i, chunk);
+            if (candidate == null || use < bestUse) {
                 bestUse = use;
                 candidate = chunk;
                 candidateIndex = i;
@@ -249,40 +521,47 @@ public class GLFontAtlas implements AutoCloseable {
         if (candidate == null) {
             return false;
         }
-        candidate.packer.clear();
-        mEvictedChunks++;
-        mEvictedGlyphs += invalidateGlyphsInChunk(candidateIndex, candidate);
+        flush();
+        candidate.compacting = true;
+        if (compactChunk(candidateIndex, candidate) > 0) {
+            mGlyphsEvicted = true;
+        }
+        candidate.compacting = false;
         return true;
     }
 
-    public boolean stitch(long key, @NonNull GLBakedGlyph glyph, long pixels) {
-        if (mWidth == 0) {
-            resize(); // first init
-        }
+    /**
+     * @return true if glyphs have been evicted while stitching since the last call
+     */
+    boolean consumeEvictedGlyphs() {
+        boolean evicted = mGlyphsEvicted;
+        mGlyphsEvicted = false;
+        return evicted;
+    }
 
+    public boolean stitch(long key, @NonNull GLBakedGlyph glyph, long pixels) {
         // the source image includes border, but glyph.width/height does not include
         var rect = mRect;
         rect.set(0, 0,
                 glyph.width + mBorderWidth * 2, glyph.height + mBorderWidth * 2);
         Chunk allocated = allocate(key, rect);
+        if (allocated == null && addPage()) {
+            // a new page is always empty
+            allocated = allocate(key, rect);
+        }
         if (allocated == null) {
-            if (!isAtHardCap()) {
-                mResizeRequested = true;
-                return false;
-            }
-
             if (!mWarnedHardCapEviction) {
                 mWarnedHardCapEviction = true;
                 LOGGER.warn(GlyphManager.MARKER,
-                        "Font atlas reached hard cap (mask format: {}, max size: {}). " +
+                        "Font atlas reached hard cap (mask format: {}, max pages: {}). " +
                                 "Evicting chunks to make room; glyphs may re-rasterize under extreme pressure.",
-                        mMaskFormat, mMaxTextureSize);
+                        mMaskFormat, mMaxPages);
             }
 
             boolean evicted = false;
             // Keep this bounded: eviction can be expensive when glyph pressure is extreme.
             for (int i = 0; i < 4 && allocated == null; i++) {
-                if (!evictOneChunk()) {
+                if (!compactColdestChunk()) {
                     break;
                 }
                 evicted = true;
@@ -295,14 +574,172 @@ public class GLFontAtlas implements AutoCloseable {
         }
 
         // include border
-        int colorType = mMaskFormat == Engine.MASK_FORMAT_ARGB
+        stage(key, rect, mGlyphChunkIndex.get(key), pixels);
+
+        glyph.lastUse = mFrame;
+        setGlyphRect(glyph, rect, allocated.page);
+
+        return true;
+    }
+
+    private int getColorType() {
+        return mMaskFormat == Engine.MASK_FORMAT_ARGB
                 ? ColorInfo.CT_RGBA_8888
                 : ColorInfo.CT_ALPHA_8;
-        int rowBytes = rect.width() * ColorInfo.bytesPerPixel(colorType);
+    }
+
+    /**
+     * Copy the pixels to the staging buffer, flush first if it's full.
+     */
+    private void stage(long key, @NonNull Rect2i rect, int chunkIndex, long pixels) {
+        final int bpp = ColorInfo.bytesPerPixel(getColorType());
+        final int size = rect.width() * rect.height() * bpp;
+        if (size > STAGING_BUFFER_SIZE) {
+            // never happen, glyph images are much smaller
+            writePixels(rect.x(), rect.y(), rect.width(), rect.height(), chunkIndex, pixels);
+            return;
+        }
+        if (mStagingOffset + size > STAGING_BUFFER_SIZE) {
+            flush();
+        }
+        if (mStagingBuffer == 0) {
+            mStagingBuffer = MemoryUtil.nmemAllocChecked(STAGING_BUFFER_SIZE);
+        }
+        MemoryUtil.memCopy(pixels, mStagingBuffer + mStagingOffset, size);
+        mPendingUploads.add(rect.x());
+        mPendingUploads.add(rect.y());
+        mPendingUploads.add(rect.width());
+        mPendingUploads.add(rect.height());
+        mPendingUploads.add(chunkIndex);
+        mPendingUploads.add(mStagingOffset);
+        mPendingKeys.add(key);
+        mStagingOffset += size;
+    }
+
+    /**
+     * @return true if there are stitched glyphs that have not been uploaded
+     */
+    public boolean hasPendingUploads() {
+        return !mPendingKeys.isEmpty();
+    }
+
+    /**
+     * Upload all staged glyph images to the texture. This must be called before
+     * the texture is sampled.
+     */
+    public void flush() {
+        final int count = mPendingKeys.size();
+        if (count == 0) {
+            return;
+        }
+        final int[] uploads = mPendingUploads.elements();
+        // group by chunk, keep the stitching order within a chunk
+        final boolean[] done = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            if (done[i]) {
+                continue;
+            }
+            final int chunkIndex = uploads[i * 6 + 4];
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            long area = 0;
+            int n = 0;
+            mRegionKeys.clear();
+            for (int j = i; j < count; j++) {
+                int b = j * 6;
+                if (uploads[b + 4] != chunkIndex) {
+                    continue;
+                }
+                left = Math.min(left, uploads[b]);
+                top = Math.min(top, uploads[b + 1]);
+                right = Math.max(right, uploads[b] + uploads[b + 2]);
+                bottom = Math.max(bottom, uploads[b + 1] + uploads[b + 3]);
+                area += (long) uploads[b + 2] * uploads[b + 3];
+                mRegionKeys.add(mPendingKeys.getLong(j));
+                n++;
+            }
+            if (n > 1 &&
+                    (long) (right - left) * (bottom - top) <= area * MAX_REGION_FILL_RATIO &&
+                    !overlapsOtherGlyphs(chunkIndex, left, top, right, bottom)) {
+                uploadRegion(chunkIndex, left, top, right, bottom, i, count, done);
+            } else {
+                for (int j = i; j < count; j++) {
+                    int b = j * 6;
+                    if (uploads[b + 4] != chunkIndex) {
+                        continue;
+                    }
+                    writePixels(uploads[b], uploads[b + 1], uploads[b + 2], uploads[b + 3],
+                            chunkIndex, mStagingBuffer + uploads[b + 5]);
+                    done[j] = true;
+                }
+            }
+        }
+        mPendingUploads.clear();
+        mPendingKeys.clear();
+        mStagingOffset = 0;
+    }
+
+    /**
+     * Gaps in a merged region are filled with zeros, that's fine for free space,
+     * but glyphs that have been uploaded before must not be overwritten.
+     */
+    private boolean overlapsOtherGlyphs(int chunkIndex, int left, int top, int right, int bottom) {
+        final Chunk chunk = mChunks.get(chunkIndex);
+        for (int i = 0, n = chunk.glyphKeys.size(); i < n; i++) {
+            long key = chunk.glyphKeys.getLong(i);
+            if (mRegionKeys.contains(key) || mGlyphChunkIndex.get(key) != chunkIndex) {
+                continue;
+            }
+            var glyph = mGlyphs.get(key);
+            if (glyph == null) {
+                continue;
+            }
+            var r = mTmpRect;
+            getGlyphRect(glyph, r);
+            if (r.mLeft < right && left < r.mRight && r.mTop < bottom && top < r.mBottom) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void uploadRegion(int chunkIndex, int left, int top, int right, int bottom,
+                              int from, int count, boolean[] done) {
+        final int bpp = ColorInfo.bytesPerPixel(getColorType());
+        final int width = right - left;
+        final int height = bottom - top;
+        if (mRegionBuffer == 0) {
+            mRegionBuffer = MemoryUtil.nmemAllocChecked((long) CHUNK_SIZE * CHUNK_SIZE * bpp);
+        }
+        final long regionRowBytes = (long) width * bpp;
+        MemoryUtil.memSet(mRegionBuffer, 0, regionRowBytes * height);
+        final int[] uploads = mPendingUploads.elements();
+        for (int j = from; j < count; j++) {
+            int b = j * 6;
+            if (uploads[b + 4] != chunkIndex) {
+                continue;
+            }
+            final long rowBytes = (long) uploads[b + 2] * bpp;
+            long src = mStagingBuffer + uploads[b + 5];
+            long dst = mRegionBuffer + (uploads[b + 1] - top) * regionRowBytes + (long) (uploads[b] - left) * bpp;
+            for (int row = 0, h = uploads[b + 3]; row < h; row++) {
+                MemoryUtil.memCopy(src, dst, rowBytes);
+                src += rowBytes;
+                dst += regionRowBytes;
+            }
+            done[j] = true;
+        }
+        writePixels(left, top, width, height, chunkIndex, mRegionBuffer);
+    }
+
+    private void writePixels(int x, int y, int width, int height, int chunkIndex, long pixels) {
+        final Chunk chunk = mChunks.get(chunkIndex);
+        int colorType = getColorType();
+        int rowBytes = width * ColorInfo.bytesPerPixel(colorType);
         boolean res = ((GLDevice) mContext.getDevice()).writePixels(
-                mTexture,
-                rect.x(), rect.y(),
-                rect.width(), rect.height(),
+                mPages.get(chunk.page).texture,
+                x, y,
+                width, height,
                 colorType,
                 colorType,
                 rowBytes,
@@ -311,142 +748,128 @@ public class GLFontAtlas implements AutoCloseable {
         if (!res) {
             LOGGER.warn(GlyphManager.MARKER, "Failed to write glyph pixels");
         }
+        mUploads++;
+        mUploadedBytes += (long) rowBytes * height;
+        mFrameUploads++;
+        if (mLinearSampling) {
+            chunk.mipmapsDirty = true;
+            mMipmapsDirty = true;
+        }
+    }
 
-        // exclude border
-        glyph.u1 = (float) (rect.mLeft + mBorderWidth) / mWidth;
-        glyph.v1 = (float) (rect.mTop + mBorderWidth) / mHeight;
-        glyph.u2 = (float) (rect.mRight - mBorderWidth) / mWidth;
-        glyph.v2 = (float) (rect.mBottom - mBorderWidth) / mHeight;
-
-        return true;
+    /**
+     * Called at the end of each frame, after {@link #flush()}.
+     */
+    void endFrame(int frame) {
+        mFrame = frame;
+        mLastFrameUploads = mFrameUploads;
+        mMaxFrameUploads = Math.max(mMaxFrameUploads, mFrameUploads);
+        mFrameUploads = 0;
     }
 
-    boolean resize() {
-        mResizeRequested = false;
-        if (mTexture == null) {
-            // initialize 4 or 16 chunks
-            mWidth = mHeight = mMaskFormat == Engine.MASK_FORMAT_A8
-                    ? CHUNK_SIZE * 4
-                    : CHUNK_SIZE * 2;
-            mTexture = createTexture();
-            mTextureWrapper = new GlTexture_Wrapped(mTexture); // transfer ownership
-            mTextureWrapperView = MuiModApi.get().getRealGpuDevice().createTextureView(mTextureWrapper);
-            for (int x = 0; x < mWidth; x += CHUNK_SIZE) {
-                for (int y = 0; y < mHeight; y += CHUNK_SIZE) {
-                    mChunks.add(new Chunk(x, y, RectanglePacker.make(CHUNK_SIZE, CHUNK_SIZE)));
-                }
+    /**
+     * Regenerate mipmaps if anything was uploaded since the last time, this must be called
+     * after {@link #flush()} and before the texture is sampled, so glyphs stitched later in
+     * a frame are not sampled with stale mip levels. If only a few chunks of a page were
+     * uploaded to, their mip chains are downsampled by blitting, otherwise the whole mip
+     * chain of the page is regenerated.
+     */
+    public void updateMipmaps() {
+        if (!mMipmapsDirty) {
+            return;
+        }
+        mMipmapsDirty = false;
+        mMipmapUpdates++;
+        final int chunksPerPage = (mPageSize / CHUNK_SIZE) * (mPageSize / CHUNK_SIZE);
+        boolean blitting = false;
+        int prevDrawFramebuffer = 0;
+        int prevReadFramebuffer = 0;
+        boolean scissorTest = false;
+        for (int index = 0; index < mPages.size(); index++) {
+            final var page = mPages.get(index);
+            if (page == null) {
+                continue;
             }
-        } else {
-            final int oldWidth = mWidth;
-            final int oldHeight = mHeight;
-
-            if (oldWidth == mMaxTextureSize && oldHeight == mMaxTextureSize) {
-                if (!mWarnedHardCapEviction) {
-                    LOGGER.warn(GlyphManager.MARKER, "Font atlas reached max texture size, " +
-                            "mask format: {}, max size: {}, current texture: {}", mMaskFormat, mMaxTextureSize, mTexture);
+            final int levels = page.texture.getMipLevelCount();
+            int dirtyChunks = 0;
+            for (Chunk chunk : mChunks) {
+                if (chunk.page == index && chunk.mipmapsDirty) {
+                    dirtyChunks++;
                 }
-                return false;
             }
-
-            final boolean vertical;
-            if (mHeight != mWidth) {
-                mWidth <<= 1;
-                for (int x = mWidth / 2; x < mWidth; x += CHUNK_SIZE) {
-                    for (int y = 0; y < mHeight; y += CHUNK_SIZE) {
-                        mChunks.add(new Chunk(x, y, RectanglePacker.make(CHUNK_SIZE, CHUNK_SIZE)));
+            if (dirtyChunks == 0) {
+                continue;
+            }
+            if (levels <= 1 || dirtyChunks * 4 > chunksPerPage) {
+                ((GLDevice) mContext.getDevice()).generateMipmaps(page.texture);
+                for (Chunk chunk : mChunks) {
+                    if (chunk.page == index) {
+                        chunk.mipmapsDirty = false;
                     }
                 }
-                vertical = false;
-            } else {
-                mHeight <<= 1;
-                for (int x = 0; x < mWidth; x += CHUNK_SIZE) {
-                    for (int y = mHeight / 2; y < mHeight; y += CHUNK_SIZE) {
-                        mChunks.add(new Chunk(x, y, RectanglePacker.make(CHUNK_SIZE, CHUNK_SIZE)));
-                    }
+                continue;
+            }
+            if (!blitting) {
+                blitting = true;
+                if (mMipmapReadFramebuffer == 0) {
+                    mMipmapReadFramebuffer = glGenFramebuffers();
+                    mMipmapDrawFramebuffer = glGenFramebuffers();
                 }
-                vertical = true;
-            }
-
-            // copy to new texture
-            GLTexture newTexture = createTexture();
-            boolean res = ((GLDevice) mContext.getDevice()).copyImage(
-                    mTexture,
-                    0, 0,
-                    newTexture,
-                    0, 0,
-                    oldWidth, oldHeight
-            );
-            if (!res) {
-                LOGGER.warn(GlyphManager.MARKER, "Failed to copy to new texture");
-            }
-
-            mTextureWrapperView.close();
-            mTextureWrapper.close();
-            mTexture = newTexture;
-            mTextureWrapper = new GlTexture_Wrapped(mTexture); // transfer ownership
-            mTextureWrapperView = MuiModApi.get().getRealGpuDevice().createTextureView(mTextureWrapper);
-
-            if (vertical) {
-                //mTexture.clear(0, 0, mHeight >> 1, mWidth, mHeight >> 1);
-                for (GLBakedGlyph glyph : mGlyphs.values()) {
-                    if (glyph == null) {
-                        continue;
-                    }
-                    glyph.v1 *= 0.5f;
-                    glyph.v2 *= 0.5f;
+                prevDrawFramebuffer = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+                prevReadFramebuffer = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+                scissorTest = glIsEnabled(GL_SCISSOR_TEST);
+                if (scissorTest) {
+                    glDisable(GL_SCISSOR_TEST);
                 }
-            } else {
-                //mTexture.clear(0, mWidth >> 1, 0, mWidth >> 1, mHeight);
-                for (GLBakedGlyph glyph : mGlyphs.values()) {
-                    if (glyph == null) {
+                glBindFramebuffer(GL_READ_FRAMEBUFFER, mMipmapReadFramebuffer);
+                glBindFramebuffer(GL_DRAW_FRAMEBUFFER, mMipmapDrawFramebuffer);
+            }
+            final int handle = page.texture.getHandle();
+            for (int level = 1; level < levels; level++) {
+                glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0,
+                        GL_TEXTURE_2D, handle, level - 1);
+                glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0,
+                        GL_TEXTURE_2D, handle, level);
+                final int srcSize = Math.max(1, mPageSize >> (level - 1));
+                final int size = Math.max(1, CHUNK_SIZE >> level);
+                for (Chunk chunk : mChunks) {
+                    if (chunk.page != index || !chunk.mipmapsDirty) {
                         continue;
                     }
-                    glyph.u1 *= 0.5f;
-                    glyph.u2 *= 0.5f;
+                    // a 2x2 box filter, the same as glGenerateMipmap
+                    int dx = chunk.x >> level;
+                    int dy = chunk.y >> level;
+                    glBlitFramebuffer(
+                            Math.min(dx << 1, srcSize - 1), Math.min(dy << 1, srcSize - 1),
+                            Math.min((dx + size) << 1, srcSize), Math.min((dy + size) << 1, srcSize),
+                            dx, dy, dx + size, dy + size,
+                            GL_COLOR_BUFFER_BIT, GL_LINEAR);
+                }
+            }
+            for (Chunk chunk : mChunks) {
+                if (chunk.page == index && chunk.mipmapsDirty) {
+                    chunk.mipmapsDirty = false;
+                    mChunkMipmapUpdates++;
                 }
             }
-
-            // we later generate mipmap
         }
-
-        int boundTexture = glGetInteger(GL_TEXTURE_BINDING_2D);
-        glBindTexture(GL_TEXTURE_2D, mTexture.getHandle());
-
-        // this is a fallback sampling method, generally used for direct mask, NEAREST is performant
-        // when used for SDF, a sampler object will override this setting
-        /*glTexParameteri(
-                GL_TEXTURE_2D,
-                GL_TEXTURE_MAG_FILTER,
-                GL_NEAREST
-        );
-        glTexParameteri(
-                GL_TEXTURE_2D,
-                GL_TEXTURE_MIN_FILTER,
-                mLinearSampling && (sLinearSamplingA8Atlas ||
-                        mMaskFormat == Engine.MASK_FORMAT_ARGB)   // color emoji requires linear sampling
-                        ? GL_LINEAR_MIPMAP_LINEAR
-                        : GL_NEAREST
-        );*/
-        // Texture filtering is defined by GpuSamplers (RenderSetup), not on the texture itself.
-
-        if (mMaskFormat == Engine.MASK_FORMAT_A8) {
-            //XXX: un-premultiplied, so 111r rather than rrrr
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_R, GL_ONE);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_G, GL_ONE);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_B, GL_ONE);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_A, GL_RED);
+        if (blitting) {
+            glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+            glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+            glBindFramebuffer(GL_DRAW_FRAMEBUFFER, prevDrawFramebuffer);
+            glBindFramebuffer(GL_READ_FRAMEBUFFER, prevReadFramebuffer);
+            if (scissorTest) {
+                glEnable(GL_SCISSOR_TEST);
+            }
+            mContext.getDevice().markContextDirty(Engine.GLBackendState.kRenderTarget);
         }
-
-        glBindTexture(GL_TEXTURE_2D, boundTexture);
-
-        return true;
     }
 
     private GLTexture createTexture() {
         var desc = mContext.getCaps().getDefaultColorImageDesc(
                 Engine.ImageType.k2D,
                 Engine.maskFormatToColorType(mMaskFormat),
-                mWidth, mHeight,
+                mPageSize, mPageSize,
                 1,
                 ISurface.FLAG_SAMPLED_IMAGE | (mLinearSampling ? ISurface.FLAG_MIPMAPPED : 0)
         );
@@ -460,53 +883,108 @@ public class GLFontAtlas implements AutoCloseable {
                 ), "Failed to create font atlas");
     }
 
-    public GLTexture getTexture() {
-        return mTexture;
+    /**
+     * @return the texture of the page, or null if the page is absent or released
+     */
+    @Nullable
+    public GLTexture getTexture(int page) {
+        var p = page < mPages.size() ? mPages.get(page) : null;
+        return p != null ? p.texture : null;
+    }
+
+    /**
+     * @return the texture view of the page, or null if the page is absent or released
+     */
+    @Nullable
+    public GpuTextureView getTextureView(int page) {
+        var p = page < mPages.size() ? mPages.get(page) : null;
+        return p != null ? p.textureView : null;
+    }
+
+    /**
+     * @return the number of page slots, including released pages
+     */
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * @return true if a page can still be added without hitting the hard cap,
+     * then stitching does not evict any glyph
+     */
+    public boolean hasFreePage() {
+        return mPages.size() < mMaxPages || mPages.contains(null);
     }
 
     public int getMaskFormat() {
         return mMaskFormat;
     }
 
+    /**
+     * Compact the coldest chunks if coverage is above 1/4 of max area. Recently used glyphs
+     * are relocated, and their UVs are updated in place. Pages that become empty are released.
+     *
+     * @return true if any glyph was evicted and needs to be looked up again
+     */
     public boolean compact() {
-        if (mWidth < mMaxTextureSize &&
-                mHeight < mMaxTextureSize) {
-            // not reach 1/4 of max area
+        int livePages = 0;
+        for (Page page : mPages) {
+            if (page != null) {
+                livePages++;
+            }
+        }
+        if (livePages * 2 < mMaxPages) {
+            // not reach 1/2 of max area
             return false;
         }
         assert mChunks.size() > 1;
-        //TODO this implementation is not ideal and we need a review
         double coverage = 0;
         for (Chunk chunk : mChunks) {
             coverage += chunk.packer.getCoverage();
         }
-        int chunksPerDim = mMaxTextureSize / CHUNK_SIZE;
+        int chunksPerDim = mPageSize / CHUNK_SIZE;
         // clear 1/4 coverage of max
-        double maxCoverage = chunksPerDim * chunksPerDim * 0.25f;
+        double maxCoverage = chunksPerDim * chunksPerDim * mMaxPages * 0.25f;
         if (coverage <= maxCoverage) {
             return false;
         }
         double coverageToClean = Math.max(coverage - maxCoverage, maxCoverage);
-        boolean cleared = false;
-        // clear 16 chunks at most
-        for (int iChunk = 0;
-             iChunk < Math.min(16, mChunks.size()) && coverageToClean > 0;
-             iChunk++) {
-            // let index overflow and wrap
-            assert MathUtil.isPow2(mChunks.size());
-            int index = (mLastCompactChunkIndex++) & (mChunks.size() - 1);
-            Chunk chunk = mChunks.get(index);
+
+        // coldest first
+        final int n = mChunks.size();
+        final int[] lastUses = new int[n];
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            lastUses[i] = getLastUse(i, mChunks.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (lhs, rhs) -> Integer.compare(lastUses[lhs], lastUses[rhs]));
+
+        flush();
+        // mark first, glyphs must not be relocated to chunks that will be cleared
+        int victims = 0;
+        double marked = 0;
+        for (int i = 0; i < n && victims < 16 && marked < coverageToClean; i++) {
+            Chunk chunk = mChunks.get(order[i]);
             double cc = chunk.packer.getCoverage();
-            if (cc == 0) {
+            // moving only recently used glyphs around frees nothing
+            if (cc == 0 || !hasColdGlyphs(order[i], chunk)) {
                 continue;
             }
-            coverageToClean -= cc;
-            chunk.packer.clear();
-            mEvictedChunks++;
-            mEvictedGlyphs += invalidateGlyphsInChunk(index, chunk);
-            cleared = true;
+            chunk.compacting = true;
+            marked += cc;
+            victims++;
         }
-        return cleared;
+        boolean evicted = false;
+        for (int i = 0; i < n; i++) {
+            Chunk chunk = mChunks.get(order[i]);
+            if (chunk.compacting) {
+                evicted |= compactChunk(order[i], chunk) > 0;
+                chunk.compacting = false;
+            }
+        }
+        releaseEmptyPages();
+        return evicted;
     }
 
     public void debug(String name, @Nullable String path) {
@@ -518,13 +996,22 @@ public class GLFontAtlas implements AutoCloseable {
             }
         } else if (Core.isOnRenderThread()) {
             LOGGER.info(GlyphManager.MARKER, "{}, Glyphs: {}", name, mGlyphs.size());
-            if (mTexture == null)
-                return;
-            dumpAtlas((GLCaps) mContext.getCaps(), mTexture,
-                    mMaskFormat == Engine.MASK_FORMAT_ARGB
-                            ? Bitmap.Format.RGBA_8888
-                            : Bitmap.Format.GRAY_8,
-                    path);
+            flush();
+            for (int index = 0; index < mPages.size(); index++) {
+                var page = mPages.get(index);
+                if (page == null) {
+                    continue;
+                }
+                // the first page keeps the given path
+                String pagePath = index == 0
+                        ? path
+                        : path.replaceFirst("(\\.png)?$", "_page" + index + "$1");
+                dumpAtlas((GLCaps) mContext.getCaps(), page.texture,
+                        mMaskFormat == Engine.MASK_FORMAT_ARGB
+                                ? Bitmap.Format.RGBA_8888
+                                : Bitmap.Format.GRAY_8,
+                        pagePath);
+            }
         }
     }
 
@@ -562,21 +1049,45 @@ public class GLFontAtlas implements AutoCloseable {
 
     @Override
     public void close() {
-        if (mTexture != null) {
-            mTextureWrapperView.close();
-            mTextureWrapper.close();
-            mTexture = null;
-            mTextureWrapper = null;
-            mTextureWrapperView = null;
+        mPendingUploads.clear();
+        mPendingKeys.clear();
+        mStagingOffset = 0;
+        if (mStagingBuffer != 0) {
+            MemoryUtil.nmemFree(mStagingBuffer);
+            mStagingBuffer = 0;
         }
+        if (mRegionBuffer != 0) {
+            MemoryUtil.nmemFree(mRegionBuffer);
+            mRegionBuffer = 0;
+        }
+        if (mMipmapReadFramebuffer != 0) {
+            glDeleteFramebuffers(mMipmapReadFramebuffer);
+            glDeleteFramebuffers(mMipmapDrawFramebuffer);
+            mMipmapReadFramebuffer = 0;
+            mMipmapDrawFramebuffer = 0;
+        }
+        for (Page page : mPages) {
+            if (page != null) {
+                page.close();
+            }
+        }
+        mPages.clear();
+        mChunks.clear();
+        TextMesh.invalidateAll();
     }
 
+    /**
+     * @return the width of each page
+     */
     public int getWidth() {
-        return mWidth;
+        return mPageSize;
     }
 
+    /**
+     * @return the height of each page
+     */
     public int getHeight() {
-        return mHeight;
+        return mPageSize;
     }
 
     public int getGlyphCount() {
@@ -584,7 +1095,13 @@ public class GLFontAtlas implements AutoCloseable {
     }
 
     public long getMemorySize() {
-        return mTexture != null ? mTexture.getMemorySize() : 0;
+        long size = 0;
+        for (Page page : mPages) {
+            if (page != null) {
+                size += page.texture.getMemorySize();
+            }
+        }
+        return size;
     }
 
     public void dumpInfo(PrintWriter pw, String name) {
@@ -604,10 +1121,26 @@ public class GLFontAtlas implements AutoCloseable {
         pw.printf(": NumGlyphs=%d (in-use: %d, empty: %d, evicted: %d)",
                 getGlyphCount(), validGlyphs, emptyGlyphs, evictedGlyphs);
         pw.printf(", Cache=%d/%d (hit/miss)", mGlyphCacheHits, mGlyphCacheMisses);
-        pw.printf(", Evicted=%d chunks, %d glyphs", mEvictedChunks, mEvictedGlyphs);
+        pw.printf(", Compacted=%d chunks (relocated: %d, evicted: %d glyphs)",
+                mEvictedChunks, mRelocatedGlyphs, mEvictedGlyphs);
         if (mStitchFailures != 0) {
             pw.printf(", StitchFailures=%d", mStitchFailures);
         }
+        pw.printf(", Uploads=%d (last frame: %d, max frame: %d)",
+                mUploads, mLastFrameUploads, mMaxFrameUploads);
+        pw.print(", UploadedBytes=");
+        TextUtils.binaryCompact(pw, mUploadedBytes);
+        if (mLinearSampling) {
+            pw.printf(", MipmapUpdates=%d (chunks: %d)", mMipmapUpdates, mChunkMipmapUpdates);
+        }
+        int livePages = 0;
+        for (Page page : mPages) {
+            if (page != null) {
+                livePages++;
+            }
+        }
+        pw.printf(", Pages=%d/%d (allocated: %d, released: %d)",
+                livePages, mMaxPages, mAllocatedPages, mReleasedPages);
         pw.print(", Coverage=");
         pw.printf("%.4f", getCoverage());
         pw.print(", GPUMemorySize=");
@@ -622,13 +1155,14 @@ public class GLFontAtlas implements AutoCloseable {
      * @return 0..1
      */
     public double getCoverage() {
-        if (mChunks.isEmpty()) {
-            return 0;
-        }
         double coverage = 0;
+        int chunks = 0;
         for (Chunk chunk : mChunks) {
-            coverage += chunk.packer.getCoverage();
+            if (mPages.get(chunk.page) != null) {
+                coverage += chunk.packer.getCoverage();
+                chunks++;
+            }
         }
-        return coverage / mChunks.size();
+        return chunks == 0 ? 0 : coverage / chunks;
     }
 }
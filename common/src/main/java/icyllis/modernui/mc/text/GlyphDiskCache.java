@@ -0,0 +1,373 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.modernui.annotation.RenderThread;
+import icyllis.modernui.text.TextUtils;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+import static icyllis.modernui.mc.ModernUIMod.LOGGER;
+
+/**
+ * Persistent cache of rasterized outline glyphs across game sessions. Each record holds
+ * the bordered A8 image and the metrics of a glyph, keyed by a strike hash (font face,
+ * style, size and transform) and the glyph code. Records are appended to a memory-mapped
+ * file, a record is never modified except its last use, which is a persistent clock
+ * ticked on each read and write.
+ * <p>
+ * When the file is opened and its data exceeds 3/4 of the max size, it is compacted to
+ * at most 1/2 of the max size by keeping the most recently used records. When the file is
+ * full during a session, new glyphs are simply not written. All records are dropped
+ * if rasterization settings changed.
+ * <p>
+ * The file is opened on a background thread, after that, it is only accessed by render thread.
+ *
+ * @see GlyphManager
+ */
+@RenderThread
+public final class GlyphDiskCache implements AutoCloseable {
+
+    /**
+     * Returned by {@link #read} for glyphs that have nothing to render.
+     */
+    public static final byte[] EMPTY_PIXELS = new byte[0];
+
+    private static final int MAGIC = 0x43474D55; // UMGC
+    private static final int VERSION = 1;
+
+    // magic, version, settings, clock, end, (reserved)
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_SETTINGS = 8;
+    private static final int HEADER_CLOCK = 12;
+    private static final int HEADER_END = 16;
+
+    private static final int RECORD_TAG = 0x47594C47; // GLYG
+    // tag, crc, last use, length, strike hash, glyph code, x, y, width, height
+    private static final int RECORD_HEADER_SIZE = 40;
+    private static final int RECORD_CRC = 4;
+    private static final int RECORD_LAST_USE = 8;
+    private static final int RECORD_LENGTH = 12;
+    private static final int RECORD_STRIKE = 16;
+    private static final int RECORD_GLYPH = 24;
+    private static final int RECORD_X = 28;
+    private static final int RECORD_Y = 32;
+    private static final int RECORD_WIDTH = 36;
+    private static final int RECORD_HEIGHT = 38;
+
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mBuffer;
+    private final int mMaxSize;
+    private int mClock;
+    private int mSettings;
+    private int mEnd;
+    private boolean mFull;
+
+    // hash of (strike hash, glyph code) to record offset
+    private final Long2IntOpenHashMap mIndex = new Long2IntOpenHashMap();
+    private final CRC32C mCRC = new CRC32C();
+
+    private long mHits;
+    private long mMisses;
+    private long mWrites;
+
+    private GlyphDiskCache(@Nonnull FileChannel channel, int maxSize, int settings) throws IOException {
+        mChannel = channel;
+        mMaxSize = maxSize;
+        mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxSize);
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mIndex.defaultReturnValue(-1);
+        if (isValidHeader(mBuffer, settings) && mBuffer.getInt(HEADER_END) <= maxSize) {
+            mClock = mBuffer.getInt(HEADER_CLOCK);
+            mEnd = scan(mBuffer, mBuffer.getInt(HEADER_END), mCRC, mIndex);
+        } else {
+            mEnd = HEADER_SIZE;
+        }
+        mSettings = settings;
+        writeHeader();
+    }
+
+    /**
+     * Open or create the cache file, compact it first if needed. This performs blocking IO.
+     *
+     * @param maxSize  max file size in bytes
+     * @param settings rasterization settings, a different value drops all records
+     */
+    @Nonnull
+    public static GlyphDiskCache open(@Nonnull Path path, int maxSize, int settings) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try {
+            compactIfNeeded(path, maxSize, settings);
+        } catch (IOException e) {
+            LOGGER.warn(GlyphManager.MARKER, "Failed to compact glyph disk cache {}", path, e);
+        }
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new GlyphDiskCache(channel, maxSize, settings);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static boolean isValidHeader(@Nonnull ByteBuffer buf, int settings) {
+        return buf.limit() >= HEADER_SIZE &&
+                buf.getInt(0) == MAGIC &&
+                buf.getInt(4) == VERSION &&
+                buf.getInt(HEADER_SETTINGS) == settings &&
+                buf.getInt(HEADER_END) >= HEADER_SIZE;
+    }
+
+    private static long hash(long strikeHash, int glyphCode) {
+        long h = (strikeHash ^ glyphCode) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Index valid records from the header to the end, later records win.
+     *
+     * @return the end of the last valid record
+     */
+    private static int scan(@Nonnull ByteBuffer buf, int end, @Nonnull CRC32C crc,
+                            @Nonnull Long2IntOpenHashMap index) {
+        end = Math.min(end, buf.limit());
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= end) {
+            if (buf.getInt(offset) != RECORD_TAG) {
+                break;
+            }
+            int length = buf.getInt(offset + RECORD_LENGTH);
+            if (length < 0 || length > end - offset - RECORD_HEADER_SIZE) {
+                break;
+            }
+            crc.reset();
+            crc.update(buf.slice(offset + RECORD_LENGTH, RECORD_HEADER_SIZE - RECORD_LENGTH + length));
+            if ((int) crc.getValue() != buf.getInt(offset + RECORD_CRC)) {
+                // torn write
+                break;
+            }
+            index.put(hash(buf.getLong(offset + RECORD_STRIKE), buf.getInt(offset + RECORD_GLYPH)), offset);
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Rewrite the file with most recently used records if the data exceeds 3/4 of max size.
+     */
+    private static void compactIfNeeded(@Nonnull Path path, int maxSize, int settings) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        final ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (!isValidHeader(header, settings) ||
+                    header.getInt(HEADER_END) <= maxSize / 4 * 3) {
+                return;
+            }
+            // read only the data, a mapping would prevent replacing the file on some platforms
+            int end = (int) Math.min(header.getInt(HEADER_END), channel.size());
+            buf = ByteBuffer.allocate(end).order(ByteOrder.LITTLE_ENDIAN);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, buf.position()) < 0) {
+                    break;
+                }
+            }
+            buf.clear();
+        }
+        final Long2IntOpenHashMap index = new Long2IntOpenHashMap();
+        final int end = scan(buf, buf.limit(), new CRC32C(), index);
+        final int[] offsets = index.values().toIntArray();
+        // most recently used first
+        IntArrays.quickSort(offsets, (lhs, rhs) -> Integer.compare(
+                buf.getInt(rhs + RECORD_LAST_USE), buf.getInt(lhs + RECORD_LAST_USE)));
+
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int newEnd = HEADER_SIZE;
+            final int limit = maxSize / 2;
+            for (int offset : offsets) {
+                int size = RECORD_HEADER_SIZE + buf.getInt(offset + RECORD_LENGTH);
+                if (newEnd + size > limit) {
+                    break;
+                }
+                ByteBuffer record = buf.slice(offset, size);
+                while (record.hasRemaining()) {
+                    channel.write(record, newEnd + record.position());
+                }
+                newEnd += size;
+            }
+            ByteBuffer header = buf.slice(0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(HEADER_END, newEnd);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            LOGGER.info(GlyphManager.MARKER, "Compacted glyph disk cache from {} to {} bytes",
+                    end, newEnd);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeHeader() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(HEADER_SETTINGS, mSettings);
+        mBuffer.putInt(HEADER_CLOCK, mClock);
+        mBuffer.putInt(HEADER_END, mEnd);
+    }
+
+    public int getSettings() {
+        return mSettings;
+    }
+
+    /**
+     * Drop all records, called when rasterization settings changed.
+     */
+    public void reset(int settings) {
+        mSettings = settings;
+        mClock = 0;
+        mEnd = HEADER_SIZE;
+        mFull = false;
+        mIndex.clear();
+        writeHeader();
+    }
+
+    /**
+     * Read a cached glyph image and its bounds (x, y, width, height, excluding border).
+     *
+     * @return the bordered A8 image, {@link #EMPTY_PIXELS} if nothing to render, or null if absent
+     */
+    @Nullable
+    public byte[] read(long strikeHash, int glyphCode, @Nonnull int[] bounds) {
+        int offset = mIndex.get(hash(strikeHash, glyphCode));
+        if (offset < 0 ||
+                mBuffer.getLong(offset + RECORD_STRIKE) != strikeHash ||
+                mBuffer.getInt(offset + RECORD_GLYPH) != glyphCode) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        mBuffer.putInt(offset + RECORD_LAST_USE, tick());
+        bounds[0] = mBuffer.getInt(offset + RECORD_X);
+        bounds[1] = mBuffer.getInt(offset + RECORD_Y);
+        bounds[2] = mBuffer.getShort(offset + RECORD_WIDTH);
+        bounds[3] = mBuffer.getShort(offset + RECORD_HEIGHT);
+        int length = mBuffer.getInt(offset + RECORD_LENGTH);
+        if (length == 0) {
+            return EMPTY_PIXELS;
+        }
+        byte[] pixels = new byte[length];
+        mBuffer.get(offset + RECORD_HEADER_SIZE, pixels);
+        return pixels;
+    }
+
+    /**
+     * Append a glyph image, it's ignored if the file is full.
+     *
+     * @param pixels the bordered A8 image, or null if nothing to render
+     */
+    public void write(long strikeHash, int glyphCode, int x, int y, int width, int height,
+                      @Nullable byte[] pixels) {
+        final int length = pixels != null ? pixels.length : 0;
+        final int offset = mEnd;
+        if (mFull || (long) offset + RECORD_HEADER_SIZE + length > mMaxSize) {
+            mFull = true;
+            return;
+        }
+        mBuffer.putInt(offset + RECORD_LAST_USE, tick());
+        mBuffer.putInt(offset + RECORD_LENGTH, length);
+        mBuffer.putLong(offset + RECORD_STRIKE, strikeHash);
+        mBuffer.putInt(offset + RECORD_GLYPH, glyphCode);
+        mBuffer.putInt(offset + RECORD_X, x);
+        mBuffer.putInt(offset + RECORD_Y, y);
+        mBuffer.putShort(offset + RECORD_WIDTH, (short) width);
+        mBuffer.putShort(offset + RECORD_HEIGHT, (short) height);
+        if (length != 0) {
+            mBuffer.put(offset + RECORD_HEADER_SIZE, pixels);
+        }
+        mCRC.reset();
+        mCRC.update(mBuffer.slice(offset + RECORD_LENGTH, RECORD_HEADER_SIZE - RECORD_LENGTH + length));
+        mBuffer.putInt(offset + RECORD_CRC, (int) mCRC.getValue());
+        // publish the record last, then the end
+        mBuffer.putInt(offset, RECORD_TAG);
+        mEnd = offset + RECORD_HEADER_SIZE + length;
+        mBuffer.putInt(HEADER_END, mEnd);
+        mIndex.put(hash(strikeHash, glyphCode), offset);
+        mWrites++;
+    }
+
+    private int tick() {
+        // the clock will not overflow in practice, even so, it only makes LRU less accurate
+        mBuffer.putInt(HEADER_CLOCK, ++mClock);
+        return mClock;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public void dumpInfo(PrintWriter pw) {
+        pw.print("GlyphDiskCache: Entries=");
+        pw.print(mIndex.size());
+        pw.print(", Size=");
+        TextUtils.binaryCompact(pw, mEnd);
+        pw.print("/");
+        TextUtils.binaryCompact(pw, mMaxSize);
+        pw.printf(", Hits=%d, Misses=%d, Writes=%d",
+                mHits, mMisses, mWrites);
+        if (mFull) {
+            pw.print(", Full");
+        }
+        pw.println();
+    }
+
+    /**
+     * Write back and close the file, the mapping is released by GC.
+     */
+    @Override
+    public void close() {
+        try {
+            mBuffer.force();
+            mChannel.close();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn(GlyphManager.MARKER, "Failed to close glyph disk cache", e);
+        }
+    }
+}
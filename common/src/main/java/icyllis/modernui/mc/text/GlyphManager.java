@@ -21,8 +21,6 @@ package icyllis.modernui.mc.text;
 import com.mojang.blaze3d.textures.GpuTextureView;
 import icyllis.arc3d.engine.Engine;
 import icyllis.arc3d.engine.ImmediateContext;
-import icyllis.arc3d.opengl.GLDevice;
-import icyllis.arc3d.opengl.GLTexture;
 import icyllis.modernui.ModernUI;
 import icyllis.modernui.annotation.RenderThread;
 import icyllis.modernui.core.Core;
@@ -30,7 +28,15 @@ import icyllis.modernui.graphics.Bitmap;
 import icyllis.modernui.graphics.BitmapFactory;
 import icyllis.modernui.graphics.text.Font;
 import icyllis.modernui.graphics.text.*;
+import icyllis.modernui.mc.EmojiSheets;
+import icyllis.modernui.mc.FontResourceManager;
+import icyllis.modernui.mc.UtilCompat;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.texture.TextureAtlas;
@@ -44,12 +50,16 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.awt.*;
 import java.awt.font.GlyphVector;
+import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.*;
 
 import static icyllis.modernui.mc.ModernUIMod.LOGGER;
@@ -93,6 +103,46 @@ public class GlyphManager {
     public static volatile boolean sAntiAliasing = true;
     public static volatile boolean sFractionalMetrics = true;
 
+    /**
+     * Config value, max size of the glyph disk cache in megabytes, 0 (default) to disable.
+     * Takes effect on next {@link #reload()}.
+     */
+    public static volatile int sDiskCacheSize = 0;
+
+    /**
+     * Relative to the game directory.
+     */
+    public static final String DISK_CACHE_PATH = "modernui/glyph_cache.bin";
+
+    /**
+     * Config value, max number of chars used by the current language file to rasterize
+     * in advance when resources are reloaded, in addition to ASCII, 0 to disable.
+     *
+     * @see #prewarmGlyphs(Collection, int, IntCollection)
+     */
+    public static volatile int sPrewarmGlyphLimit = 1024;
+
+    /**
+     * Config value, whether to use signed distance field glyphs for 3D world text.
+     */
+    public static volatile boolean sDistanceFieldText = true;
+
+    /**
+     * Distance field glyphs are rasterized at a single fixed resolution level, regardless of
+     * GUI scale, then font size is (base font size * density), 32 by default.
+     */
+    public static final int DISTANCE_FIELD_DENSITY = 4;
+
+    /**
+     * The max distance in pixels represented by distance field glyphs, it's also the
+     * transparent border around each glyph image. The distance field text shaders
+     * hardcode this value.
+     */
+    public static final int DISTANCE_FIELD_SPREAD = 4;
+
+    // distance field glyphs use the same strike IDs, separate them from pending glyphs
+    private static final long DISTANCE_FIELD_KEY_BIT = 1L << 31;
+
     /**
      * Emoji font design.
      */
@@ -109,7 +159,7 @@ public class GlyphManager {
     private GLFontAtlas mFontAtlas;
     private GLFontAtlas mEmojiAtlas;
     private GLFontAtlas mBitmapAtlas;
-    private GLDevice mDevice;
+    private GLFontAtlas mDistanceFieldAtlas;
 
     /**
      * Font (with size and style) to int key.
@@ -141,6 +191,10 @@ public class GlyphManager {
          * Preload some random characters or glyphs in case there is no glyphs to sample.
          */
         boolean mPreloadedFastChars = false;
+        /**
+         * Persistent key of this strike in the disk cache, computed on first use, 0 is absent.
+         */
+        long mDiskCacheHash;
 
         GlyphStrike(int strikeId) {
             mStrikeId = strikeId;
@@ -148,34 +202,50 @@ public class GlyphManager {
     }
 
     /**
-     * Draw a single glyph onto this image and then loaded from here into an OpenGL texture.
+     * The rasterizer owned by render thread, used for synchronous rasterization and
+     * its font render context is used for layout.
      */
-    private BufferedImage mImage;
+    private Rasterizer mRasterizer;
 
     /**
-     * The Graphics2D associated with glyph image and used for bit blit.
+     * A direct buffer used for loading the pre-rendered glyph images into OpenGL textures.
      */
-    private Graphics2D mGraphics;
+    private ByteBuffer mImageBuffer;
 
     /**
-     * Intermediate data array for use with image.
+     * Outline glyphs are rasterized on worker threads, each of which owns its own
+     * {@link Rasterizer}. Finished bitmaps are uploaded by render thread in
+     * {@link #onEndRenderTick()}, before that the glyph is skipped.
      */
-    private int[] mImageData;
+    private final ThreadPoolExecutor mRasterExecutor;
+    private final ConcurrentLinkedQueue<RasterTask> mRasterizedGlyphs = new ConcurrentLinkedQueue<>();
+    // keys of glyphs submitted but not uploaded yet, render thread only
+    private final LongOpenHashSet mPendingGlyphs = new LongOpenHashSet();
+    // results of previous generations are dropped
+    private int mRasterGeneration;
+    private long mAsyncRasterizedGlyphs;
 
     /**
-     * A direct buffer used for loading the pre-rendered glyph images into OpenGL textures.
+     * Outline glyphs rasterized in previous sessions, opened asynchronously, render thread only.
      */
-    private ByteBuffer mImageBuffer;
+    private GlyphDiskCache mDiskCache;
+    // the max size that has been requested to open, 0 if disabled
+    private int mDiskCacheRequestedSize;
+    // rasterization settings of mRasterizer
+    private int mDiskCacheSettings;
+    private final int[] mDiskCacheBounds = new int[4];
 
     //private ByteBuffer mEmojiBuffer;
 
     private long mLastPurgeNanos;
+    private int mFrame;
 
     private final CopyOnWriteArrayList<Consumer<AtlasInvalidationInfo>> mAtlasInvalidationCallbacks
             = new CopyOnWriteArrayList<>();
 
     /**
-     * Called when atlas resize or evict entries
+     * Called when atlas evict entries. Atlases grow by adding pages, which never
+     * invalidates existing glyphs, so resize is always false now.
      *
      * @param maskFormat type of atlas, {@link Engine#MASK_FORMAT_A8}
      * @param resize     true=texture resize, false=evict
@@ -184,6 +254,17 @@ public class GlyphManager {
     }
 
     private GlyphManager() {
+        final int threads = Math.max(1, Math.min(2,
+                Runtime.getRuntime().availableProcessors() / 4));
+        final AtomicInteger threadCount = new AtomicInteger();
+        mRasterExecutor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new RasterThread(r, "ModernUI-Glyph-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        mRasterExecutor.allowCoreThreadTimeOut(true);
         // init
         reload();
     }
@@ -211,9 +292,13 @@ public class GlyphManager {
         if (mBitmapAtlas != null) {
             mBitmapAtlas.close();
         }
+        if (mDistanceFieldAtlas != null) {
+            mDistanceFieldAtlas.close();
+        }
         mFontAtlas = null;
         mEmojiAtlas = null;
         mBitmapAtlas = null;
+        mDistanceFieldAtlas = null;
     }
 
     /**
@@ -230,7 +315,129 @@ public class GlyphManager {
         mBitmapFontTable.values().forEach(s -> s.mFastCharMap.clear());
         mBitmapFontTable.clear();
         mBitmapFontTable = new HashMap<>();
+        mRasterGeneration++;
+        mPendingGlyphs.clear();
+        mRasterizedGlyphs.clear();
         allocateImage();
+        updateDiskCache();
+    }
+
+    /**
+     * Open, reopen or close the disk cache according to {@link #sDiskCacheSize}.
+     */
+    @RenderThread
+    private void updateDiskCache() {
+        final int maxSize = (int) Math.min((long) sDiskCacheSize << 20, Integer.MAX_VALUE);
+        if (maxSize == mDiskCacheRequestedSize) {
+            return;
+        }
+        if (mDiskCache != null) {
+            mDiskCache.close();
+            mDiskCache = null;
+        }
+        mDiskCacheRequestedSize = 0;
+        final Minecraft minecraft = Minecraft.getInstance();
+        if (maxSize <= 0 || minecraft == null) {
+            return;
+        }
+        mDiskCacheRequestedSize = maxSize;
+        final Path path = minecraft.gameDirectory.toPath().resolve(DISK_CACHE_PATH);
+        final int settings = mDiskCacheSettings;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return GlyphDiskCache.open(path, maxSize, settings);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn(MARKER, "Failed to open glyph disk cache {}", path, e);
+                return null;
+            }
+        }, UtilCompat.ioPool()).thenAccept(diskCache -> {
+            if (diskCache != null) {
+                Core.executeOnRenderThread(() -> {
+                    if (mDiskCache == null && mDiskCacheRequestedSize == maxSize) {
+                        mDiskCache = diskCache;
+                    } else {
+                        diskCache.close();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the disk cache if opened, records are dropped if rasterization settings changed
+     */
+    @Nullable
+    @RenderThread
+    private GlyphDiskCache getDiskCache() {
+        final GlyphDiskCache diskCache = mDiskCache;
+        if (diskCache != null && diskCache.getSettings() != mDiskCacheSettings) {
+            diskCache.reset(mDiskCacheSettings);
+        }
+        return diskCache;
+    }
+
+    private static int computeDiskCacheSettings(boolean antiAliasing, boolean fractionalMetrics) {
+        return (antiAliasing ? 1 : 0) | (fractionalMetrics ? 2 : 0) | (GLYPH_BORDER << 8);
+    }
+
+    /**
+     * Compute a persistent hash of the font face and strike. AWT fonts do not expose their
+     * font files, so the names, the number of glyphs and the outlines of a few sampled
+     * glyphs are hashed instead, a font file update changes at least one of them in practice.
+     */
+    @RenderThread
+    private long getDiskCacheHash(@Nonnull java.awt.Font font) {
+        final GlyphStrike strike = mFontTable.get(font);
+        if (strike.mDiskCacheHash != 0) {
+            return strike.mDiskCacheHash;
+        }
+        long h = 0xCBF29CE484222325L;
+        h = mixHash(h, font.getFontName(Locale.ROOT).hashCode());
+        h = mixHash(h, font.getPSName().hashCode());
+        h = mixHash(h, font.getNumGlyphs());
+        h = mixHash(h, font.getMissingGlyphCode());
+        h = mixHash(h, Float.floatToIntBits(font.getItalicAngle()));
+        h = mixHash(h, font.getStyle());
+        h = mixHash(h, Float.floatToIntBits(font.getSize2D()));
+        h = mixHash(h, font.getTransform().hashCode());
+        final int numGlyphs = font.getNumGlyphs();
+        final int[] samples = new int[Math.min(numGlyphs, 8)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (int) ((long) numGlyphs * i / samples.length);
+        }
+        final PathIterator it = font.createGlyphVector(mRasterizer.mGraphics.getFontRenderContext(), samples)
+                .getOutline().getPathIterator(null);
+        final float[] coords = new float[6];
+        for (; !it.isDone(); it.next()) {
+            h = mixHash(h, it.currentSegment(coords));
+            for (float c : coords) {
+                h = mixHash(h, Float.floatToIntBits(c));
+            }
+        }
+        if (h == 0) {
+            h = 1;
+        }
+        return strike.mDiskCacheHash = h;
+    }
+
+    private static long mixHash(long h, long v) {
+        h = (h ^ v) * 0x100000001B3L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Append a rasterized glyph to the disk cache, if it was rasterized with current settings.
+     */
+    @RenderThread
+    private void writeDiskCache(@Nonnull RasterTask task) {
+        final GlyphDiskCache diskCache = getDiskCache();
+        if (diskCache != null && task.mDiskCacheHash != 0 &&
+                task.mAtlas.getMaskFormat() == Engine.MASK_FORMAT_A8 &&
+                diskCache.getSettings() == computeDiskCacheSettings(
+                        task.mAntiAliasing, task.mFractionalMetrics)) {
+            diskCache.write(task.mDiskCacheHash, task.mGlyphCode,
+                    task.mX, task.mY, task.mWidth, task.mHeight, task.mPixels);
+        }
     }
 
     /**
@@ -245,7 +452,7 @@ public class GlyphManager {
     @Nonnull
     public GlyphVector layoutGlyphVector(@Nonnull java.awt.Font awtFont, @Nonnull char[] text,
                                          int start, int limit, boolean isRtl) {
-        return awtFont.layoutGlyphVector(mGraphics.getFontRenderContext(), text, start, limit,
+        return awtFont.layoutGlyphVector(mRasterizer.mGraphics.getFontRenderContext(), text, start, limit,
                 isRtl ? java.awt.Font.LAYOUT_RIGHT_TO_LEFT : java.awt.Font.LAYOUT_LEFT_TO_RIGHT);
     }
 
@@ -258,7 +465,7 @@ public class GlyphManager {
      */
     @Nonnull
     public GlyphVector createGlyphVector(@Nonnull java.awt.Font awtFont, @Nonnull char[] text) {
-        return awtFont.createGlyphVector(mGraphics.getFontRenderContext(), text);
+        return awtFont.createGlyphVector(mRasterizer.mGraphics.getFontRenderContext(), text);
     }
 
     /**
@@ -285,6 +492,74 @@ public class GlyphManager {
         return (fontKey << 32) | glyphId;
     }
 
+    /**
+     * All bitmap fonts share one atlas, so text in mixed bitmap fonts can be drawn without
+     * texture switches, as long as glyphs are on the same page.
+     */
+    @Nullable
+    @RenderThread
+    private GLBakedGlyph lookupBitmapGlyph(@Nonnull BitmapFont font, int glyphId) {
+        long key = computeBitmapGlyphKey(font, glyphId);
+        if (mBitmapAtlas == null) {
+            ImmediateContext context = Core.requireImmediateContext();
+            mBitmapAtlas = new GLFontAtlas(context, Engine.MASK_FORMAT_ARGB, 0, false);
+        }
+        GLBakedGlyph glyph = mBitmapAtlas.getGlyph(key);
+        if (glyph != null && glyph.x == Integer.MIN_VALUE) {
+            return cacheBitmapGlyph(
+                    font,
+                    glyphId,
+                    mBitmapAtlas,
+                    glyph,
+                    key
+            );
+        }
+        return glyph;
+    }
+
+    /**
+     * Pack glyphs of the given bitmap fonts into the shared bitmap atlas, tallest glyphs
+     * first, so that the rectangle packer wastes less space and all bitmap fonts are on
+     * as few pages as possible. They are uploaded in one batch on next flush. This should
+     * be called after {@link #reload()}. Packing stops before the atlas reaches its hard cap,
+     * where stitching would evict glyphs, the rest are stitched on demand.
+     *
+     * @return the number of glyphs stitched
+     */
+    @RenderThread
+    public int packBitmapFonts(@Nonnull Collection<BitmapFont> fonts) {
+        var sorted = new ArrayList<BitmapFont>(fonts.size());
+        for (BitmapFont font : fonts) {
+            if (!font.nothingToDraw()) {
+                sorted.add(font);
+            }
+        }
+        sorted.sort(Comparator.comparingInt(BitmapFont::getSpriteHeight)
+                .thenComparingInt(BitmapFont::getSpriteWidth)
+                .reversed());
+        var glyphIds = new IntArrayList();
+        int count = 0;
+        for (BitmapFont font : sorted) {
+            glyphIds.clear();
+            font.getDrawableGlyphs(glyphIds);
+            // code point order keeps nearby characters on nearby pages
+            IntArrays.quickSort(glyphIds.elements(), 0, glyphIds.size());
+            for (int i = 0, n = glyphIds.size(); i < n; i++) {
+                // drawable glyphs always have pixels, null means the stitch failed
+                if ((mBitmapAtlas != null && !mBitmapAtlas.hasFreePage()) ||
+                        lookupBitmapGlyph(font, glyphIds.getInt(i)) == null) {
+                    // the atlas is full, the rest will be stitched on demand
+                    LOGGER.info(MARKER, "Bitmap atlas is full, packed {} bitmap glyphs", count);
+                    return count;
+                }
+                count++;
+            }
+        }
+        LOGGER.info(MARKER, "Packed {} bitmap glyphs of {} fonts into {} pages", count, sorted.size(),
+                mBitmapAtlas != null ? mBitmapAtlas.getPageCount() : 0);
+        return count;
+    }
+
     /**
      * Given a font and a glyph ID within that font, locate the glyph's pre-rendered image
      * in the glyph atlas and return its cache entry. The entry stores the texture with the
@@ -295,10 +570,57 @@ public class GlyphManager {
      * @param fontSize the font size in device space
      * @param glyphId  the font specific glyph ID (should be laid-out) to lookup in the atlas
      * @return the cached glyph sprite or null if the glyph has nothing to render
+     * @see #isPending(GLBakedGlyph)
      */
     @Nullable
     @RenderThread
     public GLBakedGlyph lookupGlyph(@Nonnull Font font, int fontSize, int glyphId) {
+        return lookupGlyph(font, fontSize, glyphId, false);
+    }
+
+    /**
+     * Similar to {@link #lookupGlyph(Font, int, int)}, but outline glyphs are looked up in
+     * the distance field atlas, they are rasterized at {@link #DISTANCE_FIELD_DENSITY} and
+     * their bounds include {@link #DISTANCE_FIELD_SPREAD}. Other glyphs are the same.
+     *
+     * @param fontSize the font size in device space, computed from {@link #DISTANCE_FIELD_DENSITY}
+     * @see #getDistanceFieldTexture(int)
+     */
+    @Nullable
+    @RenderThread
+    public GLBakedGlyph lookupDistanceFieldGlyph(@Nonnull Font font, int fontSize, int glyphId) {
+        if (!(font instanceof OutlineFont outlineFont)) {
+            return lookupGlyph(font, fontSize, glyphId, false);
+        }
+        java.awt.Font awtFont = outlineFont.chooseFont(fontSize);
+        long key = computeGlyphKey(awtFont, glyphId) | DISTANCE_FIELD_KEY_BIT;
+        if (mDistanceFieldAtlas == null) {
+            // no mipmaps, and the spread is already included in glyph images
+            ImmediateContext context = Core.requireImmediateContext();
+            mDistanceFieldAtlas = new GLFontAtlas(context, Engine.MASK_FORMAT_A8, 0, false);
+        }
+        GLBakedGlyph glyph = mDistanceFieldAtlas.getGlyph(key);
+        if (glyph != null && glyph.x == Integer.MIN_VALUE) {
+            return cacheGlyph(
+                    awtFont,
+                    glyphId,
+                    mDistanceFieldAtlas,
+                    glyph,
+                    key,
+                    false
+            );
+        }
+        return glyph;
+    }
+
+    /**
+     * Outline glyphs are rasterized asynchronously, the returned glyph may be still pending,
+     * and will be filled in place once uploaded. If <var>sync</var> is true, the glyph is
+     * rasterized immediately on the render thread.
+     */
+    @Nullable
+    @RenderThread
+    private GLBakedGlyph lookupGlyph(@Nonnull Font font, int fontSize, int glyphId, boolean sync) {
         if (font instanceof OutlineFont) {
             java.awt.Font awtFont = ((OutlineFont) font).chooseFont(fontSize);
             long key = computeGlyphKey(awtFont, glyphId);
@@ -306,7 +628,6 @@ public class GlyphManager {
                 // we use mipmapping and SDF, so 2px width border around it
                 ImmediateContext context = Core.requireImmediateContext();
                 mFontAtlas = new GLFontAtlas(context, Engine.MASK_FORMAT_A8, GLYPH_BORDER, true);
-                mDevice = (GLDevice) context.getDevice();
             }
             GLBakedGlyph glyph = mFontAtlas.getGlyph(key);
             if (glyph != null && glyph.x == Integer.MIN_VALUE) {
@@ -315,7 +636,8 @@ public class GlyphManager {
                         glyphId,
                         mFontAtlas,
                         glyph,
-                        key
+                        key,
+                        sync
                 );
             }
             return glyph;
@@ -325,7 +647,6 @@ public class GlyphManager {
                 // we assume emoji images have a border, and no additional border
                 ImmediateContext context = Core.requireImmediateContext();
                 mEmojiAtlas = new GLFontAtlas(context, Engine.MASK_FORMAT_ARGB, 0, true);
-                mDevice = (GLDevice) context.getDevice();
             }
             GLBakedGlyph glyph = mEmojiAtlas.getGlyph(key);
             if (glyph != null && glyph.x == Integer.MIN_VALUE) {
@@ -342,28 +663,7 @@ public class GlyphManager {
             if (bitmapFont.nothingToDraw()) {
                 return null;
             }
-            if (bitmapFont.fitsInAtlas()) {
-                long key = computeBitmapGlyphKey(bitmapFont, glyphId);
-                if (mBitmapAtlas == null) {
-                    ImmediateContext context = Core.requireImmediateContext();
-                    mBitmapAtlas = new GLFontAtlas(context, Engine.MASK_FORMAT_ARGB, 0, false);
-                    mDevice = (GLDevice) context.getDevice();
-                }
-                GLBakedGlyph glyph = mBitmapAtlas.getGlyph(key);
-                if (glyph != null && glyph.x == Integer.MIN_VALUE) {
-                    return cacheBitmapGlyph(
-                            bitmapFont,
-                            glyphId,
-                            mBitmapAtlas,
-                            glyph,
-                            key
-                    );
-                }
-                return glyph;
-            } else {
-                // auto bake
-                return bitmapFont.getBakedGlyph(glyphId);
-            }
+            return lookupBitmapGlyph(bitmapFont, glyphId);
         } else if (font instanceof AtlasSpriteFont atlasSpriteFont) {
             TextureAtlas atlas = Minecraft.getInstance().getAtlasManager().getAtlasOrThrow(atlasSpriteFont.atlasId());
             TextureAtlasSprite sprite = atlas.getSprite(atlasSpriteFont.spriteId());
@@ -382,47 +682,96 @@ public class GlyphManager {
         return null;
     }
 
+    /**
+     * @param page the atlas page, see {@link GLBakedGlyph#page}
+     */
     @RenderThread
-    public GpuTextureView getCurrentTexture(int maskFormat) {
+    public GpuTextureView getCurrentTexture(int maskFormat, int page) {
+        GLFontAtlas atlas = null;
         if (maskFormat == Engine.MASK_FORMAT_A8) {
-            GLTexture texture;
-            if (mFontAtlas != null && (texture = mFontAtlas.mTexture) != null) {
-                mDevice.generateMipmaps(texture);
-                return mFontAtlas.mTextureWrapperView;
-            }
+            atlas = mFontAtlas;
         } else if (maskFormat == Engine.MASK_FORMAT_ARGB) {
-            GLTexture texture;
-            if (mEmojiAtlas != null && (texture = mEmojiAtlas.mTexture) != null) {
-                mDevice.generateMipmaps(texture);
-                return mEmojiAtlas.mTextureWrapperView;
-            }
+            atlas = mEmojiAtlas;
+        }
+        if (atlas != null) {
+            atlas.flush();
+            atlas.updateMipmaps();
+            return atlas.getTextureView(page);
         }
         return null;
     }
 
+    @RenderThread
+    public GpuTextureView getCurrentTexture(int maskFormat) {
+        return getCurrentTexture(maskFormat, 0);
+    }
+
+    public GpuTextureView getFontTexture(int page) {
+        return getCurrentTexture(Engine.MASK_FORMAT_A8, page);
+    }
+
     public GpuTextureView getFontTexture() {
-        return getCurrentTexture(Engine.MASK_FORMAT_A8);
+        return getFontTexture(0);
+    }
+
+    public GpuTextureView getEmojiTexture(int page) {
+        return getCurrentTexture(Engine.MASK_FORMAT_ARGB, page);
     }
 
     public GpuTextureView getEmojiTexture() {
-        return getCurrentTexture(Engine.MASK_FORMAT_ARGB);
+        return getEmojiTexture(0);
     }
 
+    /**
+     * @param page the atlas page, see {@link GLBakedGlyph#page}
+     * @see #lookupDistanceFieldGlyph(Font, int, int)
+     */
     @RenderThread
-    public GpuTextureView getCurrentTexture(BitmapFont font) {
+    public GpuTextureView getDistanceFieldTexture(int page) {
+        if (mDistanceFieldAtlas != null) {
+            mDistanceFieldAtlas.flush();
+            return mDistanceFieldAtlas.getTextureView(page);
+        }
+        return null;
+    }
+
+    /**
+     * Distance field textures have no mipmaps, they must be sampled at base level.
+     *
+     * @return true if the texture is a page of the distance field atlas
+     */
+    public boolean isDistanceFieldTexture(@Nonnull GpuTextureView texture) {
+        final GLFontAtlas atlas = mDistanceFieldAtlas;
+        if (atlas != null) {
+            for (int i = 0, n = atlas.getPageCount(); i < n; i++) {
+                if (atlas.getTextureView(i) == texture) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param page the atlas page, see {@link GLBakedGlyph#page}
+     */
+    @RenderThread
+    public GpuTextureView getCurrentTexture(BitmapFont font, int page) {
         if (font.nothingToDraw()) {
             return null;
         }
-        if (font.fitsInAtlas()) {
-            if (mBitmapAtlas != null && mBitmapAtlas.mTexture != null) {
-                return mBitmapAtlas.mTextureWrapperView;
-            }
-        } else {
-            return font.getCurrentTexture();
+        if (mBitmapAtlas != null) {
+            mBitmapAtlas.flush();
+            return mBitmapAtlas.getTextureView(page);
         }
         return null;
     }
 
+    @RenderThread
+    public GpuTextureView getCurrentTexture(BitmapFont font) {
+        return getCurrentTexture(font, 0);
+    }
+
     /**
      * Compact atlases immediately.
      */
@@ -450,23 +799,33 @@ public class GlyphManager {
             }
             didWork = true;
         }
+        if (mDistanceFieldAtlas != null && mDistanceFieldAtlas.compact()) {
+            var info = new AtlasInvalidationInfo(Engine.MASK_FORMAT_A8, false);
+            for (var callback : mAtlasInvalidationCallbacks) {
+                callback.accept(info);
+            }
+        }
         if (didWork) {
-            // Some glyph have been evicted, also remove them from fast char sets
-            for (var glyphStrike : mFontTable.values()) {
-                for (var fastCharSet : glyphStrike.mFastCharMap.values()) {
-                    fastCharSet.glyphs.removeIf(glyph -> glyph.x == Integer.MIN_VALUE);
-                }
+            removeEvictedFastChars();
+        }
+    }
+
+    private void removeEvictedFastChars() {
+        // Some glyph have been evicted, also remove them from fast char sets
+        for (var glyphStrike : mFontTable.values()) {
+            for (var fastCharSet : glyphStrike.mFastCharMap.values()) {
+                fastCharSet.glyphs.removeIf(glyph -> glyph.x == Integer.MIN_VALUE);
             }
-            for (var glyphStrike : mBitmapFontTable.values()) {
-                for (var fastCharSet : glyphStrike.mFastCharMap.values()) {
-                    fastCharSet.glyphs.removeIf(glyph -> glyph.x == Integer.MIN_VALUE);
-                }
+        }
+        for (var glyphStrike : mBitmapFontTable.values()) {
+            for (var fastCharSet : glyphStrike.mFastCharMap.values()) {
+                fastCharSet.glyphs.removeIf(glyph -> glyph.x == Integer.MIN_VALUE);
             }
         }
     }
 
     /**
-     * Clear unused entries and perform atlas resizing.
+     * Clear unused entries and upload pending glyphs.
      */
     public void onEndRenderTick() {
         if (System.nanoTime() - mLastPurgeNanos >= 20_000_000_000L) {
@@ -474,36 +833,64 @@ public class GlyphManager {
             compact();
         }
         GLFontAtlas atlas;
-        if ((atlas = mFontAtlas) != null && atlas.mResizeRequested) {
-            if (atlas.resize()) {
-                var info = new AtlasInvalidationInfo(Engine.MASK_FORMAT_A8, true);
-                for (var callback : mAtlasInvalidationCallbacks) {
-                    callback.accept(info);
-                }
-            }
+        uploadRasterizedGlyphs();
+        // glyphs stitched in this frame are uploaded in batch
+        final int frame = ++mFrame;
+        boolean evicted = false;
+        if ((atlas = mFontAtlas) != null) {
+            atlas.flush();
+            atlas.endFrame(frame);
+            evicted = fireEvictedGlyphs(atlas);
         }
-        if ((atlas = mEmojiAtlas) != null && atlas.mResizeRequested) {
-            if (atlas.resize()) {
-                var info = new AtlasInvalidationInfo(Engine.MASK_FORMAT_ARGB, true);
-                for (var callback : mAtlasInvalidationCallbacks) {
-                    callback.accept(info);
-                }
-            }
+        if ((atlas = mEmojiAtlas) != null) {
+            atlas.flush();
+            atlas.endFrame(frame);
+            evicted |= fireEvictedGlyphs(atlas);
         }
-        if ((atlas = mBitmapAtlas) != null && atlas.mResizeRequested) {
-            if (atlas.resize()) {
-                var info = new AtlasInvalidationInfo(Engine.MASK_FORMAT_ARGB, true);
-                for (var callback : mAtlasInvalidationCallbacks) {
-                    callback.accept(info);
-                }
+        if ((atlas = mBitmapAtlas) != null) {
+            atlas.flush();
+            atlas.endFrame(frame);
+            evicted |= fireEvictedGlyphs(atlas);
+        }
+        if ((atlas = mDistanceFieldAtlas) != null) {
+            atlas.flush();
+            atlas.endFrame(frame);
+            // no fast chars
+            fireEvictedGlyphs(atlas);
+        }
+        if (evicted) {
+            removeEvictedFastChars();
+        }
+    }
+
+    // glyphs evicted by stitching at the hard cap need to be looked up again
+    private boolean fireEvictedGlyphs(@Nonnull GLFontAtlas atlas) {
+        if (atlas.consumeEvictedGlyphs()) {
+            var info = new AtlasInvalidationInfo(atlas.getMaskFormat(), false);
+            for (var callback : mAtlasInvalidationCallbacks) {
+                callback.accept(info);
             }
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * @return the number of frames elapsed, used for glyph LRU
+     */
+    int getFrame() {
+        return mFrame;
     }
 
     public void debug() {
         debug(mFontAtlas, "FontAtlas");
         debug(mEmojiAtlas, "EmojiAtlas");
         debug(mBitmapAtlas, "BitmapAtlas");
+        debug(mDistanceFieldAtlas, "DistanceFieldAtlas");
+    }
+
+    public void debugBitmapAtlas() {
+        debug(mBitmapAtlas, "BitmapAtlas");
     }
 
     private static void debug(GLFontAtlas atlas, String name) {
@@ -514,6 +901,15 @@ public class GlyphManager {
     }
 
     public void dumpInfo(PrintWriter pw) {
+        pw.print("GlyphRaster: Pending=");
+        pw.print(mPendingGlyphs.size());
+        pw.print(", Threads=");
+        pw.print(mRasterExecutor.getPoolSize());
+        pw.print(", AsyncRasterized=");
+        pw.println(mAsyncRasterizedGlyphs);
+        if (mDiskCache != null) {
+            mDiskCache.dumpInfo(pw);
+        }
         if (mFontAtlas != null) {
             mFontAtlas.dumpInfo(pw, "FontAtlas");
         }
@@ -523,76 +919,236 @@ public class GlyphManager {
         if (mBitmapAtlas != null) {
             mBitmapAtlas.dumpInfo(pw, "BitmapAtlas");
         }
+        if (mDistanceFieldAtlas != null) {
+            mDistanceFieldAtlas.dumpInfo(pw, "DistanceFieldAtlas");
+        }
     }
 
     @Nullable
     @RenderThread
     private GLBakedGlyph cacheGlyph(@Nonnull java.awt.Font font, int glyphCode,
                                     @Nonnull GLFontAtlas atlas, @Nonnull GLBakedGlyph glyph,
-                                    long key) {
-        if (atlas.mResizeRequested) {
+                                    long key, boolean sync) {
+        // distance fields are cheap to regenerate relative to their size, they are not persisted
+        final GlyphDiskCache diskCache = atlas == mFontAtlas ? getDiskCache() : null;
+        var task = new RasterTask(font, glyphCode, atlas, glyph, key,
+                diskCache != null ? getDiskCacheHash(font) : 0);
+        if (diskCache != null) {
+            final int[] bounds = mDiskCacheBounds;
+            byte[] pixels = diskCache.read(task.mDiskCacheHash, glyphCode, bounds);
+            if (pixels != null) {
+                // rasterized in previous sessions
+                task.mX = bounds[0];
+                task.mY = bounds[1];
+                task.mWidth = bounds[2];
+                task.mHeight = bounds[3];
+                task.mPixels = pixels.length != 0 ? pixels : null;
+                if (!uploadGlyph(task)) {
+                    // defer to next frame
+                    return null;
+                }
+                return task.mPixels != null ? glyph : null;
+            }
+        }
+        if (!sync) {
+            if (mPendingGlyphs.add(key)) {
+                mRasterExecutor.execute(task);
+            }
+            // skip it until uploaded
+            return glyph;
+        }
+        mRasterizer.rasterize(task);
+        if (!uploadGlyph(task)) {
             // defer to next frame
             return null;
         }
-        // there's no need to layout glyph vector, we only draw the specific glyphCode
-        // which is already laid-out in LayoutEngine
-        GlyphVector vector = font.createGlyphVector(mGraphics.getFontRenderContext(), new int[]{glyphCode});
-
-        Rectangle bounds = vector.getPixelBounds(null, 0, 0);
+        writeDiskCache(task);
+        return task.mPixels != null ? glyph : null;
+    }
 
-        if (bounds.width == 0 || bounds.height == 0) {
-            atlas.setNoPixels(key);
-            return null;
+    /**
+     * Upload a rasterized glyph to the atlas.
+     *
+     * @return false if the atlas is full
+     */
+    @RenderThread
+    private boolean uploadGlyph(@Nonnull RasterTask task) {
+        final GLFontAtlas atlas = task.mAtlas;
+        final GLBakedGlyph glyph = task.mGlyph;
+        if (task.mPixels == null) {
+            atlas.setNoPixels(task.mKey);
+            // layouts may hold the placeholder returned by an async lookup,
+            // resolve it to an empty glyph so that they stop waiting for it
+            glyph.x = 0;
+            glyph.y = 0;
+            glyph.width = 0;
+            glyph.height = 0;
+            return true;
         }
+        glyph.x = task.mX;
+        glyph.y = task.mY;
+        glyph.width = (short) task.mWidth;
+        glyph.height = (short) task.mHeight;
 
-        //glyph.advance = vector.getGlyphMetrics(0).getAdvanceX();
-        glyph.x = bounds.x;
-        glyph.y = bounds.y;
-        glyph.width = (short) bounds.width;
-        glyph.height = (short) bounds.height;
-        int borderedWidth = bounds.width + GLYPH_BORDER * 2;
-        int borderedHeight = bounds.height + GLYPH_BORDER * 2;
-
-        if (borderedWidth > mImage.getWidth() || borderedHeight > mImage.getHeight()) {
-            atlas.setNoPixels(key);
-            return null;
+        long src = MemoryUtil.memAddress(mImageBuffer.put(task.mPixels).flip());
+        boolean success = atlas.stitch(task.mKey, glyph, src);
+        mImageBuffer.clear();
+        if (!success) {
+            // invalidate glyph image and defer to next frame
+            glyph.x = Integer.MIN_VALUE;
+            return false;
         }
+        if (task.mDistanceField) {
+            // obfuscated text uses normal glyphs
+            return true;
+        }
+        int standardWidth = computeStandardWidth(glyph, task.mFont.getSize());
+        mFontTable.get(task.mFont).mFastCharMap
+                .computeIfAbsent(standardWidth, __ -> new FastCharSet())
+                .glyphs.add(glyph);
+        return true;
+    }
 
-        // give it an offset to draw at origin
-        mGraphics.drawGlyphVector(vector, GLYPH_BORDER - bounds.x, GLYPH_BORDER - bounds.y);
-
-        // copy raw pixel data from BufferedImage to imageData array with one integer per pixel in 0xAARRGGBB form
-        mImage.getRGB(0, 0, borderedWidth, borderedHeight, mImageData, 0, borderedWidth);
+    /**
+     * Upload glyphs that have been rasterized by worker threads.
+     */
+    @RenderThread
+    private void uploadRasterizedGlyphs() {
+        RasterTask task;
+        while ((task = mRasterizedGlyphs.peek()) != null) {
+            if (task.mGeneration == mRasterGeneration &&
+                    (task.mAtlas == mFontAtlas || task.mAtlas == mDistanceFieldAtlas)) {
+                // the glyph may have been rasterized synchronously or removed
+                if (isPending(task.mGlyph) && task.mAtlas.hasGlyph(task.mKey, task.mGlyph)) {
+                    if (!uploadGlyph(task)) {
+                        break;
+                    }
+                    assert !isPending(task.mGlyph);
+                    writeDiskCache(task);
+                    mAsyncRasterizedGlyphs++;
+                }
+                mPendingGlyphs.remove(task.mKey);
+            }
+            mRasterizedGlyphs.poll();
+        }
+    }
 
-        final int size = borderedWidth * borderedHeight;
-        if (atlas.getMaskFormat() == Engine.MASK_FORMAT_A8) {
-            for (int i = 0; i < size; i++) {
-                // alpha channel for grayscale texture
-                mImageBuffer.put((byte) (mImageData[i] >>> 24));
+    /**
+     * Rasterize glyphs of the given code points in advance, this can be called from
+     * any thread. Each code point is assigned to the first family that has a glyph for it,
+     * as font itemization does, only outline fonts in plain style are rasterized.
+     * The results are uploaded later by {@link #uploadPrewarmedGlyphs(PrewarmedGlyphs)}.
+     *
+     * @param families   the font families in fallback order
+     * @param fontSize   the font size in device space
+     * @param codePoints the code points to rasterize
+     */
+    @Nonnull
+    public static PrewarmedGlyphs prewarmGlyphs(@Nonnull Collection<FontFamily> families, int fontSize,
+                                                @Nonnull IntCollection codePoints) {
+        final var prewarmed = new PrewarmedGlyphs(sAntiAliasing, sFractionalMetrics);
+        final var outlineFonts = new LinkedHashMap<OutlineFont, StringBuilder>();
+        for (var it = codePoints.iterator(); it.hasNext(); ) {
+            int ch = it.nextInt();
+            for (var family : families) {
+                Font font = family.getClosestMatch(FontPaint.NORMAL);
+                if (font != null && font.hasGlyph(ch, 0)) {
+                    if (font instanceof OutlineFont outlineFont) {
+                        outlineFonts.computeIfAbsent(outlineFont, __ -> new StringBuilder())
+                                .appendCodePoint(ch);
+                    }
+                    break;
+                }
             }
-        } else {
-            // used only when texture swizzle is broken
-            for (int i = 0; i < size; i++) {
-                mImageBuffer.put((byte) 255).put((byte) 255).put((byte) 255)
-                        .put((byte) (mImageData[i] >>> 24));
+        }
+        if (outlineFonts.isEmpty()) {
+            return prewarmed;
+        }
+        final var rasterizer = new Rasterizer(prewarmed.mAntiAliasing, prewarmed.mFractionalMetrics);
+        final var glyphCodes = new IntOpenHashSet();
+        final int[] bounds = new int[4];
+        for (var e : outlineFonts.entrySet()) {
+            java.awt.Font awtFont = e.getKey().chooseFont(fontSize);
+            // map characters to glyphs one-to-one, as lookupFastChars() does
+            GlyphVector vector = awtFont.createGlyphVector(
+                    rasterizer.mGraphics.getFontRenderContext(), e.getValue().toString());
+            final int missingGlyph = awtFont.getMissingGlyphCode();
+            glyphCodes.clear();
+            for (int i = 0, n = vector.getNumGlyphs(); i < n; i++) {
+                int glyphCode = vector.getGlyphCode(i);
+                if (glyphCode == missingGlyph || !glyphCodes.add(glyphCode)) {
+                    continue;
+                }
+                try {
+                    byte[] pixels = rasterizer.rasterize(awtFont, glyphCode, Engine.MASK_FORMAT_A8, bounds);
+                    prewarmed.mGlyphs.add(new PrewarmedGlyph(awtFont, glyphCode,
+                            bounds[0], bounds[1], bounds[2], bounds[3], pixels));
+                } catch (Throwable t) {
+                    LOGGER.warn(MARKER, "Failed to rasterize glyph {} of {}", glyphCode, awtFont, t);
+                }
             }
         }
-        long src = MemoryUtil.memAddress(mImageBuffer.flip());
+        return prewarmed;
+    }
 
-        boolean success = atlas.stitch(key, glyph, src);
-        if (!success) {
-            // invalidate glyph image and defer to next frame
-            glyph.x = Integer.MIN_VALUE;
-            return null;
+    /**
+     * Stitch glyphs rasterized by {@link #prewarmGlyphs(Collection, int, IntCollection)}
+     * into the font atlas, they are uploaded in one batch on next flush. This should be
+     * called after {@link #reload()}, glyphs rasterized with outdated settings are dropped.
+     *
+     * @return the number of glyphs stitched
+     */
+    @RenderThread
+    public int uploadPrewarmedGlyphs(@Nonnull PrewarmedGlyphs prewarmed) {
+        if (prewarmed.mGlyphs.isEmpty() ||
+                prewarmed.mAntiAliasing != mRasterizer.mAntiAliasing ||
+                prewarmed.mFractionalMetrics != mRasterizer.mFractionalMetrics) {
+            return 0;
         }
-        int standardWidth = computeStandardWidth(glyph, font.getSize());
-        mFontTable.get(font).mFastCharMap
-                .computeIfAbsent(standardWidth, __ -> new FastCharSet())
-                .glyphs.add(glyph);
+        if (mFontAtlas == null) {
+            ImmediateContext context = Core.requireImmediateContext();
+            mFontAtlas = new GLFontAtlas(context, Engine.MASK_FORMAT_A8, GLYPH_BORDER, true);
+        }
+        final GlyphDiskCache diskCache = getDiskCache();
+        int count = 0;
+        for (var g : prewarmed.mGlyphs) {
+            long key = computeGlyphKey(g.font(), g.glyphCode());
+            GLBakedGlyph glyph = mFontAtlas.getGlyph(key);
+            if (glyph == null || !isPending(glyph) || mPendingGlyphs.contains(key)) {
+                continue;
+            }
+            var task = new RasterTask(g.font(), g.glyphCode(), mFontAtlas, glyph, key,
+                    diskCache != null ? getDiskCacheHash(g.font()) : 0);
+            task.mX = g.x();
+            task.mY = g.y();
+            task.mWidth = g.width();
+            task.mHeight = g.height();
+            task.mPixels = g.pixels();
+            if (!uploadGlyph(task)) {
+                // no more space, the rest will be rasterized on demand
+                break;
+            }
+            writeDiskCache(task);
+            count++;
+        }
+        LOGGER.info(MARKER, "Prewarmed {} glyphs of {} rasterized", count, prewarmed.mGlyphs.size());
+        return count;
+    }
 
-        mGraphics.clearRect(0, 0, mImage.getWidth(), mImage.getHeight());
-        mImageBuffer.clear();
-        return glyph;
+    /**
+     * Returns whether the glyph returned by {@link #lookupGlyph(Font, int, int)} is still
+     * being rasterized and has no image yet, such glyphs should be skipped for this frame.
+     */
+    public static boolean isPending(@Nonnull GLBakedGlyph glyph) {
+        return glyph.x == Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns whether the glyph was rasterized asynchronously and turned out to have
+     * no image (e.g. whitespace), such glyphs have nothing to draw and are complete.
+     */
+    public static boolean isEmpty(@Nonnull GLBakedGlyph glyph) {
+        return glyph.width == 0 || glyph.height == 0;
     }
 
     @Nullable
@@ -600,15 +1156,25 @@ public class GlyphManager {
     private GLBakedGlyph cacheEmoji(@Nonnull EmojiFont font, int glyphId,
                                     @Nonnull GLFontAtlas atlas, @Nonnull GLBakedGlyph glyph,
                                     long key) {
-        if (atlas.mResizeRequested) {
-            // defer to next frame
-            return null;
-        }
         if (glyphId == 0) {
             atlas.setNoPixels(key);
             return null;
         }
-        String path = "emoji/" + font.getFileName(glyphId);
+        String fileName = font.getFileName(glyphId);
+        EmojiSheets sheets = FontResourceManager.getInstance().getEmojiSheets();
+        if (sheets != null && sheets.getImage(fileName, mImageBuffer)) {
+            glyph.x = 0;
+            glyph.y = -EMOJI_ASCENT;
+            glyph.width = EMOJI_SIZE;
+            glyph.height = EMOJI_SIZE;
+            if (!atlas.stitch(key, glyph, MemoryUtil.memAddress(mImageBuffer))) {
+                // invalidate glyph image and defer to next frame
+                glyph.x = Integer.MIN_VALUE;
+                return null;
+            }
+            return glyph;
+        }
+        String path = "emoji/" + fileName;
         var opts = new BitmapFactory.Options();
         opts.inPreferredFormat = Bitmap.Format.RGBA_8888;
         try (InputStream inputStream = ModernUI.getInstance().getResourceStream(ModernUI.ID, path);
@@ -644,10 +1210,6 @@ public class GlyphManager {
     private GLBakedGlyph cacheBitmapGlyph(@Nonnull BitmapFont font, int glyphId,
                                           @Nonnull GLFontAtlas atlas, @Nonnull GLBakedGlyph glyph,
                                           long key) {
-        if (atlas.mResizeRequested) {
-            // defer to next frame
-            return null;
-        }
         long src = MemoryUtil.memAddress(mImageBuffer);
         if (!font.getGlyphImage(glyphId, src)) {
             atlas.setNoPixels(key);
@@ -675,35 +1237,10 @@ public class GlyphManager {
     }
 
     private void allocateImage() {
-        mImage = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_ARGB);
-        mGraphics = mImage.createGraphics();
-
-        mImageData = new int[IMAGE_SIZE * IMAGE_SIZE];
-        mImageBuffer = BufferUtils.createByteBuffer(mImageData.length * 4); // auto GC
-
-        // set background color for use with clearRect()
-        mGraphics.setBackground(BG_COLOR);
-
-        // drawImage() to this buffer will copy all source pixels instead of alpha blending them into the current image
-        mGraphics.setComposite(AlphaComposite.Src);
-
-        // this only for shape rendering, so we turn it off
-        mGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
-
-        if (sAntiAliasing) {
-            mGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        } else {
-            mGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                    RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
-        }
-        if (sFractionalMetrics) {
-            mGraphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
-                    RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-        } else {
-            mGraphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
-                    RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
-        }
+        mRasterizer = new Rasterizer(sAntiAliasing, sFractionalMetrics);
+        mDiskCacheSettings = computeDiskCacheSettings(
+                mRasterizer.mAntiAliasing, mRasterizer.mFractionalMetrics);
+        mImageBuffer = BufferUtils.createByteBuffer(IMAGE_SIZE * IMAGE_SIZE * 4); // auto GC
     }
 
     /**
@@ -720,8 +1257,9 @@ public class GlyphManager {
             // Emojis are not supported for obfuscated rendering
             return null;
         }
-        GLBakedGlyph glyph = lookupGlyph(font, fontSize, glyphId);
-        if (glyph == null) {
+        // we need the width of the original glyph now
+        GLBakedGlyph glyph = lookupGlyph(font, fontSize, glyphId, true);
+        if (glyph == null || isPending(glyph)) {
             // The original glyph is empty
             return null;
         }
@@ -910,6 +1448,285 @@ public class GlyphManager {
         return new FastCharSet(glyphs, offsets);
     }*/
 
+    /**
+     * Draws glyphs onto an image and converts them to the atlas format. Each worker thread
+     * owns one, so they do not contend on the image or the graphics.
+     */
+    private static final class Rasterizer {
+
+        final boolean mAntiAliasing;
+        final boolean mFractionalMetrics;
+
+        /**
+         * Draw a single glyph onto this image and then loaded from here into an OpenGL texture.
+         */
+        final BufferedImage mImage;
+
+        /**
+         * The Graphics2D associated with glyph image and used for bit blit.
+         */
+        final Graphics2D mGraphics;
+
+        /**
+         * Intermediate data array for use with image.
+         */
+        final int[] mImageData;
+
+        final int[] mBounds = new int[4];
+
+        // created on first use
+        DistanceFieldGenerator mDistanceFieldGenerator;
+
+        Rasterizer(boolean antiAliasing, boolean fractionalMetrics) {
+            mAntiAliasing = antiAliasing;
+            mFractionalMetrics = fractionalMetrics;
+            mImage = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_ARGB);
+            mGraphics = mImage.createGraphics();
+
+            mImageData = new int[IMAGE_SIZE * IMAGE_SIZE];
+
+            // set background color for use with clearRect()
+            mGraphics.setBackground(BG_COLOR);
+
+            // drawImage() to this buffer will copy all source pixels instead of alpha blending them into the current image
+            mGraphics.setComposite(AlphaComposite.Src);
+
+            // this only for shape rendering, so we turn it off
+            mGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+
+            if (antiAliasing) {
+                mGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                        RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            } else {
+                mGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                        RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+            }
+            if (fractionalMetrics) {
+                mGraphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+                        RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            } else {
+                mGraphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+                        RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+            }
+        }
+
+        /**
+         * Rasterize the glyph of the task, fill in its bounds and pixels (including border),
+         * pixels are left null if the glyph has nothing to render.
+         */
+        void rasterize(@Nonnull RasterTask task) {
+            final int[] bounds = mBounds;
+            byte[] pixels = task.mDistanceField
+                    ? rasterizeDistanceField(task.mFont, task.mGlyphCode, bounds)
+                    : rasterize(task.mFont, task.mGlyphCode, task.mAtlas.getMaskFormat(), bounds);
+            if (pixels != null) {
+                task.mX = bounds[0];
+                task.mY = bounds[1];
+                task.mWidth = bounds[2];
+                task.mHeight = bounds[3];
+                task.mPixels = pixels;
+            }
+        }
+
+        /**
+         * Rasterize a glyph, fill in its bounds (x, y, width, height).
+         *
+         * @return pixels (including border), or null if the glyph has nothing to render
+         */
+        @Nullable
+        byte[] rasterize(@Nonnull java.awt.Font font, int glyphCode, int maskFormat,
+                         @Nonnull int[] outBounds) {
+            Rectangle bounds = draw(font, glyphCode, GLYPH_BORDER);
+            if (bounds == null) {
+                return null;
+            }
+
+            final int size = (bounds.width + GLYPH_BORDER * 2) * (bounds.height + GLYPH_BORDER * 2);
+            final byte[] pixels;
+            if (maskFormat == Engine.MASK_FORMAT_A8) {
+                pixels = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    // alpha channel for grayscale texture
+                    pixels[i] = (byte) (mImageData[i] >>> 24);
+                }
+            } else {
+                // used only when texture swizzle is broken
+                pixels = new byte[size * 4];
+                for (int i = 0, j = 0; i < size; i++) {
+                    pixels[j++] = (byte) 255;
+                    pixels[j++] = (byte) 255;
+                    pixels[j++] = (byte) 255;
+                    pixels[j++] = (byte) (mImageData[i] >>> 24);
+                }
+            }
+
+            outBounds[0] = bounds.x;
+            outBounds[1] = bounds.y;
+            outBounds[2] = bounds.width;
+            outBounds[3] = bounds.height;
+            return pixels;
+        }
+
+        /**
+         * Rasterize a glyph into an A8 signed distance field, fill in its bounds
+         * (x, y, width, height), which include the spread of the distance field.
+         *
+         * @return pixels, or null if the glyph has nothing to render
+         */
+        @Nullable
+        byte[] rasterizeDistanceField(@Nonnull java.awt.Font font, int glyphCode,
+                                      @Nonnull int[] outBounds) {
+            final int spread = DISTANCE_FIELD_SPREAD;
+            Rectangle bounds = draw(font, glyphCode, spread);
+            if (bounds == null) {
+                return null;
+            }
+
+            final int width = bounds.width + spread * 2;
+            final int height = bounds.height + spread * 2;
+            final int size = width * height;
+            final byte[] coverage = new byte[size];
+            for (int i = 0; i < size; i++) {
+                coverage[i] = (byte) (mImageData[i] >>> 24);
+            }
+            if (mDistanceFieldGenerator == null) {
+                mDistanceFieldGenerator = new DistanceFieldGenerator();
+            }
+
+            outBounds[0] = bounds.x - spread;
+            outBounds[1] = bounds.y - spread;
+            outBounds[2] = width;
+            outBounds[3] = height;
+            return mDistanceFieldGenerator.generate(coverage, width, height, spread);
+        }
+
+        /**
+         * Draw a glyph at the origin with the given border, and copy its image into
+         * {@link #mImageData}, with one integer per pixel in 0xAARRGGBB form.
+         *
+         * @return the pixel bounds of the glyph (excluding border), or null if the glyph
+         * has nothing to render or it is too large
+         */
+        @Nullable
+        private Rectangle draw(@Nonnull java.awt.Font font, int glyphCode, int border) {
+            // there's no need to layout glyph vector, we only draw the specific glyphCode
+            // which is already laid-out in LayoutEngine
+            GlyphVector vector = font.createGlyphVector(mGraphics.getFontRenderContext(),
+                    new int[]{glyphCode});
+
+            Rectangle bounds = vector.getPixelBounds(null, 0, 0);
+
+            if (bounds.width == 0 || bounds.height == 0) {
+                return null;
+            }
+
+            int borderedWidth = bounds.width + border * 2;
+            int borderedHeight = bounds.height + border * 2;
+
+            if (borderedWidth > mImage.getWidth() || borderedHeight > mImage.getHeight()) {
+                return null;
+            }
+
+            // give it an offset to draw at origin
+            mGraphics.drawGlyphVector(vector, border - bounds.x, border - bounds.y);
+
+            // copy raw pixel data from BufferedImage to imageData array
+            mImage.getRGB(0, 0, borderedWidth, borderedHeight, mImageData, 0, borderedWidth);
+
+            mGraphics.clearRect(0, 0, mImage.getWidth(), mImage.getHeight());
+            return bounds;
+        }
+    }
+
+    private static final class RasterThread extends Thread {
+
+        // recreated when rendering hints changed
+        Rasterizer mRasterizer;
+
+        RasterThread(Runnable task, String name) {
+            super(task, name);
+        }
+    }
+
+    private final class RasterTask implements Runnable {
+
+        final java.awt.Font mFont;
+        final int mGlyphCode;
+        final GLFontAtlas mAtlas;
+        final GLBakedGlyph mGlyph;
+        final long mKey;
+        final long mDiskCacheHash;
+        final boolean mDistanceField;
+        final int mGeneration;
+        final boolean mAntiAliasing;
+        final boolean mFractionalMetrics;
+
+        // results
+        int mX;
+        int mY;
+        int mWidth;
+        int mHeight;
+        byte[] mPixels;
+
+        RasterTask(java.awt.Font font, int glyphCode, GLFontAtlas atlas,
+                   GLBakedGlyph glyph, long key, long diskCacheHash) {
+            mFont = font;
+            mGlyphCode = glyphCode;
+            mAtlas = atlas;
+            mGlyph = glyph;
+            mKey = key;
+            mDiskCacheHash = diskCacheHash;
+            mDistanceField = atlas == mDistanceFieldAtlas;
+            mGeneration = mRasterGeneration;
+            mAntiAliasing = mRasterizer.mAntiAliasing;
+            mFractionalMetrics = mRasterizer.mFractionalMetrics;
+        }
+
+        @Override
+        public void run() {
+            var thread = (RasterThread) Thread.currentThread();
+            Rasterizer rasterizer = thread.mRasterizer;
+            if (rasterizer == null ||
+                    rasterizer.mAntiAliasing != mAntiAliasing ||
+                    rasterizer.mFractionalMetrics != mFractionalMetrics) {
+                thread.mRasterizer = rasterizer = new Rasterizer(mAntiAliasing, mFractionalMetrics);
+            }
+            try {
+                rasterizer.rasterize(this);
+            } catch (Throwable t) {
+                mPixels = null;
+                LOGGER.warn(MARKER, "Failed to rasterize glyph {} of {}", mGlyphCode, mFont, t);
+            }
+            // the queue is the happens-before edge to render thread
+            mRasterizedGlyphs.add(this);
+        }
+    }
+
+    /**
+     * Glyph images rasterized in advance, see {@link #prewarmGlyphs(Collection, int, IntCollection)}.
+     */
+    public static final class PrewarmedGlyphs {
+
+        final boolean mAntiAliasing;
+        final boolean mFractionalMetrics;
+        final ArrayList<PrewarmedGlyph> mGlyphs = new ArrayList<>();
+
+        PrewarmedGlyphs(boolean antiAliasing, boolean fractionalMetrics) {
+            mAntiAliasing = antiAliasing;
+            mFractionalMetrics = fractionalMetrics;
+        }
+
+        public int size() {
+            return mGlyphs.size();
+        }
+    }
+
+    // pixels is null if nothing to render
+    private record PrewarmedGlyph(java.awt.Font font, int glyphCode,
+                                  int x, int y, int width, int height,
+                                  byte[] pixels) {
+    }
+
     /**
      * FastCharSet have uniform widths.
      * <p>
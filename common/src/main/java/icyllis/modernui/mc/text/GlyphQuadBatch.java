@@ -0,0 +1,197 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import icyllis.modernui.annotation.RenderThread;
+import org.joml.Matrix4f;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Collects glyph quads of the same render type in local space, then transforms and
+ * emits them in bulk. Local rects are stored as separate arrays, so the transform
+ * loop is straight-line arithmetic over arrays, which the JIT can unroll and vectorize.
+ * Like {@link Matrix4f#transformPosition}, the fourth row of the matrix is ignored,
+ * then a quad is transformed as two corners plus the width edge, instead of four
+ * full matrix multiplications, and the consumer no longer transforms each vertex.
+ * <p>
+ * The batch grows as needed, so all quads of a render type are emitted in one flush,
+ * and quads of different batches never interleave within a render type.
+ *
+ * @see TextLayout#drawText
+ */
+@RenderThread
+final class GlyphQuadBatch {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // local space, left, top, right, bottom, depth and italic skews
+    private float[] mLeft = new float[INITIAL_CAPACITY];
+    private float[] mTop = new float[INITIAL_CAPACITY];
+    private float[] mRight = new float[INITIAL_CAPACITY];
+    private float[] mBottom = new float[INITIAL_CAPACITY];
+    private float[] mDepth = new float[INITIAL_CAPACITY];
+    private float[] mUpSkew = new float[INITIAL_CAPACITY];
+    private float[] mDownSkew = new float[INITIAL_CAPACITY];
+
+    private float[] mU1 = new float[INITIAL_CAPACITY];
+    private float[] mV1 = new float[INITIAL_CAPACITY];
+    private float[] mU2 = new float[INITIAL_CAPACITY];
+    private float[] mV2 = new float[INITIAL_CAPACITY];
+    private int[] mColors = new int[INITIAL_CAPACITY];
+
+    // transformed vertices, 4 vertices of (x, y, z) for each quad
+    private float[] mVertices = new float[INITIAL_CAPACITY * 12];
+
+    private int mCount;
+
+    /**
+     * Add a quad.
+     *
+     * @param color the color in 0xAARRGGBB format
+     */
+    void add(float left, float top, float right, float bottom, float depth,
+             float upSkew, float downSkew, int color,
+             float u1, float v1, float u2, float v2) {
+        final int i = mCount++;
+        if (i == mColors.length) {
+            grow(i << 1);
+        }
+        mLeft[i] = left;
+        mTop[i] = top;
+        mRight[i] = right;
+        mBottom[i] = bottom;
+        mDepth[i] = depth;
+        mUpSkew[i] = upSkew;
+        mDownSkew[i] = downSkew;
+        mColors[i] = color;
+        mU1[i] = u1;
+        mV1[i] = v1;
+        mU2[i] = u2;
+        mV2[i] = v2;
+    }
+
+    private void grow(int capacity) {
+        mLeft = Arrays.copyOf(mLeft, capacity);
+        mTop = Arrays.copyOf(mTop, capacity);
+        mRight = Arrays.copyOf(mRight, capacity);
+        mBottom = Arrays.copyOf(mBottom, capacity);
+        mDepth = Arrays.copyOf(mDepth, capacity);
+        mUpSkew = Arrays.copyOf(mUpSkew, capacity);
+        mDownSkew = Arrays.copyOf(mDownSkew, capacity);
+        mU1 = Arrays.copyOf(mU1, capacity);
+        mV1 = Arrays.copyOf(mV1, capacity);
+        mU2 = Arrays.copyOf(mU2, capacity);
+        mV2 = Arrays.copyOf(mV2, capacity);
+        mColors = Arrays.copyOf(mColors, capacity);
+        mVertices = new float[capacity * 12];
+    }
+
+    /**
+     * Transform all quads and emit them to the given consumer, then reset this batch.
+     * Vertex order is the same as drawing each quad with
+     * {@link VertexConsumer#addVertex(Matrix4f, float, float, float)}.
+     *
+     * @param mesh records the quads in local space if not null
+     */
+    void flush(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder, int packedLight,
+               @Nullable TextMesh.Builder mesh) {
+        final int count = mCount;
+        if (count == 0) {
+            return;
+        }
+        mCount = 0;
+        if (mesh != null) {
+            record(mesh, count);
+        }
+        transform(matrix, count);
+        final float[] vertices = mVertices;
+        for (int i = 0; i < count; i++) {
+            final int color = mColors[i];
+            final float u1 = mU1[i], v1 = mV1[i], u2 = mU2[i], v2 = mV2[i];
+            final int j = i * 12;
+            builder.addVertex(vertices[j], vertices[j + 1], vertices[j + 2])
+                    .setColor(color).setUv(u1, v1).setLight(packedLight);
+            builder.addVertex(vertices[j + 3], vertices[j + 4], vertices[j + 5])
+                    .setColor(color).setUv(u1, v2).setLight(packedLight);
+            builder.addVertex(vertices[j + 6], vertices[j + 7], vertices[j + 8])
+                    .setColor(color).setUv(u2, v2).setLight(packedLight);
+            builder.addVertex(vertices[j + 9], vertices[j + 10], vertices[j + 11])
+                    .setColor(color).setUv(u2, v1).setLight(packedLight);
+        }
+    }
+
+    private void record(@Nonnull TextMesh.Builder mesh, int count) {
+        for (int i = 0; i < count; i++) {
+            mesh.addQuad(mLeft[i], mTop[i], mRight[i], mBottom[i], mDepth[i],
+                    mUpSkew[i], mDownSkew[i], mColors[i],
+                    mU1[i], mV1[i], mU2[i], mV2[i]);
+        }
+    }
+
+    private void transform(@Nonnull Matrix4f matrix, int count) {
+        final float m00 = matrix.m00(), m01 = matrix.m01(), m02 = matrix.m02();
+        final float m10 = matrix.m10(), m11 = matrix.m11(), m12 = matrix.m12();
+        final float m20 = matrix.m20(), m21 = matrix.m21(), m22 = matrix.m22();
+        final float m30 = matrix.m30(), m31 = matrix.m31(), m32 = matrix.m32();
+        final float[] left = mLeft, top = mTop, right = mRight, bottom = mBottom, depth = mDepth;
+        final float[] upSkew = mUpSkew, downSkew = mDownSkew;
+        final float[] vertices = mVertices;
+        for (int i = 0; i < count; i++) {
+            // corners are (l + upSkew, t), (l + downSkew, b), (r + downSkew, b), (r + upSkew, t)
+            final float x0 = left[i] + upSkew[i];
+            final float x1 = left[i] + downSkew[i];
+            final float t = top[i];
+            final float b = bottom[i];
+            final float w = right[i] - left[i];
+            final float z = depth[i];
+            // the origin of the depth plane
+            final float ox = m20 * z + m30;
+            final float oy = m21 * z + m31;
+            final float oz = m22 * z + m32;
+            // top-left and bottom-left
+            final float tx = m00 * x0 + m10 * t + ox;
+            final float ty = m01 * x0 + m11 * t + oy;
+            final float tz = m02 * x0 + m12 * t + oz;
+            final float bx = m00 * x1 + m10 * b + ox;
+            final float by = m01 * x1 + m11 * b + oy;
+            final float bz = m02 * x1 + m12 * b + oz;
+            // the width edge
+            final float ex = m00 * w;
+            final float ey = m01 * w;
+            final float ez = m02 * w;
+            final int j = i * 12;
+            vertices[j] = tx;
+            vertices[j + 1] = ty;
+            vertices[j + 2] = tz;
+            vertices[j + 3] = bx;
+            vertices[j + 4] = by;
+            vertices[j + 5] = bz;
+            vertices[j + 6] = bx + ex;
+            vertices[j + 7] = by + ey;
+            vertices[j + 8] = bz + ez;
+            vertices[j + 9] = tx + ex;
+            vertices[j + 10] = ty + ey;
+            vertices[j + 11] = tz + ez;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.modernui.graphics.MathUtil;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Decoded arrays of a {@link TextLayout}, and the compact encoding of them.
+ * <p>
+ * A cached layout keeps all its arrays in a single packed int buffer, laid out as
+ * struct-of-arrays: chars as 16-bit pairs, positions and advances as fixed-point
+ * shorts when they round-trip exactly at the created resolution level (they are
+ * usually whole device pixels), y positions omitted or stored sparsely (they are
+ * almost always zero), font indices as bytes, and glyph flags run-length encoded
+ * (they only change with style runs). The decoded arrays are only held while the
+ * layout is in use, see {@link TextLayout#trim()}, so rendering still iterates over
+ * plain arrays.
+ * <p>
+ * This class is immutable, final fields ensure safe publication across threads.
+ */
+final class LayoutArrays {
+
+    // header: glyph count, char count, format, flag run count, y count,
+    // line boundary count, segment count
+    private static final int HEADER_SIZE = 7;
+
+    private static final int FORMAT_FIXED_POSITIONS = 0x1;
+    private static final int FORMAT_SPARSE_Y = 0x2;
+    private static final int FORMAT_DENSE_Y = 0x4;
+    private static final int FORMAT_FONT_INDICES = 0x8;
+    private static final int FORMAT_ADVANCES = 0x10;
+    private static final int FORMAT_FIXED_ADVANCES = 0x20;
+    private static final int FORMAT_LINE_BOUNDARIES = 0x40;
+    private static final int FORMAT_SEGMENTS = 0x80;
+
+    /**
+     * The copied text buffer without formatting codes in logical order.
+     */
+    final char[] mTextBuf;
+
+    /**
+     * All glyph IDs for rendering, empty glyphs have been removed from this array.
+     * The order is visually left-to-right (i.e. in visual order).
+     */
+    final int[] mGlyphs;
+
+    /**
+     * Position x1 y1 x2 y2... relative to the same point, for rendering glyphs.
+     * Same indexing with {@link #mGlyphs}, in Minecraft GUI coordinates.
+     */
+    final float[] mPositions;
+
+    final byte[] mFontIndices;
+
+    /**
+     * Advances of grapheme cluster bounds in logical order, in Minecraft GUI coordinates.
+     */
+    final float[] mAdvances;
+
+    /*
+     * lower 24 bits - 0xRRGGBB color
+     * higher 8 bits
+     * |--------|
+     *         1  BOLD
+     *        1   ITALIC
+     *       1    UNDERLINE
+     *      1     STRIKETHROUGH
+     *     1      OBFUSCATED
+     *    1       COLOR_EMOJI_REPLACEMENT
+     *   1        BITMAP_REPLACEMENT
+     *  1         IMPLICIT_COLOR
+     * |--------|
+     */
+    /**
+     * Glyph rendering flags. Same indexing with {@link #mGlyphs}, in visual order.
+     */
+    final int[] mGlyphFlags;
+
+    /**
+     * Strip indices that are boundaries for Unicode line breaking, in logical order.
+     */
+    final int[] mLineBoundaries;
+
+    /**
+     * Safe boundaries for incremental relayout, char index and glyph index pairs,
+     * and x positions at the boundaries.
+     */
+    final int[] mSegments;
+    final float[] mSegmentOffsets;
+
+    LayoutArrays(@Nonnull char[] textBuf, @Nonnull int[] glyphs,
+                 @Nonnull float[] positions, @Nullable byte[] fontIndices,
+                 @Nullable float[] advances, @Nonnull int[] glyphFlags,
+                 @Nullable int[] lineBoundaries,
+                 @Nullable int[] segments, @Nullable float[] segmentOffsets) {
+        mTextBuf = textBuf;
+        mGlyphs = glyphs;
+        mPositions = positions;
+        mFontIndices = fontIndices;
+        mAdvances = advances;
+        mGlyphFlags = glyphFlags;
+        mLineBoundaries = lineBoundaries;
+        mSegments = segments;
+        mSegmentOffsets = segmentOffsets;
+        assert mAdvances == null ||
+                mTextBuf.length == mAdvances.length;
+        assert mGlyphs.length * 2 == mPositions.length;
+        assert mGlyphs.length == mGlyphFlags.length;
+        assert mSegments == null ||
+                mSegments.length == mSegmentOffsets.length * 2;
+    }
+
+    /**
+     * @return memory size in bytes of the decoded arrays
+     */
+    int getMemorySize() {
+        int m = 0;
+        m += 16 + MathUtil.align8(mTextBuf.length << 1);
+        m += 16 + MathUtil.align8(mGlyphs.length << 2); // glyphs
+        m += 16 + MathUtil.align8(mPositions.length << 2); // positions
+        if (mFontIndices != null) {
+            m += 16 + MathUtil.align8(mFontIndices.length);
+        }
+        if (mAdvances != null) {
+            m += 16 + MathUtil.align8(mAdvances.length << 2);
+        }
+        m += 16 + MathUtil.align8(mGlyphFlags.length << 2); // flags
+        if (mLineBoundaries != null) {
+            m += 16 + MathUtil.align8(mLineBoundaries.length << 2);
+        }
+        if (mSegments != null) {
+            m += 16 + MathUtil.align8(mSegments.length << 2);
+            m += 16 + MathUtil.align8(mSegmentOffsets.length << 2);
+        }
+        return m + 48;
+    }
+
+    /**
+     * Encodes these arrays into a single buffer.
+     *
+     * @param scale the resolution level for fixed-point values
+     * @return the packed buffer
+     */
+    @Nonnull
+    int[] pack(int scale) {
+        final int glyphCount = mGlyphs.length;
+        final int charCount = mTextBuf.length;
+        final float[] positions = mPositions;
+        final int[] flags = mGlyphFlags;
+
+        int format = 0;
+        if (isFixed(positions, 0, 2, glyphCount, scale)) {
+            format |= FORMAT_FIXED_POSITIONS;
+        }
+        int yCount = 0;
+        for (int i = 1; i < positions.length; i += 2) {
+            if (positions[i] != 0) {
+                yCount++;
+            }
+        }
+        if (yCount != 0) {
+            // sparse takes two ints per value
+            format |= yCount * 2 <= glyphCount ? FORMAT_SPARSE_Y : FORMAT_DENSE_Y;
+        }
+        if (mFontIndices != null) {
+            format |= FORMAT_FONT_INDICES;
+        }
+        int runCount = 0;
+        for (int i = 0; i < glyphCount; i++) {
+            if (i == 0 || flags[i] != flags[i - 1]) {
+                runCount++;
+            }
+        }
+        if (mAdvances != null) {
+            format |= FORMAT_ADVANCES;
+            if (isFixed(mAdvances, 0, 1, charCount, scale)) {
+                format |= FORMAT_FIXED_ADVANCES;
+            }
+        }
+        if (mLineBoundaries != null) {
+            format |= FORMAT_LINE_BOUNDARIES;
+        }
+        if (mSegments != null) {
+            format |= FORMAT_SEGMENTS;
+        }
+
+        int size = HEADER_SIZE + ((charCount + 1) >> 1) + glyphCount;
+        size += (format & FORMAT_FIXED_POSITIONS) != 0 ? (glyphCount + 1) >> 1 : glyphCount;
+        if ((format & FORMAT_SPARSE_Y) != 0) {
+            size += yCount * 2;
+        } else if ((format & FORMAT_DENSE_Y) != 0) {
+            size += glyphCount;
+        }
+        if (mFontIndices != null) {
+            size += (glyphCount + 3) >> 2;
+        }
+        size += runCount * 2;
+        if (mAdvances != null) {
+            size += (format & FORMAT_FIXED_ADVANCES) != 0 ? (charCount + 1) >> 1 : charCount;
+        }
+        if (mLineBoundaries != null) {
+            size += mLineBoundaries.length;
+        }
+        if (mSegments != null) {
+            size += mSegments.length + mSegmentOffsets.length;
+        }
+
+        final int[] data = new int[size];
+        data[0] = glyphCount;
+        data[1] = charCount;
+        data[2] = format;
+        data[3] = runCount;
+        data[4] = yCount;
+        data[5] = mLineBoundaries != null ? mLineBoundaries.length : 0;
+        data[6] = mSegments != null ? mSegments.length : 0;
+        int p = HEADER_SIZE;
+
+        for (int i = 0; i < charCount; i += 2) {
+            int hi = i + 1 < charCount ? mTextBuf[i + 1] : 0;
+            data[p++] = mTextBuf[i] | hi << 16;
+        }
+        System.arraycopy(mGlyphs, 0, data, p, glyphCount);
+        p += glyphCount;
+        if ((format & FORMAT_FIXED_POSITIONS) != 0) {
+            p = putFixed(positions, 0, 2, glyphCount, scale, data, p);
+        } else {
+            for (int i = 0; i < glyphCount; i++) {
+                data[p++] = Float.floatToRawIntBits(positions[i << 1]);
+            }
+        }
+        if ((format & FORMAT_SPARSE_Y) != 0) {
+            for (int i = 0; i < glyphCount; i++) {
+                float y = positions[i << 1 | 1];
+                if (y != 0) {
+                    data[p++] = i;
+                    data[p++] = Float.floatToRawIntBits(y);
+                }
+            }
+        } else if ((format & FORMAT_DENSE_Y) != 0) {
+            for (int i = 0; i < glyphCount; i++) {
+                data[p++] = Float.floatToRawIntBits(positions[i << 1 | 1]);
+            }
+        }
+        if (mFontIndices != null) {
+            for (int i = 0; i < glyphCount; i += 4) {
+                int v = 0;
+                for (int j = 0, e = Math.min(4, glyphCount - i); j < e; j++) {
+                    v |= (mFontIndices[i + j] & 0xFF) << (j << 3);
+                }
+                data[p++] = v;
+            }
+        }
+        for (int i = 0; i < glyphCount; ) {
+            int bits = flags[i];
+            int start = i++;
+            while (i < glyphCount && flags[i] == bits) {
+                i++;
+            }
+            data[p++] = i - start;
+            data[p++] = bits;
+        }
+        if (mAdvances != null) {
+            if ((format & FORMAT_FIXED_ADVANCES) != 0) {
+                p = putFixed(mAdvances, 0, 1, charCount, scale, data, p);
+            } else {
+                for (int i = 0; i < charCount; i++) {
+                    data[p++] = Float.floatToRawIntBits(mAdvances[i]);
+                }
+            }
+        }
+        if (mLineBoundaries != null) {
+            System.arraycopy(mLineBoundaries, 0, data, p, mLineBoundaries.length);
+            p += mLineBoundaries.length;
+        }
+        if (mSegments != null) {
+            System.arraycopy(mSegments, 0, data, p, mSegments.length);
+            p += mSegments.length;
+            for (float offset : mSegmentOffsets) {
+                data[p++] = Float.floatToRawIntBits(offset);
+            }
+        }
+        assert p == size;
+        return data;
+    }
+
+    /**
+     * Decodes arrays from a buffer created by {@link #pack(int)}.
+     *
+     * @param data  the packed buffer
+     * @param scale the resolution level that was used to pack
+     * @return the decoded arrays
+     */
+    @Nonnull
+    static LayoutArrays unpack(@Nonnull int[] data, int scale) {
+        final int glyphCount = data[0];
+        final int charCount = data[1];
+        final int format = data[2];
+        final int runCount = data[3];
+        final int yCount = data[4];
+        int p = HEADER_SIZE;
+
+        final char[] textBuf = new char[charCount];
+        for (int i = 0; i < charCount; i += 2) {
+            int v = data[p++];
+            textBuf[i] = (char) v;
+            if (i + 1 < charCount) {
+                textBuf[i + 1] = (char) (v >>> 16);
+            }
+        }
+        final int[] glyphs = new int[glyphCount];
+        System.arraycopy(data, p, glyphs, 0, glyphCount);
+        p += glyphCount;
+        final float[] positions = new float[glyphCount << 1];
+        if ((format & FORMAT_FIXED_POSITIONS) != 0) {
+            p = getFixed(data, p, positions, 0, 2, glyphCount, scale);
+        } else {
+            for (int i = 0; i < glyphCount; i++) {
+                positions[i << 1] = Float.intBitsToFloat(data[p++]);
+            }
+        }
+        if ((format & FORMAT_SPARSE_Y) != 0) {
+            for (int i = 0; i < yCount; i++) {
+                int index = data[p++];
+                positions[index << 1 | 1] = Float.intBitsToFloat(data[p++]);
+            }
+        } else if ((format & FORMAT_DENSE_Y) != 0) {
+            for (int i = 0; i < glyphCount; i++) {
+                positions[i << 1 | 1] = Float.intBitsToFloat(data[p++]);
+            }
+        }
+        byte[] fontIndices = null;
+        if ((format & FORMAT_FONT_INDICES) != 0) {
+            fontIndices = new byte[glyphCount];
+            for (int i = 0; i < glyphCount; i += 4) {
+                int v = data[p++];
+                for (int j = 0, e = Math.min(4, glyphCount - i); j < e; j++) {
+                    fontIndices[i + j] = (byte) (v >>> (j << 3));
+                }
+            }
+        }
+        final int[] flags = new int[glyphCount];
+        for (int i = 0, j = 0; i < runCount; i++) {
+            int length = data[p++];
+            int bits = data[p++];
+            for (int e = j + length; j < e; j++) {
+                flags[j] = bits;
+            }
+        }
+        float[] advances = null;
+        if ((format & FORMAT_ADVANCES) != 0) {
+            advances = new float[charCount];
+            if ((format & FORMAT_FIXED_ADVANCES) != 0) {
+                p = getFixed(data, p, advances, 0, 1, charCount, scale);
+            } else {
+                for (int i = 0; i < charCount; i++) {
+                    advances[i] = Float.intBitsToFloat(data[p++]);
+                }
+            }
+        }
+        int[] lineBoundaries = null;
+        if ((format & FORMAT_LINE_BOUNDARIES) != 0) {
+            lineBoundaries = new int[data[5]];
+            System.arraycopy(data, p, lineBoundaries, 0, lineBoundaries.length);
+            p += lineBoundaries.length;
+        }
+        int[] segments = null;
+        float[] segmentOffsets = null;
+        if ((format & FORMAT_SEGMENTS) != 0) {
+            segments = new int[data[6]];
+            System.arraycopy(data, p, segments, 0, segments.length);
+            p += segments.length;
+            segmentOffsets = new float[segments.length >> 1];
+            for (int i = 0; i < segmentOffsets.length; i++) {
+                segmentOffsets[i] = Float.intBitsToFloat(data[p++]);
+            }
+        }
+        assert p == data.length;
+        return new LayoutArrays(textBuf, glyphs, positions, fontIndices,
+                advances, flags, lineBoundaries, segments, segmentOffsets);
+    }
+
+    private static float fromFixed(int value, int scale) {
+        return (float) value / scale;
+    }
+
+    /**
+     * Whether all values are whole multiples of 1/scale that fit into shorts,
+     * and decode to exactly the same float.
+     */
+    private static boolean isFixed(@Nonnull float[] src, int offset, int stride,
+                                   int count, int scale) {
+        for (int i = 0; i < count; i++) {
+            float v = src[offset + i * stride];
+            float d = v * scale;
+            if (!(d >= Short.MIN_VALUE && d <= Short.MAX_VALUE)) {
+                return false;
+            }
+            if (fromFixed(Math.round(d), scale) != v) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // two shorts per int
+    private static int putFixed(@Nonnull float[] src, int offset, int stride,
+                                int count, int scale, @Nonnull int[] dst, int p) {
+        for (int i = 0; i < count; i += 2) {
+            int lo = Math.round(src[offset + i * stride] * scale) & 0xFFFF;
+            int hi = i + 1 < count
+                    ? Math.round(src[offset + (i + 1) * stride] * scale) << 16
+                    : 0;
+            dst[p++] = lo | hi;
+        }
+        return p;
+    }
+
+    private static int getFixed(@Nonnull int[] src, int p, @Nonnull float[] dst,
+                                int offset, int stride, int count, int scale) {
+        for (int i = 0; i < count; i += 2) {
+            int v = src[p++];
+            dst[offset + i * stride] = fromFixed((short) v, scale);
+            if (i + 1 < count) {
+                dst[offset + (i + 1) * stride] = fromFixed(v >> 16, scale);
+            }
+        }
+        return p;
+    }
+}
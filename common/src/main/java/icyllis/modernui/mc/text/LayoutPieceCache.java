@@ -0,0 +1,214 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2024 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.modernui.graphics.text.Font;
+import icyllis.modernui.graphics.text.FontCollection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Second-level cache of shaped words (pieces), owned by a {@link TextLayoutEngine} and
+ * shared by all its {@link TextLayoutProcessor}s.
+ * Whole-string layouts that differ only in a few words (chat spam, scoreboards, F3)
+ * reuse the shaped results of the other words. This is similar to
+ * {@link icyllis.modernui.graphics.text.LayoutCache} but keyed by the font collection
+ * of Minecraft text and holds glyph positions relative to the piece start.
+ * <p>
+ * The number of pieces is bounded, overflow is resolved by a CLOCK hand. Pieces hold
+ * font references, the engine clears this cache on {@link TextLayoutEngine#clear()}.
+ */
+public final class LayoutPieceCache {
+
+    /**
+     * Max number of pieces.
+     */
+    public static final int MAX_ENTRIES = 4096;
+    /**
+     * Longer words are not cached.
+     */
+    public static final int MAX_PIECE_LENGTH = 48;
+
+    private final ConcurrentHashMap<Key, Piece> mCache = new ConcurrentHashMap<>();
+
+    // guarded by mCache
+    private Iterator<Piece> mClockHand;
+
+    LayoutPieceCache() {
+    }
+
+    @Nullable
+    public Piece get(@Nonnull Lookup key) {
+        Piece piece = mCache.get(key);
+        if (piece != null) {
+            // benign race
+            piece.mReferenced = true;
+        }
+        return piece;
+    }
+
+    public void put(@Nonnull Key key, @Nonnull Piece piece) {
+        piece.mKey = key;
+        mCache.put(key, piece);
+        if (mCache.size() > MAX_ENTRIES) {
+            evict();
+        }
+    }
+
+    public void clear() {
+        synchronized (mCache) {
+            mCache.clear();
+            mClockHand = null;
+        }
+    }
+
+    public int size() {
+        return mCache.size();
+    }
+
+    private void evict() {
+        synchronized (mCache) {
+            int steps = MAX_ENTRIES * 2 + 1;
+            while (mCache.size() > MAX_ENTRIES && steps-- > 0) {
+                Iterator<Piece> hand = mClockHand;
+                if (hand == null || !hand.hasNext()) {
+                    mClockHand = hand = mCache.values().iterator();
+                    if (!hand.hasNext()) {
+                        break;
+                    }
+                }
+                Piece piece = hand.next();
+                if (piece.mReferenced) {
+                    piece.mReferenced = false;
+                } else {
+                    mCache.remove(piece.mKey, piece);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shaped result of a piece, positions are relative to the piece start,
+     * font indices refer to {@link #mFonts}.
+     */
+    public static final class Piece {
+
+        final int[] mGlyphs;
+        final float[] mPositions;
+        final byte[] mFontIndices;
+        final Font[] mFonts;
+        final float[] mAdvances;
+        final float mAdvance;
+
+        Key mKey;
+        boolean mReferenced;
+
+        public Piece(@Nonnull int[] glyphs, @Nonnull float[] positions,
+                     @Nonnull byte[] fontIndices, @Nonnull Font[] fonts,
+                     @Nonnull float[] advances, float advance) {
+            mGlyphs = glyphs;
+            mPositions = positions;
+            mFontIndices = fontIndices;
+            mFonts = fonts;
+            mAdvances = advances;
+            mAdvance = advance;
+        }
+    }
+
+    /**
+     * Storage key, the text is copied.
+     */
+    public static class Key {
+
+        char[] mChars;
+        int mStart;
+        int mLength;
+        FontCollection mFontCollection;
+        // font style, size and flags affecting shaping
+        int mParams;
+
+        int mHash;
+
+        Key() {
+        }
+
+        private Key(@Nonnull Lookup lookup) {
+            mChars = Arrays.copyOfRange(lookup.mChars, lookup.mStart, lookup.mStart + lookup.mLength);
+            mStart = 0;
+            mLength = lookup.mLength;
+            mFontCollection = lookup.mFontCollection;
+            mParams = lookup.mParams;
+            mHash = lookup.mHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o.getClass() != Key.class) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mLength == key.mLength &&
+                    mParams == key.mParams &&
+                    mFontCollection == key.mFontCollection &&
+                    Arrays.equals(mChars, mStart, mStart + mLength,
+                            key.mChars, key.mStart, key.mStart + key.mLength);
+        }
+    }
+
+    /**
+     * Lookup key, a view of the text, owned by a processor.
+     */
+    public static class Lookup extends Key {
+
+        @Nonnull
+        public Lookup update(@Nonnull char[] text, int start, int limit,
+                             @Nonnull FontCollection fontCollection,
+                             int fontStyle, int fontSize,
+                             boolean antiAlias, boolean linearMetrics) {
+            mChars = text;
+            mStart = start;
+            mLength = limit - start;
+            mFontCollection = fontCollection;
+            mParams = fontStyle | (fontSize << 2) |
+                    (antiAlias ? 1 << 30 : 0) | (linearMetrics ? 1 << 29 : 0);
+            int h = 1;
+            for (int i = start; i < limit; i++) {
+                h = 31 * h + text[i];
+            }
+            h = 31 * h + System.identityHashCode(fontCollection);
+            h = 31 * h + mParams;
+            mHash = h;
+            return this;
+        }
+
+        @Nonnull
+        public Key copy() {
+            return new Key(this);
+        }
+    }
+}
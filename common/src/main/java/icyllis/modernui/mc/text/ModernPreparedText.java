@@ -46,7 +46,7 @@ public class ModernPreparedText implements Font.PreparedText {
     public static final ModernPreparedText EMPTY = new ModernPreparedText(
             1, 0, false, 0, 0,
             0, 0, null,
-            new ArrayList<>(), false, 0,
+            new ArrayList<>(), null, 0,
             null, null, null
     );
 
@@ -72,7 +72,8 @@ public class ModernPreparedText implements Font.PreparedText {
     private final float top;
     private final ScreenRectangle bounds;
     private final ArrayList<TextRun> runs;
-    private final boolean hasEffect;
+    @Nullable
+    private final TextEffectSpans effectSpans;
     private final float totalAdvance;
     private final GLBakedGlyph[] glyphs;
     private final float[] positions;
@@ -80,13 +81,13 @@ public class ModernPreparedText implements Font.PreparedText {
 
     ModernPreparedText(float density, float shadowOffset, boolean dropShadow, int color,
                        int bgColor, float x, float top, ScreenRectangle bounds,
-                       ArrayList<TextRun> runs, boolean hasEffect, float totalAdvance,
+                       ArrayList<TextRun> runs, @Nullable TextEffectSpans effectSpans, float totalAdvance,
                        GLBakedGlyph[] glyphs, float[] positions, int[] flags) {
         this(null, null, false,
                 /*stripPoseTranslation*/ false,
                 density, shadowOffset, dropShadow, color,
                 bgColor, x, top, bounds,
-                runs, hasEffect, totalAdvance,
+                runs, effectSpans, totalAdvance,
                 glyphs, positions, flags);
     }
 
@@ -96,7 +97,7 @@ public class ModernPreparedText implements Font.PreparedText {
                        boolean stripPoseTranslation,
                        float density, float shadowOffset, boolean dropShadow, int color,
                        int bgColor, float x, float top, ScreenRectangle bounds,
-                       ArrayList<TextRun> runs, boolean hasEffect, float totalAdvance,
+                       ArrayList<TextRun> runs, @Nullable TextEffectSpans effectSpans, float totalAdvance,
                        GLBakedGlyph[] glyphs, float[] positions, int[] flags) {
         this.sourceFont = sourceFont;
         this.sourceText = sourceText;
@@ -111,7 +112,7 @@ public class ModernPreparedText implements Font.PreparedText {
         this.top = top;
         this.bounds = bounds;
         this.runs = runs;
-        this.hasEffect = hasEffect;
+        this.effectSpans = effectSpans;
         this.totalAdvance = totalAdvance;
         this.glyphs = glyphs;
         this.positions = positions;
@@ -161,6 +162,7 @@ public class ModernPreparedText implements Font.PreparedText {
         RenderPipeline pipeline = null;
 
         GpuTextureView fontTexture = null;
+        int fontPage = -1;
 
         Rect2f bounds = Rect2f.makeInfiniteInverted();
 
@@ -201,10 +203,22 @@ public class ModernPreparedText implements Font.PreparedText {
                 }
                 glyphs[i] = glyph;
             }
+            if (GlyphManager.isPending(glyph)) {
+                // still rasterizing, do not draw it even if it is uploaded before this is rendered
+                if (!glyphArrayIsCopied) {
+                    glyphArrayIsCopied = true;
+                    glyphs = glyphs.clone();
+                }
+                glyphs[i] = null;
+                continue;
+            }
+            if (GlyphManager.isEmpty(glyph)) {
+                continue;
+            }
             if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
                 final float scaleFactor;
                 if (layout.getFont(i) instanceof BitmapFont bitmapFont) {
-                    texture = GlyphManager.getInstance().getCurrentTexture(bitmapFont);
+                    texture = GlyphManager.getInstance().getCurrentTexture(bitmapFont, glyph.page);
                     ascent = -glyph.y / TextLayoutEngine.BITMAP_SCALE;
                     scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
                     isBitmapFont = true;
@@ -214,7 +228,7 @@ public class ModernPreparedText implements Font.PreparedText {
                     scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
                     isBitmapFont = true;
                 } else {
-                    texture = GlyphManager.getInstance().getEmojiTexture();
+                    texture = GlyphManager.getInstance().getEmojiTexture(glyph.page);
                     ascent = TextLayout.STANDARD_BASELINE_OFFSET;
                     scaleFactor = TextLayoutProcessor.sBaseFontSize / GlyphManager.EMOJI_BASE;
                     isColorEmoji = true;
@@ -233,8 +247,9 @@ public class ModernPreparedText implements Font.PreparedText {
 
                 w = glyph.width * invDensity;
                 h = glyph.height * invDensity;
-                if (fontTexture == null) {
-                    fontTexture = GlyphManager.getInstance().getFontTexture();
+                if (fontTexture == null || fontPage != glyph.page) {
+                    fontPage = glyph.page;
+                    fontTexture = GlyphManager.getInstance().getFontTexture(fontPage);
                 }
                 texture = fontTexture;
             }
@@ -287,7 +302,7 @@ public class ModernPreparedText implements Font.PreparedText {
         this.top = top;
         this.bounds = finalBounds;
         this.runs = textRuns;
-        this.hasEffect = layout.hasEffect();
+        this.effectSpans = layout.getEffectSpans();
         this.totalAdvance = layout.getTotalAdvance();
         this.glyphs = glyphs;
         this.positions = positions;
@@ -356,13 +371,12 @@ public class ModernPreparedText implements Font.PreparedText {
                             density, shadowOffset)
             );
         }
-        if (hasEffect) {
+        if (effectSpans != null) {
             renderState.submitGlyphToCurrentLayer(
                     new TextEffectRenderState(pose2d,
                             scissor,
                             x, top, color, dropShadow,
-                            positions, flags,
-                            totalAdvance, shadowOffset)
+                            effectSpans, shadowOffset)
             );
         }
     }
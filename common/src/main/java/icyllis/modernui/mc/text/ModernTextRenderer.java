@@ -22,12 +22,14 @@ import com.mojang.blaze3d.ProjectionType;
 import com.mojang.blaze3d.platform.Window;
 import com.mojang.blaze3d.systems.RenderSystem;
 import icyllis.modernui.graphics.MathUtil;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.Font;
 import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.Sheets;
 import net.minecraft.network.chat.CommonComponents;
 import net.minecraft.network.chat.FormattedText;
+import net.minecraft.network.chat.Style;
 import net.minecraft.util.FormattedCharSequence;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
@@ -58,6 +60,24 @@ public final class ModernTextRenderer {
     public static volatile boolean sComputeDeviceFontSize = true;
     public static volatile boolean sAllowSDFTextIn2D = true;
     public static volatile boolean sTweakExperienceText = true;
+    /**
+     * In 3D world, text whose font size on screen (in pixels) is below these thresholds
+     * is drawn as a proxy quad or skipped, see {@link #computeWorldTextLod}.
+     * Zero to disable.
+     */
+    public static volatile float sWorldTextProxyThreshold = 3.0f;
+    public static volatile float sWorldTextCullThreshold = 1.0f;
+
+    /**
+     * Levels of detail of text in 3D world.
+     */
+    public static final int LOD_FULL = 0;
+    public static final int LOD_PROXY = 1;
+    public static final int LOD_CULLED = 2;
+
+    // render thread only
+    private static long sProxiedGlyphs;
+    private static long sCulledGlyphs;
     //private boolean mGlobalRenderer = false;
 
     //private final TextLayoutEngine mFontEngine = TextLayoutEngine.getInstance();
@@ -82,12 +102,29 @@ public final class ModernTextRenderer {
         }
     }*/
 
+    /**
+     * Max number of places whose long texts are remembered, see {@link #mPreviousLayouts}.
+     */
+    private static final int MAX_PREVIOUS_LAYOUTS = 64;
+
     private final TextLayoutEngine mEngine;
 
+    // render thread only, the long text layout last drawn at the packed screen position,
+    // drawn again while the layout of new text there is computed in background
+    private final Long2ObjectOpenHashMap<TextLayout> mPreviousLayouts = new Long2ObjectOpenHashMap<>();
+    private final Vector3f mTmpPosition = new Vector3f();
+
     public ModernTextRenderer(TextLayoutEngine engine) {
         mEngine = engine;
     }
 
+    /**
+     * Forget layouts previously drawn, called when the layout cache is cleared.
+     */
+    void clearPreviousLayouts() {
+        mPreviousLayouts.clear();
+    }
+
     public float drawText(@Nonnull String text, float x, float y, int color, boolean dropShadow,
                           @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
                           Font.DisplayMode displayMode, int colorBackground, int packedLight) {
@@ -95,7 +132,23 @@ public final class ModernTextRenderer {
             return x;
         }
 
-        TextLayout layout = mEngine.lookupVanillaLayout(text);
+        TextLayout layout;
+        final int threshold = TextLayoutEngine.sAsyncLayoutThreshold;
+        if (threshold > 0 && text.length() >= threshold && RenderSystem.isOnRenderThread()) {
+            // long texts are laid out in background, see TextLayoutEngine.sAsyncLayoutThreshold
+            Vector3f pos = matrix.transformPosition(x, y, 0, mTmpPosition);
+            long site = ((long) Float.floatToRawIntBits(pos.x) << 32) |
+                    (Float.floatToRawIntBits(pos.y) & 0xFFFFFFFFL);
+            layout = mEngine.lookupVanillaLayoutProvisional(text, Style.EMPTY, 0,
+                    mPreviousLayouts.get(site));
+            if (mPreviousLayouts.size() >= MAX_PREVIOUS_LAYOUTS &&
+                    !mPreviousLayouts.containsKey(site)) {
+                mPreviousLayouts.clear();
+            }
+            mPreviousLayouts.put(site, layout);
+        } else {
+            layout = mEngine.lookupVanillaLayout(text);
+        }
         x += drawText(layout, x, y, color, dropShadow, matrix, source, displayMode, colorBackground, packedLight);
         return x;
     }
@@ -141,12 +194,24 @@ public final class ModernTextRenderer {
         int mode = chooseMode(matrix, displayMode);
         boolean polygonOffset = displayMode == Font.DisplayMode.POLYGON_OFFSET;
 
+        if (TextLayoutEngine.sCurrentInWorldRendering) {
+            int lod = computeWorldTextLod(matrix, x, y, layout.getTotalAdvance());
+            if (lod == LOD_CULLED) {
+                sCulledGlyphs += layout.getGlyphCount();
+                return layout.getTotalAdvance();
+            }
+            if (lod == LOD_PROXY) {
+                sProxiedGlyphs += layout.getGlyphCount();
+                layout.drawProxy(matrix, source, x, y, r, g, b, a,
+                        mode == TextRenderType.MODE_SEE_THROUGH, polygonOffset, colorBackground, packedLight);
+                return layout.getTotalAdvance();
+            }
+        }
+
         if (layout.hasColorEmoji() && source instanceof MultiBufferSource.BufferSource) {
             // performance impact
             ((MultiBufferSource.BufferSource) source).endBatch(Sheets.signSheet());
         }
-        // copy the matrix when needed
-        boolean matrixIsCopied = false;
         // compute exact font size and position
         float uniformScale = 1;
         /*if (sComputeDeviceFontSize &&
@@ -194,18 +259,77 @@ public final class ModernTextRenderer {
             }
         }*/
         if (dropShadow && sAllowShadow) {
-            layout.drawText(matrix, source, x, y, r >> 2, g >> 2, b >> 2, a, true,
+            // shadow and foreground in one pass, the foreground is offset by SHADOW_OFFSET
+            return layout.drawTextWithShadow(matrix, source, x, y, r, g, b, a,
                     mode, polygonOffset, uniformScale, colorBackground, packedLight);
-            if (!matrixIsCopied) {
-                matrix = new Matrix4f(matrix);
-            }
-            matrix.translate(SHADOW_OFFSET);
         }
 
         return layout.drawText(matrix, source, x, y, r, g, b, a, false,
                 mode, polygonOffset, uniformScale, colorBackground, packedLight);
     }
 
+    /**
+     * Estimate the font size of text on screen from the transform matrix of text in 3D world,
+     * then choose a level of detail. The matrix is assumed to be relative to the camera, which is
+     * true for vanilla world rendering, and the vertical FOV is taken from options, FOV effects
+     * are ignored. The distance is measured to the midpoint of the text line rather than its
+     * origin, so long lines are not misjudged, e.g. centered name tags.
+     *
+     * @param ctm     the transform matrix from text space to camera-relative space
+     * @param x       the left pos of the text line
+     * @param top     the top of the text line
+     * @param advance the total advance of the text line
+     * @return {@link #LOD_FULL}, {@link #LOD_PROXY} or {@link #LOD_CULLED}
+     */
+    public static int computeWorldTextLod(@Nonnull Matrix4f ctm, float x, float top, float advance) {
+        final float proxyThreshold = sWorldTextProxyThreshold;
+        final float cullThreshold = sWorldTextCullThreshold;
+        if (proxyThreshold <= 0 && cullThreshold <= 0) {
+            return LOD_FULL;
+        }
+        // the midpoint of the text line in camera-relative space
+        final float cx = x + advance * 0.5f;
+        final float cy = top + TextLayoutProcessor.DEFAULT_BASE_FONT_SIZE * 0.5f;
+        final float px = ctm.m00() * cx + ctm.m10() * cy + ctm.m30();
+        final float py = ctm.m01() * cx + ctm.m11() * cy + ctm.m31();
+        final float pz = ctm.m02() * cx + ctm.m12() * cy + ctm.m32();
+        float distance = (float) Math.sqrt(px * px + py * py + pz * pz);
+        if (distance < 1) {
+            // too close, or not camera-relative
+            return LOD_FULL;
+        }
+        // scale of the text space, the larger one of X and Y axes
+        float scale = (float) Math.sqrt(Math.max(
+                ctm.m00() * ctm.m00() + ctm.m01() * ctm.m01() + ctm.m02() * ctm.m02(),
+                ctm.m10() * ctm.m10() + ctm.m11() * ctm.m11() + ctm.m12() * ctm.m12()));
+        Minecraft minecraft = Minecraft.getInstance();
+        double fov = Math.toRadians(minecraft.options.fov().get());
+        // focal length in screen pixels
+        double focal = minecraft.getWindow().getHeight() / (2.0 * Math.tan(fov * 0.5));
+        float fontSize = (float) (TextLayoutProcessor.DEFAULT_BASE_FONT_SIZE * scale / distance * focal);
+        if (fontSize < cullThreshold) {
+            return LOD_CULLED;
+        }
+        if (fontSize < proxyThreshold) {
+            return LOD_PROXY;
+        }
+        return LOD_FULL;
+    }
+
+    /**
+     * @return the number of glyphs drawn as proxy quads in 3D world, since game start
+     */
+    public static long getProxiedGlyphCount() {
+        return sProxiedGlyphs;
+    }
+
+    /**
+     * @return the number of glyphs skipped in 3D world, since game start
+     */
+    public static long getCulledGlyphCount() {
+        return sCulledGlyphs;
+    }
+
     public int chooseMode(Matrix4f ctm, Font.DisplayMode displayMode) {
         if (displayMode == Font.DisplayMode.SEE_THROUGH) {
             return TextRenderType.MODE_SEE_THROUGH;
@@ -283,6 +407,20 @@ public final class ModernTextRenderer {
         int b = color & 0xff;
 
         TextLayout layout = mEngine.lookupFormattedLayout(text);
+        if (TextLayoutEngine.sCurrentInWorldRendering) {
+            int lod = computeWorldTextLod(matrix, x, y, layout.getTotalAdvance());
+            if (lod == LOD_CULLED) {
+                sCulledGlyphs += layout.getGlyphCount();
+                return;
+            }
+            if (lod == LOD_PROXY) {
+                // no outline
+                sProxiedGlyphs += layout.getGlyphCount();
+                layout.drawProxy(matrix, source, x, y, r, g, b, a,
+                        false, false, 0, packedLight);
+                return;
+            }
+        }
         if (layout.hasColorEmoji() && source instanceof MultiBufferSource.BufferSource) {
             // performance impact
             ((MultiBufferSource.BufferSource) source).endBatch(Sheets.signSheet());
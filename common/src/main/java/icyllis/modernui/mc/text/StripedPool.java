@@ -0,0 +1,98 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2024 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A lock-free object pool for heavy scratch objects such as {@link TextLayoutProcessor}.
+ * Instances are kept in slots, the number of slots scales with available processors.
+ * A thread starts probing from a slot derived from its thread ID, so threads rarely
+ * contend on the same slot. Since nothing is bound to the carrier thread or thread-locals,
+ * this also works with virtual threads.
+ * <p>
+ * When no instance is available, a new one is created; when all probed slots are full,
+ * the released instance is dropped. In steady state, acquisition is allocation-free
+ * as long as the number of concurrent callers does not exceed the number of slots.
+ */
+public class StripedPool<T> {
+
+    /**
+     * Number of slots to probe before giving up.
+     */
+    private static final int PROBES = 4;
+
+    private final AtomicReferenceArray<T> mSlots;
+    private final int mMask;
+    private final Supplier<T> mFactory;
+
+    public StripedPool(@Nonnull Supplier<T> factory) {
+        this(Runtime.getRuntime().availableProcessors() * 2, factory);
+    }
+
+    public StripedPool(int capacity, @Nonnull Supplier<T> factory) {
+        capacity = Math.max(capacity, PROBES);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mSlots = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+        mFactory = factory;
+    }
+
+    /**
+     * Takes an instance from this pool, or creates a new one.
+     */
+    @Nonnull
+    public T acquire() {
+        final int start = probe();
+        for (int i = 0; i < PROBES; i++) {
+            int index = (start + i) & mMask;
+            // plain read first to avoid invalidating the cache line
+            if (mSlots.getPlain(index) != null) {
+                T instance = mSlots.getAndSet(index, null);
+                if (instance != null) {
+                    return instance;
+                }
+            }
+        }
+        return mFactory.get();
+    }
+
+    /**
+     * Returns an instance to this pool, it may be dropped if the pool is full.
+     */
+    public void release(@Nonnull T instance) {
+        final int start = probe();
+        for (int i = 0; i < PROBES; i++) {
+            int index = (start + i) & mMask;
+            if (mSlots.getPlain(index) == null &&
+                    mSlots.compareAndSet(index, null, instance)) {
+                return;
+            }
+        }
+    }
+
+    private static int probe() {
+        // virtual threads have unique IDs as well
+        long id = Thread.currentThread().threadId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -36,8 +36,7 @@ public record TextEffectRenderState(
         Matrix3x2f pose,
         @Nullable ScreenRectangle scissorArea,
         float x, float top, int color, boolean dropShadow,
-        float[] positions, int[] flags,
-        float totalAdvance, float shadowOffset
+        TextEffectSpans effectSpans, float shadowOffset
 ) implements GuiElementRenderState {
     @Override
     public void buildVertices(@Nonnull VertexConsumer vertexConsumer) {
@@ -58,8 +57,8 @@ public record TextEffectRenderState(
         int r;
         int g;
         int b;
-        var positions = this.positions;
-        var flags = this.flags;
+        var bounds = effectSpans.mBounds;
+        var flags = effectSpans.mFlags;
         var pose = this.pose;
         float x = this.x;
         if (isShadow) {
@@ -68,9 +67,6 @@ public record TextEffectRenderState(
         }
         for (int i = 0, e = flags.length; i < e; i++) {
             final int bits = flags[i];
-            if ((bits & CharacterStyle.EFFECT_MASK) == 0) {
-                continue;
-            }
             if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
                 r = startR;
                 g = startG;
@@ -85,8 +81,8 @@ public record TextEffectRenderState(
                     b >>= 2;
                 }
             }
-            final float rx1 = x + positions[i << 1];
-            final float rx2 = x + ((i + 1 == e) ? totalAdvance : positions[(i + 1) << 1]);
+            final float rx1 = x + bounds[i << 1];
+            final float rx2 = x + bounds[i << 1 | 1];
             if ((bits & CharacterStyle.STRIKETHROUGH_MASK) != 0) {
                 TextRenderEffect.drawStrikethrough(pose, builder, rx1, rx2, baseline, 0.0F,
                         r, g, b, a);
@@ -0,0 +1,113 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.modernui.graphics.MathUtil;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Underline and strikethrough spans of a {@link TextLayout}. Adjacent glyphs with
+ * the same effect and color flags are merged into one span, so a fully underlined
+ * line is drawn as one rectangle rather than one per glyph.
+ * <p>
+ * This class is immutable, final fields ensure safe publication across threads.
+ *
+ * @see TextLayoutProcessor
+ */
+final class TextEffectSpans {
+
+    // the flags that a span depends on
+    private static final int SPAN_MASK = CharacterStyle.EFFECT_MASK | CharacterStyle.FULL_COLOR_MASK;
+
+    /**
+     * Start x and end x of each span, relative to the layout origin,
+     * in Minecraft GUI coordinates.
+     */
+    final float[] mBounds;
+
+    /**
+     * Effect bits and color of each span, in the format of glyph flags.
+     */
+    final int[] mFlags;
+
+    private TextEffectSpans(@Nonnull float[] bounds, @Nonnull int[] flags) {
+        mBounds = bounds;
+        mFlags = flags;
+    }
+
+    /**
+     * Compute effect spans from glyphs in visual order. The span of a glyph starts at
+     * its position and ends at the position of the next glyph, or the total advance.
+     *
+     * @param positions    glyph positions x1 y1 x2 y2...
+     * @param glyphFlags   glyph flags
+     * @param totalAdvance the total advance of the layout
+     * @return the spans, or null if there is no effect
+     */
+    @Nullable
+    static TextEffectSpans compute(@Nonnull float[] positions, @Nonnull int[] glyphFlags,
+                                   float totalAdvance) {
+        FloatArrayList bounds = null;
+        IntArrayList flags = null;
+        int prevFlags = 0;
+        for (int i = 0, e = glyphFlags.length; i < e; i++) {
+            int bits = glyphFlags[i];
+            if ((bits & CharacterStyle.EFFECT_MASK) == 0) {
+                prevFlags = 0;
+                continue;
+            }
+            bits &= SPAN_MASK;
+            if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                bits &= ~CharacterStyle.COLOR_MASK;
+            }
+            final float start = positions[i << 1];
+            final float end = (i + 1 == e) ? totalAdvance : positions[(i + 1) << 1];
+            if (bits == prevFlags && bounds.getFloat(bounds.size() - 1) == start) {
+                // extend the last span
+                bounds.set(bounds.size() - 1, end);
+            } else {
+                if (bounds == null) {
+                    bounds = new FloatArrayList();
+                    flags = new IntArrayList();
+                }
+                bounds.add(start);
+                bounds.add(end);
+                flags.add(bits);
+            }
+            prevFlags = bits;
+        }
+        if (bounds == null) {
+            return null;
+        }
+        return new TextEffectSpans(bounds.toFloatArray(), flags.toIntArray());
+    }
+
+    int size() {
+        return mFlags.length;
+    }
+
+    int getMemorySize() {
+        return 16 + MathUtil.align8(mBounds.length << 2) +
+                16 + MathUtil.align8(mFlags.length << 2) + 24;
+    }
+}
@@ -20,6 +20,7 @@ package icyllis.modernui.mc.text;
 
 import com.mojang.blaze3d.textures.GpuTextureView;
 import com.mojang.blaze3d.vertex.VertexConsumer;
+import icyllis.modernui.annotation.RenderThread;
 import icyllis.modernui.graphics.MathUtil;
 import icyllis.modernui.graphics.text.Font;
 import icyllis.modernui.util.SparseArray;
@@ -44,24 +45,56 @@ public class TextLayout {
      */
     static final Random RANDOM = new Random();
 
+    /**
+     * Placeholder of baked glyphs for layouts that cannot use distance field glyphs.
+     */
+    private static final GLBakedGlyph[] NO_DISTANCE_FIELD = new GLBakedGlyph[0];
+
+    /**
+     * Placeholder of meshes for layouts that cannot be cached, e.g. obfuscated.
+     */
+    private static final TextMesh[] NO_MESH = new TextMesh[0];
+
+    /**
+     * Passes of {@link #drawText}, the shadow and/or the foreground.
+     */
+    static final int PASS_SHADOW = 0x1;
+    static final int PASS_FOREGROUND = 0x2;
+
+    /**
+     * Glyph quads of the current render type in {@link #drawText}, render thread only.
+     * Shadow quads are flushed before foreground quads, see {@link #flushQuads}.
+     */
+    private static final GlyphQuadBatch sShadowBatch = new GlyphQuadBatch();
+    private static final GlyphQuadBatch sQuadBatch = new GlyphQuadBatch();
+
+    /**
+     * Records the mesh in {@link #drawText}, render thread only.
+     */
+    private static final TextMesh.Builder sMeshBuilder = new TextMesh.Builder();
+
+    // incremented when atlas glyphs are evicted, baked glyphs of older generations are dropped
+    private static int sBakedGeneration;
+
+    /**
+     * Max number of cached meshes per layout, for the same text drawn in different
+     * colors or positions, e.g. sign text with and without glowing.
+     */
+    public static final int MAX_MESHES = 4;
+
+    /**
+     * Config value to cache vertex data of text drawn in 3D world, so drawing unchanged
+     * text again only transforms and copies vertices, see {@link TextMesh}.
+     */
+    public static volatile boolean sCacheWorldTextMeshes = false;
+
     /**
      * Sometimes naive, too simple.
      * <p>
      * This singleton cannot be inserted into the cache!
      */
     public static final TextLayout EMPTY = new TextLayout(new char[0], new int[0], new float[0],
-            null, new Font[0], new float[0], new int[0], new int[]{0}, 0, false, false, 2, ~0) {
-        @Nonnull
-        @Override
-        TextLayout get() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        boolean tick(int lifespan) {
-            throw new UnsupportedOperationException();
-        }
-
+            null, new Font[0], new float[0], new int[0], new int[]{0}, 0, null, false, 2, ~0) {
         @Override
         public float drawText(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
                               float x, float top, int r, int g, int b, int a, boolean isShadow,
@@ -70,6 +103,14 @@ public class TextLayout {
             return 0;
         }
 
+        @Override
+        public float drawTextWithShadow(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                                        float x, float top, int r, int g, int b, int a,
+                                        int preferredMode, boolean polygonOffset, float uniformScale,
+                                        int bgColor, int packedLight) {
+            return 0;
+        }
+
         @Override
         public void drawTextOutline(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source, float x, float top,
                                     int r, int g, int b, int a, int packedLight) {
@@ -88,135 +129,100 @@ public class TextLayout {
     public static float sBaselineOffset = STANDARD_BASELINE_OFFSET;
 
     /**
-     * The copied text buffer without formatting codes in logical order.
+     * The decoded arrays: text buffer, glyphs, positions, font indices, advances, flags,
+     * line boundaries and segments, see {@link LayoutArrays}. Once this layout is packed,
+     * they may be released by {@link #trim()} at any time, so read this field once into
+     * a local variable, or use {@link #getArrays()}.
+     */
+    private transient LayoutArrays mArrays;
+    /**
+     * The compact encoding of {@link #mArrays}, created when this layout is inserted into
+     * a cache, before it is published to other threads. Null for transient layouts.
      */
-    private final char[] mTextBuf;
+    private int[] mPacked;
 
     /**
-     * All baked glyphs for rendering, empty glyphs have been removed from this array.
-     * The order is visually left-to-right (i.e. in visual order). Fast digit chars and
-     * obfuscated chars are {@link icyllis.modernui.mc.text.GlyphManager.FastCharSet}.
+     * Positions and advances are resolution-independent (in GUI units), only baked glyphs
+     * depend on the resolution level, they are looked up lazily when it changes.
      */
-    private final int[] mGlyphs;
     private transient GLBakedGlyph[] mBakedGlyphs;
     private transient GLBakedGlyph[] mBakedGlyphsForSDF;
+    private transient int mBakedResLevel;
+    private transient int mBakedResLevelForSDF;
+    // fixed density, or NO_DISTANCE_FIELD if not applicable
+    private transient GLBakedGlyph[] mBakedGlyphsForDF;
     private transient SparseArray<GLBakedGlyph[]> mBakedGlyphsArray;
+    // cached meshes of world text, or NO_MESH if not applicable
+    private transient TextMesh[] mMeshes;
+    private transient int mNextMesh;
+    // the frame that baked glyphs were last marked as used
+    private transient int mTouchFrame;
+    private transient int mBakedGeneration;
 
-    /**
-     * Position x1 y1 x2 y2... relative to the same point, for rendering glyphs.
-     * These values are not offset to glyph additional baseline but aligned.
-     * Same indexing with {@link #mGlyphs}, align to left, in visual order.
-     * <p>
-     * Note the values are scaled to Minecraft GUI coordinates.
-     */
-    private final float[] mPositions;
-
-    private final byte[] mFontIndices;
     private final Font[] mFonts;
 
     /**
-     * The length and order are relative to the raw string (with formatting codes).
-     * Only grapheme cluster bounds have advances, others are zeros. For example:
-     * [13.57, 0, 14.26, 0, 0]. {@link #mGlyphs}.length may less than grapheme cluster
-     * count (invisible glyphs are removed). Logical order.
+     * Total advance of this text node.
      * <p>
      * Note the values are scaled to Minecraft GUI coordinates.
      */
-    private final float[] mAdvances;
-
-    /*
-     * lower 24 bits - 0xRRGGBB color
-     * higher 8 bits
-     * |--------|
-     *         1  BOLD
-     *        1   ITALIC
-     *       1    UNDERLINE
-     *      1     STRIKETHROUGH
-     *     1      OBFUSCATED
-     *    1       COLOR_EMOJI_REPLACEMENT
-     *   1        BITMAP_REPLACEMENT
-     *  1         IMPLICIT_COLOR
-     * |--------|
-     */
-    /**
-     * Glyph rendering flags. Same indexing with {@link #mGlyphs}, in visual order.
-     */
-    private final int[] mGlyphFlags;
-
-    /*
-     * Glyphs to relative char indices of the strip string (without formatting codes).
-     * For vanilla layout ({@link VanillaLayoutKey} and {@link TextLayoutEngine#lookupVanillaLayout(String)}),
-     * these will be adjusted to string index (with formatting codes).
-     * Same indexing with {@link #mGlyphs}, in visual order.
-     */
-    //private final int[] mCharIndices;
-
-    /**
-     * Strip indices that are boundaries for Unicode line breaking, in logical order.
-     * 0 is not included. Last value is always the text length (without formatting codes).
-     */
-    private final int[] mLineBoundaries;
+    private final float mTotalAdvance;
 
     /**
-     * Total advance of this text node.
-     * <p>
-     * Note the values are scaled to Minecraft GUI coordinates.
+     * Number of glyphs, kept outside the arrays so that it's available without decoding.
      */
-    private final float mTotalAdvance;
+    private final int mGlyphCount;
 
     /**
-     * Precomputed value that indicates whether flags array contains any text effect flag.
+     * Precomputed underline and strikethrough spans, or null if flags array does not
+     * contain any text effect flag.
      */
-    private final boolean mHasEffect;
+    @Nullable
+    private final TextEffectSpans mEffectSpans;
     //private final boolean mHasFastDigit;
     private final boolean mHasColorEmoji;
     final int mCreatedResLevel;
     final int mComputedFlags;
 
-    /**
-     * Elapsed time in seconds since last use.
-     */
-    private transient int mTimer = 0;
-
-    private TextLayout(@Nonnull TextLayout layout) {
-        mTextBuf = layout.mTextBuf;
-        mGlyphs = layout.mGlyphs;
-        mPositions = layout.mPositions;
-        mFontIndices = layout.mFontIndices;
+    private TextLayout(@Nonnull TextLayout layout, float totalAdvance, int computedFlags) {
+        mArrays = layout.getArrays();
+        mPacked = layout.mPacked;
         mFonts = layout.mFonts;
-        mAdvances = layout.mAdvances;
-        mGlyphFlags = layout.mGlyphFlags;
-        mLineBoundaries = layout.mLineBoundaries;
-        mTotalAdvance = layout.mTotalAdvance;
-        mHasEffect = layout.mHasEffect;
+        mTotalAdvance = totalAdvance;
+        mGlyphCount = layout.mGlyphCount;
+        mEffectSpans = layout.mEffectSpans;
         mHasColorEmoji = layout.mHasColorEmoji;
         mCreatedResLevel = layout.mCreatedResLevel;
-        mComputedFlags = layout.mComputedFlags;
+        mComputedFlags = computedFlags;
     }
 
     TextLayout(@Nonnull char[] textBuf, @Nonnull int[] glyphs,
                @Nonnull float[] positions, @Nullable byte[] fontIndices,
                @Nonnull Font[] fonts, @Nullable float[] advances,
                @Nonnull int[] glyphFlags, @Nullable int[] lineBoundaries,
-               float totalAdvance, boolean hasEffect, boolean hasColorEmoji,
+               float totalAdvance, @Nullable TextEffectSpans effectSpans, boolean hasColorEmoji,
                int createdResLevel, int computedFlags) {
-        mTextBuf = textBuf;
-        mGlyphs = glyphs;
-        mPositions = positions;
-        mFontIndices = fontIndices;
+        this(textBuf, glyphs, positions, fontIndices, fonts, advances, glyphFlags,
+                lineBoundaries, totalAdvance, effectSpans, hasColorEmoji,
+                createdResLevel, computedFlags, null, null);
+    }
+
+    TextLayout(@Nonnull char[] textBuf, @Nonnull int[] glyphs,
+               @Nonnull float[] positions, @Nullable byte[] fontIndices,
+               @Nonnull Font[] fonts, @Nullable float[] advances,
+               @Nonnull int[] glyphFlags, @Nullable int[] lineBoundaries,
+               float totalAdvance, @Nullable TextEffectSpans effectSpans, boolean hasColorEmoji,
+               int createdResLevel, int computedFlags,
+               @Nullable int[] segments, @Nullable float[] segmentOffsets) {
+        mArrays = new LayoutArrays(textBuf, glyphs, positions, fontIndices,
+                advances, glyphFlags, lineBoundaries, segments, segmentOffsets);
         mFonts = fonts;
-        mAdvances = advances;
-        mGlyphFlags = glyphFlags;
-        mLineBoundaries = lineBoundaries;
         mTotalAdvance = totalAdvance;
-        mHasEffect = hasEffect;
+        mGlyphCount = glyphs.length;
+        mEffectSpans = effectSpans;
         mHasColorEmoji = hasColorEmoji;
         mCreatedResLevel = createdResLevel;
         mComputedFlags = computedFlags;
-        assert mAdvances == null ||
-                mTextBuf.length == mAdvances.length;
-        assert mGlyphs.length * 2 == mPositions.length;
-        assert mGlyphs.length == mGlyphFlags.length;
     }
 
     /**
@@ -226,71 +232,191 @@ public class TextLayout {
      */
     @Nonnull
     public static TextLayout makeEmpty() {
-        return new TextLayout(EMPTY);
+        return new TextLayout(EMPTY, EMPTY.mTotalAdvance, EMPTY.mComputedFlags);
     }
 
     /**
-     * Cache access.
-     *
-     * @return this with timer reset
+     * Encodes the arrays into a single compact buffer. This must be called before
+     * this layout is published to other threads, i.e. when it is inserted into a cache.
      */
-    @Nonnull
-    TextLayout get() {
-        mTimer = 0;
-        return this;
+    void pack() {
+        if (mPacked == null) {
+            mPacked = mArrays.pack(mCreatedResLevel);
+        }
     }
 
     /**
-     * Cache access. Increment internal timer by one (second).
-     *
-     * @return true to recycle
+     * Releases the decoded arrays and baked glyphs if this layout was packed, they
+     * will be recreated on next use. This is called by caches on the render thread
+     * for layouts that have not been used for a while.
+     */
+    void trim() {
+        if (mPacked != null) {
+            mArrays = null;
+            releaseBakedGlyphs();
+        }
+        mMeshes = null;
+    }
+
+    /**
+     * @return the decoded arrays, decode them again if trimmed
      */
-    boolean tick(int lifespan) {
-        // Evict if not used in 'lifespan' seconds
-        return ++mTimer > lifespan;
+    @Nonnull
+    final LayoutArrays getArrays() {
+        LayoutArrays arrays = mArrays;
+        if (arrays == null) {
+            // benign race, the arrays are immutable
+            arrays = LayoutArrays.unpack(mPacked, mCreatedResLevel);
+            mArrays = arrays;
+        }
+        return arrays;
     }
 
     @Nonnull
     private GLBakedGlyph[] prepareGlyphs(int fontSize) {
         GlyphManager glyphManager = GlyphManager.getInstance();
-        GLBakedGlyph[] glyphs = new GLBakedGlyph[mGlyphs.length];
+        final LayoutArrays arrays = getArrays();
+        GLBakedGlyph[] glyphs = new GLBakedGlyph[arrays.mGlyphs.length];
         for (int i = 0; i < glyphs.length; i++) {
-            if ((mGlyphFlags[i] & CharacterStyle.OBFUSCATED_MASK) != 0) {
+            if ((arrays.mGlyphFlags[i] & CharacterStyle.OBFUSCATED_MASK) != 0) {
                 glyphs[i] = glyphManager.lookupFastChars(
-                        getFont(i),
+                        getFont(arrays, i),
                         fontSize,
-                        mGlyphs[i]
+                        arrays.mGlyphs[i]
                 );
             } else {
                 glyphs[i] = glyphManager.lookupGlyph(
-                        getFont(i),
+                        getFont(arrays, i),
                         fontSize,
-                        mGlyphs[i]
+                        arrays.mGlyphs[i]
                 );
             }
         }
         return glyphs;
     }
 
-    @Nonnull
-    private GLBakedGlyph[] getGlyphs(int resLevel) {
-        if (resLevel == mCreatedResLevel) {
-            if (mBakedGlyphs == null) {
-                int fontSize = TextLayoutProcessor.computeFontSize(resLevel);
-                mBakedGlyphs = prepareGlyphs(fontSize);
+    /**
+     * Baked glyphs are not looked up again while drawing, mark them as used every
+     * once in a while, so they are relocated rather than evicted by atlas compaction.
+     */
+    private void touchGlyphs(@Nonnull GLBakedGlyph[] glyphs) {
+        final int frame = GlyphManager.getInstance().getFrame();
+        if (frame - mTouchFrame >= 64) {
+            mTouchFrame = frame;
+            for (var glyph : glyphs) {
+                if (glyph instanceof GlyphManager.FastCharSet chars) {
+                    // the wrapper is not in any atlas
+                    for (var member : chars.glyphs) {
+                        member.lastUse = frame;
+                    }
+                } else if (glyph != null) {
+                    glyph.lastUse = frame;
+                }
             }
+        }
+    }
+
+    /**
+     * Drop baked glyphs of all layouts, they will be looked up again on next use.
+     * Layouts and their cached meshes are kept, meshes are keyed by baked glyphs,
+     * so they are rebuilt as well.
+     */
+    @RenderThread
+    static void invalidateBakedGlyphs() {
+        sBakedGeneration++;
+    }
+
+    private void validateBakedGlyphs() {
+        if (mBakedGeneration != sBakedGeneration) {
+            mBakedGeneration = sBakedGeneration;
+            releaseBakedGlyphs();
+        }
+    }
+
+    void releaseBakedGlyphs() {
+        mBakedGlyphs = null;
+        mBakedGlyphsForSDF = null;
+        mBakedGlyphsForDF = null;
+        mBakedGlyphsArray = null;
+    }
+
+    @Nonnull
+    GLBakedGlyph[] getGlyphs(int resLevel) {
+        validateBakedGlyphs();
+        if (mBakedGlyphs == null || mBakedResLevel != resLevel) {
+            int fontSize = TextLayoutProcessor.computeFontSize(resLevel);
+            mBakedGlyphs = prepareGlyphs(fontSize);
+            mBakedResLevel = resLevel;
+        }
+        touchGlyphs(mBakedGlyphs);
+        return mBakedGlyphs;
+    }
+
+    @Nonnull
+    GLBakedGlyph[] getGlyphsForSDF(int resLevel) {
+        validateBakedGlyphs();
+        if (mBakedGlyphs != null && mBakedResLevel == resLevel) {
+            touchGlyphs(mBakedGlyphs);
             return mBakedGlyphs;
-        } else {
-            if (mBakedGlyphsForSDF == null) {
-                int fontSize = TextLayoutProcessor.computeFontSize(resLevel);
-                mBakedGlyphsForSDF = prepareGlyphs(fontSize);
+        }
+        if (mBakedGlyphsForSDF == null || mBakedResLevelForSDF != resLevel) {
+            int fontSize = TextLayoutProcessor.computeFontSize(resLevel);
+            mBakedGlyphsForSDF = prepareGlyphs(fontSize);
+            mBakedResLevelForSDF = resLevel;
+        }
+        touchGlyphs(mBakedGlyphsForSDF);
+        return mBakedGlyphsForSDF;
+    }
+
+    /**
+     * Returns baked glyphs from the distance field atlas for 3D world text, they have a
+     * fixed density of {@link GlyphManager#DISTANCE_FIELD_DENSITY}. Layouts that have
+     * obfuscated glyphs are not supported, because fast chars are normal glyphs.
+     *
+     * @return baked glyphs, or null if distance field text is not used
+     */
+    @Nullable
+    GLBakedGlyph[] getGlyphsForDistanceField() {
+        if (!GlyphManager.sDistanceFieldText ||
+                !TextLayoutEngine.sCurrentInWorldRendering ||
+                !TextLayoutEngine.sUseTextShadersInWorld) {
+            return null;
+        }
+        validateBakedGlyphs();
+        if (mBakedGlyphsForDF == null) {
+            mBakedGlyphsForDF = prepareDistanceFieldGlyphs();
+        }
+        if (mBakedGlyphsForDF == NO_DISTANCE_FIELD) {
+            return null;
+        }
+        touchGlyphs(mBakedGlyphsForDF);
+        return mBakedGlyphsForDF;
+    }
+
+    @Nonnull
+    private GLBakedGlyph[] prepareDistanceFieldGlyphs() {
+        final LayoutArrays arrays = getArrays();
+        for (int flag : arrays.mGlyphFlags) {
+            if ((flag & CharacterStyle.OBFUSCATED_MASK) != 0) {
+                return NO_DISTANCE_FIELD;
             }
-            return mBakedGlyphsForSDF;
         }
+        GlyphManager glyphManager = GlyphManager.getInstance();
+        int fontSize = TextLayoutProcessor.computeFontSize(GlyphManager.DISTANCE_FIELD_DENSITY);
+        GLBakedGlyph[] glyphs = new GLBakedGlyph[arrays.mGlyphs.length];
+        for (int i = 0; i < glyphs.length; i++) {
+            glyphs[i] = glyphManager.lookupDistanceFieldGlyph(
+                    getFont(arrays, i),
+                    fontSize,
+                    arrays.mGlyphs[i]
+            );
+        }
+        return glyphs;
     }
 
     @Nonnull
-    private GLBakedGlyph[] getGlyphsUniformScale(float density) {
+    GLBakedGlyph[] getGlyphsUniformScale(float density) {
+        validateBakedGlyphs();
         if (mBakedGlyphsArray == null) {
             mBakedGlyphsArray = new SparseArray<>();
         }
@@ -300,9 +426,36 @@ public class TextLayout {
             glyphs = prepareGlyphs(fontSize);
             mBakedGlyphsArray.put(fontSize, glyphs);
         }
+        touchGlyphs(glyphs);
         return glyphs;
     }
 
+    /**
+     * @return a builder if meshes of this layout can be cached, or null
+     */
+    @Nullable
+    private TextMesh.Builder prepareMesh() {
+        // transient layouts are not drawn again
+        if (!sCacheWorldTextMeshes || !TextLayoutEngine.sCurrentInWorldRendering || mPacked == null) {
+            return null;
+        }
+        if (mMeshes == null) {
+            mMeshes = NO_MESH;
+            for (int flag : getArrays().mGlyphFlags) {
+                if ((flag & CharacterStyle.OBFUSCATED_MASK) != 0) {
+                    return null;
+                }
+            }
+            mMeshes = new TextMesh[MAX_MESHES];
+        }
+        return mMeshes != NO_MESH ? sMeshBuilder.reset() : null;
+    }
+
+    private void addMesh(@Nonnull TextMesh mesh) {
+        mMeshes[mNextMesh] = mesh;
+        mNextMesh = (mNextMesh + 1) % MAX_MESHES;
+    }
+
     /**
      * Render this text in Minecraft render system.
      *
@@ -329,41 +482,124 @@ public class TextLayout {
                           final boolean isShadow, int preferredMode,
                           final boolean polygonOffset, final float uniformScale,
                           final int bgColor, final int packedLight) {
-        final int startR = r;
-        final int startG = g;
-        final int startB = b;
+        return drawText(matrix, source, x, top, r, g, b, a,
+                isShadow ? PASS_SHADOW : PASS_FOREGROUND, preferredMode,
+                polygonOffset, uniformScale, bgColor, packedLight);
+    }
+
+    /**
+     * Render this text with drop shadow in Minecraft render system. The shadow and the
+     * foreground of each glyph are collected in one traversal, the foreground is offset by
+     * {@link ModernTextRenderer#SHADOW_OFFSET} in local space, so the matrix is not copied.
+     * This is equivalent to drawing the shadow, then drawing the foreground with the translated
+     * matrix. The background and shadow effects (underline, strikethrough) are emitted before
+     * all glyphs, and within each glyph render type, all shadow quads are emitted before all
+     * foreground quads, then foreground effects go last. So the shadow never covers the
+     * foreground, even without depth test.
+     *
+     * @param matrix        the transform matrix
+     * @param source        the vertex buffer source
+     * @param x             the left pos of the text line to render
+     * @param top           the top of the text line to render
+     * @param r             the default red value (0...255)
+     * @param g             the default green value (0...255)
+     * @param b             the default blue value (0...255)
+     * @param a             the alpha value (0...255)
+     * @param preferredMode a render mode, normal, see through or SDF
+     * @param polygonOffset polygon offset layering requested?
+     * @param uniformScale  additional scale factor if uniform scale
+     * @param bgColor       the background color of the text in 0xAARRGGBB format
+     * @param packedLight   see {@link net.minecraft.client.renderer.LightTexture}
+     * @return the total advance, always positive
+     */
+    public float drawTextWithShadow(@Nonnull final Matrix4f matrix,
+                                    @Nonnull final MultiBufferSource source,
+                                    float x, float top,
+                                    int r, int g, int b, final int a,
+                                    int preferredMode,
+                                    final boolean polygonOffset, final float uniformScale,
+                                    final int bgColor, final int packedLight) {
+        return drawText(matrix, source, x, top, r, g, b, a,
+                PASS_SHADOW | PASS_FOREGROUND, preferredMode,
+                polygonOffset, uniformScale, bgColor, packedLight);
+    }
+
+    private float drawText(@Nonnull final Matrix4f matrix,
+                           @Nonnull final MultiBufferSource source,
+                           final float x, final float top,
+                           final int r, final int g, final int b, final int a,
+                           final int passes, int preferredMode,
+                           final boolean polygonOffset, final float uniformScale,
+                           final int bgColor, final int packedLight) {
+        final boolean drawShadow = (passes & PASS_SHADOW) != 0;
+        final boolean drawForeground = (passes & PASS_FOREGROUND) != 0;
+        // default colors of the shadow, they were divided by 4 if shadow only
+        final int shadowR;
+        final int shadowG;
+        final int shadowB;
+        if (drawForeground) {
+            shadowR = r >> 2;
+            shadowG = g >> 2;
+            shadowB = b >> 2;
+        } else {
+            shadowR = r;
+            shadowG = g;
+            shadowB = b;
+        }
+        // the foreground is in front of the shadow when drawn together
+        final float foregroundDepth = drawShadow && drawForeground
+                ? ModernTextRenderer.SHADOW_OFFSET.z()
+                : 0;
         final float density;
         final GLBakedGlyph[] glyphs;
-        if (preferredMode == TextRenderType.MODE_SDF_FILL) {
-            int resLevel = TextLayoutEngine.adjustPixelDensityForSDF(mCreatedResLevel);
-            glyphs = getGlyphs(resLevel);
+        final GLBakedGlyph[] distanceFieldGlyphs = preferredMode == TextRenderType.MODE_SDF_FILL
+                ? getGlyphsForDistanceField()
+                : null;
+        final boolean distanceField = distanceFieldGlyphs != null;
+        if (distanceField) {
+            glyphs = distanceFieldGlyphs;
+            density = GlyphManager.DISTANCE_FIELD_DENSITY;
+        } else if (preferredMode == TextRenderType.MODE_SDF_FILL) {
+            int resLevel = TextLayoutEngine.adjustPixelDensityForSDF(getRenderResLevel());
+            glyphs = getGlyphsForSDF(resLevel);
             density = resLevel;
         } /*else if (preferredMode == TextRenderType.MODE_UNIFORM_SCALE) {
             if (uniformScale <= 0.001f) {
                 // drop if flipped or too small
                 return mTotalAdvance;
             }
-            density = mCreatedResLevel * uniformScale;
+            density = getRenderResLevel() * uniformScale;
             glyphs = getGlyphsUniformScale(density);
             preferredMode = TextRenderType.MODE_NORMAL;
         } */else {
-            glyphs = getGlyphs(mCreatedResLevel);
-            density = mCreatedResLevel;
+            int resLevel = getRenderResLevel();
+            glyphs = getGlyphs(resLevel);
+            density = resLevel;
+        }
+        final int color = a << 24 | r << 16 | g << 8 | b;
+        final TextMesh.Builder mesh = prepareMesh();
+        if (mesh != null) {
+            for (TextMesh cached : mMeshes) {
+                if (cached != null && cached.matches(glyphs, x, top, color, preferredMode, bgColor,
+                        passes, polygonOffset)) {
+                    cached.draw(matrix, source, packedLight);
+                    return mTotalAdvance;
+                }
+            }
         }
         final float invDensity = 1.0f / density;
         float shadowOffset = 0;
-        if (isShadow) {
+        if (drawShadow) {
             shadowOffset = ModernTextRenderer.sShadowOffset;
             /*if (preferredMode == TextRenderType.MODE_NORMAL) {
                 // align to screen pixel center in 2D
                 shadowOffset = Math.round(shadowOffset * density) * invDensity;
             }*/
-            x += shadowOffset;
-            top += shadowOffset;
         }
 
-        final var positions = mPositions;
-        final var flags = mGlyphFlags;
+        final LayoutArrays arrays = getArrays();
+        final var positions = arrays.mPositions;
+        final var flags = arrays.mGlyphFlags;
         //final boolean alignPixels = TextLayoutProcessor.sAlignPixels;
 
         final float baseline = top + sBaselineOffset;
@@ -372,21 +608,52 @@ public class TextLayout {
         int prevMode = -1;
         net.minecraft.client.gui.Font.DisplayMode prevVanillaDisplayMode = null;
         VertexConsumer builder = null;
+        final GlyphQuadBatch shadowBatch = sShadowBatch;
+        final GlyphQuadBatch batch = sQuadBatch;
 
         GpuTextureView fontTexture = null;
+        int fontPage = -1;
 
         final boolean seeThrough = preferredMode == TextRenderType.MODE_SEE_THROUGH;
-        if ((bgColor & 0xFF000000) != 0) {
-            builder = source.getBuffer(EffectRenderType.getRenderType(seeThrough, polygonOffset));
-            float effectDepth = -TextRenderEffect.EFFECT_DEPTH;
-            builder.addVertex(matrix, x - 1, top + 9, effectDepth)
-                    .setColor(bgColor).setUv(0, 1).setLight(packedLight);
-            builder.addVertex(matrix, x + mTotalAdvance + 1, top + 9, effectDepth)
-                    .setColor(bgColor).setUv(1, 1).setLight(packedLight);
-            builder.addVertex(matrix, x + mTotalAdvance + 1, top - 1, effectDepth)
-                    .setColor(bgColor).setUv(1, 0).setLight(packedLight);
-            builder.addVertex(matrix, x - 1, top - 1, effectDepth)
-                    .setColor(bgColor).setUv(0, 0).setLight(packedLight);
+        final TextEffectSpans effectSpans = mEffectSpans;
+        final boolean hasBackground = (bgColor & 0xFF000000) != 0;
+        // shadow effects go before all glyphs, so they never cover the foreground glyphs
+        final boolean drawShadowEffects = drawShadow && effectSpans != null;
+        if (hasBackground || drawShadowEffects) {
+            Object renderType = EffectRenderType.getRenderType(seeThrough, polygonOffset);
+            builder = source.getBuffer(TextMesh.renderType(renderType));
+            if (mesh != null) {
+                mesh.setRenderType(renderType);
+            }
+            if (hasBackground) {
+                final float effectDepth = -TextRenderEffect.EFFECT_DEPTH;
+                if (drawShadow) {
+                    drawBackground(matrix, builder, mesh, x + shadowOffset, top + shadowOffset,
+                            effectDepth, bgColor, packedLight);
+                }
+                if (drawForeground) {
+                    drawBackground(matrix, builder, mesh, x, top,
+                            effectDepth + foregroundDepth, bgColor, packedLight);
+                }
+            }
+            if (drawShadowEffects) {
+                final float[] spanBounds = effectSpans.mBounds;
+                final int[] spanFlags = effectSpans.mFlags;
+                final float effectDepth = TextRenderEffect.EFFECT_DEPTH;
+                for (int i = 0, e = spanFlags.length; i < e; i++) {
+                    final int bits = spanFlags[i];
+                    final float rx1 = x + spanBounds[i << 1] + shadowOffset;
+                    final float rx2 = x + spanBounds[i << 1 | 1] + shadowOffset;
+                    if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                        drawEffect(matrix, builder, mesh, bits, rx1, rx2, baseline + shadowOffset,
+                                effectDepth, shadowR, shadowG, shadowB, a, packedLight);
+                    } else {
+                        drawEffect(matrix, builder, mesh, bits, rx1, rx2, baseline + shadowOffset,
+                                effectDepth, (bits >> 16 & 0xff) >> 2, (bits >> 8 & 0xff) >> 2,
+                                (bits & 0xff) >> 2, a, packedLight);
+                    }
+                }
+            }
             builder = null;
         }
 
@@ -396,8 +663,8 @@ public class TextLayout {
                 continue;
             }
             final int bits = flags[i];
-            float rx;
-            float ry;
+            final float rx;
+            final float ry;
             final float w;
             final float h;
             final int mode;
@@ -407,7 +674,9 @@ public class TextLayout {
             net.minecraft.client.gui.Font.DisplayMode vanillaDisplayMode = null;
             boolean isBitmapFont = false;
             boolean isColorEmoji = false;
-            if ((bits & CharacterStyle.NO_SHADOW_MASK) != 0 && isShadow) {
+            // whether to draw the shadow quad of this glyph
+            boolean hasShadow = drawShadow && (bits & CharacterStyle.NO_SHADOW_MASK) == 0;
+            if (!hasShadow && !drawForeground) {
                 continue;
             }
             if ((bits & CharacterStyle.OBFUSCATED_MASK) != 0) {
@@ -415,23 +684,37 @@ public class TextLayout {
                 int fastIndex = RANDOM.nextInt(chars.glyphs.size());
                 glyph = chars.glyphs.get(fastIndex);
             }
+            if (GlyphManager.isPending(glyph)) {
+                // still rasterizing, skip for this frame
+                if (mesh != null) {
+                    mesh.markIncomplete();
+                }
+                continue;
+            }
+            if (GlyphManager.isEmpty(glyph)) {
+                continue;
+            }
+            final float glyphShadowOffset;
             if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
                 final float scaleFactor;
-                if (getFont(i) instanceof BitmapFont bitmapFont) {
-                    texture = GlyphManager.getInstance().getCurrentTexture(bitmapFont);
+                final Font font = getFont(arrays, i);
+                if (font instanceof BitmapFont bitmapFont) {
+                    texture = GlyphManager.getInstance().getCurrentTexture(bitmapFont, glyph.page);
                     ascent = bitmapFont.getAscent();
                     scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
                     isBitmapFont = true;
-                } else if (getFont(i) instanceof AtlasSpriteFont atlasSpriteFont) {
+                } else if (font instanceof AtlasSpriteFont atlasSpriteFont) {
                     texture = atlasSpriteFont.getTextureView();
                     ascent = -glyph.y / TextLayoutEngine.BITMAP_SCALE;
                     scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
                     isBitmapFont = true;
                 } else {
-                    if (isShadow) {
+                    // color emojis have no shadow
+                    hasShadow = false;
+                    if (!drawForeground) {
                         continue;
                     }
-                    texture = GlyphManager.getInstance().getEmojiTexture();
+                    texture = GlyphManager.getInstance().getEmojiTexture(glyph.page);
                     ascent = TextLayout.STANDARD_BASELINE_OFFSET;
                     scaleFactor = TextLayoutProcessor.sBaseFontSize / GlyphManager.EMOJI_BASE;
                     isColorEmoji = true;
@@ -439,11 +722,8 @@ public class TextLayout {
                 fakeItalic = (bits & CharacterStyle.ITALIC_MASK) != 0;
                 rx = x + positions[i << 1] + glyph.x * scaleFactor;
                 ry = baseline + positions[i << 1 | 1] + glyph.y * scaleFactor;
-                if (isShadow) {
-                    // bitmap font shadow offset is always 1 pixel
-                    rx += 1.0f - shadowOffset;
-                    ry += 1.0f - shadowOffset;
-                }
+                // bitmap font shadow offset is always 1 pixel
+                glyphShadowOffset = 1.0f;
 
                 w = glyph.width * scaleFactor;
                 h = glyph.height * scaleFactor;
@@ -460,11 +740,15 @@ public class TextLayout {
                 mode = preferredMode;
                 rx = x + positions[i << 1] + glyph.x * invDensity;
                 ry = baseline + positions[i << 1 | 1] + glyph.y * invDensity;
+                glyphShadowOffset = shadowOffset;
 
                 w = glyph.width * invDensity;
                 h = glyph.height * invDensity;
-                if (fontTexture == null) {
-                    fontTexture = GlyphManager.getInstance().getFontTexture();
+                if (fontTexture == null || fontPage != glyph.page) {
+                    fontPage = glyph.page;
+                    fontTexture = distanceField
+                            ? GlyphManager.getInstance().getDistanceFieldTexture(fontPage)
+                            : GlyphManager.getInstance().getFontTexture(fontPage);
                 }
                 texture = fontTexture;
             }
@@ -473,33 +757,23 @@ public class TextLayout {
                 rx = Math.round(rx * density) * invDensity;
                 ry = Math.round(ry * density) * invDensity;
             }*/
-            if (isColorEmoji) {
-                r = 0xff;
-                g = 0xff;
-                b = 0xff;
-            } else if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
-                r = startR;
-                g = startG;
-                b = startB;
-            } else {
-                r = bits >> 16 & 0xff;
-                g = bits >> 8 & 0xff;
-                b = bits & 0xff;
-                if (isShadow) {
-                    r >>= 2;
-                    g >>= 2;
-                    b >>= 2;
-                }
-            }
             if (builder == null || prevTexture != texture || prevMode != mode ||
                     prevVanillaDisplayMode != vanillaDisplayMode) {
                 // no need to check isBitmapFont
+                if (builder != null) {
+                    // must be done before getting another buffer, which may end the current one
+                    flushQuads(matrix, builder, packedLight, mesh);
+                }
                 prevTexture = texture;
                 prevMode = mode;
                 prevVanillaDisplayMode = vanillaDisplayMode;
-                builder = source.getBuffer(vanillaDisplayMode != null
+                Object renderType = vanillaDisplayMode != null
                         ? TextRenderType.getOrCreate(texture, vanillaDisplayMode, isBitmapFont)
-                        : TextRenderType.getOrCreate(texture, mode));
+                        : TextRenderType.getOrCreate(texture, mode);
+                builder = source.getBuffer(TextMesh.renderType(renderType));
+                if (mesh != null) {
+                    mesh.setRenderType(renderType);
+                }
             }
             float upSkew = 0;
             float downSkew = 0;
@@ -507,61 +781,197 @@ public class TextLayout {
                 upSkew = 0.25f * ascent;
                 downSkew = 0.25f * (ascent - h);
             }
-            builder.addVertex(matrix, rx + upSkew, ry, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u1, glyph.v1)
-                    .setLight(packedLight);
-            builder.addVertex(matrix, rx + downSkew, ry + h, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u1, glyph.v2)
-                    .setLight(packedLight);
-            builder.addVertex(matrix, rx + w + downSkew, ry + h, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u2, glyph.v2)
-                    .setLight(packedLight);
-            builder.addVertex(matrix, rx + w + upSkew, ry, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u2, glyph.v1)
-                    .setLight(packedLight);
-        }
-
-        if (mHasEffect) {
-            builder = source.getBuffer(EffectRenderType.getRenderType(seeThrough, polygonOffset));
-            for (int i = 0, e = glyphs.length; i < e; i++) {
-                final int bits = flags[i];
-                if ((bits & CharacterStyle.EFFECT_MASK) == 0) {
-                    continue;
-                }
+            if (hasShadow) {
+                final int glyphColor;
                 if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
-                    r = startR;
-                    g = startG;
-                    b = startB;
+                    glyphColor = a << 24 | shadowR << 16 | shadowG << 8 | shadowB;
                 } else {
-                    r = bits >> 16 & 0xff;
-                    g = bits >> 8 & 0xff;
-                    b = bits & 0xff;
-                    if (isShadow) {
-                        r >>= 2;
-                        g >>= 2;
-                        b >>= 2;
-                    }
+                    glyphColor = a << 24 | (bits >> 2 & 0x3F3F3F);
                 }
-                final float rx1 = x + positions[i << 1];
-                final float rx2 = x + ((i + 1 == e) ? mTotalAdvance : positions[(i + 1) << 1]);
-                if ((bits & CharacterStyle.STRIKETHROUGH_MASK) != 0) {
-                    TextRenderEffect.drawStrikethrough(matrix, builder, rx1, rx2, baseline,
-                            r, g, b, a, packedLight);
+                final float sx = rx + glyphShadowOffset;
+                final float sy = ry + glyphShadowOffset;
+                shadowBatch.add(sx, sy, sx + w, sy + h, 0, upSkew, downSkew, glyphColor,
+                        glyph.u1, glyph.v1, glyph.u2, glyph.v2);
+            }
+            if (drawForeground) {
+                final int glyphColor;
+                if (isColorEmoji) {
+                    glyphColor = a << 24 | 0xFFFFFF;
+                } else if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                    glyphColor = color;
+                } else {
+                    glyphColor = a << 24 | (bits & CharacterStyle.COLOR_MASK);
                 }
-                if ((bits & CharacterStyle.UNDERLINE_MASK) != 0) {
-                    TextRenderEffect.drawUnderline(matrix, builder, rx1, rx2, baseline,
-                            r, g, b, a, packedLight);
+                batch.add(rx, ry, rx + w, ry + h, foregroundDepth, upSkew, downSkew, glyphColor,
+                        glyph.u1, glyph.v1, glyph.u2, glyph.v2);
+            }
+        }
+        if (builder != null) {
+            flushQuads(matrix, builder, packedLight, mesh);
+        }
+
+        if (effectSpans != null && drawForeground) {
+            Object renderType = EffectRenderType.getRenderType(seeThrough, polygonOffset);
+            builder = source.getBuffer(TextMesh.renderType(renderType));
+            if (mesh != null) {
+                mesh.setRenderType(renderType);
+            }
+            final float[] spanBounds = effectSpans.mBounds;
+            final int[] spanFlags = effectSpans.mFlags;
+            final float effectDepth = TextRenderEffect.EFFECT_DEPTH;
+            for (int i = 0, e = spanFlags.length; i < e; i++) {
+                final int bits = spanFlags[i];
+                final float rx1 = x + spanBounds[i << 1];
+                final float rx2 = x + spanBounds[i << 1 | 1];
+                if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                    drawEffect(matrix, builder, mesh, bits, rx1, rx2, baseline,
+                            effectDepth + foregroundDepth, r, g, b, a, packedLight);
+                } else {
+                    drawEffect(matrix, builder, mesh, bits, rx1, rx2, baseline,
+                            effectDepth + foregroundDepth, bits >> 16 & 0xff, bits >> 8 & 0xff,
+                            bits & 0xff, a, packedLight);
                 }
             }
         }
 
+        if (mesh != null) {
+            TextMesh built = mesh.build(glyphs, x, top, color, preferredMode, bgColor,
+                    passes, polygonOffset);
+            if (built != null) {
+                addMesh(built);
+            }
+        }
+
         return mTotalAdvance;
     }
 
+    private void drawBackground(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
+                                @Nullable TextMesh.Builder mesh, float left, float top,
+                                float depth, int bgColor, int packedLight) {
+        final float right = left + mTotalAdvance + 1;
+        left -= 1;
+        final float bottom = top + 9;
+        top -= 1;
+        if (mesh != null) {
+            mesh.addQuad(left, top, right, bottom, depth, 0, 0, bgColor, 0, 0, 1, 1);
+        }
+        builder.addVertex(matrix, left, bottom, depth)
+                .setColor(bgColor).setUv(0, 1).setLight(packedLight);
+        builder.addVertex(matrix, right, bottom, depth)
+                .setColor(bgColor).setUv(1, 1).setLight(packedLight);
+        builder.addVertex(matrix, right, top, depth)
+                .setColor(bgColor).setUv(1, 0).setLight(packedLight);
+        builder.addVertex(matrix, left, top, depth)
+                .setColor(bgColor).setUv(0, 0).setLight(packedLight);
+    }
+
+    // shadow quads go first, so they never cover the foreground of the same render type
+    private static void flushQuads(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
+                                   int packedLight, @Nullable TextMesh.Builder mesh) {
+        sShadowBatch.flush(matrix, builder, packedLight, mesh);
+        sQuadBatch.flush(matrix, builder, packedLight, mesh);
+    }
+
+    private static void drawEffect(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
+                                   @Nullable TextMesh.Builder mesh, int bits,
+                                   float start, float end, float baseline, float depth,
+                                   int r, int g, int b, int a, int packedLight) {
+        if ((bits & CharacterStyle.STRIKETHROUGH_MASK) != 0) {
+            TextRenderEffect.drawStrikethrough(matrix, builder, start, end, baseline, depth,
+                    r, g, b, a, packedLight);
+            if (mesh != null) {
+                addEffectToMesh(mesh, start, end,
+                        baseline + TextRenderEffect.STRIKETHROUGH_OFFSET,
+                        TextRenderEffect.STRIKETHROUGH_THICKNESS, depth, r, g, b, a);
+            }
+        }
+        if ((bits & CharacterStyle.UNDERLINE_MASK) != 0) {
+            TextRenderEffect.drawUnderline(matrix, builder, start, end, baseline, depth,
+                    r, g, b, a, packedLight);
+            if (mesh != null) {
+                addEffectToMesh(mesh, start, end,
+                        baseline + TextRenderEffect.UNDERLINE_OFFSET,
+                        TextRenderEffect.UNDERLINE_THICKNESS, depth, r, g, b, a);
+            }
+        }
+    }
+
+    // same rect as TextRenderEffect
+    private static void addEffectToMesh(@Nonnull TextMesh.Builder mesh, float start, float end,
+                                        float top, float thickness, float depth,
+                                        int r, int g, int b, int a) {
+        final int color = a << 24 | r << 16 | g << 8 | b;
+        mesh.addQuad(start, top, end, top + thickness, depth, 0, 0, color, 0, 0, 1, 1);
+    }
+
+    /**
+     * Draw a single quad in the average color of glyphs in place of this text, for text in
+     * 3D world that is too small on screen to be read, see {@link ModernTextRenderer#computeWorldTextLod}.
+     * The background is drawn as usual, there is no shadow.
+     *
+     * @param matrix        the transform matrix
+     * @param source        the vertex buffer source
+     * @param x             the left pos of the text line to render
+     * @param top           the top of the text line to render
+     * @param r             the default red value (0...255)
+     * @param g             the default green value (0...255)
+     * @param b             the default blue value (0...255)
+     * @param a             the alpha value (0...255)
+     * @param seeThrough    whether to use see through mode
+     * @param polygonOffset polygon offset layering requested?
+     * @param bgColor       the background color of the text in 0xAARRGGBB format
+     * @param packedLight   see {@link net.minecraft.client.renderer.LightTexture}
+     */
+    public void drawProxy(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                          float x, float top, int r, int g, int b, int a,
+                          boolean seeThrough, boolean polygonOffset,
+                          int bgColor, int packedLight) {
+        if (mTotalAdvance <= 0) {
+            return;
+        }
+        VertexConsumer builder = source.getBuffer(EffectRenderType.getRenderType(seeThrough, polygonOffset));
+        if ((bgColor & 0xFF000000) != 0) {
+            float effectDepth = -TextRenderEffect.EFFECT_DEPTH;
+            builder.addVertex(matrix, x - 1, top + 9, effectDepth)
+                    .setColor(bgColor).setUv(0, 1).setLight(packedLight);
+            builder.addVertex(matrix, x + mTotalAdvance + 1, top + 9, effectDepth)
+                    .setColor(bgColor).setUv(1, 1).setLight(packedLight);
+            builder.addVertex(matrix, x + mTotalAdvance + 1, top - 1, effectDepth)
+                    .setColor(bgColor).setUv(1, 0).setLight(packedLight);
+            builder.addVertex(matrix, x - 1, top - 1, effectDepth)
+                    .setColor(bgColor).setUv(0, 0).setLight(packedLight);
+        }
+        final int[] flags = getArrays().mGlyphFlags;
+        if (flags.length == 0) {
+            return;
+        }
+        int sumR = 0, sumG = 0, sumB = 0;
+        for (int bits : flags) {
+            if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                sumR += r;
+                sumG += g;
+                sumB += b;
+            } else {
+                sumR += bits >> 16 & 0xff;
+                sumG += bits >> 8 & 0xff;
+                sumB += bits & 0xff;
+            }
+        }
+        final int n = flags.length;
+        final int color = (a * 3 >> 3) << 24 | (sumR / n) << 16 | (sumG / n) << 8 | (sumB / n);
+        // glyphs cover about 3/8 of the x-height box
+        final float bottom = top + sBaselineOffset;
+        final float upper = bottom - 5;
+        builder.addVertex(matrix, x, bottom, 0)
+                .setColor(color).setUv(0, 1).setLight(packedLight);
+        builder.addVertex(matrix, x + mTotalAdvance, bottom, 0)
+                .setColor(color).setUv(1, 1).setLight(packedLight);
+        builder.addVertex(matrix, x + mTotalAdvance, upper, 0)
+                .setColor(color).setUv(1, 0).setLight(packedLight);
+        builder.addVertex(matrix, x, upper, 0)
+                .setColor(color).setUv(0, 0).setLight(packedLight);
+    }
+
     /**
      * Special case of drawText() when drawing the glowing outline of drawText8xOutline().
      * No fast digit replacement, no shadow, no background, no underline, no strikethrough,
@@ -583,11 +993,18 @@ public class TextLayout {
                                 final float x, final float top,
                                 int r, int g, int b, int a,
                                 int packedLight) {
-        final float resLevel = TextLayoutEngine.adjustPixelDensityForSDF(mCreatedResLevel);
-
-        final GLBakedGlyph[] glyphs = getGlyphs((int) resLevel);
-        final var positions = mPositions;
-        final var flags = mGlyphFlags;
+        final GLBakedGlyph[] distanceFieldGlyphs = getGlyphsForDistanceField();
+        final boolean distanceField = distanceFieldGlyphs != null;
+        final float resLevel = distanceField
+                ? GlyphManager.DISTANCE_FIELD_DENSITY
+                : TextLayoutEngine.adjustPixelDensityForSDF(getRenderResLevel());
+
+        final GLBakedGlyph[] glyphs = distanceField
+                ? distanceFieldGlyphs
+                : getGlyphsForSDF((int) resLevel);
+        final LayoutArrays arrays = getArrays();
+        final var positions = arrays.mPositions;
+        final var flags = arrays.mGlyphFlags;
         //final boolean alignPixels = TextLayoutProcessor.sAlignPixels;
 
         final float baseline = top + sBaselineOffset;
@@ -596,9 +1013,10 @@ public class TextLayout {
         VertexConsumer builder = null;
 
         GpuTextureView fontTexture = null;
+        int fontPage = -1;
 
-        // outset glyph bounds
-        final float sBloat = 1.0f / resLevel;
+        // outset glyph bounds, distance field glyphs already include the spread
+        final float sBloat = distanceField ? 0 : 1.0f / resLevel;
         for (int i = 0, e = glyphs.length; i < e; i++) {
             var glyph = glyphs[i];
             if (glyph == null) {
@@ -618,13 +1036,19 @@ public class TextLayout {
                     int fastIndex = RANDOM.nextInt(chars.glyphs.size());
                     glyph = chars.glyphs.get(fastIndex);
                 }
+                if (GlyphManager.isPending(glyph) || GlyphManager.isEmpty(glyph)) {
+                    continue;
+                }
                 rx = x + positions[i << 1] + glyph.x / resLevel;
                 ry = baseline + positions[i << 1 | 1] + glyph.y / resLevel;
 
                 w = glyph.width / resLevel;
                 h = glyph.height / resLevel;
-                if (fontTexture == null) {
-                    fontTexture = GlyphManager.getInstance().getFontTexture();
+                if (fontTexture == null || fontPage != glyph.page) {
+                    fontPage = glyph.page;
+                    fontTexture = distanceField
+                            ? GlyphManager.getInstance().getDistanceFieldTexture(fontPage)
+                            : GlyphManager.getInstance().getFontTexture(fontPage);
                 }
                 texture = fontTexture;
             }
@@ -638,8 +1062,8 @@ public class TextLayout {
                 builder = source.getBuffer(TextRenderType.getOrCreate(prevTexture,
                         TextRenderType.MODE_SDF_STROKE));
             }
-            float uBloat = (glyph.u2 - glyph.u1) / glyph.width;
-            float vBloat = (glyph.v2 - glyph.v1) / glyph.height;
+            float uBloat = distanceField ? 0 : (glyph.u2 - glyph.u1) / glyph.width;
+            float vBloat = distanceField ? 0 : (glyph.v2 - glyph.v1) / glyph.height;
             builder.addVertex(matrix, rx - sBloat, ry - sBloat, 0.001f)
                     .setColor(r, g, b, a)
                     .setUv(glyph.u1 - uBloat, glyph.v1 - vBloat)
@@ -683,20 +1107,21 @@ public class TextLayout {
         final float density;
         final GLBakedGlyph[] glyphs;
         if (preferredMode == TextRenderType.MODE_SDF_FILL) {
-            int resLevel = TextLayoutEngine.adjustPixelDensityForSDF(mCreatedResLevel);
-            glyphs = getGlyphs(resLevel);
+            int resLevel = TextLayoutEngine.adjustPixelDensityForSDF(getRenderResLevel());
+            glyphs = getGlyphsForSDF(resLevel);
             density = resLevel;
         } else if (preferredMode == TextRenderType.MODE_UNIFORM_SCALE) {
             if (uniformScale <= 0.001f) {
                 // drop if flipped or too small
                 return ModernPreparedText.EMPTY;
             }
-            density = mCreatedResLevel * uniformScale;
+            density = getRenderResLevel() * uniformScale;
             glyphs = getGlyphsUniformScale(density);
             preferredMode = TextRenderType.MODE_NORMAL;
         } else {
-            glyphs = getGlyphs(mCreatedResLevel);
-            density = mCreatedResLevel;
+            int resLevel = getRenderResLevel();
+            glyphs = getGlyphs(resLevel);
+            density = resLevel;
         }
 
         return new ModernPreparedText(font, text, includeEmpty,
@@ -711,7 +1136,7 @@ public class TextLayout {
      */
     @Nonnull
     public char[] getTextBuf() {
-        return mTextBuf;
+        return getArrays().mTextBuf;
     }
 
     /**
@@ -721,7 +1146,7 @@ public class TextLayout {
      */
     @Nonnull
     public int[] getGlyphs() {
-        return mGlyphs;
+        return getArrays().mGlyphs;
     }
 
     /**
@@ -733,7 +1158,7 @@ public class TextLayout {
      */
     @Nonnull
     public float[] getPositions() {
-        return mPositions;
+        return getArrays().mPositions;
     }
 
     /**
@@ -747,7 +1172,7 @@ public class TextLayout {
      * Nonnull only when {@link TextLayoutEngine#COMPUTE_ADVANCES}.
      */
     public float[] getAdvances() {
-        return mAdvances;
+        return getArrays().mAdvances;
     }
 
     /**
@@ -757,8 +1182,12 @@ public class TextLayout {
      * @return the font
      */
     public Font getFont(int i) {
-        if (mFontIndices != null) {
-            return mFonts[mFontIndices[i] & 0xFF];
+        return getFont(getArrays(), i);
+    }
+
+    private Font getFont(@Nonnull LayoutArrays arrays, int i) {
+        if (arrays.mFontIndices != null) {
+            return mFonts[arrays.mFontIndices[i] & 0xFF];
         }
         return mFonts[0];
     }
@@ -770,7 +1199,7 @@ public class TextLayout {
      * @return length of the text
      */
     public int getCharCount() {
-        return mTextBuf.length;
+        return getArrays().mTextBuf.length;
     }
 
     /**
@@ -780,12 +1209,12 @@ public class TextLayout {
      */
     @Nonnull
     public int[] getGlyphFlags() {
-        return mGlyphFlags;
+        return getArrays().mGlyphFlags;
     }
 
     @Nullable
     public byte[] getFontIndices() {
-        return mFontIndices;
+        return getArrays().mFontIndices;
     }
 
     public Font[] getFontVector() {
@@ -810,7 +1239,26 @@ public class TextLayout {
      * Nonnull only when {@link TextLayoutEngine#COMPUTE_LINE_BOUNDARIES}.
      */
     public int[] getLineBoundaries() {
-        return mLineBoundaries;
+        return getArrays().mLineBoundaries;
+    }
+
+    /**
+     * Safe boundaries for incremental relayout, char index and glyph index pairs,
+     * in logical order.
+     * <p>
+     * Nonnull only when {@link TextLayoutEngine#COMPUTE_EDIT_SEGMENTS}.
+     */
+    int[] getSegments() {
+        return getArrays().mSegments;
+    }
+
+    /**
+     * X positions at {@link #getSegments()}.
+     * <p>
+     * Note the values are scaled to Minecraft GUI coordinates.
+     */
+    float[] getSegmentOffsets() {
+        return getArrays().mSegmentOffsets;
     }
 
     /**
@@ -822,11 +1270,26 @@ public class TextLayout {
         return mTotalAdvance;
     }
 
+    /**
+     * The number of glyphs, this does not decode trimmed layouts, unlike {@link #getGlyphs()}.
+     */
+    public int getGlyphCount() {
+        return mGlyphCount;
+    }
+
     /**
      * Precomputed value that indicates whether flags array contains any text effect flag.
      */
     public boolean hasEffect() {
-        return mHasEffect;
+        return mEffectSpans != null;
+    }
+
+    /**
+     * @return merged underline and strikethrough spans, or null if there is no effect
+     */
+    @Nullable
+    TextEffectSpans getEffectSpans() {
+        return mEffectSpans;
     }
 
     /**
@@ -836,55 +1299,84 @@ public class TextLayout {
         return mHasColorEmoji;
     }
 
+    /**
+     * @return the resolution level at which this layout was shaped
+     */
     public int getCreatedResLevel() {
         return mCreatedResLevel;
     }
 
     /**
+     * @return the current resolution level to look up baked glyphs
+     */
+    public int getRenderResLevel() {
+        return TextLayoutEngine.getInstance().getResLevel();
+    }
+
+    /**
+     * Returns the measurable memory size in bytes of this object. This includes the packed
+     * buffer, and the decoded arrays, baked glyphs and meshes currently held. The latter are
+     * transient for packed layouts, they are released by {@link #trim()}, so the result
+     * changes as the layout is used and trimmed, caches weigh it again periodically.
+     *
      * @return measurable memory size in bytes of this object
      */
     public int getMemorySize() {
         int m = 0;
-        m += 16 + MathUtil.align8(mTextBuf.length << 1);
-        m += 16 + MathUtil.align8(mGlyphs.length << 2); // glyphs
-        m += 16 + MathUtil.align8(mPositions.length << 2); // positions
-        if (mFontIndices != null) {
-            m += 16 + MathUtil.align8(mFontIndices.length);
+        // read fields once, they may be trimmed concurrently
+        final int[] packed = mPacked;
+        if (packed != null) {
+            m += 16 + MathUtil.align8(packed.length << 2);
         }
-        m += 16 + MathUtil.align8(mFonts.length << 2);
-        if (mAdvances != null) {
-            m += 16 + MathUtil.align8(mAdvances.length << 2);
+        final LayoutArrays arrays = mArrays;
+        if (arrays != null) {
+            m += arrays.getMemorySize();
         }
-        m += 16 + MathUtil.align8(mGlyphFlags.length << 2); // flags
-        if (mLineBoundaries != null) {
-            m += 16 + MathUtil.align8(mLineBoundaries.length << 2);
+        m += getBakedMemorySize(mBakedGlyphs);
+        m += getBakedMemorySize(mBakedGlyphsForSDF);
+        if (mBakedGlyphsForDF != NO_DISTANCE_FIELD) {
+            m += getBakedMemorySize(mBakedGlyphsForDF);
         }
-        if (mBakedGlyphs != null) {
-            m += 16 + MathUtil.align8(mBakedGlyphs.length << 2);
+        final SparseArray<GLBakedGlyph[]> bakedGlyphsArray = mBakedGlyphsArray;
+        if (bakedGlyphsArray != null) {
+            for (int i = 0, e = bakedGlyphsArray.size(); i < e; i++) {
+                m += getBakedMemorySize(bakedGlyphsArray.valueAt(i));
+            }
         }
-        if (mBakedGlyphsForSDF != null) {
-            m += 16 + MathUtil.align8(mBakedGlyphsForSDF.length << 2);
+        // meshes are held as long as the layout is drawn every frame
+        final TextMesh[] meshes = mMeshes;
+        if (meshes != null && meshes != NO_MESH) {
+            m += 16 + MathUtil.align8(meshes.length << 2);
+            for (TextMesh mesh : meshes) {
+                if (mesh != null) {
+                    m += mesh.getMemorySize();
+                }
+            }
         }
-        if (mBakedGlyphsArray != null) {
-            m += (16 + MathUtil.align8(
-                    mBakedGlyphsArray.valueAt(0).length << 2
-            )) * mBakedGlyphsArray.size();
+        if (mEffectSpans != null) {
+            m += mEffectSpans.getMemorySize();
         }
+        m += 16 + MathUtil.align8(mFonts.length << 2);
         return m + 64;
     }
 
+    private static int getBakedMemorySize(@Nullable GLBakedGlyph[] glyphs) {
+        return glyphs != null ? 16 + MathUtil.align8(glyphs.length << 2) : 0;
+    }
+
     @Override
     public String toString() {
+        final LayoutArrays arrays = getArrays();
         return "TextLayout{" +
-                "text=" + toEscapeChars(mTextBuf) +
-                ",glyphs=" + mGlyphs.length +
-                ",length=" + mTextBuf.length +
-                ",positions=" + toPositionString(mPositions) +
-                ",advances=" + Arrays.toString(mAdvances) +
-                ",charFlags=" + toFlagString(mGlyphFlags) +
-                ",lineBoundaries=" + Arrays.toString(mLineBoundaries) +
+                "text=" + toEscapeChars(arrays.mTextBuf) +
+                ",glyphs=" + arrays.mGlyphs.length +
+                ",length=" + arrays.mTextBuf.length +
+                ",positions=" + toPositionString(arrays.mPositions) +
+                ",advances=" + Arrays.toString(arrays.mAdvances) +
+                ",charFlags=" + toFlagString(arrays.mGlyphFlags) +
+                ",lineBoundaries=" + Arrays.toString(arrays.mLineBoundaries) +
                 ",totalAdvance=" + mTotalAdvance +
-                ",hasEffect=" + mHasEffect +
+                ",hasEffect=" + hasEffect() +
                 ",hasColorEmoji=" + mHasColorEmoji +
                 '}';
     }
@@ -893,12 +1385,13 @@ public class TextLayout {
     @Nonnull
     public String toDetailedString() {
         var b = new StringBuilder();
-        char[] chars = mTextBuf;
+        final LayoutArrays arrays = getArrays();
+        char[] chars = arrays.mTextBuf;
         b.append("chars: ")
                 .append(chars.length)
                 .append('\n');
-        float[] advances = mAdvances;
-        int[] lineBoundaries = mLineBoundaries;
+        float[] advances = arrays.mAdvances;
+        int[] lineBoundaries = arrays.mLineBoundaries;
         int lineBoundaryIndex = 0;
         int nextLineBoundary = lineBoundaries != null
                 ? lineBoundaries[lineBoundaryIndex++]
@@ -932,13 +1425,13 @@ public class TextLayout {
             i = lim;
         }
 
-        int[] glyphs = mGlyphs;
+        int[] glyphs = arrays.mGlyphs;
         b.append("glyphs: ")
                 .append(glyphs.length)
                 .append('\n');
-        float[] positions = mPositions;
-        byte[] fontIndices = mFontIndices;
-        int[] glyphFlags = mGlyphFlags;
+        float[] positions = arrays.mPositions;
+        byte[] fontIndices = arrays.mFontIndices;
+        int[] glyphFlags = arrays.mGlyphFlags;
         for (int i = 0; i < glyphs.length; ) {
             b.append(String.format(" %04X ", i));
             int lim = Math.min(i + 4, glyphs.length);
@@ -0,0 +1,480 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2024 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A memory-budgeted layout cache using the W-TinyLFU policy, it holds entries of
+ * {@link VanillaLayoutKey}, {@link FormattedLayoutKey} and component keys in a
+ * single table. Entries are weighted by their memory size and the total weight is
+ * bounded by {@link #setMaximum(long)}.
+ * <p>
+ * New entries are placed into a small LRU admission window, the main space is a
+ * segmented LRU (probation and protected). When the window overflows, its LRU entry
+ * competes with the probation victim, and the one with higher estimated access
+ * frequency (from a count-min sketch) is retained. Each operation costs amortized O(1),
+ * no full scans are performed.
+ * <p>
+ * This class is not thread-safe, it must be accessed on the render thread.
+ *
+ * @see TextLayoutEngine
+ */
+public class TextLayoutCache {
+
+    /**
+     * Percentage of the budget used by the admission window.
+     */
+    private static final double WINDOW_RATIO = 0.01;
+    /**
+     * Percentage of the main space used by the protected segment.
+     */
+    private static final double PROTECTED_RATIO = 0.8;
+
+    /**
+     * Layouts that have not been accessed for this many seconds release their
+     * decoded arrays, only the packed buffer remains.
+     */
+    private static final int TRIM_DELAY = 2;
+
+    private static final byte WINDOW = 0;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+
+    private HashMap<Object, Node> mMap = new HashMap<>();
+
+    // circular doubly linked lists with sentinels, head is LRU, tail is MRU
+    private final Node mWindow = new Node();
+    private final Node mProbation = new Node();
+    private final Node mProtected = new Node();
+
+    private final FrequencySketch mSketch = new FrequencySketch();
+
+    private long mMaximum;
+    private long mWindowMaximum;
+    private long mProtectedMaximum;
+
+    private long mWeightedSize;
+    private long mWindowWeightedSize;
+    private long mProtectedWeightedSize;
+
+    /**
+     * Elapsed time in seconds, for lifespan expiration.
+     */
+    private int mTime;
+
+    public TextLayoutCache(long maximum) {
+        setMaximum(maximum);
+    }
+
+    /**
+     * Sets the maximum weighted size (in bytes) of this cache, may evict entries.
+     */
+    public void setMaximum(long maximum) {
+        maximum = Math.max(maximum, 0);
+        if (mMaximum == maximum) {
+            return;
+        }
+        mMaximum = maximum;
+        mWindowMaximum = Math.max((long) (maximum * WINDOW_RATIO), 1);
+        mProtectedMaximum = (long) ((maximum - mWindowMaximum) * PROTECTED_RATIO);
+        while (mProtectedWeightedSize > mProtectedMaximum) {
+            demoteProtected();
+        }
+        evict();
+    }
+
+    public long getMaximum() {
+        return mMaximum;
+    }
+
+    /**
+     * Returns the cached layout and records the access.
+     *
+     * @param key a lookup key or a stable key
+     * @return the cached layout or null
+     */
+    @Nullable
+    public TextLayout get(@Nonnull Object key) {
+        Node node = mMap.get(key);
+        if (node == null) {
+            return null;
+        }
+        mSketch.increment(node.mHash);
+        node.mLastAccess = mTime;
+        switch (node.mQueue) {
+            case WINDOW -> {
+                unlink(node);
+                linkLast(mWindow, node);
+            }
+            case PROBATION -> {
+                unlink(node);
+                node.mQueue = PROTECTED;
+                linkLast(mProtected, node);
+                mProtectedWeightedSize += node.mWeight;
+                while (mProtectedWeightedSize > mProtectedMaximum &&
+                        mProtected.mNext != node) {
+                    demoteProtected();
+                }
+            }
+            case PROTECTED -> {
+                unlink(node);
+                linkLast(mProtected, node);
+            }
+        }
+        return node.mValue;
+    }
+
+    /**
+     * Inserts or replaces a layout. The key must be a stable key, that is, a copy of
+     * lookup key or an immutable object.
+     *
+     * @param key    a stable key
+     * @param layout the layout to cache
+     */
+    public void put(@Nonnull Object key, @Nonnull TextLayout layout) {
+        assert layout != TextLayout.EMPTY;
+        layout.pack();
+        int weight = weigh(key, layout);
+        Node node = mMap.get(key);
+        if (node != null) {
+            // replace, e.g. more compute flags are requested
+            removeNode(node);
+        }
+        if (weight > mMaximum) {
+            // never admit
+            return;
+        }
+        node = new Node();
+        node.mKey = key;
+        node.mValue = layout;
+        node.mWeight = weight;
+        node.mHash = key.hashCode();
+        node.mQueue = WINDOW;
+        node.mLastAccess = mTime;
+        mMap.put(key, node);
+        linkLast(mWindow, node);
+        mWeightedSize += weight;
+        mWindowWeightedSize += weight;
+        mSketch.ensureCapacity(mMap.size());
+        mSketch.increment(node.mHash);
+        evict();
+    }
+
+    /**
+     * Advances the clock by one second and expires entries that were not accessed
+     * in the given lifespan. Only the LRU end of each queue is examined, so this is
+     * a best-effort expiration with amortized O(1) cost. Entries that have just become
+     * idle are trimmed to their packed form, all entries are visited for that.
+     * <p>
+     * Layouts inflate their decoded arrays, baked glyphs and meshes when drawn, and
+     * release them when trimmed, so recently used entries are weighed again here,
+     * which may evict entries.
+     *
+     * @param lifespan time in seconds
+     */
+    public void tick(int lifespan) {
+        mTime++;
+        expire(mWindow, lifespan);
+        expire(mProbation, lifespan);
+        expire(mProtected, lifespan);
+        trim(mWindow);
+        trim(mProbation);
+        trim(mProtected);
+        while (mProtectedWeightedSize > mProtectedMaximum) {
+            demoteProtected();
+        }
+        evict();
+    }
+
+    public void clear() {
+        unlinkAll(mWindow);
+        unlinkAll(mProbation);
+        unlinkAll(mProtected);
+        // Create new HashMap so that the internal hashtable of old map is released as well
+        mMap = new HashMap<>();
+        mWeightedSize = 0;
+        mWindowWeightedSize = 0;
+        mProtectedWeightedSize = 0;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return mMap.size();
+    }
+
+    /**
+     * @return the total weight of entries in bytes
+     */
+    public long weightedSize() {
+        return mWeightedSize;
+    }
+
+    public void forEach(@Nonnull BiConsumer<Object, TextLayout> action) {
+        for (Node node : mMap.values()) {
+            action.accept(node.mKey, node.mValue);
+        }
+    }
+
+    private void expire(Node head, int lifespan) {
+        Node node;
+        while ((node = head.mNext) != head &&
+                mTime - node.mLastAccess > lifespan) {
+            removeNode(node);
+        }
+    }
+
+    private void trim(Node head) {
+        // queues are not strictly ordered by access time, because admission and
+        // demotion relink old entries at the MRU end of probation, so walk them all,
+        // each entry reaches the delay exactly once unless accessed again
+        for (Node node = head.mNext; node != head; node = node.mNext) {
+            int idle = mTime - node.mLastAccess;
+            if (idle > TRIM_DELAY) {
+                continue;
+            }
+            if (idle == TRIM_DELAY) {
+                node.mValue.trim();
+            }
+            reweigh(node);
+        }
+    }
+
+    private void reweigh(Node node) {
+        int weight = weigh(node.mKey, node.mValue);
+        int delta = weight - node.mWeight;
+        if (delta == 0) {
+            return;
+        }
+        node.mWeight = weight;
+        mWeightedSize += delta;
+        if (node.mQueue == WINDOW) {
+            mWindowWeightedSize += delta;
+        } else if (node.mQueue == PROTECTED) {
+            mProtectedWeightedSize += delta;
+        }
+    }
+
+    static int weigh(@Nonnull Object key, @Nonnull TextLayout layout) {
+        int weight = layout.getMemorySize();
+        if (key instanceof FormattedLayoutKey k) {
+            // key is backed ourselves, other keys are views and memory-less
+            weight += k.getMemorySize();
+        }
+        return weight;
+    }
+
+    private void evict() {
+        // move window overflow to the main space, if the main space is full,
+        // the candidate competes with the victim
+        while (mWindowWeightedSize > mWindowMaximum) {
+            Node candidate = mWindow.mNext;
+            unlink(candidate);
+            mWindowWeightedSize -= candidate.mWeight;
+            candidate.mQueue = PROBATION;
+            boolean admit = true;
+            while (mWeightedSize > mMaximum) {
+                Node victim = mProbation.mNext;
+                if (victim == mProbation) {
+                    victim = mProtected.mNext;
+                    if (victim == mProtected) {
+                        break;
+                    }
+                }
+                if (mSketch.frequency(candidate.mHash) > mSketch.frequency(victim.mHash)) {
+                    removeNode(victim);
+                } else {
+                    admit = false;
+                    break;
+                }
+            }
+            if (admit) {
+                linkLast(mProbation, candidate);
+            } else {
+                mMap.remove(candidate.mKey);
+                mWeightedSize -= candidate.mWeight;
+                candidate.mValue = null;
+            }
+        }
+        // still overflow, evict by LRU
+        while (mWeightedSize > mMaximum) {
+            Node victim = mProbation.mNext;
+            if (victim == mProbation) {
+                victim = mProtected.mNext;
+                if (victim == mProtected) {
+                    victim = mWindow.mNext;
+                    if (victim == mWindow) {
+                        break;
+                    }
+                }
+            }
+            removeNode(victim);
+        }
+    }
+
+    private void demoteProtected() {
+        Node node = mProtected.mNext;
+        assert node != mProtected;
+        unlink(node);
+        mProtectedWeightedSize -= node.mWeight;
+        node.mQueue = PROBATION;
+        linkLast(mProbation, node);
+    }
+
+    private void removeNode(Node node) {
+        unlink(node);
+        mMap.remove(node.mKey);
+        mWeightedSize -= node.mWeight;
+        if (node.mQueue == WINDOW) {
+            mWindowWeightedSize -= node.mWeight;
+        } else if (node.mQueue == PROTECTED) {
+            mProtectedWeightedSize -= node.mWeight;
+        }
+        node.mValue = null;
+    }
+
+    private static void linkLast(Node head, Node node) {
+        Node last = head.mPrev;
+        node.mPrev = last;
+        node.mNext = head;
+        last.mNext = node;
+        head.mPrev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.mPrev.mNext = node.mNext;
+        node.mNext.mPrev = node.mPrev;
+        node.mPrev = node.mNext = null;
+    }
+
+    private static void unlinkAll(Node head) {
+        head.mPrev = head.mNext = head;
+    }
+
+    private static final class Node {
+
+        Object mKey;
+        TextLayout mValue;
+        int mWeight;
+        int mHash;
+        int mLastAccess;
+        byte mQueue;
+
+        Node mPrev = this;
+        Node mNext = this;
+    }
+
+    /**
+     * A count-min sketch with 4-bit counters and depth 4 to estimate the access
+     * frequency of keys, all counters are halved periodically to keep the history fresh.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEED = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+
+        private static final int MAX_TABLE_LENGTH = 1 << 20;
+
+        private long[] mTable = new long[0];
+        private int mTableMask;
+        private int mSampleSize;
+        private int mSize;
+
+        /**
+         * Grows the table so that the sketch remains accurate for the given number
+         * of entries, the history is discarded when grown.
+         */
+        void ensureCapacity(int maximumSize) {
+            int length = Math.max(maximumSize, 64);
+            if (length <= mTable.length || mTable.length >= MAX_TABLE_LENGTH) {
+                return;
+            }
+            length = Math.min(Integer.highestOneBit(length - 1) << 1, MAX_TABLE_LENGTH);
+            mTable = new long[length];
+            mTableMask = length - 1;
+            mSampleSize = 10 * length;
+            mSize = 0;
+        }
+
+        int frequency(int hash) {
+            if (mTable.length == 0) {
+                return 0;
+            }
+            hash = spread(hash);
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xFL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            if (mTable.length == 0) {
+                return;
+            }
+            hash = spread(hash);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                long mask = 0xFL << offset;
+                if ((mTable[index] & mask) != mask) {
+                    mTable[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++mSize == mSampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            int count = 0;
+            for (int i = 0; i < mTable.length; i++) {
+                count += Long.bitCount(mTable[i] & ONE_MASK);
+                mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+            }
+            mSize = (mSize - (count >>> 2)) >>> 1;
+        }
+
+        private int indexOf(int item, int i) {
+            long hash = (item + SEED[i]) * SEED[i];
+            hash += (hash >>> 32);
+            return ((int) hash) & mTableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -32,8 +32,9 @@ import icyllis.modernui.mc.*;
 import icyllis.modernui.mc.text.mixin.AccessFontManager;
 import icyllis.modernui.mc.text.mixin.MixinClientLanguage;
 import icyllis.modernui.text.*;
-import icyllis.modernui.util.Pools;
 import icyllis.modernui.view.View;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.font.FontManager;
 import net.minecraft.client.gui.font.FontSet;
@@ -53,8 +54,8 @@ import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
@@ -91,6 +92,10 @@ public class TextLayoutEngine extends FontResourceManager
      * We have an internal layout cache, so entries in this cache can be evicted quickly.
      */
     public static volatile int sCacheLifespan = 6;
+    /**
+     * Maximum memory size in megabytes of the layout cache.
+     */
+    public static volatile int sCacheBudget = 16;
     //public static volatile int sRehashThreshold = 100;
     /*
      * Config value to use distance field text in 3D world.
@@ -175,6 +180,24 @@ public class TextLayoutEngine extends FontResourceManager
      */
     public static final int COMPUTE_LINE_BOUNDARIES = 0x4;
 
+    /**
+     * For vanilla layouts only. Strings that only differ in their ASCII digits share one
+     * layout with tabular digits, and the actual digit glyphs are substituted without
+     * shaping, see {@link DigitTemplateLayout}. This is suitable for rapidly changing
+     * numbers, such as coordinates on the F3 screen. Ignored on non-render threads.
+     *
+     * @see #lookupDigitTemplateLayout(String, Style)
+     */
+    public static final int COMPUTE_DIGIT_TEMPLATE = 0x8;
+
+    /**
+     * Also records safe boundaries (words and style runs) of LTR text, so that an edited
+     * text can be laid out incrementally.
+     *
+     * @see #lookupEditedLayout(String, String, Style, int)
+     */
+    public static final int COMPUTE_EDIT_SEGMENTS = 0x10;
+
 
     /**
      * Use {@link ModernUI#getSelectedTypeface()} only.
@@ -224,10 +247,26 @@ public class TextLayoutEngine extends FontResourceManager
     public static volatile boolean sUseComponentCache = true;
 
     /**
-     * Allow text layout to be computed from non-main threads.
+     * Allow text layout to be computed from non-main threads. Otherwise, non-main threads
+     * hand the lookup to the main thread and wait for it, layouts are never computed
+     * off the main thread. This does not affect explicit asynchronous lookups, see
+     * {@link #lookupVanillaLayoutAsync}.
      */
     public static volatile boolean sAllowAsyncLayout = true;
 
+    /**
+     * Vanilla texts drawn on the render thread with at least this many chars are laid out
+     * on layout worker threads if not cached, the layout previously drawn at the same place
+     * is drawn until the real one arrives, see {@link #lookupVanillaLayoutProvisional}.
+     * 0 to disable.
+     */
+    public static volatile int sAsyncLayoutThreshold = 1024;
+
+    /**
+     * Max number of queued asynchronous layouts, further layouts are computed by the caller.
+     */
+    public static final int MAX_PENDING_ASYNC_LAYOUTS = 256;
+
 
     /**
      * Temporary Key object re-used for lookups with stringCache.get(). Using a temporary object like this avoids the
@@ -235,20 +274,36 @@ public class TextLayoutEngine extends FontResourceManager
      * when adding a mapping to stringCache.
      */
     private final VanillaLayoutKey mVanillaLookupKey = new VanillaLayoutKey();
-    private Map<VanillaLayoutKey, TextLayout> mVanillaCache = new HashMap<>();
 
     /**
-     * For styled texts.
-     *
-     * @see #sUseComponentCache
+     * For digit templates.
      */
-    private Map<MutableComponent, TextLayout> mComponentCache = new HashMap<>();
+    private final DigitTemplateKey mDigitTemplateLookupKey = new DigitTemplateKey();
 
     /**
      * For deeply-processed texts.
      */
     private final FormattedLayoutKey.Lookup mFormattedLayoutKey = new FormattedLayoutKey.Lookup();
-    private Map<FormattedLayoutKey, TextLayout> mFormattedCache = new HashMap<>();
+
+    /**
+     * Holds vanilla texts, styled texts (components, see {@link #sUseComponentCache})
+     * and deeply-processed texts, bounded by {@link #sCacheBudget}.
+     */
+    private final TextLayoutCache mLayoutCache =
+            new TextLayoutCache(sCacheBudget * 1024L * 1024L);
+
+    /**
+     * Shared by non-render threads, bounded by half of {@link #sCacheBudget}.
+     *
+     * @see #sAllowAsyncLayout
+     */
+    private final ConcurrentLayoutCache mSharedCache =
+            new ConcurrentLayoutCache(sCacheBudget * 512L * 1024L);
+
+    /**
+     * Shaped words shared by all layout procs.
+     */
+    private final LayoutPieceCache mPieceCache = new LayoutPieceCache();
 
     /**
      * Render thread layout proc.
@@ -256,11 +311,25 @@ public class TextLayoutEngine extends FontResourceManager
     private final TextLayoutProcessor mProcessor = new TextLayoutProcessor(this);
 
     /**
-     * Background thread layout procs.
+     * Background thread layout procs, scales with core count.
      *
      * @see #sAllowAsyncLayout
      */
-    private final Pools.Pool<TextLayoutProcessor> mProcessorPool = Pools.newSynchronizedPool(3);
+    private final StripedPool<TextLayoutProcessor> mProcessorPool =
+            new StripedPool<>(() -> new TextLayoutProcessor(this));
+
+    /**
+     * Layout worker threads for asynchronous layout, the queue is bounded by
+     * {@link #MAX_PENDING_ASYNC_LAYOUTS}, the caller runs the task when it's full.
+     */
+    private final ThreadPoolExecutor mLayoutExecutor;
+
+    /**
+     * Render thread only, asynchronous layouts to be inserted into the layout cache.
+     *
+     * @see #lookupVanillaLayoutProvisional
+     */
+    private final HashMap<Object, CompletableFuture<TextLayout>> mPendingLayouts = new HashMap<>();
 
     /**
      * All the fonts to use. Maps typeface name to FontCollection.
@@ -333,11 +402,25 @@ public class TextLayoutEngine extends FontResourceManager
                 // need to lookupGlyph() and cacheGlyph() again
                 reload();
             } else {
-                // called by compact(), need to lookupGlyph() and cacheGlyph() again
-                reload();
+                // called by compact() or stitching at the hard cap, layouts are still valid,
+                // only their baked glyphs need to lookupGlyph() and cacheGlyph() again
+                TextLayout.invalidateBakedGlyphs();
             }
         });
 
+        final int threads = Math.max(1, Math.min(4,
+                Runtime.getRuntime().availableProcessors() / 2));
+        final AtomicInteger threadCount = new AtomicInteger();
+        mLayoutExecutor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_PENDING_ASYNC_LAYOUTS),
+                r -> {
+                    Thread t = new Thread(r, "ModernUI-Layout-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        mLayoutExecutor.allowCoreThreadTimeOut(true);
+
         mTextRenderer = new ModernTextRenderer(this);
         mStringSplitter = new ModernStringSplitter(this, (int ch, Style style) -> {
             throw new UnsupportedOperationException("Modern Text Engine");
@@ -397,15 +480,16 @@ public class TextLayoutEngine extends FontResourceManager
      */
     public void clear() {
         int count = getCacheCount();
-        mVanillaCache.clear();
-        mComponentCache.clear();
-        mFormattedCache.clear();
-        // Create new HashMap so that the internal hashtable of old maps are released as well
-        mVanillaCache = new HashMap<>();
-        mComponentCache = new HashMap<>();
-        mFormattedCache = new HashMap<>();
+        mLayoutCache.clear();
+        mSharedCache.clear();
+        // results of pending layouts will be dropped
+        mPendingLayouts.clear();
+        mTextRenderer.clearPreviousLayouts();
+        mPieceCache.clear();
         // Just clear TextRenderType instances, font textures are remained
         TextRenderType.clear(/*cleanup*/ false);
+        // meshes refer to the render types
+        TextMesh.invalidateAll();
         if (count > 0) {
             LOGGER.debug(MARKER, "Cleanup {} text layout entries", count);
         }
@@ -432,20 +516,7 @@ public class TextLayoutEngine extends FontResourceManager
         clear();
 
         final int oldLevel = mResLevel;
-        if (sFixedResolution) {
-            // make font size to 16 (8 * 2)
-            mResLevel = 2;
-        } else {
-            // Note max font size is 96, actual font size will be (baseFontSize * resLevel) in Minecraft
-            /*if (!sSuperSampling || !GLFontAtlas.sLinearSampling) {
-                mResLevel = Math.min(scale, 9);
-            } else if (scale > 2) {
-                mResLevel = Math.min((int) Math.ceil(scale * 4 / 3f), 12);
-            } else {
-                mResLevel = scale;
-            }*/
-            mResLevel = Math.min(scale, MuiModApi.MAX_GUI_SCALE);
-        }
+        mResLevel = computeResLevel(scale);
         var opts = Minecraft.getInstance().options;
         //noinspection ConstantValue
         if (opts != null) { // this can be null on Fabric, because this class loads too early
@@ -514,6 +585,46 @@ public class TextLayoutEngine extends FontResourceManager
                 oldLevel, mResLevel, locale, layoutRtl);
     }
 
+    private static int computeResLevel(int scale) {
+        if (sFixedResolution) {
+            // make font size to 16 (8 * 2)
+            return 2;
+        } else {
+            // Note max font size is 96, actual font size will be (baseFontSize * resLevel) in Minecraft
+            /*if (!sSuperSampling || !GLFontAtlas.sLinearSampling) {
+                mResLevel = Math.min(scale, 9);
+            } else if (scale > 2) {
+                mResLevel = Math.min((int) Math.ceil(scale * 4 / 3f), 12);
+            } else {
+                mResLevel = scale;
+            }*/
+            return Math.min(scale, MuiModApi.MAX_GUI_SCALE);
+        }
+    }
+
+    /**
+     * Called when only GUI scale changed and fractional metrics are enabled. Text layouts
+     * are kept in the cache and only their baked glyphs will be looked up again at the new
+     * resolution level.
+     * <p>
+     * Layouts are shaped at the font size of the old resolution level, then scaled to GUI
+     * units. With fractional metrics, advances are linear (unhinted) so they scale with the
+     * font size, up to float rounding. Without fractional metrics, advances are rounded to
+     * whole pixels of the old strike, so they are not resolution-independent and a full
+     * reload is required, see {@link #onWindowResize}.
+     */
+    private void internalResize(int scale) {
+        final int oldLevel = mResLevel;
+        final int newLevel = computeResLevel(scale);
+        if (oldLevel == newLevel) {
+            return;
+        }
+        mResLevel = newLevel;
+        invalidateStrikeCache();
+        LOGGER.info(MARKER, "Resized text layout engine, res level: {} to {}, kept {} layouts",
+                oldLevel, newLevel, getCacheCount());
+    }
+
     /**
      * Reload both glyph manager and layout engine.
      * Called when any resource changed. This will call {@link #reload()}.
@@ -529,13 +640,16 @@ public class TextLayoutEngine extends FontResourceManager
     @Override
     public void onWindowResize(int width, int height, int newScale, int oldScale) {
         if (Core.getRenderThread() != null) {
-            boolean reload = (newScale != oldScale);
-            if (!reload) {
-                Boolean forceUnicodeFont = Minecraft.getInstance().options.forceUnicodeFont().get();
-                reload = !Objects.equals(mForceUnicodeFont, forceUnicodeFont);
-            }
-            if (reload) {
+            Boolean forceUnicodeFont = Minecraft.getInstance().options.forceUnicodeFont().get();
+            if (!Objects.equals(mForceUnicodeFont, forceUnicodeFont)) {
                 internalReload(newScale);
+            } else if (newScale != oldScale) {
+                if (GlyphManager.sFractionalMetrics) {
+                    internalResize(newScale);
+                } else {
+                    // hinted positions were rounded at the old font size, relayout
+                    internalReload(newScale);
+                }
             }
         }
     }
@@ -547,6 +661,22 @@ public class TextLayoutEngine extends FontResourceManager
         pw.print("CacheCount=" + getCacheCount());
         long memorySize = getCacheMemorySize();
         pw.println(", CacheSize=" + TextUtils.binaryCompact(memorySize) + " (" + memorySize + " bytes)");
+        long hits = mSharedCache.getHitCount();
+        long misses = mSharedCache.getMissCount();
+        pw.print("SharedLayoutCache: ");
+        pw.print("Count=" + mSharedCache.size());
+        pw.print(", Size=" + TextUtils.binaryCompact(mSharedCache.weightedSize()));
+        pw.print(", Hits=" + hits);
+        pw.print(", Misses=" + misses);
+        pw.printf(", HitRate=%.2f%%\n", hits + misses > 0 ? hits * 100.0 / (hits + misses) : 0.0);
+        pw.println("LayoutPieceCache: Count=" + mPieceCache.size());
+        pw.print("AsyncLayout: ");
+        pw.print("Pending=" + mPendingLayouts.size());
+        pw.print(", Queued=" + mLayoutExecutor.getQueue().size());
+        pw.println(", Threads=" + mLayoutExecutor.getPoolSize());
+        pw.print("WorldTextLod: ");
+        pw.print("ProxiedGlyphs=" + ModernTextRenderer.getProxiedGlyphCount());
+        pw.println(", CulledGlyphs=" + ModernTextRenderer.getCulledGlyphCount());
     }
 
     //// START Resource Reloading
@@ -630,6 +760,7 @@ public class TextLayoutEngine extends FontResourceManager
 
     private static final class LoadResults extends FontResourceManager.LoadResults {
         volatile Map<Object, FontCollection> mFontCollections;
+        volatile GlyphManager.PrewarmedGlyphs mPrewarmedGlyphs;
     }
 
     // ASYNC
@@ -656,7 +787,12 @@ public class TextLayoutEngine extends FontResourceManager
                 },
                 preparationExecutor);
         return CompletableFuture.allOf(loadFonts, loadEmojis, loadShortcodes)
-                .thenApply(__ -> results);
+                .thenApplyAsync(__ -> {
+                    if (GlyphManager.sPrewarmGlyphLimit > 0) {
+                        prewarmGlyphs(resourceManager, results);
+                    }
+                    return results;
+                }, preparationExecutor);
     }
 
     // SYNC
@@ -685,10 +821,24 @@ public class TextLayoutEngine extends FontResourceManager
             throw new IllegalStateException("Default font failed to load");
         }
         super.applyResources(results);
+        mGlyphManager.packBitmapFonts(getBitmapFonts());
+        if (results.mPrewarmedGlyphs != null) {
+            mGlyphManager.uploadPrewarmedGlyphs(results.mPrewarmedGlyphs);
+        }
     }
 
     @Override
     public void close() {
+        // queued layouts are dropped, wait for running ones before closing their fonts
+        mLayoutExecutor.shutdownNow();
+        try {
+            if (!mLayoutExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOGGER.warn(MARKER, "Layout worker threads did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mPendingLayouts.clear();
         mGlyphManager.closeAtlases();
         closeFonts();
         // do final cleanup
@@ -696,6 +846,22 @@ public class TextLayoutEngine extends FontResourceManager
         EffectRenderType.clear();
     }
 
+    /**
+     * @return all distinct bitmap fonts in font collections
+     */
+    @Nonnull
+    private Set<BitmapFont> getBitmapFonts() {
+        var fonts = Collections.newSetFromMap(new IdentityHashMap<BitmapFont, Boolean>());
+        for (var fontCollection : mFontCollections.values()) {
+            for (var family : fontCollection.getFamilies()) {
+                if (family.getClosestMatch(FontPaint.NORMAL) instanceof BitmapFont bitmapFont) {
+                    fonts.add(bitmapFont);
+                }
+            }
+        }
+        return fonts;
+    }
+
     private void closeFonts() {
         // close bitmaps if never baked
         for (var fontCollection : mFontCollections.values()) {
@@ -923,6 +1089,54 @@ public class TextLayoutEngine extends FontResourceManager
         }
     }
 
+    // ASYNC
+    private static void prewarmGlyphs(@Nonnull ResourceManager resources, @Nonnull LoadResults results) {
+        final var codePoints = new IntLinkedOpenHashSet();
+        for (int ch = 0x20; ch < 0x7F; ch++) {
+            codePoints.add(ch);
+        }
+        // most frequent chars in the current language file
+        final var gson = new Gson();
+        final var frequencies = new Int2IntOpenHashMap();
+        final String language = Minecraft.getInstance().getLanguageManager().getSelected();
+        final String path = "lang/" + language + ".json";
+        for (var entry : resources.listResourceStacks("lang",
+                res -> res.getPath().equals(path)).entrySet()) {
+            for (var resource : entry.getValue()) {
+                try (var reader = resource.openAsReader()) {
+                    var json = Objects.requireNonNull(
+                            gson.fromJson(reader, JsonObject.class));
+                    for (var e : json.entrySet()) {
+                        if (e.getValue().isJsonPrimitive()) {
+                            e.getValue().getAsString().codePoints()
+                                    .filter(ch -> ch > 0x7E)
+                                    .forEach(ch -> frequencies.addTo(ch, 1));
+                        }
+                    }
+                } catch (Exception e) {
+                    LOGGER.warn(MARKER, "Failed to read language file '{}' in pack: '{}'",
+                            entry.getKey(), resource.sourcePackId(), e);
+                }
+            }
+        }
+        frequencies.int2IntEntrySet().stream()
+                .sorted((lhs, rhs) -> Integer.compare(rhs.getIntValue(), lhs.getIntValue()))
+                .limit(GlyphManager.sPrewarmGlyphLimit)
+                .forEach(e -> codePoints.add(e.getIntKey()));
+
+        // the resolution level that will be used after reloading
+        var window = Minecraft.getInstance().getWindow();
+        //noinspection ConstantValue
+        final int scale = window != null ? Math.round((float) window.getGuiScale()) : 2;
+        final int fontSize = TextLayoutProcessor.computeFontSize(computeResLevel(scale));
+        final long startTime = System.nanoTime();
+        results.mPrewarmedGlyphs = GlyphManager.prewarmGlyphs(
+                ModernUI.getSelectedTypeface().getFamilies(), fontSize, codePoints);
+        LOGGER.info(MARKER, "Rasterized {} glyphs of {} chars in {} ms for prewarming, font size: {}",
+                results.mPrewarmedGlyphs.size(), codePoints.size(),
+                (System.nanoTime() - startTime) / 1000000, fontSize);
+    }
+
     ////// END Resource Reloading
 
 
@@ -980,13 +1194,8 @@ public class TextLayoutEngine extends FontResourceManager
         }
         if (!RenderSystem.isOnRenderThread()) {
             if (sAllowAsyncLayout) {
-                TextLayoutProcessor proc = mProcessorPool.acquire();
-                if (proc == null) {
-                    proc = new TextLayoutProcessor(this);
-                }
-                TextLayout layout = proc.createVanillaLayout(text, style, mResLevel, computeFlags);
-                mProcessorPool.release(proc);
-                return layout;
+                return lookupSharedVanillaLayout(text, style,
+                        computeFlags & ~COMPUTE_DIGIT_TEMPLATE);
             } else {
                 return Minecraft.getInstance().submit(
                                 () -> lookupVanillaLayout(text, style, computeFlags)
@@ -994,16 +1203,162 @@ public class TextLayoutEngine extends FontResourceManager
                         .join();
             }
         }
-        TextLayout layout = mVanillaCache.get(mVanillaLookupKey.update(text, style));
+        if ((computeFlags & COMPUTE_DIGIT_TEMPLATE) != 0) {
+            return lookupDigitTemplate(text, style, computeFlags);
+        }
+        TextLayout layout = mLayoutCache.get(mVanillaLookupKey.update(text, style));
         int nowFlags = 0;
         if (layout == null ||
                 ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
             layout = mProcessor.createVanillaLayout(text, style, mResLevel,
                     nowFlags | computeFlags);
-            mVanillaCache.put(mVanillaLookupKey.copy(), layout);
+            mLayoutCache.put(mVanillaLookupKey.copy(), layout);
+            return layout;
+        }
+        return layout;
+    }
+
+    /**
+     * Find a full text layout for the given text on the render thread, without blocking the
+     * frame on long texts. If the layout is not cached and the text has at least
+     * {@link #sAsyncLayoutThreshold} chars, it is computed by layout worker threads and
+     * inserted into the cache when done. Meanwhile, the given previous layout (i.e. the
+     * one drawn at the same place in the previous frame) is returned. If there is no
+     * previous layout, nothing has been drawn there yet, the layout is computed
+     * synchronously, so that the text is never invisible.
+     *
+     * @param text         the source text, may contain formatting codes
+     * @param style        the base style
+     * @param computeFlags additional things to compute
+     * @param previous     the layout to return until the real one arrives, or null
+     * @return the full layout, or the previous layout
+     */
+    @Nonnull
+    public TextLayout lookupVanillaLayoutProvisional(@Nonnull String text, @Nonnull Style style,
+                                                     int computeFlags, @Nullable TextLayout previous) {
+        final int threshold = sAsyncLayoutThreshold;
+        if (threshold <= 0 || text.length() < threshold || !RenderSystem.isOnRenderThread() ||
+                (computeFlags & COMPUTE_DIGIT_TEMPLATE) != 0) {
+            return lookupVanillaLayout(text, style, computeFlags);
+        }
+        TextLayout layout = mLayoutCache.get(mVanillaLookupKey.update(text, style));
+        int nowFlags = 0;
+        if (layout != null &&
+                ((nowFlags = layout.mComputedFlags) & computeFlags) == computeFlags) {
+            return layout;
+        }
+        if (previous == null) {
+            // the result of pending layout (if any) will be dropped
+            mPendingLayouts.remove(mVanillaLookupKey);
+            layout = mProcessor.createVanillaLayout(text, style, mResLevel,
+                    nowFlags | computeFlags);
+            mLayoutCache.put(mVanillaLookupKey.copy(), layout);
+            return layout;
+        }
+        // if the queue is full, try again in the next frame
+        if (!mPendingLayouts.containsKey(mVanillaLookupKey) &&
+                mLayoutExecutor.getQueue().remainingCapacity() > 0) {
+            final VanillaLayoutKey key = mVanillaLookupKey.copy();
+            final int flags = nowFlags | computeFlags;
+            final CompletableFuture<TextLayout> future = CompletableFuture.supplyAsync(
+                    () -> createVanillaLayoutInBackground(text, style, flags), mLayoutExecutor);
+            mPendingLayouts.put(key, future);
+            future.whenCompleteAsync((result, throwable) -> {
+                // dropped if the cache was cleared in between
+                if (mPendingLayouts.remove(key, future) && result != null) {
+                    mLayoutCache.put(key, result);
+                }
+            }, Minecraft.getInstance());
+        }
+        return previous;
+    }
+
+    @Nonnull
+    private TextLayout createVanillaLayoutInBackground(@Nonnull String text, @Nonnull Style style,
+                                                       int computeFlags) {
+        final TextLayoutProcessor proc = acquireProcessor();
+        try {
+            return proc.createVanillaLayout(text, style, mResLevel, computeFlags);
+        } finally {
+            releaseProcessor(proc);
+        }
+    }
+
+    /**
+     * Find or create a full text layout for the given text, whose ASCII digits change
+     * frequently, such as a timer or coordinates. The text is laid out once with all
+     * digits as '0', later strings that only differ in their digits reuse that layout.
+     *
+     * @param text  the source text, may contain formatting codes
+     * @param style the base style
+     * @return the full layout for the text
+     * @see #COMPUTE_DIGIT_TEMPLATE
+     */
+    @Nonnull
+    public TextLayout lookupDigitTemplateLayout(@Nonnull String text, @Nonnull Style style) {
+        return lookupVanillaLayout(text, style, COMPUTE_DIGIT_TEMPLATE);
+    }
+
+    @Nonnull
+    private TextLayout lookupDigitTemplate(@Nonnull String text, @Nonnull Style style,
+                                           int computeFlags) {
+        // the exact text was laid out, or it cannot be a template
+        final int plainFlags = computeFlags & ~COMPUTE_DIGIT_TEMPLATE;
+        TextLayout layout = mLayoutCache.get(mVanillaLookupKey.update(text, style));
+        if (layout != null && (layout.mComputedFlags & plainFlags) == plainFlags) {
             return layout;
         }
-        return layout.get();
+        layout = mLayoutCache.get(mDigitTemplateLookupKey.update(text, style));
+        int nowFlags = 0;
+        if (layout == null ||
+                ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
+            layout = mProcessor.createVanillaLayout(text, style, mResLevel,
+                    nowFlags | computeFlags);
+            if (!(layout instanceof DigitTemplateLayout)) {
+                mLayoutCache.put(mVanillaLookupKey.copy(), layout);
+                return layout;
+            }
+            mLayoutCache.put(mDigitTemplateLookupKey.copy(), layout);
+        }
+        return ((DigitTemplateLayout) layout).bind(text);
+    }
+
+    /**
+     * Find or create a full text layout for the given text, which is an edit of the previous
+     * text, such as the content of an {@link net.minecraft.client.gui.components.EditBox}
+     * after typing or pasting. If the previous layout is still cached, only the words around
+     * the changed chars are laid out again, the rest is copied from the previous layout.
+     * Otherwise, this is the same as {@link #lookupVanillaLayout(String, Style, int)}.
+     *
+     * @param previousText the text before editing, or null
+     * @param text         the source text, may contain formatting codes
+     * @param style        the base style
+     * @param computeFlags additional things to compute
+     * @return the full layout for the text
+     */
+    @Nonnull
+    public TextLayout lookupEditedLayout(@Nullable String previousText, @Nonnull String text,
+                                         @Nonnull Style style, int computeFlags) {
+        computeFlags |= COMPUTE_EDIT_SEGMENTS;
+        if (text.isEmpty() || previousText == null || previousText.isEmpty() ||
+                previousText.equals(text) || !RenderSystem.isOnRenderThread()) {
+            return lookupVanillaLayout(text, style, computeFlags);
+        }
+        TextLayout layout = mLayoutCache.get(mVanillaLookupKey.update(text, style));
+        int nowFlags = 0;
+        if (layout == null ||
+                ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
+            TextLayout previous = mLayoutCache.get(mVanillaLookupKey.update(previousText, style));
+            if (previous != null) {
+                layout = mProcessor.createEditedLayout(previous, previousText, text, style,
+                        mResLevel, nowFlags | computeFlags);
+            } else {
+                layout = mProcessor.createVanillaLayout(text, style, mResLevel,
+                        nowFlags | computeFlags);
+            }
+            mLayoutCache.put(mVanillaLookupKey.update(text, style).copy(), layout);
+        }
+        return layout;
     }
 
     /**
@@ -1050,13 +1405,7 @@ public class TextLayoutEngine extends FontResourceManager
         }
         if (!RenderSystem.isOnRenderThread()) {
             if (sAllowAsyncLayout) {
-                TextLayoutProcessor proc = mProcessorPool.acquire();
-                if (proc == null) {
-                    proc = new TextLayoutProcessor(this);
-                }
-                TextLayout layout = proc.createTextLayout(text, style, mResLevel, computeFlags);
-                mProcessorPool.release(proc);
-                return layout;
+                return lookupSharedFormattedLayout(text, style, computeFlags);
             } else {
                 return Minecraft.getInstance().submit(
                                 () -> lookupFormattedLayout(text, style, computeFlags)
@@ -1068,26 +1417,26 @@ public class TextLayoutEngine extends FontResourceManager
         int nowFlags = 0;
         if (style.isEmpty() && sUseComponentCache &&
                 text instanceof MutableComponent component) {
-            layout = mComponentCache.get(component);
+            layout = mLayoutCache.get(component);
             if (layout == null ||
                     ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
                 layout = mProcessor.createTextLayout(text, Style.EMPTY, mResLevel,
                         nowFlags | computeFlags);
-                mComponentCache.put(component, layout);
+                mLayoutCache.put(component, layout);
                 return layout;
             }
         } else {
             // the more complex case (multi-component)
-            layout = mFormattedCache.get(mFormattedLayoutKey.update(text, style));
+            layout = mLayoutCache.get(mFormattedLayoutKey.update(text, style));
             if (layout == null ||
                     ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
                 layout = mProcessor.createTextLayout(text, style, mResLevel,
                         nowFlags | computeFlags);
-                mFormattedCache.put(mFormattedLayoutKey.copy(), layout);
+                mLayoutCache.put(mFormattedLayoutKey.copy(), layout);
                 return layout;
             }
         }
-        return layout.get();
+        return layout;
     }
 
     /**
@@ -1125,13 +1474,7 @@ public class TextLayoutEngine extends FontResourceManager
         }
         if (!RenderSystem.isOnRenderThread()) {
             if (sAllowAsyncLayout) {
-                TextLayoutProcessor proc = mProcessorPool.acquire();
-                if (proc == null) {
-                    proc = new TextLayoutProcessor(this);
-                }
-                TextLayout layout = proc.createSequenceLayout(sequence, mResLevel, computeFlags);
-                mProcessorPool.release(proc);
-                return layout;
+                return lookupSharedSequenceLayout(sequence, computeFlags);
             } else {
                 return Minecraft.getInstance().submit(
                                 () -> lookupFormattedLayout(sequence, computeFlags)
@@ -1149,54 +1492,224 @@ public class TextLayoutEngine extends FontResourceManager
             TextLayout layout;
             if (sUseComponentCache &&
                     text instanceof MutableComponent component) {
-                layout = mComponentCache.get(component);
+                layout = mLayoutCache.get(component);
                 if (layout == null ||
                         ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
                     layout = mProcessor.createTextLayout(text, Style.EMPTY, mResLevel,
                             nowFlags | computeFlags);
-                    mComponentCache.put(component, layout);
+                    mLayoutCache.put(component, layout);
                     return layout;
                 }
             } else {
                 // the more complex case (multi-component)
-                layout = mFormattedCache.get(mFormattedLayoutKey.update(text, Style.EMPTY));
+                layout = mLayoutCache.get(mFormattedLayoutKey.update(text, Style.EMPTY));
                 if (layout == null ||
                         ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
                     layout = mProcessor.createTextLayout(text, Style.EMPTY, mResLevel,
                             nowFlags | computeFlags);
-                    mFormattedCache.put(mFormattedLayoutKey.copy(), layout);
+                    mLayoutCache.put(mFormattedLayoutKey.copy(), layout);
                     return layout;
                 }
             }
-            return layout.get();
+            return layout;
         }
         // check if it's intercepted by FormattedCharSequence.forward()
         else if (sequence instanceof VanillaTextWrapper wrapper) {
             String text = wrapper.mText;
             Style style = wrapper.mStyle;
-            TextLayout layout = mVanillaCache.get(mVanillaLookupKey.update(text, style));
+            TextLayout layout = mLayoutCache.get(mVanillaLookupKey.update(text, style));
             if (layout == null ||
                     ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
                 layout = mProcessor.createVanillaLayout(text, style, mResLevel,
                         nowFlags | computeFlags);
-                mVanillaCache.put(mVanillaLookupKey.copy(), layout);
+                mLayoutCache.put(mVanillaLookupKey.copy(), layout);
                 return layout;
             }
-            return layout.get();
+            return layout;
         } else {
             // the most complex case (multi-component)
-            TextLayout layout = mFormattedCache.get(mFormattedLayoutKey.update(sequence));
+            TextLayout layout = mLayoutCache.get(mFormattedLayoutKey.update(sequence));
             if (layout == null ||
                     ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
                 layout = mProcessor.createSequenceLayout(sequence, mResLevel,
                         nowFlags | computeFlags);
-                mFormattedCache.put(mFormattedLayoutKey.copy(), layout);
+                mLayoutCache.put(mFormattedLayoutKey.copy(), layout);
                 return layout;
             }
-            return layout.get();
+            return layout;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #lookupVanillaLayout(String, Style, int)}. The layout
+     * is computed by layout worker threads, unless it is cached for the render thread.
+     * If too many layouts are pending, it is computed on the calling thread.
+     *
+     * @param text         the source text, may contain formatting codes
+     * @param style        the base style
+     * @param computeFlags additional things to compute
+     * @return a future that completes with the full layout
+     */
+    @Nonnull
+    public CompletableFuture<TextLayout> lookupVanillaLayoutAsync(@Nonnull String text, @Nonnull Style style,
+                                                                  int computeFlags) {
+        if (text.isEmpty()) {
+            return CompletableFuture.completedFuture(TextLayout.EMPTY);
+        }
+        final int flags = computeFlags & ~COMPUTE_DIGIT_TEMPLATE;
+        if (RenderSystem.isOnRenderThread()) {
+            TextLayout layout = mLayoutCache.get(mVanillaLookupKey.update(text, style));
+            if (layout != null && (layout.mComputedFlags & flags) == flags) {
+                return CompletableFuture.completedFuture(layout);
+            }
+        }
+        return CompletableFuture.supplyAsync(
+                () -> lookupSharedVanillaLayout(text, style, flags), mLayoutExecutor);
+    }
+
+    /**
+     * Asynchronous version of {@link #lookupFormattedLayout(FormattedText, Style, int)}.
+     * The text must not be modified until the future completes.
+     *
+     * @param text         the text ancestor
+     * @param style        the base style
+     * @param computeFlags additional things to compute
+     * @return a future that completes with the full layout
+     * @see #lookupVanillaLayoutAsync(String, Style, int)
+     */
+    @Nonnull
+    public CompletableFuture<TextLayout> lookupFormattedLayoutAsync(@Nonnull FormattedText text,
+                                                                    @Nonnull Style style,
+                                                                    int computeFlags) {
+        if (text == CommonComponents.EMPTY || text == FormattedText.EMPTY) {
+            return CompletableFuture.completedFuture(TextLayout.EMPTY);
+        }
+        if (RenderSystem.isOnRenderThread() && style.isEmpty() && sUseComponentCache &&
+                text instanceof MutableComponent component) {
+            TextLayout layout = mLayoutCache.get(component);
+            if (layout != null && (layout.mComputedFlags & computeFlags) == computeFlags) {
+                return CompletableFuture.completedFuture(layout);
+            }
+        }
+        return CompletableFuture.supplyAsync(
+                () -> lookupSharedFormattedLayout(text, style, computeFlags), mLayoutExecutor);
+    }
+
+    /**
+     * Asynchronous version of {@link #lookupFormattedLayout(FormattedCharSequence, int)}.
+     * The sequence must not be modified until the future completes.
+     *
+     * @param sequence     the deeply-processed sequence
+     * @param computeFlags additional things to compute
+     * @return a future that completes with the full layout
+     * @see #lookupVanillaLayoutAsync(String, Style, int)
+     */
+    @Nonnull
+    public CompletableFuture<TextLayout> lookupFormattedLayoutAsync(@Nonnull FormattedCharSequence sequence,
+                                                                    int computeFlags) {
+        if (sequence == FormattedCharSequence.EMPTY) {
+            return CompletableFuture.completedFuture(TextLayout.EMPTY);
+        }
+        return CompletableFuture.supplyAsync(
+                () -> lookupSharedSequenceLayout(sequence, computeFlags), mLayoutExecutor);
+    }
+
+    /**
+     * Off-render-thread version of {@link #lookupVanillaLayout(String, Style, int)},
+     * backed by the shared cache.
+     */
+    @Nonnull
+    private TextLayout lookupSharedVanillaLayout(@Nonnull String text, @Nonnull Style style,
+                                                 int computeFlags) {
+        final TextLayoutProcessor proc = acquireProcessor();
+        try {
+            final int generation = mSharedCache.getGeneration();
+            final VanillaLayoutKey key = proc.mVanillaLookupKey.update(text, style);
+            TextLayout layout = mSharedCache.get(key);
+            int nowFlags = 0;
+            if (layout == null ||
+                    ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
+                layout = proc.createVanillaLayout(text, style, mResLevel,
+                        nowFlags | computeFlags);
+                mSharedCache.put(key.copy(), layout, generation);
+            }
+            return layout;
+        } finally {
+            releaseProcessor(proc);
+        }
+    }
+
+    /**
+     * Off-render-thread version of {@link #lookupFormattedLayout(FormattedText, Style, int)},
+     * backed by the shared cache. Components are not used as keys, since they are mutable.
+     */
+    @Nonnull
+    private TextLayout lookupSharedFormattedLayout(@Nonnull FormattedText text, @Nonnull Style style,
+                                                   int computeFlags) {
+        final TextLayoutProcessor proc = acquireProcessor();
+        try {
+            final int generation = mSharedCache.getGeneration();
+            final FormattedLayoutKey.Lookup key = proc.mFormattedLookupKey;
+            TextLayout layout = mSharedCache.get(key.update(text, style));
+            int nowFlags = 0;
+            if (layout == null ||
+                    ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
+                layout = proc.createTextLayout(text, style, mResLevel,
+                        nowFlags | computeFlags);
+                mSharedCache.put(key.copy(), layout, generation);
+            }
+            return layout;
+        } finally {
+            releaseProcessor(proc);
+        }
+    }
+
+    /**
+     * Off-render-thread version of {@link #lookupFormattedLayout(FormattedCharSequence, int)},
+     * backed by the shared cache.
+     */
+    @Nonnull
+    private TextLayout lookupSharedSequenceLayout(@Nonnull FormattedCharSequence sequence,
+                                                  int computeFlags) {
+        if (sequence instanceof FormattedTextWrapper) {
+            FormattedText text = ((FormattedTextWrapper) sequence).mText;
+            if (text == CommonComponents.EMPTY || text == FormattedText.EMPTY) {
+                return TextLayout.EMPTY;
+            }
+            return lookupSharedFormattedLayout(text, Style.EMPTY, computeFlags);
+        } else if (sequence instanceof VanillaTextWrapper wrapper) {
+            if (wrapper.mText.isEmpty()) {
+                return TextLayout.EMPTY;
+            }
+            return lookupSharedVanillaLayout(wrapper.mText, wrapper.mStyle, computeFlags);
+        }
+        final TextLayoutProcessor proc = acquireProcessor();
+        try {
+            final int generation = mSharedCache.getGeneration();
+            final FormattedLayoutKey.Lookup key = proc.mFormattedLookupKey;
+            TextLayout layout = mSharedCache.get(key.update(sequence));
+            int nowFlags = 0;
+            if (layout == null ||
+                    ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
+                layout = proc.createSequenceLayout(sequence, mResLevel,
+                        nowFlags | computeFlags);
+                mSharedCache.put(key.copy(), layout, generation);
+            }
+            return layout;
+        } finally {
+            releaseProcessor(proc);
         }
     }
 
+    @Nonnull
+    private TextLayoutProcessor acquireProcessor() {
+        return mProcessorPool.acquire();
+    }
+
+    private void releaseProcessor(@Nonnull TextLayoutProcessor proc) {
+        mProcessorPool.release(proc);
+    }
+
     ////// END Cache Retrieval
 
 
@@ -1236,29 +1749,12 @@ public class TextLayoutEngine extends FontResourceManager
     }
 
     public void dumpBitmapFonts() {
-        String basePath = Bitmap.saveDialogGet(
-                Bitmap.SaveFormat.PNG, null, "BitmapFont");
-        if (basePath != null) {
-            // XXX: remove extension name
-            basePath = basePath.substring(0, basePath.length() - 4);
-        }
         int index = 0;
-        var visited = new IdentityHashMap<BitmapFont, Boolean>();
-        for (var fc : mFontCollections.values()) {
-            for (var family : fc.getFamilies()) {
-                var font = family.getClosestMatch(FontPaint.NORMAL);
-                if (font instanceof BitmapFont bmf) {
-                    if (visited.put(bmf, Boolean.TRUE) == null) {
-                        if (basePath != null) {
-                            bmf.dumpAtlas(index, basePath + "_" + index + ".png");
-                        } else {
-                            bmf.dumpAtlas(index, null);
-                        }
-                        index++;
-                    }
-                }
-            }
+        for (var bmf : getBitmapFonts()) {
+            bmf.dumpInfo(index++);
         }
+        // glyphs of all bitmap fonts are in the shared atlas
+        mGlyphManager.debugBitmapAtlas();
     }
 
     /**
@@ -1297,20 +1793,10 @@ public class TextLayoutEngine extends FontResourceManager
      */
     public void onEndClientTick() {
         if (mTimer == 0) {
-            //int oldCount = getCacheCount();
-            final int lifespan = sCacheLifespan;
-            final Predicate<TextLayout> ticker = layout -> layout.tick(lifespan);
-            mVanillaCache.values().removeIf(ticker);
-            mComponentCache.values().removeIf(ticker);
-            mFormattedCache.values().removeIf(ticker);
-            /*if (oldCount >= sRehashThreshold) {
-                int newCount = getCacheCount();
-                if (newCount < sRehashThreshold) {
-                    mVanillaCache = new HashMap<>(mVanillaCache);
-                    mComponentCache = new HashMap<>(mComponentCache);
-                    mFormattedCache = new HashMap<>(mFormattedCache);
-                }
-            }*/
+            mLayoutCache.setMaximum(sCacheBudget * 1024L * 1024L);
+            mLayoutCache.tick(sCacheLifespan);
+            mSharedCache.setMaximum(sCacheBudget * 512L * 1024L);
+            mSharedCache.tick(sCacheLifespan);
             boolean useTextShadersEffective = sRawUseTextShadersInWorld
                     && !ModernUIClient.areShadersEnabled();
             if (sUseTextShadersInWorld != useTextShadersEffective) {
@@ -1326,44 +1812,32 @@ public class TextLayoutEngine extends FontResourceManager
      * @return the number of layout entries
      */
     public int getCacheCount() {
-        return mVanillaCache.size() + mComponentCache.size() + mFormattedCache.size();
+        return mLayoutCache.size() + mSharedCache.size();
     }
 
     /**
      * @return measurable cache size in bytes
      */
     public int getCacheMemorySize() {
-        int size = 0;
-        for (var n : mVanillaCache.values()) {
-            // key is a view, memory-less
-            size += n.getMemorySize();
-        }
-        for (var n : mComponentCache.values()) {
-            // key is a view, memory-less
-            size += n.getMemorySize();
-        }
-        for (var e : mFormattedCache.entrySet()) {
-            // key is backed ourselves
-            size += e.getKey().getMemorySize();
-            size += e.getValue().getMemorySize();
-        }
-        return size;
+        return (int) (mLayoutCache.weightedSize() + mSharedCache.weightedSize());
     }
 
     public void dumpLayoutCache() {
-        int i = 0;
-        for (var e : mVanillaCache.entrySet()) {
-            LOGGER.info(MARKER, "VanillaCache {}\n{}\n{}", i, e.getKey(), e.getValue().toDetailedString());
-            i++;
-        }
-        for (var e : mComponentCache.entrySet()) {
-            LOGGER.info(MARKER, "ComponentCache {}\n{}\n{}", i, e.getKey(), e.getValue().toDetailedString());
-            i++;
-        }
-        for (var e : mFormattedCache.entrySet()) {
-            LOGGER.info(MARKER, "FormattedCache {}\n{}\n{}", i, e.getKey(), e.getValue().toDetailedString());
-            i++;
-        }
+        int[] i = {0};
+        mLayoutCache.forEach((key, layout) -> {
+            String kind;
+            if (key instanceof VanillaLayoutKey) {
+                kind = "VanillaCache";
+            } else if (key instanceof DigitTemplateKey) {
+                kind = "DigitTemplateCache";
+            } else if (key instanceof FormattedLayoutKey) {
+                kind = "FormattedCache";
+            } else {
+                kind = "ComponentCache";
+            }
+            LOGGER.info(MARKER, "{} {}\n{}\n{}", kind, i[0], key, layout.toDetailedString());
+            i[0]++;
+        });
     }
 
     public int getResLevel() {
@@ -1380,6 +1854,16 @@ public class TextLayoutEngine extends FontResourceManager
         return mTextDirectionHeuristic;
     }
 
+    @Nonnull
+    LayoutPieceCache getPieceCache() {
+        return mPieceCache;
+    }
+
+    @Nonnull
+    ConcurrentLayoutCache getSharedCache() {
+        return mSharedCache;
+    }
+
     /**
      * Pre-cache the ASCII digits to allow for fast glyph substitution. Called once from the constructor and called any
      * time the font selection
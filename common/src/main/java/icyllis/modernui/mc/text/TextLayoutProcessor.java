@@ -42,6 +42,7 @@ import net.minecraft.util.StringDecomposer;
 import net.minecraft.util.Unit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.*;
 import java.util.function.Function;
 
@@ -94,6 +95,13 @@ public class TextLayoutProcessor {
 
     private final TextLayoutEngine mEngine;
 
+    /**
+     * Lookup keys for {@link ConcurrentLayoutCache}, confined to the thread
+     * that currently owns this processor.
+     */
+    final VanillaLayoutKey mVanillaLookupKey = new VanillaLayoutKey();
+    final FormattedLayoutKey.Lookup mFormattedLookupKey = new FormattedLayoutKey.Lookup();
+
     /**
      * Char array builder. Formatting codes will be stripped from this array.
      */
@@ -220,6 +228,57 @@ public class TextLayoutProcessor {
     private boolean mComputeAdvances = true;
     private boolean mComputeLineBoundaries = true;
 
+    /**
+     * Safe boundaries for incremental relayout, recorded only if the whole text is LTR.
+     *
+     * @see TextLayoutEngine#COMPUTE_EDIT_SEGMENTS
+     */
+    private boolean mComputeSegments;
+    private final IntArrayList mSegments = new IntArrayList();
+    private final FloatArrayList mSegmentOffsets = new FloatArrayList();
+
+    /**
+     * Styles of the previous text for incremental relayout.
+     */
+    private final IntArrayList mPrevStyles = new IntArrayList();
+    private final ArrayList<Object> mPrevFontNames = new ArrayList<>();
+
+    /**
+     * True if the whole text is printable ASCII and laid out LTR, then style runs
+     * rendered by non-shaping fonts can take the fast path without bidi analysis
+     * and text shaping.
+     *
+     * @see #handleAsciiRun(char[], int, int, int, FontCollection, int)
+     */
+    private boolean mAsciiOnly;
+    /**
+     * Per-collection glyph and advance tables for the ASCII fast path, indexed by font style.
+     */
+    private final IdentityHashMap<FontCollection, AsciiTable[]> mAsciiTables = new IdentityHashMap<>();
+    private final char[] mAsciiChar = new char[1];
+    private final IntArrayList mAsciiGlyphs = new IntArrayList(1);
+    private final FloatArrayList mAsciiPositions = new FloatArrayList(2);
+
+    /**
+     * True if laying out a {@link DigitTemplateLayout}, all digits in the text buffer
+     * have been replaced by '0'. Reset to false if any run cannot be a template.
+     *
+     * @see TextLayoutEngine#COMPUTE_DIGIT_TEMPLATE
+     */
+    private boolean mDigitTemplate;
+    private final IntArrayList mDigitOrdinals = new IntArrayList();
+    private int mDigitCount;
+    private AsciiTable mDigitTable;
+
+    /**
+     * Lookup key and scratch buffers for {@link LayoutPieceCache}.
+     */
+    private final LayoutPieceCache.Lookup mPieceLookupKey = new LayoutPieceCache.Lookup();
+    private final IntArrayList mPieceGlyphs = new IntArrayList();
+    private final FloatArrayList mPiecePositions = new FloatArrayList();
+    private final ByteArrayList mPieceFontIndices = new ByteArrayList();
+    private final ArrayList<Font> mPieceFonts = new ArrayList<>();
+
     /**
      * Always LTR.
      *
@@ -408,6 +467,12 @@ public class TextLayoutProcessor {
         mBuilder.clear();
         mStyles.clear();
         mFontNames.clear();
+        mPrevStyles.clear();
+        mPrevFontNames.clear();
+        clearLayoutResult();
+    }
+
+    private void clearLayoutResult() {
         mGlyphs.clear();
         mFontIndices.clear();
         mFontVec.clear();
@@ -421,6 +486,12 @@ public class TextLayoutProcessor {
         mHasEffect = false;
         //mHasFastDigit = false;
         mHasColorEmoji = false;
+        mDigitTemplate = false;
+        mDigitOrdinals.clear();
+        mDigitCount = 0;
+        mDigitTable = null;
+        mSegments.clear();
+        mSegmentOffsets.clear();
     }
 
     @Nonnull
@@ -436,6 +507,47 @@ public class TextLayoutProcessor {
         return layout;
     }
 
+    /**
+     * Create a layout of the given text, which is an edit of the previous text. Only the
+     * chars between the unchanged prefix and suffix (extended to segments) are laid out,
+     * the rest is copied from the previous layout. If that's not possible, the full text
+     * is laid out.
+     *
+     * @param previous     the layout of previous text, with the same style
+     * @param previousText the previous text
+     * @param text         the new text
+     * @see TextLayoutEngine#lookupEditedLayout(String, String, Style, int)
+     */
+    @Nonnull
+    public TextLayout createEditedLayout(@Nonnull TextLayout previous, @Nonnull String previousText,
+                                         @Nonnull String text, @Nonnull Style style,
+                                         int resLevel, int computeFlags) {
+        // styles of the previous text, this is cheap
+        StringDecomposer.iterateFormatted(previousText, style, mSequenceBuilder);
+        final boolean matched = mBuilder.length() == previous.getCharCount();
+        mPrevStyles.addAll(mStyles);
+        mPrevFontNames.addAll(mFontNames);
+        mBuilder.clear();
+        mStyles.clear();
+        mFontNames.clear();
+
+        StringDecomposer.iterateFormatted(text, style, mSequenceBuilder);
+        TextLayout layout = null;
+        if (matched) {
+            layout = relayout(previous, resLevel, computeFlags);
+        }
+        if (layout == null) {
+            clearLayoutResult();
+            layout = createNewLayout(resLevel, computeFlags);
+        }
+        if (DEBUG) {
+            ModernUIMod.LOGGER.info(TextLayoutEngine.MARKER, "Performed Edited Layout: {}, {}, {}",
+                    mBuilder.toString(), text, layout.toDetailedString());
+        }
+        reset();
+        return layout;
+    }
+
     @Nonnull
     public TextLayout createTextLayout(@Nonnull FormattedText text, @Nonnull Style style,
                                        int resLevel, int computeFlags) {
@@ -555,25 +667,52 @@ public class TextLayoutProcessor {
     @Nonnull
     private TextLayout createNewLayout(int resLevel, int computeFlags) {
         if (!mBuilder.isEmpty()) {
-            // locale for GCB (grapheme cluster break)
-            mFontPaint.setLocale(ModernUI.getSelectedLocale());
-
-            mComputeAdvances = (computeFlags & TextLayoutEngine.COMPUTE_ADVANCES) != 0;
-            mComputeLineBoundaries = (computeFlags & TextLayoutEngine.COMPUTE_LINE_BOUNDARIES) != 0;
-
-            int fontSize = computeFontSize(resLevel);
-            mFontPaint.setFontSize(fontSize);
-            mFontPaint.setAntiAlias(GlyphManager.sAntiAliasing);
-            mFontPaint.setLinearMetrics(GlyphManager.sFractionalMetrics);
+            prepareLayout(resLevel, computeFlags);
 
             // pre allocate memory
             if (mComputeAdvances) {
                 mAdvances.size(mBuilder.length());
             }
             // make a copied buffer
-            final char[] textBuf = mBuilder.toCharArray();
-            // steps 2-5
-            analyzeBidi(textBuf);
+            char[] textBuf = mBuilder.toCharArray();
+            mAsciiOnly = isAsciiLtr(textBuf);
+            mComputeSegments = (computeFlags & TextLayoutEngine.COMPUTE_EDIT_SEGMENTS) != 0 &&
+                    (mAsciiOnly || isSimpleLtr(textBuf));
+            if (mAsciiOnly) {
+                boolean template = (computeFlags & TextLayoutEngine.COMPUTE_DIGIT_TEMPLATE) != 0 &&
+                        foldDigits(textBuf);
+                mDigitTemplate = template;
+                // no bidi analysis and no complex text shaping
+                handleBidiRun(textBuf, 0, textBuf.length, false);
+                if (template && !mDigitTemplate) {
+                    // not applicable, lay out the actual digits again
+                    clearLayoutResult();
+                    if (mComputeAdvances) {
+                        mAdvances.size(mBuilder.length());
+                    }
+                    textBuf = mBuilder.toCharArray();
+                    handleBidiRun(textBuf, 0, textBuf.length, false);
+                }
+            } else {
+                // steps 2-5
+                analyzeBidi(textBuf);
+            }
+            if (!mDigitTemplate) {
+                computeFlags &= ~TextLayoutEngine.COMPUTE_DIGIT_TEMPLATE;
+            }
+            int[] segments;
+            float[] segmentOffsets;
+            if (mComputeSegments && !mDigitTemplate) {
+                segments = mSegments.toIntArray();
+                segmentOffsets = mSegmentOffsets.toFloatArray();
+                for (int i = 0; i < segmentOffsets.length; i++) {
+                    segmentOffsets[i] /= resLevel;
+                }
+            } else {
+                segments = null;
+                segmentOffsets = null;
+                computeFlags &= ~TextLayoutEngine.COMPUTE_EDIT_SEGMENTS;
+            }
             /*if (raw != null) {
                 adjustForFastDigit(raw);
             }*/
@@ -609,16 +748,341 @@ public class TextLayoutProcessor {
                 lineBoundaries = null;
             }
             mTotalAdvance /= resLevel;
+            final int[] glyphFlags = mGlyphFlags.toIntArray();
+            // merge underline and strikethrough of adjacent glyphs once, rather than on every draw
+            final TextEffectSpans effectSpans = mHasEffect
+                    ? TextEffectSpans.compute(positions, glyphFlags, mTotalAdvance)
+                    : null;
+            if (mDigitTemplate) {
+                return createDigitTemplate(textBuf, positions, fontIndices, advances,
+                        glyphFlags, lineBoundaries, effectSpans, resLevel, computeFlags);
+            }
             return new TextLayout(textBuf, mGlyphs.toIntArray(),
                     positions, fontIndices,
                     mFontVec.toArray(new Font[0]),
-                    advances, mGlyphFlags.toIntArray(),
+                    advances, glyphFlags,
                     lineBoundaries, mTotalAdvance,
-                    mHasEffect, mHasColorEmoji, resLevel, computeFlags);
+                    effectSpans, mHasColorEmoji, resLevel, computeFlags,
+                    segments, segmentOffsets);
         }
         return TextLayout.makeEmpty();
     }
 
+    private void prepareLayout(int resLevel, int computeFlags) {
+        // locale for GCB (grapheme cluster break)
+        mFontPaint.setLocale(ModernUI.getSelectedLocale());
+
+        mComputeAdvances = (computeFlags & TextLayoutEngine.COMPUTE_ADVANCES) != 0;
+        mComputeLineBoundaries = (computeFlags & TextLayoutEngine.COMPUTE_LINE_BOUNDARIES) != 0;
+
+        int fontSize = computeFontSize(resLevel);
+        mFontPaint.setFontSize(fontSize);
+        mFontPaint.setAntiAlias(GlyphManager.sAntiAliasing);
+        mFontPaint.setLinearMetrics(GlyphManager.sFractionalMetrics);
+    }
+
+    /**
+     * Lay out the chars between the common prefix and suffix of the previous text and
+     * the text in builder, which are extended to the nearest segments, then splice the
+     * result with the previous layout.
+     *
+     * @return the new layout, or null if the previous layout cannot be reused
+     */
+    @Nullable
+    private TextLayout relayout(@Nonnull TextLayout previous, int resLevel, int computeFlags) {
+        final int[] prevSegments = previous.getSegments();
+        if (prevSegments == null || mBuilder.isEmpty() ||
+                previous.mCreatedResLevel != resLevel ||
+                (previous.mComputedFlags & computeFlags) != computeFlags) {
+            return null;
+        }
+        final char[] prevBuf = previous.getTextBuf();
+        final char[] textBuf = mBuilder.toCharArray();
+        final int prevLen = prevBuf.length;
+        final int len = textBuf.length;
+        if (!isSimpleLtr(textBuf)) {
+            return null;
+        }
+
+        // common prefix and suffix, including styles
+        final int maxCommon = Math.min(prevLen, len);
+        int prefix = 0;
+        while (prefix < maxCommon && isSameChar(prevBuf, prefix, textBuf, prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxCommon - prefix &&
+                isSameChar(prevBuf, prevLen - 1 - suffix, textBuf, len - 1 - suffix)) {
+            suffix++;
+        }
+
+        // the last segment before the end of prefix, and the first segment after the
+        // start of suffix, chars adjacent to both boundaries must be unchanged, so
+        // that the text would be split at the same position
+        final float[] prevSegmentOffsets = previous.getSegmentOffsets();
+        final int segmentCount = prevSegments.length >> 1;
+        int head = 0;
+        while (head + 1 < segmentCount && prevSegments[(head + 1) << 1] < prefix) {
+            head++;
+        }
+        int tail = head + 1;
+        while (tail < segmentCount && prevSegments[tail << 1] <= prevLen - suffix) {
+            tail++;
+        }
+        final int start = prevSegments[head << 1];
+        final int headGlyph = prevSegments[(head << 1) | 1];
+        final float headX = prevSegmentOffsets[head];
+        final int prevLimit;
+        final int tailGlyph;
+        final float tailX;
+        final int[] prevGlyphs = previous.getGlyphs();
+        if (tail < segmentCount) {
+            prevLimit = prevSegments[tail << 1];
+            tailGlyph = prevSegments[(tail << 1) | 1];
+            tailX = prevSegmentOffsets[tail];
+        } else {
+            prevLimit = prevLen;
+            tailGlyph = prevGlyphs.length;
+            tailX = previous.getTotalAdvance();
+        }
+        if (start == 0 && prevLimit == prevLen) {
+            // nothing to reuse
+            return null;
+        }
+        final int shift = len - prevLen;
+        final int limit = prevLimit + shift;
+        assert start < limit;
+
+        // lay out the middle part, fonts of the previous layout keep their indices
+        prepareLayout(resLevel, computeFlags);
+        if (mComputeAdvances) {
+            mAdvances.size(len);
+        }
+        final Font[] prevFonts = previous.getFontVector();
+        for (Font font : prevFonts) {
+            mFontMap.computeIfAbsent(font, mNextID);
+        }
+        mAsciiOnly = isAsciiLtr(textBuf);
+        mComputeSegments = true;
+        handleBidiRun(textBuf, start, limit, false);
+
+        final int midGlyphCount = mGlyphs.size();
+        final int tailGlyphCount = prevGlyphs.length - tailGlyph;
+        final int glyphCount = headGlyph + midGlyphCount + tailGlyphCount;
+        final float midAdvance = mTotalAdvance / resLevel;
+        final float delta = headX + midAdvance - tailX;
+
+        final int[] glyphs = new int[glyphCount];
+        System.arraycopy(prevGlyphs, 0, glyphs, 0, headGlyph);
+        mGlyphs.getElements(0, glyphs, headGlyph, midGlyphCount);
+        System.arraycopy(prevGlyphs, tailGlyph, glyphs, headGlyph + midGlyphCount, tailGlyphCount);
+
+        final float[] prevPositions = previous.getPositions();
+        final float[] positions = new float[glyphCount << 1];
+        System.arraycopy(prevPositions, 0, positions, 0, headGlyph << 1);
+        for (int i = 0, j = headGlyph << 1; i < midGlyphCount; i++) {
+            positions[j++] = mPositions.getFloat(i << 1) / resLevel + headX;
+            positions[j++] = mPositions.getFloat((i << 1) | 1) / resLevel;
+        }
+        for (int i = tailGlyph << 1, j = (headGlyph + midGlyphCount) << 1; i < prevPositions.length; ) {
+            positions[j++] = prevPositions[i++] + delta;
+            positions[j++] = prevPositions[i++];
+        }
+
+        final int[] prevFlags = previous.getGlyphFlags();
+        final int[] glyphFlags = new int[glyphCount];
+        System.arraycopy(prevFlags, 0, glyphFlags, 0, headGlyph);
+        mGlyphFlags.getElements(0, glyphFlags, headGlyph, midGlyphCount);
+        System.arraycopy(prevFlags, tailGlyph, glyphFlags, headGlyph + midGlyphCount, tailGlyphCount);
+
+        final byte[] fontIndices;
+        final Font[] fonts;
+        if (mFontVec.size() > 1) {
+            final byte[] prevFontIndices = previous.getFontIndices();
+            fontIndices = new byte[glyphCount];
+            if (prevFontIndices != null) {
+                System.arraycopy(prevFontIndices, 0, fontIndices, 0, headGlyph);
+                System.arraycopy(prevFontIndices, tailGlyph, fontIndices, headGlyph + midGlyphCount,
+                        tailGlyphCount);
+            }
+            mFontIndices.getElements(0, fontIndices, headGlyph, midGlyphCount);
+        } else {
+            fontIndices = null;
+        }
+        if (mFontVec.size() == prevFonts.length) {
+            fonts = prevFonts;
+        } else {
+            fonts = mFontVec.toArray(new Font[0]);
+        }
+
+        final float[] advances;
+        if (mComputeAdvances) {
+            final float[] prevAdvances = previous.getAdvances();
+            advances = new float[len];
+            System.arraycopy(prevAdvances, 0, advances, 0, start);
+            final float[] midAdvances = mAdvances.elements();
+            for (int i = start; i < limit; i++) {
+                advances[i] = midAdvances[i] / resLevel;
+            }
+            System.arraycopy(prevAdvances, prevLimit, advances, limit, prevLen - prevLimit);
+        } else {
+            advances = null;
+        }
+
+        final int[] lineBoundaries;
+        if (mComputeLineBoundaries) {
+            final int[] prevBoundaries = previous.getLineBoundaries();
+            final IntArrayList midBoundaries = mLineBoundaries;
+            if (limit < len && !midBoundaries.isEmpty() &&
+                    midBoundaries.getInt(midBoundaries.size() - 1) == limit) {
+                // the end of middle part, not a real boundary, the previous layout
+                // has it if it's the end of a style run
+                midBoundaries.removeInt(midBoundaries.size() - 1);
+            }
+            int headCount = 0;
+            while (headCount < prevBoundaries.length && prevBoundaries[headCount] <= start) {
+                headCount++;
+            }
+            int tailIndex = prevBoundaries.length;
+            if (prevLimit < prevLen) {
+                while (tailIndex > 0 && prevBoundaries[tailIndex - 1] >= prevLimit) {
+                    tailIndex--;
+                }
+            }
+            final int tailCount = prevBoundaries.length - tailIndex;
+            lineBoundaries = new int[headCount + midBoundaries.size() + tailCount];
+            System.arraycopy(prevBoundaries, 0, lineBoundaries, 0, headCount);
+            midBoundaries.getElements(0, lineBoundaries, headCount, midBoundaries.size());
+            for (int i = tailIndex, j = headCount + midBoundaries.size(); i < prevBoundaries.length; i++) {
+                lineBoundaries[j++] = prevBoundaries[i] + shift;
+            }
+        } else {
+            lineBoundaries = null;
+        }
+
+        final int midSegmentCount = mSegmentOffsets.size();
+        final int tailSegmentCount = segmentCount - tail;
+        final int[] segments = new int[(head + midSegmentCount + tailSegmentCount) << 1];
+        final float[] segmentOffsets = new float[head + midSegmentCount + tailSegmentCount];
+        System.arraycopy(prevSegments, 0, segments, 0, head << 1);
+        System.arraycopy(prevSegmentOffsets, 0, segmentOffsets, 0, head);
+        for (int i = 0, j = head; i < midSegmentCount; i++, j++) {
+            segments[j << 1] = mSegments.getInt(i << 1);
+            segments[(j << 1) | 1] = mSegments.getInt((i << 1) | 1) + headGlyph;
+            segmentOffsets[j] = mSegmentOffsets.getFloat(i) / resLevel + headX;
+        }
+        final int glyphShift = headGlyph + midGlyphCount - tailGlyph;
+        for (int i = tail, j = head + midSegmentCount; i < segmentCount; i++, j++) {
+            segments[j << 1] = prevSegments[i << 1] + shift;
+            segments[(j << 1) | 1] = prevSegments[(i << 1) | 1] + glyphShift;
+            segmentOffsets[j] = prevSegmentOffsets[i] + delta;
+        }
+
+        // this is a hint, conservative if the removed part had it
+        final boolean hasColorEmoji = previous.hasColorEmoji() || mHasColorEmoji;
+        final float totalAdvance = previous.getTotalAdvance() + delta;
+        final TextEffectSpans effectSpans = previous.hasEffect() || mHasEffect
+                ? TextEffectSpans.compute(positions, glyphFlags, totalAdvance)
+                : null;
+        return new TextLayout(textBuf, glyphs, positions, fontIndices, fonts,
+                advances, glyphFlags, lineBoundaries,
+                totalAdvance,
+                effectSpans, hasColorEmoji, resLevel, computeFlags,
+                segments, segmentOffsets);
+    }
+
+    private boolean isSameChar(@Nonnull char[] prevBuf, int prevIndex,
+                               @Nonnull char[] textBuf, int index) {
+        return prevBuf[prevIndex] == textBuf[index] &&
+                mPrevStyles.getInt(prevIndex) == mStyles.getInt(index) &&
+                mPrevFontNames.get(prevIndex).equals(mFontNames.get(index));
+    }
+
+    private void addSegment(int charIndex, float x) {
+        mSegments.add(charIndex);
+        mSegments.add(mGlyphs.size());
+        mSegmentOffsets.add(x);
+    }
+
+    @Nonnull
+    private TextLayout createDigitTemplate(@Nonnull char[] textBuf, @Nonnull float[] positions,
+                                           @Nullable byte[] fontIndices, @Nullable float[] advances,
+                                           @Nonnull int[] glyphFlags, @Nullable int[] lineBoundaries,
+                                           @Nullable TextEffectSpans effectSpans,
+                                           int resLevel, int computeFlags) {
+        final AsciiTable table = mDigitTable;
+        final int[] digitGlyphs = new int[10];
+        final float[] digitOffsets = new float[20];
+        final float zeroX = table.mOffsets['0' << 1];
+        final float zeroY = table.mOffsets[('0' << 1) | 1];
+        final float zeroAdvance = table.mAdvances['0'];
+        for (int d = 0; d < 10; d++) {
+            char c = (char) ('0' + d);
+            digitGlyphs[d] = table.mGlyphs[c];
+            // tabular, center in the advance of '0'
+            digitOffsets[d << 1] = (table.mOffsets[c << 1] - zeroX +
+                    (zeroAdvance - table.mAdvances[c]) * 0.5f) / resLevel;
+            digitOffsets[(d << 1) | 1] = (table.mOffsets[(c << 1) | 1] - zeroY) / resLevel;
+        }
+        return new DigitTemplateLayout(textBuf, mGlyphs.toIntArray(),
+                positions, fontIndices,
+                mFontVec.toArray(new Font[0]),
+                advances, glyphFlags,
+                lineBoundaries, mTotalAdvance,
+                effectSpans, mHasColorEmoji, resLevel,
+                computeFlags & ~TextLayoutEngine.COMPUTE_EDIT_SEGMENTS,
+                mDigitOrdinals.toIntArray(), mDigitCount,
+                table.mFonts['0'], digitGlyphs, digitOffsets);
+    }
+
+    /**
+     * Replace all ASCII digits with '0' for a digit template.
+     *
+     * @return true if there's any digit
+     */
+    private static boolean foldDigits(@Nonnull char[] text) {
+        boolean found = false;
+        for (int i = 0; i < text.length; i++) {
+            char c = text[i];
+            if (c <= '9' && c >= '0') {
+                text[i] = '0';
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Classification pre-pass for the fast path. Printable ASCII contains no strong RTL
+     * characters, no combining marks and no surrogates, each char is a grapheme cluster,
+     * so if the paragraph direction is LTR, the text can be laid out char by char.
+     */
+    private boolean isAsciiLtr(@Nonnull char[] text) {
+        TextDirectionHeuristic dir = mEngine.getTextDirectionHeuristic();
+        if (dir != TextDirectionHeuristics.LTR
+                && dir != TextDirectionHeuristics.FIRSTSTRONG_LTR
+                && dir != TextDirectionHeuristics.ANYRTL_LTR) {
+            return false;
+        }
+        for (char c : text) {
+            if (c < 0x20 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the paragraph is LTR and the text has no "strong" right-to-left characters
+     */
+    private boolean isSimpleLtr(@Nonnull char[] text) {
+        TextDirectionHeuristic dir = mEngine.getTextDirectionHeuristic();
+        return (dir == TextDirectionHeuristics.LTR
+                || dir == TextDirectionHeuristics.FIRSTSTRONG_LTR
+                || dir == TextDirectionHeuristics.ANYRTL_LTR)
+                && !Bidi.requiresBidi(text, 0, text.length);
+    }
+
     /**
      * Split the full text into contiguous LTR or RTL sections by applying the Unicode Bidirectional Algorithm. Calls
      * performBidiAnalysis() for each contiguous run to perform further analysis.
@@ -629,10 +1093,7 @@ public class TextLayoutProcessor {
     private void analyzeBidi(@Nonnull char[] text) {
         TextDirectionHeuristic dir = mEngine.getTextDirectionHeuristic();
         /* Avoid performing full bidirectional analysis if text has no "strong" right-to-left characters */
-        if ((dir == TextDirectionHeuristics.LTR
-                || dir == TextDirectionHeuristics.FIRSTSTRONG_LTR
-                || dir == TextDirectionHeuristics.ANYRTL_LTR)
-                && !Bidi.requiresBidi(text, 0, text.length)) {
+        if (isSimpleLtr(text)) {
             /* If text is entirely left-to-right, then insert a node for the entire string */
             if (DEBUG) {
                 ModernUIMod.LOGGER.info(TextLayoutEngine.MARKER, "All LTR");
@@ -825,7 +1286,12 @@ public class TextLayoutProcessor {
      */
     private void handleStyleRun(@Nonnull char[] text, int start, int limit, boolean isRtl,
                                 int styleFlags, Object fontName) {
+        if (mComputeSegments) {
+            // a style run never shapes with its neighbors
+            addSegment(start, mTotalAdvance);
+        }
         if (fontName instanceof FontDescription.AtlasSprite atlasSprite) {
+            mDigitTemplate = false;
             handleAtlasSpriteRun(start, limit, isRtl, styleFlags, atlasSprite);
             return;
         }
@@ -852,38 +1318,46 @@ public class TextLayoutProcessor {
             fontStyle |= FontPaint.ITALIC;
         }
 
-        mFontPaint.setFont(mEngine.getFontCollection(fontName));
+        final FontCollection fontCollection = mEngine.getFontCollection(fontName);
+        mFontPaint.setFont(fontCollection);
         mFontPaint.setFontStyle(fontStyle);
 
         //if ((styleFlags & CharacterStyle.OBFUSCATED_MASK) == 0) {
-        int glyphStart = mGlyphs.size();
+        if (!mAsciiOnly ||
+                !handleAsciiRun(text, start, limit, styleFlags, fontCollection, fontStyle)) {
+            mDigitTemplate = false;
+            int glyphStart = mGlyphs.size();
 
-        float advance = ShapedText.doLayoutRun(
-                text, start, limit, start, limit,
-                isRtl, mFontPaint, 0, // <- text array starts at 0
-                mComputeAdvances ? mAdvances.elements() : null,
-                mTotalAdvance, mGlyphs, mPositions,
-                mFontIndices, f -> mFontMap.computeIfAbsent(f, mNextID),
-                null, null
-        );
+            if (isRtl) {
+                float advance = ShapedText.doLayoutRun(
+                        text, start, limit, start, limit,
+                        true, mFontPaint, 0, // <- text array starts at 0
+                        mComputeAdvances ? mAdvances.elements() : null,
+                        mTotalAdvance, mGlyphs, mPositions,
+                        mFontIndices, f -> mFontMap.computeIfAbsent(f, mNextID),
+                        null, null
+                );
+                mTotalAdvance += advance;
+            } else {
+                handlePieceRun(text, start, limit, fontCollection, fontStyle);
+            }
 
-        for (int glyphIndex = glyphStart,
-             glyphEnd = mGlyphs.size();
-             glyphIndex < glyphEnd;
-             glyphIndex++) {
-            mHasEffect |= (styleFlags & CharacterStyle.EFFECT_MASK) != 0;
-            int glyphFlags = styleFlags;
-            var font = mFontVec.get(mFontIndices.getByte(glyphIndex) & 0xFF);
-            if (font instanceof BitmapFont) {
-                glyphFlags |= CharacterStyle.ANY_BITMAP_REPLACEMENT;
-            } else if (font instanceof EmojiFont) {
-                glyphFlags |= CharacterStyle.ANY_BITMAP_REPLACEMENT;
-                mHasColorEmoji = true;
+            for (int glyphIndex = glyphStart,
+                 glyphEnd = mGlyphs.size();
+                 glyphIndex < glyphEnd;
+                 glyphIndex++) {
+                mHasEffect |= (styleFlags & CharacterStyle.EFFECT_MASK) != 0;
+                int glyphFlags = styleFlags;
+                var font = mFontVec.get(mFontIndices.getByte(glyphIndex) & 0xFF);
+                if (font instanceof BitmapFont) {
+                    glyphFlags |= CharacterStyle.ANY_BITMAP_REPLACEMENT;
+                } else if (font instanceof EmojiFont) {
+                    glyphFlags |= CharacterStyle.ANY_BITMAP_REPLACEMENT;
+                    mHasColorEmoji = true;
+                }
+                mGlyphFlags.add(glyphFlags);
             }
-            mGlyphFlags.add(glyphFlags);
         }
-
-        mTotalAdvance += advance;
         /*} else {
             final var items = mFontPaint.getFont()
                     .itemize(text, start, limit);
@@ -959,6 +1433,290 @@ public class TextLayoutProcessor {
         }
     }
 
+    /**
+     * Lay out a LTR style run word by word, consulting {@link LayoutPieceCache} first.
+     * The run is split before each space, so that a space and its following combining
+     * marks stay in the same piece and no contextual shaping crosses a boundary.
+     */
+    private void handlePieceRun(@Nonnull char[] text, int start, int limit,
+                                @Nonnull FontCollection fontCollection, int fontStyle) {
+        int pieceStart = start;
+        for (int i = start + 1; i < limit; i++) {
+            if (text[i] == ' ' && text[i - 1] != ' ') {
+                handlePiece(text, pieceStart, i, fontCollection, fontStyle);
+                pieceStart = i;
+                if (mComputeSegments) {
+                    addSegment(i, mTotalAdvance);
+                }
+            }
+        }
+        handlePiece(text, pieceStart, limit, fontCollection, fontStyle);
+    }
+
+    private void handlePiece(@Nonnull char[] text, int start, int limit,
+                             @Nonnull FontCollection fontCollection, int fontStyle) {
+        if (limit - start > LayoutPieceCache.MAX_PIECE_LENGTH) {
+            float advance = ShapedText.doLayoutRun(
+                    text, start, limit, start, limit,
+                    false, mFontPaint, 0, // <- text array starts at 0
+                    mComputeAdvances ? mAdvances.elements() : null,
+                    mTotalAdvance, mGlyphs, mPositions,
+                    mFontIndices, f -> mFontMap.computeIfAbsent(f, mNextID),
+                    null, null
+            );
+            mTotalAdvance += advance;
+            return;
+        }
+        final LayoutPieceCache.Lookup key = mPieceLookupKey.update(text, start, limit,
+                fontCollection, fontStyle, (int) mFontPaint.getFontSize(),
+                GlyphManager.sAntiAliasing, GlyphManager.sFractionalMetrics);
+        final LayoutPieceCache pieceCache = mEngine.getPieceCache();
+        LayoutPieceCache.Piece piece = pieceCache.get(key);
+        if (piece == null) {
+            piece = createPiece(text, start, limit);
+            pieceCache.put(key.copy(), piece);
+        }
+        // append the piece, positions are relative to piece start
+        final float x = mTotalAdvance;
+        final int[] glyphs = piece.mGlyphs;
+        final float[] positions = piece.mPositions;
+        final byte[] fontIndices = piece.mFontIndices;
+        final Font[] fonts = piece.mFonts;
+        byte lastLocal = -1, lastGlobal = 0;
+        for (int i = 0; i < glyphs.length; i++) {
+            byte local = fontIndices[i];
+            if (local != lastLocal) {
+                lastGlobal = mFontMap.computeIfAbsent(fonts[local], mNextID);
+                lastLocal = local;
+            }
+            mGlyphs.add(glyphs[i]);
+            mPositions.add(x + positions[i << 1]);
+            mPositions.add(positions[(i << 1) | 1]);
+            mFontIndices.add(lastGlobal);
+        }
+        if (mComputeAdvances) {
+            System.arraycopy(piece.mAdvances, 0, mAdvances.elements(), start, limit - start);
+        }
+        mTotalAdvance = x + piece.mAdvance;
+    }
+
+    @Nonnull
+    private LayoutPieceCache.Piece createPiece(@Nonnull char[] text, int start, int limit) {
+        final IntArrayList glyphs = mPieceGlyphs;
+        final FloatArrayList positions = mPiecePositions;
+        final ByteArrayList fontIndices = mPieceFontIndices;
+        final ArrayList<Font> fonts = mPieceFonts;
+        glyphs.clear();
+        positions.clear();
+        fontIndices.clear();
+        fonts.clear();
+        float[] advances = new float[limit - start];
+        float advance = ShapedText.doLayoutRun(
+                text, start, limit, start, limit,
+                false, mFontPaint, start,
+                advances,
+                0, glyphs, positions,
+                fontIndices, f -> {
+                    int index = fonts.indexOf(f);
+                    if (index < 0) {
+                        index = fonts.size();
+                        fonts.add(f);
+                    }
+                    return (byte) index;
+                },
+                null, null
+        );
+        return new LayoutPieceCache.Piece(glyphs.toIntArray(), positions.toFloatArray(),
+                fontIndices.toByteArray(), fonts.toArray(new Font[0]),
+                advances, advance);
+    }
+
+    /**
+     * Fast path for a printable ASCII style run in LTR. If all chars are resolved to the same
+     * font, glyphs, positions and advances are filled from the per-font table, no font
+     * itemization and text shaping are performed. Only {@link BitmapFont} and {@link SpaceFont}
+     * are accepted, they lay out each code point on its own, so the result is the same as
+     * {@link ShapedText#doLayoutRun}. Outline fonts may have kerning and ligatures (GPOS and
+     * GSUB) even for ASCII, such runs are always shaped.
+     *
+     * @return false if this run cannot take the fast path and nothing was done
+     */
+    private boolean handleAsciiRun(@Nonnull char[] text, int start, int limit, int styleFlags,
+                                   @Nonnull FontCollection fontCollection, int fontStyle) {
+        final AsciiTable table = getAsciiTable(fontCollection, fontStyle);
+        Font font = null;
+        for (int i = start; i < limit; i++) {
+            char c = text[i];
+            byte state = table.mStates[c];
+            if (state == AsciiTable.STATE_UNKNOWN) {
+                state = resolveAsciiGlyph(table, fontCollection, fontStyle, c);
+            }
+            if (state == AsciiTable.STATE_UNSUPPORTED ||
+                    (font != null && table.mFonts[c] != font)) {
+                return false;
+            }
+            font = table.mFonts[c];
+        }
+        assert font != null;
+
+        final byte fontIdx = mFontMap.computeIfAbsent(font, mNextID);
+        int glyphFlags = styleFlags;
+        if (font instanceof BitmapFont) {
+            glyphFlags |= CharacterStyle.ANY_BITMAP_REPLACEMENT;
+        }
+        mHasEffect |= (styleFlags & CharacterStyle.EFFECT_MASK) != 0;
+
+        final float[] advances = mComputeAdvances ? mAdvances.elements() : null;
+        float x = mTotalAdvance;
+        for (int i = start; i < limit; i++) {
+            char c = text[i];
+            if (mComputeSegments && i > start && c == ' ' && text[i - 1] != ' ') {
+                // the same as pieces
+                addSegment(i, x);
+            }
+            if (table.mStates[c] == AsciiTable.STATE_GLYPH) {
+                mGlyphs.add(table.mGlyphs[c]);
+                mPositions.add(x + table.mOffsets[c << 1]);
+                mPositions.add(table.mOffsets[(c << 1) | 1]);
+                mFontIndices.add(fontIdx);
+                mGlyphFlags.add(glyphFlags);
+                if (mDigitTemplate) {
+                    if (c == '0') {
+                        mDigitTemplate = acceptDigitTable(table, fontCollection, fontStyle);
+                        mDigitOrdinals.add(mDigitCount++);
+                    } else {
+                        mDigitOrdinals.add(-1);
+                    }
+                }
+            } else if (c == '0') {
+                mDigitTemplate = false;
+            }
+            float adv = table.mAdvances[c];
+            if (advances != null) {
+                advances[i] = adv;
+            }
+            x += adv;
+        }
+        mTotalAdvance = x;
+        return true;
+    }
+
+    /**
+     * All digits of a template must be rendered by the same font and style,
+     * then any digit can be substituted at any digit position.
+     */
+    private boolean acceptDigitTable(@Nonnull AsciiTable table, @Nonnull FontCollection fontCollection,
+                                     int fontStyle) {
+        if (mDigitTable != null) {
+            return mDigitTable == table;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            byte state = table.mStates[c];
+            if (state == AsciiTable.STATE_UNKNOWN) {
+                state = resolveAsciiGlyph(table, fontCollection, fontStyle, c);
+            }
+            if (state != AsciiTable.STATE_GLYPH ||
+                    table.mFonts[c] != table.mFonts['0']) {
+                return false;
+            }
+        }
+        mDigitTable = table;
+        return true;
+    }
+
+    @Nonnull
+    private AsciiTable getAsciiTable(@Nonnull FontCollection fontCollection, int fontStyle) {
+        AsciiTable[] tables = mAsciiTables.get(fontCollection);
+        if (tables == null) {
+            if (mAsciiTables.size() >= 32) {
+                // font collections are recreated on reload
+                mAsciiTables.clear();
+            }
+            tables = new AsciiTable[4];
+            mAsciiTables.put(fontCollection, tables);
+        }
+        AsciiTable table = tables[fontStyle];
+        int fontSize = (int) mFontPaint.getFontSize();
+        if (table == null ||
+                table.mFontSize != fontSize ||
+                table.mAntiAlias != GlyphManager.sAntiAliasing ||
+                table.mLinearMetrics != GlyphManager.sFractionalMetrics) {
+            table = new AsciiTable(fontSize);
+            tables[fontStyle] = table;
+        }
+        return table;
+    }
+
+    /**
+     * Find the font the same way as itemization (the first family that has the glyph),
+     * then measure the single char with that font. Chars resolved to a font that may
+     * shape are unsupported.
+     */
+    private byte resolveAsciiGlyph(@Nonnull AsciiTable table, @Nonnull FontCollection fontCollection,
+                                   int fontStyle, char c) {
+        byte state = AsciiTable.STATE_UNSUPPORTED;
+        for (FontFamily family : fontCollection.getFamilies()) {
+            Font font = family.getClosestMatch(fontStyle);
+            if (font == null || !font.hasGlyph(c, 0)) {
+                continue;
+            }
+            if (!(font instanceof BitmapFont) && !(font instanceof SpaceFont)) {
+                // outline fonts may have kerning and ligatures, emoji fonts have
+                // keycap sequences, leave them to itemization and shaping
+                break;
+            }
+            mAsciiChar[0] = c;
+            mAsciiGlyphs.clear();
+            mAsciiPositions.clear();
+            float adv = font.doSimpleLayout(mAsciiChar, 0, 1, mFontPaint,
+                    mAsciiGlyphs, mAsciiPositions, 0, 0);
+            int count = mAsciiGlyphs.size();
+            if (count <= 1) {
+                table.mFonts[c] = font;
+                table.mAdvances[c] = adv;
+                if (count == 1) {
+                    table.mGlyphs[c] = mAsciiGlyphs.getInt(0);
+                    table.mOffsets[c << 1] = mAsciiPositions.getFloat(0);
+                    table.mOffsets[(c << 1) | 1] = mAsciiPositions.getFloat(1);
+                    state = AsciiTable.STATE_GLYPH;
+                } else {
+                    state = AsciiTable.STATE_EMPTY;
+                }
+            }
+            break;
+        }
+        table.mStates[c] = state;
+        return state;
+    }
+
+    /**
+     * Glyph and advance table of ASCII chars for a font collection with a font style and size.
+     */
+    private static final class AsciiTable {
+
+        static final byte STATE_UNKNOWN = 0;
+        static final byte STATE_GLYPH = 1;
+        static final byte STATE_EMPTY = 2;
+        static final byte STATE_UNSUPPORTED = 3;
+
+        final int mFontSize;
+        final boolean mAntiAlias;
+        final boolean mLinearMetrics;
+
+        final byte[] mStates = new byte[128];
+        final Font[] mFonts = new Font[128];
+        final int[] mGlyphs = new int[128];
+        final float[] mAdvances = new float[128];
+        // x1 y1 x2 y2...
+        final float[] mOffsets = new float[256];
+
+        AsciiTable(int fontSize) {
+            mFontSize = fontSize;
+            mAntiAlias = GlyphManager.sAntiAliasing;
+            mLinearMetrics = GlyphManager.sFractionalMetrics;
+        }
+    }
+
     private void handleAtlasSpriteRun(int start, int limit, boolean isRtl, int styleFlags,
                                       @Nonnull FontDescription.AtlasSprite atlasSprite) {
         int resLevel = mEngine.getResLevel();
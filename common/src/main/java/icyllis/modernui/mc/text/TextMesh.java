@@ -0,0 +1,234 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import icyllis.modernui.annotation.RenderThread;
+import icyllis.modernui.graphics.MathUtil;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.client.renderer.MultiBufferSource;
+import org.joml.Matrix4f;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+
+/**
+ * Quads of a {@link TextLayout} drawn with a specific color, shadow, mode and position,
+ * in local space. Positions, UVs, colors and render types are resolved when the mesh is built,
+ * drawing it again only transforms quads through {@link GlyphQuadBatch}, the same as
+ * uncached text, and copies them into vertex consumers.
+ * The packed light is not part of the mesh, it is applied when drawing.
+ * <p>
+ * Meshes are keyed by the baked glyphs of a layout, so they are rebuilt when atlas glyphs are
+ * evicted or relocated, see {@link TextLayout#invalidateBakedGlyphs()}. They are invalidated
+ * as a whole when text render types are cleared, see {@link #invalidateAll()}.
+ *
+ * @see TextLayout#drawText
+ */
+@RenderThread
+final class TextMesh {
+
+    // incremented when any existing mesh may refer to stale glyph rects or render types
+    private static int sGeneration;
+
+    // left, top, right, bottom, depth, up skew, down skew, u1, v1, u2, v2
+    private static final int QUAD_SIZE = 11;
+
+    private static final GlyphQuadBatch sBatch = new GlyphQuadBatch();
+
+    // the key
+    private final GLBakedGlyph[] mGlyphs;
+    private final float mX;
+    private final float mTop;
+    private final int mColor;
+    private final int mMode;
+    private final int mBgColor;
+    private final int mPasses;
+    private final boolean mPolygonOffset;
+    private final float mBaselineOffset;
+    private final float mShadowOffset;
+    private final int mGeneration;
+
+    // render types of batches, and the end quad index of each batch
+    private final Object[] mRenderTypes;
+    private final int[] mBatchEnds;
+    private final float[] mQuads;
+    private final int[] mColors;
+
+    private TextMesh(GLBakedGlyph[] glyphs, float x, float top, int color, int mode, int bgColor,
+                     int passes, boolean polygonOffset, @Nonnull Builder builder) {
+        mGlyphs = glyphs;
+        mX = x;
+        mTop = top;
+        mColor = color;
+        mMode = mode;
+        mBgColor = bgColor;
+        mPasses = passes;
+        mPolygonOffset = polygonOffset;
+        mBaselineOffset = TextLayout.sBaselineOffset;
+        mShadowOffset = ModernTextRenderer.sShadowOffset;
+        mGeneration = sGeneration;
+        mRenderTypes = builder.mRenderTypes.toArray();
+        mBatchEnds = builder.mBatchEnds.toIntArray();
+        mQuads = builder.mQuads.toFloatArray();
+        mColors = builder.mColors.toIntArray();
+    }
+
+    /**
+     * Invalidate all meshes, they will be rebuilt on next draw.
+     */
+    static void invalidateAll() {
+        sGeneration++;
+    }
+
+    /**
+     * Cast a render type returned by {@link TextRenderType} or {@link EffectRenderType},
+     * whose class depends on the Minecraft version.
+     */
+    @SuppressWarnings("unchecked")
+    static <RT> RT renderType(Object renderType) {
+        return (RT) renderType;
+    }
+
+    /**
+     * @param passes shadow and/or foreground, see {@link TextLayout#PASS_SHADOW}
+     */
+    boolean matches(GLBakedGlyph[] glyphs, float x, float top, int color, int mode, int bgColor,
+                    int passes, boolean polygonOffset) {
+        return mGlyphs == glyphs &&
+                mX == x &&
+                mTop == top &&
+                mColor == color &&
+                mMode == mode &&
+                mBgColor == bgColor &&
+                mPasses == passes &&
+                mPolygonOffset == polygonOffset &&
+                mBaselineOffset == TextLayout.sBaselineOffset &&
+                mShadowOffset == ModernTextRenderer.sShadowOffset &&
+                mGeneration == sGeneration;
+    }
+
+    void draw(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source, int packedLight) {
+        final GlyphQuadBatch batch = sBatch;
+        final float[] quads = mQuads;
+        final int[] colors = mColors;
+        int q = 0;
+        for (int b = 0; b < mRenderTypes.length; b++) {
+            VertexConsumer builder = source.getBuffer(renderType(mRenderTypes[b]));
+            for (int end = mBatchEnds[b]; q < end; q++) {
+                int i = q * QUAD_SIZE;
+                batch.add(quads[i], quads[i + 1], quads[i + 2], quads[i + 3], quads[i + 4],
+                        quads[i + 5], quads[i + 6], colors[q],
+                        quads[i + 7], quads[i + 8], quads[i + 9], quads[i + 10]);
+            }
+            batch.flush(matrix, builder, packedLight, null);
+        }
+    }
+
+    int getMemorySize() {
+        return 80 +
+                16 + MathUtil.align8(mRenderTypes.length << 2) +
+                16 + MathUtil.align8(mBatchEnds.length << 2) +
+                16 + MathUtil.align8(mQuads.length << 2) +
+                16 + MathUtil.align8(mColors.length << 2);
+    }
+
+    /**
+     * Records quads while a layout is being drawn. There is only one builder on the
+     * render thread, it is reset for each layout, see {@link #reset()}.
+     */
+    static final class Builder {
+
+        private final ArrayList<Object> mRenderTypes = new ArrayList<>();
+        private final IntArrayList mBatchEnds = new IntArrayList();
+        private final FloatArrayList mQuads = new FloatArrayList();
+        private final IntArrayList mColors = new IntArrayList();
+
+        private boolean mIncomplete;
+
+        /**
+         * Clear recorded data and reuse this builder.
+         */
+        @Nonnull
+        Builder reset() {
+            mRenderTypes.clear();
+            mBatchEnds.clear();
+            mQuads.clear();
+            mColors.clear();
+            mIncomplete = false;
+            return this;
+        }
+
+        void setRenderType(@Nonnull Object renderType) {
+            int n = mRenderTypes.size();
+            if (n > 0 && mRenderTypes.get(n - 1) == renderType) {
+                return;
+            }
+            if (n > 0) {
+                mBatchEnds.add(mColors.size());
+            }
+            mRenderTypes.add(renderType);
+        }
+
+        /**
+         * Add a quad, same as {@link GlyphQuadBatch#add}.
+         */
+        void addQuad(float left, float top, float right, float bottom, float depth,
+                     float upSkew, float downSkew, int color,
+                     float u1, float v1, float u2, float v2) {
+            final FloatArrayList quads = mQuads;
+            quads.add(left);
+            quads.add(top);
+            quads.add(right);
+            quads.add(bottom);
+            quads.add(depth);
+            quads.add(upSkew);
+            quads.add(downSkew);
+            quads.add(u1);
+            quads.add(v1);
+            quads.add(u2);
+            quads.add(v2);
+            mColors.add(color);
+        }
+
+        /**
+         * Called when a glyph is skipped for this frame, e.g. still rasterizing,
+         * then the mesh will not be cached.
+         */
+        void markIncomplete() {
+            mIncomplete = true;
+        }
+
+        /**
+         * @return the mesh, or null if incomplete
+         */
+        TextMesh build(GLBakedGlyph[] glyphs, float x, float top, int color, int mode, int bgColor,
+                       int passes, boolean polygonOffset) {
+            if (mIncomplete) {
+                return null;
+            }
+            if (!mRenderTypes.isEmpty()) {
+                mBatchEnds.add(mColors.size());
+            }
+            return new TextMesh(glyphs, x, top, color, mode, bgColor,
+                    passes, polygonOffset, this);
+        }
+    }
+}
@@ -103,20 +103,26 @@ public class TextRenderEffect {
     public static void drawUnderline(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
                                      float start, float end, float baseline,
                                      int r, int g, int b, int a, int light) {
+        drawUnderline(matrix, builder, start, end, baseline, EFFECT_DEPTH, r, g, b, a, light);
+    }
+
+    public static void drawUnderline(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
+                                     float start, float end, float baseline, float depth,
+                                     int r, int g, int b, int a, int light) {
         baseline += UNDERLINE_OFFSET;
-        builder.addVertex(matrix, start, baseline + UNDERLINE_THICKNESS, EFFECT_DEPTH)
+        builder.addVertex(matrix, start, baseline + UNDERLINE_THICKNESS, depth)
                 .setColor(r, g, b, a)
                 .setUv(0, 1)
                 .setLight(light);
-        builder.addVertex(matrix, end, baseline + UNDERLINE_THICKNESS, EFFECT_DEPTH)
+        builder.addVertex(matrix, end, baseline + UNDERLINE_THICKNESS, depth)
                 .setColor(r, g, b, a)
                 .setUv(1, 1)
                 .setLight(light);
-        builder.addVertex(matrix, end, baseline, EFFECT_DEPTH)
+        builder.addVertex(matrix, end, baseline, depth)
                 .setColor(r, g, b, a)
                 .setUv(1, 0)
                 .setLight(light);
-        builder.addVertex(matrix, start, baseline, EFFECT_DEPTH)
+        builder.addVertex(matrix, start, baseline, depth)
                 .setColor(r, g, b, a)
                 .setUv(0, 0)
                 .setLight(light);
@@ -147,20 +153,26 @@ public class TextRenderEffect {
     public static void drawStrikethrough(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
                                          float start, float end, float baseline,
                                          int r, int g, int b, int a, int light) {
+        drawStrikethrough(matrix, builder, start, end, baseline, EFFECT_DEPTH, r, g, b, a, light);
+    }
+
+    public static void drawStrikethrough(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
+                                         float start, float end, float baseline, float depth,
+                                         int r, int g, int b, int a, int light) {
         baseline += STRIKETHROUGH_OFFSET;
-        builder.addVertex(matrix, start, baseline + STRIKETHROUGH_THICKNESS, EFFECT_DEPTH)
+        builder.addVertex(matrix, start, baseline + STRIKETHROUGH_THICKNESS, depth)
                 .setColor(r, g, b, a)
                 .setUv(0, 1)
                 .setLight(light);
-        builder.addVertex(matrix, end, baseline + STRIKETHROUGH_THICKNESS, EFFECT_DEPTH)
+        builder.addVertex(matrix, end, baseline + STRIKETHROUGH_THICKNESS, depth)
                 .setColor(r, g, b, a)
                 .setUv(1, 1)
                 .setLight(light);
-        builder.addVertex(matrix, end, baseline, EFFECT_DEPTH)
+        builder.addVertex(matrix, end, baseline, depth)
                 .setColor(r, g, b, a)
                 .setUv(1, 0)
                 .setLight(light);
-        builder.addVertex(matrix, start, baseline, EFFECT_DEPTH)
+        builder.addVertex(matrix, start, baseline, depth)
                 .setColor(r, g, b, a)
                 .setUv(0, 0)
                 .setLight(light);
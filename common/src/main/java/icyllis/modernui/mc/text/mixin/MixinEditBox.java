@@ -109,6 +109,13 @@ public abstract class MixinEditBox extends AbstractWidget {
     @Nullable
     private Component hint;
 
+    /**
+     * The view text of last frame, for incremental layout.
+     */
+    @Unique
+    @Nullable
+    private String modernUI_MC$lastViewText;
+
     public MixinEditBox(int x, int y, int w, int h, Component msg) {
         super(x, y, w, h, msg);
     }
@@ -166,6 +173,10 @@ public abstract class MixinEditBox extends AbstractWidget {
                 hori += engine.getStringSplitter().measureText(subSequence);
             } else {
                 separate = false;
+                // lay out only the edited words, later lookups will hit the cache
+                engine.lookupEditedLayout(modernUI_MC$lastViewText, viewText,
+                        Style.EMPTY, TextLayoutEngine.COMPUTE_ADVANCES);
+                modernUI_MC$lastViewText = viewText;
                 gr.drawString(font, new VanillaTextWrapper(viewText), baseX, baseY, color, true);
                 hori += engine.getStringSplitter().measureText(viewText);
             }
@@ -704,6 +704,10 @@ public class PreferencesFragment extends Fragment {
                 Config.TEXT.mAllowAsyncLayout, onChanged)
                 .create(category);
 
+        new IntegerOption(context, "modernui.center.text.asyncLayoutThreshold",
+                64, Config.TEXT.mAsyncLayoutThreshold, onChanged)
+                .create(category, 5);
+
         new BooleanOption(context, "modernui.center.text.useComponentCache",
                 Config.TEXT.mUseComponentCache, onChanged)
                 .create(category);
@@ -720,6 +724,10 @@ public class PreferencesFragment extends Fragment {
                 1, Config.TEXT.mCacheLifespan, onChanged)
                 .create(category, 2);
 
+        new IntegerOption(context, "modernui.center.text.cacheBudget",
+                1, Config.TEXT.mCacheBudget, onChanged)
+                .create(category, 3);
+
         return category;
     }
 
@@ -749,6 +757,22 @@ public class PreferencesFragment extends Fragment {
                 Config.TEXT.mSmartSDFShaders, onChanged)
                 .create(category);
 
+        new BooleanOption(context, "modernui.center.text.distanceFieldText",
+                Config.TEXT.mDistanceFieldText, onChanged)
+                .create(category);
+
+        new BooleanOption(context, "modernui.center.text.cacheWorldTextMeshes",
+                Config.TEXT.mCacheWorldTextMeshes, onChanged)
+                .create(category);
+
+        new FloatOption(context, "modernui.center.text.worldTextProxyThreshold",
+                Config.TEXT.mWorldTextProxyThreshold, 10, onChanged)
+                .create(category, 4);
+
+        new FloatOption(context, "modernui.center.text.worldTextCullThreshold",
+                Config.TEXT.mWorldTextCullThreshold, 10, onChanged)
+                .create(category, 4);
+
         new BooleanOption(context, "modernui.center.text.computeDeviceFontSize",
                 Config.TEXT.mComputeDeviceFontSize, onChanged)
                 .create(category);
@@ -761,6 +785,14 @@ public class PreferencesFragment extends Fragment {
                 Config.TEXT.mLinearSamplingA8Atlas, onChanged)
                 .create(category);
 
+        new IntegerOption(context, "modernui.center.text.glyphDiskCacheSize",
+                16, Config.TEXT.mGlyphDiskCacheSize, onChanged)
+                .create(category, 4);
+
+        new IntegerOption(context, "modernui.center.text.glyphPrewarmLimit",
+                256, Config.TEXT.mGlyphPrewarmLimit, onChanged)
+                .create(category, 4);
+
         new BooleanOption(context, "modernui.center.text.allowShadow",
                 Config.TEXT.mAllowShadow, onChanged)
                 .create(category);
@@ -161,7 +161,7 @@ public class MixinGuiTextRenderState {
                 mode = TextRenderType.MODE_NORMAL;
             } else {
                 float upperLimit = Math.max(1.0f,
-                        (float) TextLayoutEngine.sMinPixelDensityForSDF / layout.getCreatedResLevel());
+                        (float) TextLayoutEngine.sMinPixelDensityForSDF / layout.getRenderResLevel());
                 if (uniformScale <= upperLimit) {
                     // uniform scale smaller and not too large
                     mode = TextRenderType.MODE_UNIFORM_SCALE;
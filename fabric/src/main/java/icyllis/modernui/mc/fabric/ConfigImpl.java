@@ -646,10 +646,20 @@ public final class ConfigImpl {
         public static final float BASELINE_MAX = 10;
         public static final float SHADOW_OFFSET_MIN = 0.2f;
         public static final float SHADOW_OFFSET_MAX = 2;
+        public static final float WORLD_TEXT_LOD_THRESHOLD_MIN = 0;
+        public static final float WORLD_TEXT_LOD_THRESHOLD_MAX = 16;
         public static final float OUTLINE_OFFSET_MIN = 0.2f;
         public static final float OUTLINE_OFFSET_MAX = 2;
         public static final int LIFESPAN_MIN = 2;
         public static final int LIFESPAN_MAX = 15;
+        public static final int CACHE_BUDGET_MIN = 1;
+        public static final int CACHE_BUDGET_MAX = 256;
+        public static final int ASYNC_LAYOUT_THRESHOLD_MIN = 0;
+        public static final int ASYNC_LAYOUT_THRESHOLD_MAX = 65536;
+        public static final int GLYPH_DISK_CACHE_SIZE_MIN = 0;
+        public static final int GLYPH_DISK_CACHE_SIZE_MAX = 1024;
+        public static final int GLYPH_PREWARM_LIMIT_MIN = 0;
+        public static final int GLYPH_PREWARM_LIMIT_MAX = 8192;
         /*public static final int REHASH_MIN = 0;
         public static final int REHASH_MAX = 2000;*/
 
@@ -664,6 +674,7 @@ public final class ConfigImpl {
         //public final ModConfigSpec.BooleanValue mSuperSampling;
         //public final ModConfigSpec.BooleanValue mAlignPixels;
         public final ModConfigSpec.IntValue mCacheLifespan;
+        public final ModConfigSpec.IntValue mCacheBudget;
         //public final ModConfigSpec.IntValue mRehashThreshold;
         public final ModConfigSpec.EnumValue<Config.Text.TextDirection> mTextDirection;
         //public final ModConfigSpec.BooleanValue mBitmapReplacement;
@@ -674,9 +685,14 @@ public final class ConfigImpl {
         public final ModConfigSpec.ConfigValue<List<? extends String>> mDefaultFontRuleSet;
         public final ModConfigSpec.BooleanValue mUseComponentCache;
         public final ModConfigSpec.BooleanValue mAllowAsyncLayout;
+        public final ModConfigSpec.IntValue mAsyncLayoutThreshold;
         public final ModConfigSpec.EnumValue<Config.Text.LineBreakStyle> mLineBreakStyle;
         public final ModConfigSpec.EnumValue<Config.Text.LineBreakWordStyle> mLineBreakWordStyle;
         public final ModConfigSpec.BooleanValue mSmartSDFShaders;
+        public final ModConfigSpec.BooleanValue mDistanceFieldText;
+        public final ModConfigSpec.BooleanValue mCacheWorldTextMeshes;
+        public final ModConfigSpec.DoubleValue mWorldTextProxyThreshold;
+        public final ModConfigSpec.DoubleValue mWorldTextCullThreshold;
         public final ModConfigSpec.BooleanValue mComputeDeviceFontSize;
         public final ModConfigSpec.BooleanValue mAllowSDFTextIn2D;
         public final ModConfigSpec.BooleanValue mTweakExperienceText;
@@ -685,6 +701,8 @@ public final class ConfigImpl {
         public final ModConfigSpec.BooleanValue mLinearMetrics;
         public final ModConfigSpec.IntValue mMinPixelDensityForSDF;
         public final ModConfigSpec.BooleanValue mLinearSamplingA8Atlas;
+        public final ModConfigSpec.IntValue mGlyphDiskCacheSize;
+        public final ModConfigSpec.IntValue mGlyphPrewarmLimit;
         //public final ModConfigSpec.BooleanValue mLinearSampling;
 
         //private final ModConfigSpec.BooleanValue antiAliasing;
@@ -741,6 +759,10 @@ public final class ConfigImpl {
             mCacheLifespan = builder.comment(
                             "Set the recycle time of layout cache in seconds, using least recently used algorithm.")
                     .defineInRange("cacheLifespan", 6, LIFESPAN_MIN, LIFESPAN_MAX);
+            mCacheBudget = builder.comment(
+                            "Set the memory budget of layout cache in megabytes, entries are admitted and evicted",
+                            "by their access frequency and memory size.")
+                    .defineInRange("cacheBudget", 16, CACHE_BUDGET_MIN, CACHE_BUDGET_MAX);
             /*mRehashThreshold = builder.comment("Set the rehash threshold of layout cache")
                     .defineInRange("rehashThreshold", 100, REHASH_MIN, REHASH_MAX);*/
             mTextDirection = builder.comment(
@@ -803,6 +825,12 @@ public final class ConfigImpl {
                             "Allow text layout to be computed from background threads (not cached).",
                             "Otherwise, block the current thread and wait for main thread.")
                     .define("allowAsyncLayout", true);
+            mAsyncLayoutThreshold = builder.comment(
+                            "Texts with at least this many chars are laid out on layout worker threads",
+                            "when drawn for the first time, instead of blocking the frame. An estimated",
+                            "placeholder is used until the layout is done. Set to 0 to disable.")
+                    .defineInRange("asyncLayoutThreshold", 1024,
+                            ASYNC_LAYOUT_THRESHOLD_MIN, ASYNC_LAYOUT_THRESHOLD_MAX);
             mLineBreakStyle = builder.comment(
                             "See CSS line-break property, https://developer.mozilla.org/en-US/docs/Web/CSS/line-break")
                     .defineEnum("lineBreakStyle", Config.Text.LineBreakStyle.AUTO);
@@ -815,6 +843,26 @@ public final class ConfigImpl {
                             "This generally decreases performance but provides better rendering quality.",
                             "This option only applies to TrueType fonts. May not be compatible with OptiFine.")
                     .define("smartSDFShaders", true);
+            mDistanceFieldText = builder.comment(
+                            "When enabled, 3D world text (signs, name tags, text displays) uses signed distance",
+                            "field glyphs generated on the CPU at a single fixed size in a separate atlas, instead of",
+                            "glyphs at a higher pixel density with mipmaps. This option only applies to TrueType fonts.")
+                    .define("distanceFieldText", true);
+            mCacheWorldTextMeshes = builder.comment(
+                            "Cache vertex data of text in 3D world (signs, name tags, text displays), so unchanged",
+                            "text is drawn by copying vertices instead of computing every glyph quad each frame.",
+                            "This uses more memory, and helps when there are many signs or holograms.")
+                    .define("cacheWorldTextMeshes", false);
+            mWorldTextProxyThreshold = builder.comment(
+                            "Text in 3D world whose font size on screen is below this value, in pixels, is drawn",
+                            "as a single quad per line instead of glyphs. Zero to disable.")
+                    .defineInRange("worldTextProxyThreshold", 3.0,
+                            WORLD_TEXT_LOD_THRESHOLD_MIN, WORLD_TEXT_LOD_THRESHOLD_MAX);
+            mWorldTextCullThreshold = builder.comment(
+                            "Text in 3D world whose font size on screen is below this value, in pixels, is not",
+                            "drawn at all. Zero to disable.")
+                    .defineInRange("worldTextCullThreshold", 1.0,
+                            WORLD_TEXT_LOD_THRESHOLD_MIN, WORLD_TEXT_LOD_THRESHOLD_MAX);
             mComputeDeviceFontSize = builder.comment(
                             "When rendering in 2D, this option allows Modern UI to exactly compute font size in " +
                                     "device-space from the current coordinate transform matrix.",
@@ -851,6 +899,18 @@ public final class ConfigImpl {
                             "false can improve performance. If either of the above two is false or Shaders are active,",
                             "then setting this to true can improve readability.")
                     .define("linearSamplingA8Atlas", false);
+            mGlyphDiskCacheSize = builder.comment(
+                            "Max size in megabytes of the on-disk cache of rasterized glyphs in the game directory,",
+                            "which is reused across game sessions to avoid rasterizing the same glyphs again.",
+                            "Off by default, set to a positive value to enable.")
+                    .defineInRange("glyphDiskCacheSize", 0,
+                            GLYPH_DISK_CACHE_SIZE_MIN, GLYPH_DISK_CACHE_SIZE_MAX);
+            mGlyphPrewarmLimit = builder.comment(
+                            "Max number of characters used by the current language to rasterize in the background",
+                            "when resources are reloaded, in addition to ASCII, so that the first frames after",
+                            "loading do not stall. Set to 0 to disable.")
+                    .defineInRange("glyphPrewarmLimit", 1024,
+                            GLYPH_PREWARM_LIMIT_MIN, GLYPH_PREWARM_LIMIT_MAX);
             /*mLinearSampling = builder.comment(
                             "Enable linear sampling for font atlases with mipmaps, mag filter will be always NEAREST.",
                             "If your fonts are not bitmap fonts, then you should keep this setting true.")
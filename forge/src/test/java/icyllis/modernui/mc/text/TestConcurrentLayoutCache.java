@@ -0,0 +1,153 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2024 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.Style;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput and hit rate of the shared layout cache, looking up layouts
+ * through a real {@link TextLayoutEngine} from 1 to 16 non-render threads, with
+ * {@link VanillaLayoutKey} and {@link FormattedLayoutKey}. Keys follow a Zipf-like
+ * distribution, as text measured by mods (item names, tooltips) is heavily skewed.
+ * Misses are laid out by pooled processors, the cache holds about 1/16 of the keys.
+ * The hit rate of each iteration is logged.
+ */
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TestConcurrentLayoutCache {
+
+    public static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int KEY_COUNT = 1 << 14;
+    public static final int SAMPLE_COUNT = 1 << 20;
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16}) {
+            new Runner(new OptionsBuilder()
+                    .include(TestConcurrentLayoutCache.class.getSimpleName())
+                    .threads(threads)
+                    .shouldFailOnError(true).shouldDoGC(true)
+                    .build())
+                    .run();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        public final String[] mTexts = new String[KEY_COUNT];
+        public final Component[] mComponents = new Component[KEY_COUNT];
+        public final int[] mSamples = new int[SAMPLE_COUNT];
+        public TextLayoutEngine mEngine;
+
+        private long mHitCount;
+        private long mMissCount;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                mTexts[i] = "Item Name #" + i;
+                mComponents[i] = Component.literal("Item Name #" + i)
+                        .withStyle(ChatFormatting.AQUA);
+            }
+            // approximate Zipf (s = 1) by inverse transform sampling
+            SplittableRandom random = new SplittableRandom(7);
+            double norm = Math.log(KEY_COUNT) + 0.5772;
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                double u = random.nextDouble() * norm;
+                mSamples[i] = Math.min((int) Math.exp(u), KEY_COUNT) - 1;
+            }
+            mEngine = new TextLayoutEngine();
+            // weigh a few layouts, then allow about 1/16 of the key space
+            ConcurrentLayoutCache cache = mEngine.getSharedCache();
+            for (int i = 0; i < 256; i++) {
+                mEngine.lookupVanillaLayout(mTexts[i], Style.EMPTY, 0);
+                mEngine.lookupFormattedLayout(mComponents[i], Style.EMPTY, 0);
+            }
+            long weight = cache.weightedSize() / Math.max(cache.size(), 1);
+            cache.clear();
+            cache.setMaximum(weight * KEY_COUNT / 16);
+        }
+
+        @Setup(Level.Iteration)
+        public void resetCounts() {
+            ConcurrentLayoutCache cache = mEngine.getSharedCache();
+            mHitCount = cache.getHitCount();
+            mMissCount = cache.getMissCount();
+        }
+
+        @TearDown(Level.Iteration)
+        public void logHitRate() {
+            ConcurrentLayoutCache cache = mEngine.getSharedCache();
+            long hits = cache.getHitCount() - mHitCount;
+            long misses = cache.getMissCount() - mMissCount;
+            LOGGER.info("Hit rate: {}% ({} hits, {} misses), {} entries",
+                    String.format("%.2f", hits * 100.0 / Math.max(hits + misses, 1)),
+                    hits, misses, cache.size());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            mEngine.getSharedCache().clear();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int mIndex;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            mIndex = (int) (Thread.currentThread().threadId() * 7919) & (SAMPLE_COUNT - 1);
+        }
+
+        int next(Shared shared) {
+            int key = shared.mSamples[mIndex];
+            mIndex = (mIndex + 1) & (SAMPLE_COUNT - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public TextLayout vanilla(Shared shared, Cursor cursor) {
+        return shared.mEngine.lookupVanillaLayout(shared.mTexts[cursor.next(shared)],
+                Style.EMPTY, 0);
+    }
+
+    @Benchmark
+    public TextLayout formatted(Shared shared, Cursor cursor) {
+        return shared.mEngine.lookupFormattedLayout(shared.mComponents[cursor.next(shared)],
+                Style.EMPTY, 0);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import com.mojang.blaze3d.vertex.*;
+import net.minecraft.client.renderer.LightTexture;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares emitting glyph quads through {@link GlyphQuadBatch} against transforming
+ * each vertex with {@link VertexConsumer#addVertex(Matrix4f, float, float, float)},
+ * for 10, 100 and 1000 glyphs. The matrix is a world text transform (translated,
+ * rotated to face the camera and scaled down, as for name tags), vertices are written
+ * into a real BufferBuilder in the text vertex format.
+ */
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class TestGlyphQuadBatch {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TestGlyphQuadBatch.class.getSimpleName())
+                .shouldFailOnError(true).shouldDoGC(true)
+                .build())
+                .run();
+    }
+
+    @Param({"10", "100", "1000"})
+    public int mGlyphCount;
+
+    private final Matrix4f mMatrix = new Matrix4f()
+            .translation(2.5f, 1.8f, -6.0f)
+            .rotateY(0.6f)
+            .rotateX(-0.2f)
+            .scale(0.025f, -0.025f, 0.025f);
+    private final GlyphQuadBatch mBatch = new GlyphQuadBatch();
+
+    // left, top, right, bottom, u1, v1, u2, v2 of each glyph
+    private float[] mGlyphs;
+    private int[] mColors;
+
+    private ByteBufferBuilder mBuffer;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(7);
+        mGlyphs = new float[mGlyphCount * 8];
+        mColors = new int[mGlyphCount];
+        float x = 0;
+        for (int i = 0; i < mGlyphCount; i++) {
+            float w = 4 + random.nextInt(4);
+            float u = random.nextInt(64) / 64f;
+            float v = random.nextInt(64) / 64f;
+            int j = i * 8;
+            mGlyphs[j] = x;
+            mGlyphs[j + 1] = -7;
+            mGlyphs[j + 2] = x + w;
+            mGlyphs[j + 3] = 2;
+            mGlyphs[j + 4] = u;
+            mGlyphs[j + 5] = v;
+            mGlyphs[j + 6] = u + 1 / 128f;
+            mGlyphs[j + 7] = v + 1 / 128f;
+            mColors[i] = 0xFF000000 | random.nextInt(0x1000000);
+            x += w + 1;
+        }
+        // large enough for 1000 glyphs, never grows
+        mBuffer = new ByteBufferBuilder(1 << 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mBuffer.close();
+    }
+
+    @Benchmark
+    public void perVertex() {
+        BufferBuilder builder = begin();
+        final Matrix4f matrix = mMatrix;
+        final float[] glyphs = mGlyphs;
+        final int light = LightTexture.FULL_BRIGHT;
+        for (int i = 0; i < mGlyphCount; i++) {
+            int j = i * 8;
+            float l = glyphs[j], t = glyphs[j + 1], r = glyphs[j + 2], b = glyphs[j + 3];
+            float u1 = glyphs[j + 4], v1 = glyphs[j + 5], u2 = glyphs[j + 6], v2 = glyphs[j + 7];
+            int color = mColors[i];
+            builder.addVertex(matrix, l, t, 0).setColor(color).setUv(u1, v1).setLight(light);
+            builder.addVertex(matrix, l, b, 0).setColor(color).setUv(u1, v2).setLight(light);
+            builder.addVertex(matrix, r, b, 0).setColor(color).setUv(u2, v2).setLight(light);
+            builder.addVertex(matrix, r, t, 0).setColor(color).setUv(u2, v1).setLight(light);
+        }
+        end(builder);
+    }
+
+    @Benchmark
+    public void batched() {
+        BufferBuilder builder = begin();
+        final GlyphQuadBatch batch = mBatch;
+        final float[] glyphs = mGlyphs;
+        for (int i = 0; i < mGlyphCount; i++) {
+            int j = i * 8;
+            batch.add(glyphs[j], glyphs[j + 1], glyphs[j + 2], glyphs[j + 3], 0,
+                    0, 0, mColors[i],
+                    glyphs[j + 4], glyphs[j + 5], glyphs[j + 6], glyphs[j + 7]);
+        }
+        batch.flush(mMatrix, builder, LightTexture.FULL_BRIGHT, null);
+        end(builder);
+    }
+
+    private BufferBuilder begin() {
+        return new BufferBuilder(mBuffer, VertexFormat.Mode.QUADS,
+                DefaultVertexFormat.POSITION_COLOR_TEX_LIGHTMAP);
+    }
+
+    private static void end(BufferBuilder builder) {
+        // release the vertices, so the buffer is reused by the next invocation
+        MeshData data = builder.build();
+        if (data != null) {
+            data.close();
+        }
+    }
+}
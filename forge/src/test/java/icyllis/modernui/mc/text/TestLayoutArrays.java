@@ -0,0 +1,144 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2024 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.modernui.graphics.text.Font;
+import icyllis.modernui.text.TextUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.github.jamm.MemoryMeter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the retained size of decoded layout arrays against the packed encoding
+ * with jamm, and the cost of decoding a trimmed layout again. Layouts are synthetic,
+ * so no fonts need to be loaded, but shaped like vanilla GUI text at GUI scale 2:
+ * whole-pixel advances from the default bitmap font, no glyphs for spaces, zero y
+ * offsets and a single style run. The weight reported by {@link TextLayout#getMemorySize()}
+ * is logged next to the measured size.
+ */
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class TestLayoutArrays {
+
+    public static final Logger LOGGER = LogManager.getLogger();
+
+    public static final String[] TEXTS = {
+            "Diamond Sword",
+            "When in Main Hand:",
+            " 7 Attack Damage",
+            " 1.6 Attack Speed",
+            "minecraft:diamond_sword",
+            "The quick brown fox jumps over the lazy dog",
+            "<Steve> has made the advancement [Stone Age]",
+    };
+
+    public static final int RES_LEVEL = 2;
+
+    public static void main(String[] args) throws RunnerException {
+        MemoryMeter meter = MemoryMeter.builder().build();
+        LayoutArrays[] decoded = new LayoutArrays[TEXTS.length];
+        int[][] packed = new int[TEXTS.length][];
+        long decodedWeight = 0;
+        long packedWeight = 0;
+        for (int i = 0; i < TEXTS.length; i++) {
+            TextLayout layout = create(TEXTS[i]);
+            decoded[i] = layout.getArrays();
+            decodedWeight += layout.getMemorySize();
+            layout.pack();
+            layout.trim();
+            packed[i] = decoded[i].pack(RES_LEVEL);
+            packedWeight += layout.getMemorySize();
+        }
+        LOGGER.info("Decoded: {}, weight {}", TextUtils.binaryCompact(meter.measureDeep(decoded)),
+                TextUtils.binaryCompact(decodedWeight));
+        LOGGER.info("Packed: {}, weight {}", TextUtils.binaryCompact(meter.measureDeep(packed)),
+                TextUtils.binaryCompact(packedWeight));
+
+        new Runner(new OptionsBuilder()
+                .include(TestLayoutArrays.class.getSimpleName())
+                .shouldFailOnError(true).shouldDoGC(true)
+                .build())
+                .run();
+    }
+
+    static TextLayout create(String text) {
+        int n = text.length();
+        char[] textBuf = text.toCharArray();
+        int glyphCount = 0;
+        for (char c : textBuf) {
+            if (c != ' ') {
+                glyphCount++;
+            }
+        }
+        int[] glyphs = new int[glyphCount];
+        float[] positions = new float[glyphCount << 1];
+        float[] advances = new float[n];
+        int[] flags = new int[glyphCount];
+        float x = 0;
+        for (int i = 0, j = 0; i < n; i++) {
+            char c = textBuf[i];
+            float advance = getAdvance(c);
+            if (c != ' ') {
+                glyphs[j] = c;
+                positions[j << 1] = x;
+                flags[j] = CharacterStyle.IMPLICIT_COLOR_MASK;
+                j++;
+            }
+            advances[i] = advance;
+            x += advance;
+        }
+        return new TextLayout(textBuf, glyphs, positions, null, new Font[0],
+                advances, flags, null, x, null, false, RES_LEVEL, 0);
+    }
+
+    // advances of the default bitmap font in GUI pixels, including the 1px gap
+    static float getAdvance(char c) {
+        return switch (c) {
+            case 'i', '!', '.', ',', ':', ';', '\'', '|' -> 2;
+            case 'l', '`' -> 3;
+            case ' ', 'I', 't', '[', ']', '(', ')', '"', '*' -> 4;
+            case 'f', 'k', '<', '>', '{', '}' -> 5;
+            case '@', '~' -> 7;
+            default -> 6;
+        };
+    }
+
+    private final LayoutArrays mDecoded = create(TEXTS[5]).getArrays();
+    private final int[] mPacked = mDecoded.pack(RES_LEVEL);
+
+    @Benchmark
+    public int[] pack() {
+        return mDecoded.pack(RES_LEVEL);
+    }
+
+    @Benchmark
+    public LayoutArrays unpack() {
+        return LayoutArrays.unpack(mPacked, RES_LEVEL);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2024 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import net.minecraft.network.chat.Style;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures off-render-thread lookups of a real {@link TextLayoutEngine} from N threads,
+ * each of them acquires a pooled {@link TextLayoutProcessor}. When the shared cache is
+ * disabled, every lookup lays out the text, which is compared against creating a new
+ * processor per layout. Fonts are not loaded from resource packs, the selected typeface
+ * is used. Run with the GC profiler, the pooled lookups should allocate only the
+ * resulting layouts.
+ */
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TestProcessorPool {
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16}) {
+            new Runner(new OptionsBuilder()
+                    .include(TestProcessorPool.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler("gc")
+                    .shouldFailOnError(true).shouldDoGC(true)
+                    .build())
+                    .run();
+        }
+    }
+
+    public static final String[] TEXTS = {
+            "Diamond Sword",
+            "When in Main Hand:",
+            " 7 Attack Damage",
+            " 1.6 Attack Speed",
+            "minecraft:diamond_sword",
+            "The quick brown fox jumps over the lazy dog",
+    };
+
+    /**
+     * If false, the shared cache keeps nothing, so that each lookup is laid out.
+     */
+    @Param({"false", "true"})
+    public boolean mCached;
+
+    private TextLayoutEngine mEngine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mEngine = new TextLayoutEngine();
+        if (!mCached) {
+            mEngine.getSharedCache().setMaximum(0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mEngine.getSharedCache().clear();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int mIndex;
+    }
+
+    @Benchmark
+    public TextLayout lookup(Cursor cursor) {
+        String text = TEXTS[cursor.mIndex++ % TEXTS.length];
+        return mEngine.lookupVanillaLayout(text, Style.EMPTY, 0);
+    }
+
+    @Benchmark
+    public TextLayout unpooled(Cursor cursor) {
+        String text = TEXTS[cursor.mIndex++ % TEXTS.length];
+        return new TextLayoutProcessor(mEngine).createVanillaLayout(text, Style.EMPTY,
+                mEngine.getResLevel(), 0);
+    }
+}